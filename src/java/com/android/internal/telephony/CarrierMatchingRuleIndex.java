@@ -0,0 +1,220 @@
+/*
+ * Copyright 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.internal.telephony;
+
+import com.android.internal.telephony.CarrierResolver.CarrierMatchingRule;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Index of the carrier matching rules of an MCCMNC, used to find the rules which may match a
+ * subscription without scoring all of them.
+ *
+ * Each rule is indexed by the first of its attributes which must match the subscription: IMSI
+ * prefix pattern, ICCID prefix, GID1, GID2 or SPN, in this order. Rules without any of them are
+ * candidates for every subscription. A rule which is not a candidate is guaranteed not to match,
+ * candidates still have to be scored with {@link CarrierMatchingRule#match}.
+ */
+class CarrierMatchingRuleIndex {
+    private final List<CarrierMatchingRule> mRules;
+
+    private final PrefixTrie mImsiPrefixRules = new PrefixTrie(true /* xWildcard */);
+    private final PrefixTrie mIccidPrefixRules = new PrefixTrie(false /* xWildcard */);
+    // keyed by lower case gid, which matches any gid from the sim starting with it.
+    private final HashMap<String, List<Integer>> mGid1Rules = new HashMap<>();
+    private final HashMap<String, List<Integer>> mGid2Rules = new HashMap<>();
+    private int mMaxGidLength = 0;
+    // keyed by case folded spn
+    private final HashMap<String, List<Integer>> mSpnRules = new HashMap<>();
+    private final List<Integer> mOtherRules = new ArrayList<>();
+
+    // scratch space for the candidate positions, rules are only resolved on the handler thread.
+    private final int[] mCandidates;
+
+    CarrierMatchingRuleIndex(List<CarrierMatchingRule> rules) {
+        mRules = rules;
+        mCandidates = new int[rules.size()];
+        for (int i = 0; i < rules.size(); i++) {
+            CarrierMatchingRule rule = rules.get(i);
+            if (!isEmpty(rule.imsiPrefixPattern)) {
+                mImsiPrefixRules.add(rule.imsiPrefixPattern, i);
+            } else if (!isEmpty(rule.iccidPrefix)) {
+                mIccidPrefixRules.add(rule.iccidPrefix, i);
+            } else if (!isEmpty(rule.gid1)) {
+                addGid(mGid1Rules, rule.gid1, i);
+            } else if (!isEmpty(rule.gid2)) {
+                addGid(mGid2Rules, rule.gid2, i);
+            } else if (rule.spn != null) {
+                add(mSpnRules, foldCase(rule.spn), i);
+            } else {
+                mOtherRules.add(i);
+            }
+        }
+    }
+
+    /**
+     * Returns the rules which may match the subscription, in the order they were indexed so that
+     * ties are broken as when scoring all rules.
+     */
+    List<CarrierMatchingRule> getCandidates(CarrierMatchingRule subscriptionRule) {
+        int count = 0;
+        if (subscriptionRule.imsiPrefixPattern != null) {
+            count = mImsiPrefixRules.find(subscriptionRule.imsiPrefixPattern, mCandidates, count);
+        }
+        if (subscriptionRule.iccidPrefix != null) {
+            count = mIccidPrefixRules.find(subscriptionRule.iccidPrefix, mCandidates, count);
+        }
+        count = findGid(mGid1Rules, subscriptionRule.gid1, count);
+        count = findGid(mGid2Rules, subscriptionRule.gid2, count);
+        if (subscriptionRule.spn != null) {
+            count = copy(mSpnRules.get(foldCase(subscriptionRule.spn)), mCandidates, count);
+        }
+        count = copy(mOtherRules, mCandidates, count);
+
+        Arrays.sort(mCandidates, 0, count);
+        List<CarrierMatchingRule> candidates = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            candidates.add(mRules.get(mCandidates[i]));
+        }
+        return candidates;
+    }
+
+    int size() {
+        return mRules.size();
+    }
+
+    private void addGid(HashMap<String, List<Integer>> map, String gid, int position) {
+        String key = gid.toLowerCase();
+        add(map, key, position);
+        mMaxGidLength = Math.max(mMaxGidLength, key.length());
+    }
+
+    // Looks up every prefix of the gid from the sim, as gids are matched by prefix.
+    private int findGid(HashMap<String, List<Integer>> map, String gidFromSim, int count) {
+        if (gidFromSim == null || map.isEmpty()) {
+            return count;
+        }
+        String gid = gidFromSim.toLowerCase();
+        int maxLength = Math.min(gid.length(), mMaxGidLength);
+        for (int length = 1; length <= maxLength; length++) {
+            count = copy(map.get(gid.substring(0, length)), mCandidates, count);
+        }
+        return count;
+    }
+
+    private static void add(HashMap<String, List<Integer>> map, String key, int position) {
+        List<Integer> positions = map.get(key);
+        if (positions == null) {
+            positions = new ArrayList<>();
+            map.put(key, positions);
+        }
+        positions.add(position);
+    }
+
+    private static int copy(List<Integer> positions, int[] out, int count) {
+        if (positions != null) {
+            for (int i = 0; i < positions.size(); i++) {
+                out[count++] = positions.get(i);
+            }
+        }
+        return count;
+    }
+
+    // Two strings are equal ignoring case iff their case folded forms are equal, following
+    // String#equalsIgnoreCase.
+    private static String foldCase(String s) {
+        char[] chars = s.toCharArray();
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = Character.toLowerCase(Character.toUpperCase(chars[i]));
+        }
+        return new String(chars);
+    }
+
+    private static boolean isEmpty(String s) {
+        return s == null || s.isEmpty();
+    }
+
+    /**
+     * Trie of prefixes, where 'x' or 'X' in an IMSI prefix pattern matches any character.
+     */
+    private static final class PrefixTrie {
+        private final boolean mXWildcard;
+        private final Node mRoot = new Node();
+
+        private static final class Node {
+            HashMap<Character, Node> children;
+            Node wildcard;
+            List<Integer> positions;
+        }
+
+        PrefixTrie(boolean xWildcard) {
+            mXWildcard = xWildcard;
+        }
+
+        void add(String prefix, int position) {
+            Node node = mRoot;
+            for (int i = 0; i < prefix.length(); i++) {
+                char c = prefix.charAt(i);
+                Node child;
+                if (mXWildcard && (c == 'x' || c == 'X')) {
+                    if (node.wildcard == null) {
+                        node.wildcard = new Node();
+                    }
+                    child = node.wildcard;
+                } else {
+                    if (node.children == null) {
+                        node.children = new HashMap<>();
+                    }
+                    child = node.children.get(c);
+                    if (child == null) {
+                        child = new Node();
+                        node.children.put(c, child);
+                    }
+                }
+                node = child;
+            }
+            if (node.positions == null) {
+                node.positions = new ArrayList<>();
+            }
+            node.positions.add(position);
+        }
+
+        // Copies the positions of all prefixes of value into out.
+        int find(String value, int[] out, int count) {
+            return find(mRoot, value, 0, out, count);
+        }
+
+        private int find(Node node, String value, int index, int[] out, int count) {
+            count = copy(node.positions, out, count);
+            if (index == value.length()) {
+                return count;
+            }
+            if (node.children != null) {
+                Node child = node.children.get(value.charAt(index));
+                if (child != null) {
+                    count = find(child, value, index + 1, out, count);
+                }
+            }
+            if (node.wildcard != null) {
+                count = find(node.wildcard, value, index + 1, out, count);
+            }
+            return count;
+        }
+    }
+}
@@ -0,0 +1,195 @@
+/*
+ * Copyright 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.internal.telephony;
+
+import static android.provider.Telephony.CarrierId;
+
+import android.annotation.NonNull;
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+import android.telephony.Rlog;
+import android.telephony.TelephonyManager;
+
+import com.android.internal.annotations.VisibleForTesting;
+import com.android.internal.telephony.CarrierResolver.CarrierMatchingRule;
+import com.android.internal.util.IndentingPrintWriter;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Process-wide cache of the carrier matching rules of the carrier id database, shared by the
+ * CarrierResolver of all phones.
+ *
+ * The rules of an MCCMNC are queried from CarrierIdProvider on first use and kept with the carrier
+ * list version they were loaded at. When the database is updated to a new version, the rules of an
+ * MCCMNC are only queried again the next time they are used, so the MCCMNCs of the inserted SIMs
+ * are reloaded once for all phones and the others are not reloaded at all.
+ */
+class CarrierMatchingRuleStore {
+    private static final String LOG_TAG = CarrierMatchingRuleStore.class.getSimpleName();
+
+    private static final CarrierMatchingRuleStore sInstance = new CarrierMatchingRuleStore();
+
+    /**
+     * Carrier matching rules of an MCCMNC, with the carrier list version they were loaded at.
+     */
+    static final class RuleSet {
+        final int version;
+        final List<CarrierMatchingRule> rules;
+
+        private RuleSet(int version, List<CarrierMatchingRule> rules) {
+            this.version = version;
+            this.rules = rules;
+        }
+    }
+
+    // rules by mccmnc
+    private final HashMap<String, RuleSet> mRuleSets = new HashMap<>();
+    // carrier list version of the database, as of the last update
+    private int mVersion = TelephonyManager.UNKNOWN_CARRIER_ID_LIST_VERSION;
+    private int mLoadCount;
+    private int mHitCount;
+
+    static CarrierMatchingRuleStore getInstance() {
+        return sInstance;
+    }
+
+    /**
+     * Returns the carrier matching rules of an MCCMNC, loading them if they are not cached or
+     * were loaded before the last database update. The rules are copies owned by the caller, as
+     * matching a rule records its score.
+     *
+     * @return the rules, or null if they could not be loaded
+     */
+    synchronized RuleSet getRules(@NonNull Context context, String mccmnc) {
+        RuleSet ruleSet = mRuleSets.get(mccmnc);
+        if (ruleSet == null || ruleSet.version != mVersion) {
+            List<CarrierMatchingRule> rules = loadRules(context, mccmnc);
+            if (rules == null) {
+                return null;
+            }
+            ruleSet = new RuleSet(mVersion, rules);
+            mRuleSets.put(mccmnc, ruleSet);
+            mLoadCount++;
+        } else {
+            mHitCount++;
+        }
+        List<CarrierMatchingRule> rules = new ArrayList<>(ruleSet.rules.size());
+        for (CarrierMatchingRule rule : ruleSet.rules) {
+            rules.add(new CarrierMatchingRule(rule));
+        }
+        return new RuleSet(ruleSet.version, rules);
+    }
+
+    /**
+     * Called when the carrier id database changed. Checks the carrier list version of the
+     * database, cached rules of an older version are reloaded on their next use.
+     *
+     * @return the carrier list version of the database
+     */
+    synchronized int onDatabaseChanged(@NonNull Context context) {
+        int version = queryVersion(context);
+        if (version == TelephonyManager.UNKNOWN_CARRIER_ID_LIST_VERSION) {
+            // the version is not known, so nothing cached can be trusted.
+            Rlog.d(LOG_TAG, "[onDatabaseChanged] unknown version, drop all rules");
+            mRuleSets.clear();
+        } else if (version != mVersion) {
+            Rlog.d(LOG_TAG, "[onDatabaseChanged] version from: " + mVersion + " to: " + version);
+        }
+        mVersion = version;
+        return version;
+    }
+
+    /**
+     * Drops all cached rules.
+     */
+    @VisibleForTesting
+    synchronized void clear() {
+        mRuleSets.clear();
+        mVersion = TelephonyManager.UNKNOWN_CARRIER_ID_LIST_VERSION;
+        mLoadCount = 0;
+        mHitCount = 0;
+    }
+
+    @VisibleForTesting
+    synchronized int getLoadCount() {
+        return mLoadCount;
+    }
+
+    private static List<CarrierMatchingRule> loadRules(Context context, String mccmnc) {
+        try {
+            Cursor cursor = context.getContentResolver().query(
+                    CarrierId.All.CONTENT_URI,
+                    /* projection */ null,
+                    /* selection */ CarrierId.All.MCCMNC + "=?",
+                    /* selectionArgs */ new String[]{mccmnc}, null);
+            try {
+                if (cursor != null) {
+                    Rlog.d(LOG_TAG, "[loadRules]- " + cursor.getCount()
+                            + " Records(s) in DB" + " mccmnc: " + mccmnc);
+                    List<CarrierMatchingRule> rules = new ArrayList<>(cursor.getCount());
+                    while (cursor.moveToNext()) {
+                        rules.add(CarrierResolver.makeCarrierMatchingRule(cursor));
+                    }
+                    return rules;
+                }
+            } finally {
+                if (cursor != null) {
+                    cursor.close();
+                }
+            }
+        } catch (Exception ex) {
+            Rlog.e(LOG_TAG, "[loadRules]- ex: " + ex);
+        }
+        return null;
+    }
+
+    private static int queryVersion(Context context) {
+        try {
+            Cursor cursor = context.getContentResolver().query(
+                    Uri.withAppendedPath(CarrierId.All.CONTENT_URI, "get_version"),
+                    null, null, null);
+            try {
+                if (cursor != null && cursor.moveToFirst()) {
+                    return cursor.getInt(0);
+                }
+            } finally {
+                if (cursor != null) {
+                    cursor.close();
+                }
+            }
+        } catch (Exception ex) {
+            Rlog.e(LOG_TAG, "[queryVersion]- ex: " + ex);
+        }
+        return TelephonyManager.UNKNOWN_CARRIER_ID_LIST_VERSION;
+    }
+
+    synchronized void dump(IndentingPrintWriter ipw) {
+        ipw.println("CarrierMatchingRuleStore: version: " + mVersion
+                + " mccmnc(s): " + mRuleSets.size()
+                + " loads: " + mLoadCount + " hits: " + mHitCount);
+        ipw.increaseIndent();
+        for (String mccmnc : mRuleSets.keySet()) {
+            RuleSet ruleSet = mRuleSets.get(mccmnc);
+            ipw.println(mccmnc + ": " + ruleSet.rules.size() + " rule(s) version: "
+                    + ruleSet.version);
+        }
+        ipw.decreaseIndent();
+    }
+}
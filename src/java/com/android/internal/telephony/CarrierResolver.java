@@ -47,6 +47,7 @@ import java.io.PrintWriter;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Objects;
 
 /**
  * CarrierResolver identifies the subscription carrier and returns a canonical carrier Id
@@ -70,6 +71,13 @@ public class CarrierResolver extends Handler {
 
     // cached matching rules based mccmnc to speed up resolution
     private List<CarrierMatchingRule> mCarrierMatchingRulesOnMccMnc = new ArrayList<>();
+    // carrier list version of mCarrierMatchingRulesOnMccMnc
+    private int mCarrierMatchingRulesVersion = TelephonyManager.UNKNOWN_CARRIER_ID_LIST_VERSION;
+    // index of mCarrierMatchingRulesOnMccMnc, null until the rules are loaded
+    private CarrierMatchingRuleIndex mCarrierMatchingRuleIndex;
+    // subscription attributes and result of the last resolution against the cached rules
+    private CarrierMatchingRule mLastSubscriptionRule;
+    private CarrierResolution mLastResolution;
     // cached carrier Id
     private int mCarrierId = TelephonyManager.UNKNOWN_CARRIER_ID;
     // cached specific carrier Id
@@ -172,6 +180,8 @@ public class CarrierResolver extends Handler {
 
     private void handleSimAbsent() {
         mCarrierMatchingRulesOnMccMnc.clear();
+        mCarrierMatchingRulesVersion = TelephonyManager.UNKNOWN_CARRIER_ID_LIST_VERSION;
+        invalidateCarrierMatchingRules();
         mSpn = null;
         mPreferApn = null;
         updateCarrierIdAndName(TelephonyManager.UNKNOWN_CARRIER_ID, null,
@@ -212,7 +222,12 @@ public class CarrierResolver extends Handler {
                 handleSimLoaded();
                 break;
             case CARRIER_ID_DB_UPDATE_EVENT:
-                loadCarrierMatchingRulesOnMccMnc();
+                // rules are shared by all phones, only reload if another phone has not yet.
+                int version = CarrierMatchingRuleStore.getInstance().onDatabaseChanged(mContext);
+                if (version == TelephonyManager.UNKNOWN_CARRIER_ID_LIST_VERSION
+                        || version != mCarrierMatchingRulesVersion) {
+                    loadCarrierMatchingRulesOnMccMnc();
+                }
                 break;
             case PREFER_APN_UPDATE_EVENT:
                 String preferApn = getPreferApn();
@@ -246,35 +261,33 @@ public class CarrierResolver extends Handler {
     }
 
     private void loadCarrierMatchingRulesOnMccMnc() {
+        String mccmnc = mTelephonyMgr.getSimOperatorNumericForPhone(mPhone.getPhoneId());
+        CarrierMatchingRuleStore.RuleSet ruleSet =
+                CarrierMatchingRuleStore.getInstance().getRules(mContext, mccmnc);
+        if (ruleSet == null) {
+            return;
+        }
+        if (VDBG) {
+            logd("[loadCarrierMatchingRules]- " + ruleSet.rules.size()
+                    + " Records(s) version: " + ruleSet.version + " mccmnc: " + mccmnc);
+        }
+        mCarrierMatchingRulesOnMccMnc = ruleSet.rules;
+        mCarrierMatchingRulesVersion = ruleSet.version;
+        invalidateCarrierMatchingRules();
+        mCarrierMatchingRuleIndex = new CarrierMatchingRuleIndex(mCarrierMatchingRulesOnMccMnc);
         try {
-            String mccmnc = mTelephonyMgr.getSimOperatorNumericForPhone(mPhone.getPhoneId());
-            Cursor cursor = mContext.getContentResolver().query(
-                    CarrierId.All.CONTENT_URI,
-                    /* projection */ null,
-                    /* selection */ CarrierId.All.MCCMNC + "=?",
-                    /* selectionArgs */ new String[]{mccmnc}, null);
-            try {
-                if (cursor != null) {
-                    if (VDBG) {
-                        logd("[loadCarrierMatchingRules]- " + cursor.getCount()
-                                + " Records(s) in DB" + " mccmnc: " + mccmnc);
-                    }
-                    mCarrierMatchingRulesOnMccMnc.clear();
-                    while (cursor.moveToNext()) {
-                        mCarrierMatchingRulesOnMccMnc.add(makeCarrierMatchingRule(cursor));
-                    }
-                    matchSubscriptionCarrier();
-                }
-            } finally {
-                if (cursor != null) {
-                    cursor.close();
-                }
-            }
+            matchSubscriptionCarrier();
         } catch (Exception ex) {
             loge("[loadCarrierMatchingRules]- ex: " + ex);
         }
     }
 
+    private void invalidateCarrierMatchingRules() {
+        mCarrierMatchingRuleIndex = null;
+        mLastSubscriptionRule = null;
+        mLastResolution = null;
+    }
+
     private String getCarrierNameFromId(int cid) {
         try {
             Cursor cursor = mContext.getContentResolver().query(
@@ -303,37 +316,6 @@ public class CarrierResolver extends Handler {
         return null;
     }
 
-    private static List<CarrierMatchingRule> getCarrierMatchingRulesFromMccMnc(
-            @NonNull Context context, String mccmnc) {
-        List<CarrierMatchingRule> rules = new ArrayList<>();
-        try {
-            Cursor cursor = context.getContentResolver().query(
-                    CarrierId.All.CONTENT_URI,
-                    /* projection */ null,
-                    /* selection */ CarrierId.All.MCCMNC + "=?",
-                    /* selectionArgs */ new String[]{mccmnc}, null);
-            try {
-                if (cursor != null) {
-                    if (VDBG) {
-                        logd("[loadCarrierMatchingRules]- " + cursor.getCount()
-                                + " Records(s) in DB" + " mccmnc: " + mccmnc);
-                    }
-                    rules.clear();
-                    while (cursor.moveToNext()) {
-                        rules.add(makeCarrierMatchingRule(cursor));
-                    }
-                }
-            } finally {
-                if (cursor != null) {
-                    cursor.close();
-                }
-            }
-        } catch (Exception ex) {
-            loge("[loadCarrierMatchingRules]- ex: " + ex);
-        }
-        return rules;
-    }
-
     private String getPreferApn() {
         // return test overrides if present
         if (!TextUtils.isEmpty(mTestOverrideApn)) {
@@ -470,7 +452,7 @@ public class CarrierResolver extends Handler {
         }
     }
 
-    private static CarrierMatchingRule makeCarrierMatchingRule(Cursor cursor) {
+    static CarrierMatchingRule makeCarrierMatchingRule(Cursor cursor) {
         String certs = cursor.getString(
                 cursor.getColumnIndexOrThrow(CarrierId.All.PRIVILEGE_ACCESS_RULE));
         return new CarrierMatchingRule(
@@ -554,7 +536,7 @@ public class CarrierResolver extends Handler {
             mParentCid = parentCid;
         }
 
-        private CarrierMatchingRule(CarrierMatchingRule rule) {
+        CarrierMatchingRule(CarrierMatchingRule rule) {
             mccMnc = rule.mccMnc;
             imsiPrefixPattern = rule.imsiPrefixPattern;
             iccidPrefix = rule.iccidPrefix;
@@ -689,6 +671,22 @@ public class CarrierResolver extends Handler {
             return false;
         }
 
+        /**
+         * Returns whether the other rule has the same matching attributes as this one, regardless
+         * of carrier id and name.
+         */
+        boolean hasSameAttributes(CarrierMatchingRule other) {
+            return Objects.equals(mccMnc, other.mccMnc)
+                    && Objects.equals(imsiPrefixPattern, other.imsiPrefixPattern)
+                    && Objects.equals(iccidPrefix, other.iccidPrefix)
+                    && Objects.equals(gid1, other.gid1)
+                    && Objects.equals(gid2, other.gid2)
+                    && Objects.equals(plmn, other.plmn)
+                    && Objects.equals(spn, other.spn)
+                    && Objects.equals(apn, other.apn)
+                    && Objects.equals(privilegeAccessRule, other.privilegeAccessRule);
+        }
+
         public String toString() {
             return "[CarrierMatchingRule] -"
                     + " mccmnc: " + mccMnc
@@ -742,6 +740,19 @@ public class CarrierResolver extends Handler {
                 TelephonyManager.UNKNOWN_CARRIER_ID);
     }
 
+    /**
+     * Result of matching a subscription against the carrier matching rules of its MCCMNC.
+     */
+    private static final class CarrierResolution {
+        // highest matching score, SCORE_INVALID if no rule matches
+        int maxScore = CarrierMatchingRule.SCORE_INVALID;
+        // the specific carrier rule and its parent, which is the same rule if it has no parent.
+        CarrierMatchingRule maxRule;
+        CarrierMatchingRule maxRuleParent;
+        // matching rule with mccmnc only
+        CarrierMatchingRule mnoRule;
+    }
+
     /**
      * find the best matching carrier from candidates with matched subscription MCCMNC.
      */
@@ -750,39 +761,21 @@ public class CarrierResolver extends Handler {
             logd("[matchSubscriptionCarrier]" + "skip before sim records loaded");
             return;
         }
-        int maxScore = CarrierMatchingRule.SCORE_INVALID;
-        /**
-         * For child-parent relationship. either child and parent have the same matching
-         * score, or child's matching score > parents' matching score.
-         */
-        CarrierMatchingRule maxRule = null;
-        CarrierMatchingRule maxRuleParent = null;
-        /**
-         * matching rule with mccmnc only. If mnoRule is found, then mno carrier id equals to the
-         * cid from mnoRule. otherwise, mno carrier id is same as cid.
-         */
-        CarrierMatchingRule mnoRule = null;
         CarrierMatchingRule subscriptionRule = getSubscriptionMatchingRule();
-
-        for (CarrierMatchingRule rule : mCarrierMatchingRulesOnMccMnc) {
-            rule.match(subscriptionRule);
-            if (rule.mScore > maxScore) {
-                maxScore = rule.mScore;
-                maxRule = rule;
-                maxRuleParent = rule;
-            } else if (maxScore > CarrierMatchingRule.SCORE_INVALID && rule.mScore == maxScore) {
-                // to handle the case that child parent has the same matching score, we need to
-                // differentiate who is child who is parent.
-                if (rule.mParentCid == maxRule.mCid) {
-                    maxRule = rule;
-                } else if (maxRule.mParentCid == rule.mCid) {
-                    maxRuleParent = rule;
-                }
-            }
-            if (rule.mScore == CarrierMatchingRule.SCORE_MCCMNC) {
-                mnoRule = rule;
-            }
+        // the rules only change on reload, which drops the last resolution.
+        CarrierResolution resolution = mLastResolution;
+        if (resolution == null || !subscriptionRule.hasSameAttributes(mLastSubscriptionRule)) {
+            resolution = resolveCarrier(subscriptionRule);
+            mLastSubscriptionRule = subscriptionRule;
+            mLastResolution = resolution;
+        } else if (VDBG) {
+            logd("[matchSubscriptionCarrier] subscription unchanged, reuse last resolution");
         }
+        int maxScore = resolution.maxScore;
+        CarrierMatchingRule maxRule = resolution.maxRule;
+        CarrierMatchingRule maxRuleParent = resolution.maxRuleParent;
+        CarrierMatchingRule mnoRule = resolution.mnoRule;
+
         if (maxScore == CarrierMatchingRule.SCORE_INVALID) {
             logd("[matchSubscriptionCarrier - no match] cid: " + TelephonyManager.UNKNOWN_CARRIER_ID
                     + " name: " + null);
@@ -790,13 +783,6 @@ public class CarrierResolver extends Handler {
                     TelephonyManager.UNKNOWN_CARRIER_ID, null,
                     TelephonyManager.UNKNOWN_CARRIER_ID);
         } else {
-            // if there is a single matching result, check if this rule has parent cid assigned.
-            if ((maxRule == maxRuleParent)
-                    && maxRule.mParentCid != TelephonyManager.UNKNOWN_CARRIER_ID) {
-                maxRuleParent = new CarrierMatchingRule(maxRule);
-                maxRuleParent.mCid = maxRuleParent.mParentCid;
-                maxRuleParent.mName = getCarrierNameFromId(maxRuleParent.mCid);
-            }
             logd("[matchSubscriptionCarrier] specific cid: " + maxRule.mCid
                     + " specific name: " + maxRule.mName +" cid: " + maxRuleParent.mCid
                     + " name: " + maxRuleParent.mName);
@@ -853,6 +839,66 @@ public class CarrierResolver extends Handler {
                 unknownMccmncToLog, unknownGid1ToLog, simInfo);
     }
 
+    /**
+     * Scores the candidate rules of the subscription. Rules which are not candidates from
+     * {@link CarrierMatchingRuleIndex} would score invalid, the candidates are scored in the
+     * order of the rules so the result is the same as scoring all of them.
+     */
+    private CarrierResolution resolveCarrier(CarrierMatchingRule subscriptionRule) {
+        CarrierResolution resolution = new CarrierResolution();
+        int maxScore = CarrierMatchingRule.SCORE_INVALID;
+        /**
+         * For child-parent relationship. either child and parent have the same matching
+         * score, or child's matching score > parents' matching score.
+         */
+        CarrierMatchingRule maxRule = null;
+        CarrierMatchingRule maxRuleParent = null;
+        /**
+         * matching rule with mccmnc only. If mnoRule is found, then mno carrier id equals to the
+         * cid from mnoRule. otherwise, mno carrier id is same as cid.
+         */
+        CarrierMatchingRule mnoRule = null;
+        List<CarrierMatchingRule> candidates = (mCarrierMatchingRuleIndex == null)
+                ? mCarrierMatchingRulesOnMccMnc
+                : mCarrierMatchingRuleIndex.getCandidates(subscriptionRule);
+        if (VDBG) {
+            logd("[resolveCarrier] " + candidates.size() + " candidate(s) of "
+                    + mCarrierMatchingRulesOnMccMnc.size() + " rule(s)");
+        }
+
+        for (CarrierMatchingRule rule : candidates) {
+            rule.match(subscriptionRule);
+            if (rule.mScore > maxScore) {
+                maxScore = rule.mScore;
+                maxRule = rule;
+                maxRuleParent = rule;
+            } else if (maxScore > CarrierMatchingRule.SCORE_INVALID && rule.mScore == maxScore) {
+                // to handle the case that child parent has the same matching score, we need to
+                // differentiate who is child who is parent.
+                if (rule.mParentCid == maxRule.mCid) {
+                    maxRule = rule;
+                } else if (maxRule.mParentCid == rule.mCid) {
+                    maxRuleParent = rule;
+                }
+            }
+            if (rule.mScore == CarrierMatchingRule.SCORE_MCCMNC) {
+                mnoRule = rule;
+            }
+        }
+        // if there is a single matching result, check if this rule has parent cid assigned.
+        if (maxRule != null && (maxRule == maxRuleParent)
+                && maxRule.mParentCid != TelephonyManager.UNKNOWN_CARRIER_ID) {
+            maxRuleParent = new CarrierMatchingRule(maxRule);
+            maxRuleParent.mCid = maxRuleParent.mParentCid;
+            maxRuleParent.mName = getCarrierNameFromId(maxRuleParent.mCid);
+        }
+        resolution.maxScore = maxScore;
+        resolution.maxRule = maxRule;
+        resolution.maxRuleParent = maxRuleParent;
+        resolution.mnoRule = mnoRule;
+        return resolution;
+    }
+
     public int getCarrierListVersion() {
         final Cursor cursor = mContext.getContentResolver().query(
                 Uri.withAppendedPath(CarrierId.All.CONTENT_URI,
@@ -924,9 +970,12 @@ public class CarrierResolver extends Handler {
 
         int carrierId = TelephonyManager.UNKNOWN_CARRIER_ID;
         int maxScore = CarrierMatchingRule.SCORE_INVALID;
-        List<CarrierMatchingRule> rules = getCarrierMatchingRulesFromMccMnc(
-                context, targetRule.mccMnc);
-        for (CarrierMatchingRule rule : rules) {
+        CarrierMatchingRuleStore.RuleSet ruleSet = CarrierMatchingRuleStore.getInstance()
+                .getRules(context, targetRule.mccMnc);
+        if (ruleSet == null) {
+            return carrierId;
+        }
+        for (CarrierMatchingRule rule : ruleSet.rules) {
             rule.match(targetRule);
             if (rule.mScore > maxScore) {
                 maxScore = rule.mScore;
@@ -1066,6 +1115,7 @@ public class CarrierResolver extends Handler {
 
         ipw.println("mSpn: " + mSpn);
         ipw.println("mPreferApn: " + mPreferApn);
+        CarrierMatchingRuleStore.getInstance().dump(ipw);
         ipw.flush();
     }
 }
@@ -24,11 +24,11 @@ import android.os.Binder;
 import android.os.Handler;
 import android.os.Message;
 import android.os.RemoteException;
+import android.os.SystemClock;
 import android.service.carrier.CarrierMessagingService;
 import android.service.carrier.ICarrierMessagingCallback;
 import android.service.carrier.ICarrierMessagingService;
 import android.service.carrier.MessagePdu;
-import android.telephony.CarrierMessagingServiceManager;
 import android.telephony.Rlog;
 import android.util.LocalLog;
 
@@ -45,7 +45,9 @@ import java.util.Set;
 
 /**
  * Filters incoming SMS with carrier services.
- * <p> A new instance must be created for filtering each message.
+ * <p> A new instance must be created for filtering each message. The message is sent to all the
+ * filter services at once, using the bindings in {@link CarrierSmsFilterBindings} that are kept
+ * between messages.
  */
 public class CarrierServicesSmsFilter {
     protected static final boolean DBG = true;
@@ -64,6 +66,7 @@ public class CarrierServicesSmsFilter {
     private final String mLogTag;
     private final CallbackTimeoutHandler mCallbackTimeoutHandler;
     private final LocalLog mLocalLog;
+    private final CarrierSmsFilterBindings mBindings;
     private FilterAggregator mFilterAggregator;
 
     @VisibleForTesting
@@ -75,7 +78,8 @@ public class CarrierServicesSmsFilter {
             String pduFormat,
             CarrierServicesSmsFilterCallbackInterface carrierServicesSmsFilterCallback,
             String logTag,
-            LocalLog localLog) {
+            LocalLog localLog,
+            CarrierSmsFilterBindings bindings) {
         mContext = context;
         mPhone = phone;
         mPdus = pdus;
@@ -85,6 +89,7 @@ public class CarrierServicesSmsFilter {
         mLogTag = logTag;
         mCallbackTimeoutHandler = new CallbackTimeoutHandler();
         mLocalLog = localLog;
+        mBindings = bindings;
     }
 
     /**
@@ -109,6 +114,7 @@ public class CarrierServicesSmsFilter {
             throw new RuntimeException(errMsg);
         }
 
+        mBindings.setLastPackages(smsFilterPackages);
         int numPackages = smsFilterPackages.size();
         if (numPackages > 0) {
             mFilterAggregator = new FilterAggregator(numPackages);
@@ -155,12 +161,14 @@ public class CarrierServicesSmsFilter {
     }
 
     private void filterWithPackage(String packageName, FilterAggregator filterAggregator) {
-        CarrierSmsFilter smsFilter = new CarrierSmsFilter(mPdus, mDestPort, mPduFormat);
         CarrierSmsFilterCallback smsFilterCallback =
-                new CarrierSmsFilterCallback(filterAggregator, smsFilter);
+                new CarrierSmsFilterCallback(filterAggregator, packageName);
         filterAggregator.addToCallbacks(smsFilterCallback);
 
-        smsFilter.filterSms(packageName, smsFilterCallback);
+        CarrierSmsFilter smsFilter =
+                new CarrierSmsFilter(mPdus, mDestPort, mPduFormat, smsFilterCallback);
+        smsFilterCallback.mSmsFilter = smsFilter;
+        mBindings.execute(packageName, smsFilter);
     }
 
     private List<String> getSystemAppForIntent(Intent intent) {
@@ -205,35 +213,21 @@ public class CarrierServicesSmsFilter {
     }
 
     /**
-     * Asynchronously binds to the carrier messaging service, and filters out the message if
-     * instructed to do so by the carrier messaging service. A new instance must be used for every
-     * message.
+     * Filters out the message if instructed to do so by the carrier messaging service, once
+     * bound. A new instance must be used for every message.
      */
-    private final class CarrierSmsFilter extends CarrierMessagingServiceManager {
+    private final class CarrierSmsFilter implements CarrierSmsFilterBindings.ServiceRequest {
         private final byte[][] mPdus;
         private final int mDestPort;
         private final String mSmsFormat;
-        // Instantiated in filterSms.
-        private volatile CarrierSmsFilterCallback mSmsFilterCallback;
+        private final CarrierSmsFilterCallback mSmsFilterCallback;
 
-        CarrierSmsFilter(byte[][] pdus, int destPort, String smsFormat) {
+        CarrierSmsFilter(byte[][] pdus, int destPort, String smsFormat,
+                CarrierSmsFilterCallback smsFilterCallback) {
             mPdus = pdus;
             mDestPort = destPort;
             mSmsFormat = smsFormat;
-        }
-
-        /**
-         * Attempts to bind to a {@link ICarrierMessagingService}. Filtering is initiated
-         * asynchronously once the service is ready using {@link #onServiceReady}.
-         */
-        void filterSms(String carrierPackageName, CarrierSmsFilterCallback smsFilterCallback) {
             mSmsFilterCallback = smsFilterCallback;
-            if (!bindToCarrierMessagingService(mContext, carrierPackageName)) {
-                loge("bindService() for carrier messaging service failed");
-                smsFilterCallback.onFilterComplete(CarrierMessagingService.RECEIVE_OPTIONS_DEFAULT);
-            } else {
-                logv("bindService() for carrier messaging service succeeded");
-            }
         }
 
         /**
@@ -241,33 +235,37 @@ public class CarrierServicesSmsFilter {
          * delivered to {@code smsFilterCallback}.
          */
         @Override
-        protected void onServiceReady(ICarrierMessagingService carrierMessagingService) {
-            try {
-                log("onServiceReady: calling filterSms");
-                carrierMessagingService.filterSms(
-                        new MessagePdu(Arrays.asList(mPdus)), mSmsFormat, mDestPort,
-                        mPhone.getSubId(), mSmsFilterCallback);
-            } catch (RemoteException e) {
-                loge("Exception filtering the SMS: " + e);
-                mSmsFilterCallback.onFilterComplete(
-                        CarrierMessagingService.RECEIVE_OPTIONS_DEFAULT);
-            }
+        public void onServiceReady(ICarrierMessagingService carrierMessagingService)
+                throws RemoteException {
+            log("onServiceReady: calling filterSms");
+            carrierMessagingService.filterSms(
+                    new MessagePdu(Arrays.asList(mPdus)), mSmsFormat, mDestPort,
+                    mPhone.getSubId(), mSmsFilterCallback);
+        }
+
+        @Override
+        public void onServiceUnavailable() {
+            loge("Unable to filter the SMS with " + mSmsFilterCallback.mPackageName);
+            mSmsFilterCallback.onFilterComplete(CarrierMessagingService.RECEIVE_OPTIONS_DEFAULT);
         }
     }
 
     /**
-     * A callback used to notify the platform of the carrier messaging app filtering result. Once
-     * the result is ready, the carrier messaging service connection is disposed.
+     * A callback used to notify the platform of the carrier messaging app filtering result. The
+     * carrier messaging service connection is kept for the following messages.
      */
     private final class CarrierSmsFilterCallback extends ICarrierMessagingCallback.Stub {
         private final FilterAggregator mFilterAggregator;
-        private final CarrierMessagingServiceManager mCarrierMessagingServiceManager;
+        private final String mPackageName;
+        private final long mStartTime;
         private boolean mIsOnFilterCompleteCalled;
+        // The request completed by this callback
+        private CarrierSmsFilter mSmsFilter;
 
-        CarrierSmsFilterCallback(FilterAggregator filterAggregator,
-                CarrierMessagingServiceManager carrierMessagingServiceManager) {
+        CarrierSmsFilterCallback(FilterAggregator filterAggregator, String packageName) {
             mFilterAggregator = filterAggregator;
-            mCarrierMessagingServiceManager = carrierMessagingServiceManager;
+            mPackageName = packageName;
+            mStartTime = SystemClock.elapsedRealtime();
             mIsOnFilterCompleteCalled = false;
         }
 
@@ -281,7 +279,8 @@ public class CarrierServicesSmsFilter {
             // is run afterwards, we should not follow through
             if (!mIsOnFilterCompleteCalled) {
                 mIsOnFilterCompleteCalled = true;
-                mCarrierMessagingServiceManager.disposeConnection(mContext);
+                mBindings.onFilterComplete(mPackageName, mSmsFilter,
+                        SystemClock.elapsedRealtime() - mStartTime);
                 mFilterAggregator.onFilterComplete(result);
             }
         }
@@ -0,0 +1,351 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.RemoteException;
+import android.os.SystemClock;
+import android.service.carrier.ICarrierMessagingService;
+import android.telephony.CarrierMessagingServiceManager;
+import android.telephony.Rlog;
+import android.util.ArrayMap;
+
+import com.android.internal.annotations.VisibleForTesting;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Bindings to the carrier messaging services filtering the inbound SMS of a phone.
+ *
+ * <p>Binding to a filter service usually takes longer than filtering a message, so bindings are
+ * kept alive for {@link #KEEP_ALIVE_MILLIS} after their last request completed and reused by
+ * the following messages. A binding with requests in flight is never released, however long
+ * the service takes to filter; the requests are completed with {@link #onFilterComplete}.
+ * {@link #warmUp} binds again to the services used recently, so that they are ready by the time
+ * the next message needs to be filtered.
+ *
+ * <p>Also keeps the filter latency of each package, from the filter request to its result.
+ */
+public class CarrierSmsFilterBindings {
+    private static final String TAG = "CarrierSmsFilterBindings";
+
+    /** Time after the last filter request completed after which a binding is released. */
+    @VisibleForTesting
+    public static final long KEEP_ALIVE_MILLIS = 60 * 1000;
+
+    /** Upper bounds of the latency histogram buckets, the last bucket being unbounded. */
+    private static final long[] LATENCY_BUCKETS_MILLIS = {50, 100, 250, 500, 1000, 2500, 5000,
+            10000};
+
+    /** A request to the filter service of a package. */
+    public interface ServiceRequest {
+        /** Called on any thread once the service is bound. */
+        void onServiceReady(ICarrierMessagingService service) throws RemoteException;
+
+        /** Called if the service could not be bound. */
+        void onServiceUnavailable();
+    }
+
+    private final Context mContext;
+    private final Handler mHandler;
+
+    // Guarded by this
+    private final ArrayMap<String, Binding> mBindings = new ArrayMap<>();
+    private final ArrayMap<String, PackageStats> mStats = new ArrayMap<>();
+    private List<String> mLastPackages = new ArrayList<>();
+
+    public CarrierSmsFilterBindings(Context context, Looper looper) {
+        mContext = context;
+        mHandler = new Handler(looper);
+    }
+
+    /**
+     * Sends a request to the filter service of {@code packageName}, binding to the service
+     * first if needed.
+     */
+    public void execute(String packageName, ServiceRequest request) {
+        execute(packageName, request, true /* retryOnError */);
+    }
+
+    /**
+     * Binds to the services of the packages used by the last message, if not already bound.
+     */
+    public void warmUp() {
+        List<String> packages;
+        synchronized (this) {
+            packages = mLastPackages;
+        }
+        for (String packageName : packages) {
+            execute(packageName, null, false /* retryOnError */);
+        }
+    }
+
+    /** Releases all the bindings. */
+    public void releaseAll() {
+        List<Binding> bindings;
+        synchronized (this) {
+            bindings = new ArrayList<>(mBindings.values());
+        }
+        for (Binding binding : bindings) {
+            release(binding);
+        }
+    }
+
+    /** Sets the packages filtering the current message, for {@link #warmUp}. */
+    public synchronized void setLastPackages(List<String> packages) {
+        mLastPackages = new ArrayList<>(packages);
+    }
+
+    /**
+     * Completes a request sent with {@link #execute}, whether the service filtered the message or
+     * not, and records the time taken by {@code packageName} to filter it. The binding is released
+     * {@link #KEEP_ALIVE_MILLIS} after its last request completed.
+     */
+    public synchronized void onFilterComplete(String packageName, ServiceRequest request,
+            long latencyMillis) {
+        Binding binding = mBindings.get(packageName);
+        // The request may belong to a binding released since, e.g. after the service died.
+        if (binding != null && binding.mInFlightRequests.remove(request)
+                && binding.mInFlightRequests.isEmpty()) {
+            scheduleRelease(binding);
+        }
+
+        PackageStats stats = getStats(packageName);
+        int bucket = 0;
+        while (bucket < LATENCY_BUCKETS_MILLIS.length
+                && latencyMillis > LATENCY_BUCKETS_MILLIS[bucket]) {
+            bucket++;
+        }
+        stats.mLatencyHistogram[bucket]++;
+        stats.mFilterCount++;
+        stats.mMaxLatencyMillis = Math.max(stats.mMaxLatencyMillis, latencyMillis);
+    }
+
+    @VisibleForTesting
+    public synchronized int getBindCount(String packageName) {
+        PackageStats stats = mStats.get(packageName);
+        return stats == null ? 0 : stats.mBindCount;
+    }
+
+    @VisibleForTesting
+    public synchronized int getFilterCount(String packageName) {
+        PackageStats stats = mStats.get(packageName);
+        return stats == null ? 0 : stats.mFilterCount;
+    }
+
+    @VisibleForTesting
+    public synchronized boolean isBound(String packageName) {
+        return mBindings.containsKey(packageName);
+    }
+
+    /** Runs the keep-alive expiry of the binding to {@code packageName} now. */
+    @VisibleForTesting
+    public void expireKeepAlive(String packageName) {
+        Binding binding;
+        synchronized (this) {
+            binding = mBindings.get(packageName);
+        }
+        if (binding != null) {
+            onKeepAliveExpired(binding);
+        }
+    }
+
+    private void execute(String packageName, ServiceRequest request, boolean retryOnError) {
+        Binding binding;
+        ICarrierMessagingService service;
+        boolean bind = false;
+        synchronized (this) {
+            binding = mBindings.get(packageName);
+            if (binding == null) {
+                binding = new Binding(packageName);
+                mBindings.put(packageName, binding);
+                getStats(packageName).mBindCount++;
+                bind = true;
+            }
+            service = binding.mService;
+            if (request != null) {
+                binding.mInFlightRequests.add(request);
+                if (service == null) {
+                    binding.mPendingRequests.add(request);
+                }
+            }
+            mHandler.removeCallbacksAndMessages(binding);
+            if (binding.mInFlightRequests.isEmpty()) {
+                scheduleRelease(binding);
+            }
+        }
+
+        if (bind) {
+            // Bind outside the lock, the service may be ready before this returns.
+            if (!binding.bindToCarrierMessagingService(mContext, packageName)) {
+                Rlog.e(TAG, "bindService() for carrier messaging service failed: "
+                        + packageName);
+                for (ServiceRequest pending : remove(binding, false /* dispose */)) {
+                    pending.onServiceUnavailable();
+                }
+                return;
+            }
+        }
+        if (service != null && request != null) {
+            dispatch(binding, service, request, retryOnError);
+        }
+    }
+
+    private void dispatch(Binding binding, ICarrierMessagingService service,
+            ServiceRequest request, boolean retryOnError) {
+        try {
+            request.onServiceReady(service);
+        } catch (RemoteException e) {
+            // The service may have died since it was bound; bind to it again.
+            Rlog.e(TAG, "Exception calling " + binding.mPackageName + ": " + e);
+            for (ServiceRequest pending : remove(binding, true /* dispose */)) {
+                pending.onServiceUnavailable();
+            }
+            if (retryOnError) {
+                execute(binding.mPackageName, request, false /* retryOnError */);
+            } else {
+                request.onServiceUnavailable();
+            }
+        }
+    }
+
+    // Must hold the lock.
+    private void scheduleRelease(Binding binding) {
+        mHandler.removeCallbacksAndMessages(binding);
+        mHandler.postAtTime(() -> onKeepAliveExpired(binding), binding,
+                SystemClock.uptimeMillis() + KEEP_ALIVE_MILLIS);
+    }
+
+    private void onKeepAliveExpired(Binding binding) {
+        synchronized (this) {
+            if (mBindings.get(binding.mPackageName) != binding
+                    || !binding.mInFlightRequests.isEmpty()) {
+                // Released already, or still filtering; released once the requests complete.
+                return;
+            }
+        }
+        release(binding);
+    }
+
+    private void release(Binding binding) {
+        Rlog.d(TAG, "Releasing binding to " + binding.mPackageName);
+        for (ServiceRequest pending : remove(binding, true /* dispose */)) {
+            pending.onServiceUnavailable();
+        }
+    }
+
+    /**
+     * Removes {@code binding} if it is still in use and returns its requests waiting for the
+     * service.
+     */
+    private List<ServiceRequest> remove(Binding binding, boolean dispose) {
+        List<ServiceRequest> pending;
+        synchronized (this) {
+            if (mBindings.get(binding.mPackageName) != binding) {
+                return new ArrayList<>();
+            }
+            mBindings.remove(binding.mPackageName);
+            mHandler.removeCallbacksAndMessages(binding);
+            pending = new ArrayList<>(binding.mPendingRequests);
+            binding.mPendingRequests.clear();
+            binding.mInFlightRequests.clear();
+        }
+        if (dispose) {
+            binding.disposeConnection(mContext);
+        }
+        return pending;
+    }
+
+    private PackageStats getStats(String packageName) {
+        PackageStats stats = mStats.get(packageName);
+        if (stats == null) {
+            stats = new PackageStats();
+            mStats.put(packageName, stats);
+        }
+        return stats;
+    }
+
+    public synchronized void dump(PrintWriter pw) {
+        pw.println("CarrierSmsFilterBindings: bound=" + mBindings.keySet());
+        for (int i = 0; i < mBindings.size(); i++) {
+            pw.println("  " + mBindings.keyAt(i) + ": inFlight="
+                    + mBindings.valueAt(i).mInFlightRequests.size());
+        }
+        for (int i = 0; i < mStats.size(); i++) {
+            PackageStats stats = mStats.valueAt(i);
+            StringBuilder sb = new StringBuilder();
+            sb.append("  ").append(mStats.keyAt(i))
+                    .append(": binds=").append(stats.mBindCount)
+                    .append(" filtered=").append(stats.mFilterCount)
+                    .append(" maxLatencyMs=").append(stats.mMaxLatencyMillis)
+                    .append(" latencyMs={");
+            for (int bucket = 0; bucket < stats.mLatencyHistogram.length; bucket++) {
+                if (bucket > 0) sb.append(", ");
+                if (bucket < LATENCY_BUCKETS_MILLIS.length) {
+                    sb.append("<=").append(LATENCY_BUCKETS_MILLIS[bucket]);
+                } else {
+                    sb.append(">").append(LATENCY_BUCKETS_MILLIS[bucket - 1]);
+                }
+                sb.append(":").append(stats.mLatencyHistogram[bucket]);
+            }
+            sb.append("}");
+            pw.println(sb.toString());
+        }
+    }
+
+    /** Binding to the filter service of a package. */
+    private final class Binding extends CarrierMessagingServiceManager {
+        final String mPackageName;
+        // Guarded by CarrierSmsFilterBindings.this
+        ICarrierMessagingService mService;
+        final List<ServiceRequest> mPendingRequests = new ArrayList<>();
+        // Requests sent and not completed yet, including the pending ones
+        final List<ServiceRequest> mInFlightRequests = new ArrayList<>();
+
+        Binding(String packageName) {
+            mPackageName = packageName;
+        }
+
+        /**
+         * Called when the service is bound, and again with the new service if it restarted.
+         */
+        @Override
+        protected void onServiceReady(ICarrierMessagingService carrierMessagingService) {
+            List<ServiceRequest> pending;
+            synchronized (CarrierSmsFilterBindings.this) {
+                mService = carrierMessagingService;
+                pending = new ArrayList<>(mPendingRequests);
+                mPendingRequests.clear();
+            }
+            // The service was just bound, do not bind again if it fails.
+            for (ServiceRequest request : pending) {
+                dispatch(this, carrierMessagingService, request, false /* retryOnError */);
+            }
+        }
+    }
+
+    private static final class PackageStats {
+        int mBindCount;
+        int mFilterCount;
+        long mMaxLatencyMillis;
+        final int[] mLatencyHistogram = new int[LATENCY_BUCKETS_MILLIS.length + 1];
+    }
+}
@@ -34,6 +34,7 @@ import android.os.BatteryManager;
 import android.os.Handler;
 import android.os.Message;
 import android.os.PowerManager;
+import android.os.SystemProperties;
 import android.telephony.AccessNetworkConstants.AccessNetworkType;
 import android.telephony.CarrierConfigManager;
 import android.telephony.Rlog;
@@ -59,6 +60,10 @@ import java.util.Set;
  * screen is off and does not have activities like tethering, remote display, etc...This effectively
  * prevents the CPU from waking up by those unnecessary unsolicited responses such as signal
  * strength update.
+ *
+ * In the adaptive mode, device state monitor also measures the rate of the signal strength and
+ * cell info indications, and when nobody consumes them while the modem keeps sending them at a
+ * high rate, widens the reporting criteria so that the modem reports only significant changes.
  */
 public class DeviceStateMonitor extends Handler {
     protected static final boolean DBG = false;      /* STOPSHIP if true */
@@ -75,6 +80,38 @@ public class DeviceStateMonitor extends Handler {
     static final int EVENT_RADIO_AVAILABLE              = 6;
     @VisibleForTesting
     static final int EVENT_WIFI_CONNECTION_CHANGED      = 7;
+    @VisibleForTesting
+    static final int EVENT_CELL_INFO_REQUESTED          = 8;
+    @VisibleForTesting
+    static final int EVENT_ADAPTIVE_FILTERING_CHANGED   = 9;
+    @VisibleForTesting
+    static final int EVENT_RATE_WINDOW_ELAPSED          = 10;
+
+    /** Signal strength indication, see {@link #onIndicationReceived}. */
+    public static final int INDICATION_SIGNAL_STRENGTH = 0;
+    /** Cell info list indication, see {@link #onIndicationReceived}. */
+    public static final int INDICATION_CELL_INFO = 1;
+    private static final int INDICATION_TYPE_COUNT = 2;
+
+    private static final String PROPERTY_ADAPTIVE_FILTERING =
+            "persist.radio.adaptive_indication_filter";
+
+    /** The period over which the rate of the indications is measured */
+    @VisibleForTesting
+    static final long RATE_WINDOW_MS = 60 * 1000;
+
+    /**
+     * The number of indications of a type per window above which the reporting criteria are
+     * widened when nobody consumes them. Below it, reconfiguring the modem is not worth it.
+     */
+    @VisibleForTesting
+    static final int ADAPTIVE_RATE_THRESHOLD = 6;
+
+    /** The hysteresis of the widened signal strength reporting criteria */
+    @VisibleForTesting
+    static final int WIDE_HYSTERESIS_MS = 30000;
+    @VisibleForTesting
+    static final int WIDE_HYSTERESIS_DB = 6;
 
     // TODO(b/74006656) load hysteresis values from a property when DeviceStateMonitor starts
     private static final int HYSTERESIS_KBPS = 50;
@@ -179,6 +216,27 @@ public class DeviceStateMonitor extends Handler {
      */
     private int mUnsolicitedResponseFilter = IndicationFilter.ALL;
 
+    /** True if the reporting criteria adapt to the indication rates and their consumers */
+    private boolean mIsAdaptiveFilteringEnabled;
+
+    /** Cell info requests, e.g. from apps or the locale tracker, in the current and last window */
+    private int mWindowCellInfoRequests;
+    private int mLastWindowCellInfoRequests;
+
+    /** Indications received by type, since boot and in the current and the last window */
+    private final int[] mIndicationCounts = new int[INDICATION_TYPE_COUNT];
+    private final int[] mWindowIndicationCounts = new int[INDICATION_TYPE_COUNT];
+    private final int[] mLastWindowIndicationCounts = new int[INDICATION_TYPE_COUNT];
+
+    /** True if the reporting criteria of the type are widened */
+    private final boolean[] mIsReportingWidened = new boolean[INDICATION_TYPE_COUNT];
+
+    /** How many times the reporting criteria of each type were widened */
+    private final int[] mWidenCounts = new int[INDICATION_TYPE_COUNT];
+
+    /** Signal strength reporting criteria requests sent to the modem */
+    private int mSignalStrengthCriteriaRequests;
+
     private final DisplayManager.DisplayListener mDisplayListener =
             new DisplayManager.DisplayListener() {
                 @Override
@@ -272,6 +330,10 @@ public class DeviceStateMonitor extends Handler {
         ConnectivityManager cm = (ConnectivityManager) phone.getContext().getSystemService(
                 Context.CONNECTIVITY_SERVICE);
         cm.registerNetworkCallback(mWifiNetworkRequest, mNetworkCallback);
+
+        if (SystemProperties.getBoolean(PROPERTY_ADAPTIVE_FILTERING, false)) {
+            setAdaptiveFilteringEnabled(true);
+        }
     }
 
     /**
@@ -286,6 +348,10 @@ public class DeviceStateMonitor extends Handler {
      */
     @VisibleForTesting
     public int computeCellInfoMinInterval() {
+        if (mIsReportingWidened[INDICATION_CELL_INFO]) {
+            // Nobody consumes the cell info, so its accuracy is not crucial.
+            return CELL_INFO_INTERVAL_LONG_MS;
+        }
         // The screen is on and we're either on cellular or charging. Screen on + Charging is
         // a likely vehicular scenario, even if there is a nomadic AP.
         if (mIsScreenOn && !mIsWifiConnected) {
@@ -425,6 +491,128 @@ public class DeviceStateMonitor extends Handler {
         if ((filters & TelephonyManager.INDICATION_FILTER_PHYSICAL_CHANNEL_CONFIG) != 0) {
             mUpdateModes.put(TelephonyManager.INDICATION_FILTER_PHYSICAL_CHANNEL_CONFIG, mode);
         }
+        // IGNORE_SCREEN_OFF on the signal strength means somebody consumes it
+        updateAdaptiveFiltering();
+    }
+
+    /**
+     * Enable or disable the adaptive indication filtering. When enabled, the reporting criteria of
+     * the signal strength and the cell info are widened while nobody consumes them and the modem
+     * sends them at a high rate.
+     *
+     * @param enabled True to enable the adaptive filtering
+     */
+    public void setAdaptiveFilteringEnabled(boolean enabled) {
+        sendMessage(obtainMessage(EVENT_ADAPTIVE_FILTERING_CHANGED, enabled ? 1 : 0, 0));
+    }
+
+    /**
+     * Record a request for the cell info. The cell info is considered consumed until a whole
+     * window elapses without any request.
+     */
+    public void onCellInfoRequested() {
+        sendEmptyMessage(EVENT_CELL_INFO_REQUESTED);
+    }
+
+    /**
+     * Record an unsolicited indication from the modem, to measure the rate of the indications.
+     * Called by the handler of the indication, which may run on another thread.
+     *
+     * @param type {@link #INDICATION_SIGNAL_STRENGTH} or {@link #INDICATION_CELL_INFO}
+     */
+    public void onIndicationReceived(int type) {
+        synchronized (mIndicationCounts) {
+            mIndicationCounts[type]++;
+            mWindowIndicationCounts[type]++;
+        }
+    }
+
+    private void onSetAdaptiveFilteringEnabled(boolean enabled) {
+        if (mIsAdaptiveFilteringEnabled == enabled) return;
+        mIsAdaptiveFilteringEnabled = enabled;
+        log("Adaptive filtering " + (enabled ? "enabled" : "disabled"), true);
+        removeMessages(EVENT_RATE_WINDOW_ELAPSED);
+        synchronized (mIndicationCounts) {
+            for (int type = 0; type < INDICATION_TYPE_COUNT; type++) {
+                mWindowIndicationCounts[type] = 0;
+                mLastWindowIndicationCounts[type] = 0;
+            }
+        }
+        mWindowCellInfoRequests = 0;
+        mLastWindowCellInfoRequests = 0;
+        if (enabled) {
+            sendEmptyMessageDelayed(EVENT_RATE_WINDOW_ELAPSED, RATE_WINDOW_MS);
+        }
+        updateAdaptiveFiltering();
+    }
+
+    private void onCellInfoRequestedInternal() {
+        mWindowCellInfoRequests++;
+        updateAdaptiveFiltering();
+    }
+
+    private void onRateWindowElapsed() {
+        synchronized (mIndicationCounts) {
+            for (int type = 0; type < INDICATION_TYPE_COUNT; type++) {
+                mLastWindowIndicationCounts[type] = mWindowIndicationCounts[type];
+                mWindowIndicationCounts[type] = 0;
+            }
+        }
+        mLastWindowCellInfoRequests = mWindowCellInfoRequests;
+        mWindowCellInfoRequests = 0;
+        updateAdaptiveFiltering();
+        sendEmptyMessageDelayed(EVENT_RATE_WINDOW_ELAPSED, RATE_WINDOW_MS);
+    }
+
+    /**
+     * @return True if anybody consumes the indications of the type
+     */
+    private boolean hasConsumers(int type) {
+        if (type == INDICATION_SIGNAL_STRENGTH) {
+            // The status bar shows the signal strength while the screen is on. IGNORE_SCREEN_OFF
+            // means somebody, e.g. a Bluetooth carkit, needs it while the screen is off.
+            return mIsScreenOn
+                    || mUpdateModes.get(TelephonyManager.INDICATION_FILTER_SIGNAL_STRENGTH)
+                    == TelephonyManager.INDICATION_UPDATE_MODE_IGNORE_SCREEN_OFF;
+        }
+        return mWindowCellInfoRequests > 0 || mLastWindowCellInfoRequests > 0;
+    }
+
+    /**
+     * @return True if the reporting criteria of the type should be widened
+     */
+    private boolean shouldWidenReporting(int type) {
+        if (!mIsAdaptiveFilteringEnabled || hasConsumers(type)) {
+            return false;
+        }
+        // Once widened, the rate drops, so keep the criteria widened until a consumer shows up
+        // instead of flapping between the two.
+        synchronized (mIndicationCounts) {
+            return mIsReportingWidened[type]
+                    || mLastWindowIndicationCounts[type] > ADAPTIVE_RATE_THRESHOLD;
+        }
+    }
+
+    /**
+     * Widen or restore the reporting criteria according to the consumers and the indication
+     * rates.
+     */
+    private void updateAdaptiveFiltering() {
+        boolean widen = shouldWidenReporting(INDICATION_SIGNAL_STRENGTH);
+        if (mIsReportingWidened[INDICATION_SIGNAL_STRENGTH] != widen) {
+            mIsReportingWidened[INDICATION_SIGNAL_STRENGTH] = widen;
+            if (widen) mWidenCounts[INDICATION_SIGNAL_STRENGTH]++;
+            log("Signal strength reporting " + (widen ? "widened" : "restored"), true);
+            setSignalStrengthReportingCriteria();
+        }
+
+        widen = shouldWidenReporting(INDICATION_CELL_INFO);
+        if (mIsReportingWidened[INDICATION_CELL_INFO] != widen) {
+            mIsReportingWidened[INDICATION_CELL_INFO] = widen;
+            if (widen) mWidenCounts[INDICATION_CELL_INFO]++;
+            log("Cell info reporting " + (widen ? "widened" : "restored"), true);
+            updateCellInfoMinInterval();
+        }
     }
 
     /**
@@ -452,6 +640,15 @@ public class DeviceStateMonitor extends Handler {
             case EVENT_WIFI_CONNECTION_CHANGED:
                 onUpdateDeviceState(msg.what, msg.arg1 != WIFI_UNAVAILABLE);
                 break;
+            case EVENT_CELL_INFO_REQUESTED:
+                onCellInfoRequestedInternal();
+                break;
+            case EVENT_ADAPTIVE_FILTERING_CHANGED:
+                onSetAdaptiveFilteringEnabled(msg.arg1 != 0);
+                break;
+            case EVENT_RATE_WINDOW_ELAPSED:
+                onRateWindowElapsed();
+                break;
             default:
                 throw new IllegalStateException("Unexpected message arrives. msg = " + msg.what);
         }
@@ -492,12 +689,8 @@ public class DeviceStateMonitor extends Handler {
                 return;
         }
 
-        final int newCellInfoMinInterval = computeCellInfoMinInterval();
-        if (mCellInfoMinInterval != newCellInfoMinInterval) {
-            mCellInfoMinInterval = newCellInfoMinInterval;
-            setCellInfoMinInterval(mCellInfoMinInterval);
-            log("CellInfo Min Interval Updated to " + newCellInfoMinInterval, true);
-        }
+        updateCellInfoMinInterval();
+        updateAdaptiveFiltering();
 
         if (mIsLowDataExpected != isLowDataExpected()) {
             mIsLowDataExpected = !mIsLowDataExpected;
@@ -528,6 +721,15 @@ public class DeviceStateMonitor extends Handler {
         setUnsolResponseFilter(newFilter, false);
     }
 
+    private void updateCellInfoMinInterval() {
+        final int newCellInfoMinInterval = computeCellInfoMinInterval();
+        if (mCellInfoMinInterval != newCellInfoMinInterval) {
+            mCellInfoMinInterval = newCellInfoMinInterval;
+            setCellInfoMinInterval(mCellInfoMinInterval);
+            log("CellInfo Min Interval Updated to " + newCellInfoMinInterval, true);
+        }
+    }
+
     /**
      * Called when RIL is connected during boot up or radio becomes available after modem restart.
      *
@@ -561,6 +763,14 @@ public class DeviceStateMonitor extends Handler {
         }
     }
 
+    private static String indicationTypeToString(int type) {
+        switch (type) {
+            case INDICATION_SIGNAL_STRENGTH: return "SIGNAL_STRENGTH";
+            case INDICATION_CELL_INFO: return "CELL_INFO";
+            default: return "UNKNOWN";
+        }
+    }
+
     /**
      * Send the device state to the modem.
      *
@@ -587,16 +797,37 @@ public class DeviceStateMonitor extends Handler {
     }
 
     private void setSignalStrengthReportingCriteria() {
-        mPhone.setSignalStrengthReportingCriteria(
-                AccessNetworkThresholds.GERAN, AccessNetworkType.GERAN);
-        mPhone.setSignalStrengthReportingCriteria(
-                AccessNetworkThresholds.UTRAN, AccessNetworkType.UTRAN);
-        mPhone.setSignalStrengthReportingCriteria(
+        setSignalStrengthReportingCriteria(AccessNetworkThresholds.GERAN, AccessNetworkType.GERAN);
+        setSignalStrengthReportingCriteria(AccessNetworkThresholds.UTRAN, AccessNetworkType.UTRAN);
+        setSignalStrengthReportingCriteria(
                 AccessNetworkThresholds.EUTRAN, AccessNetworkType.EUTRAN);
-        mPhone.setSignalStrengthReportingCriteria(
+        setSignalStrengthReportingCriteria(
                 AccessNetworkThresholds.CDMA2000, AccessNetworkType.CDMA2000);
     }
 
+    private void setSignalStrengthReportingCriteria(int[] thresholds, int ran) {
+        mSignalStrengthCriteriaRequests++;
+        if (mIsReportingWidened[INDICATION_SIGNAL_STRENGTH]) {
+            mPhone.setSignalStrengthReportingCriteria(WIDE_HYSTERESIS_MS, WIDE_HYSTERESIS_DB,
+                    getWideThresholds(thresholds), ran);
+        } else {
+            mPhone.setSignalStrengthReportingCriteria(thresholds, ran);
+        }
+    }
+
+    /**
+     * @return Every other threshold, i.e. the poor and the good ones, so that the modem reports
+     * only the changes between the coarse levels.
+     */
+    @VisibleForTesting
+    static int[] getWideThresholds(int[] thresholds) {
+        int[] wide = new int[(thresholds.length + 1) / 2];
+        for (int i = 0; i < wide.length; i++) {
+            wide[i] = thresholds[2 * i];
+        }
+        return wide;
+    }
+
     private void setLinkCapacityReportingCriteria() {
         mPhone.setLinkCapacityReportingCriteria(LINK_CAPACITY_DOWNLINK_THRESHOLDS,
                 LINK_CAPACITY_UPLINK_THRESHOLDS, AccessNetworkType.GERAN);
@@ -691,6 +922,23 @@ public class DeviceStateMonitor extends Handler {
         ipw.println("mIsLowDataExpected=" + mIsLowDataExpected);
         ipw.println("mUnsolicitedResponseFilter=" + mUnsolicitedResponseFilter);
         ipw.println("mIsWifiConnected=" + mIsWifiConnected);
+        ipw.println("mIsAdaptiveFilteringEnabled=" + mIsAdaptiveFilteringEnabled);
+        ipw.println("mLastWindowCellInfoRequests=" + mLastWindowCellInfoRequests);
+        ipw.println("mWindowCellInfoRequests=" + mWindowCellInfoRequests);
+        ipw.println("mCellInfoMinInterval=" + mCellInfoMinInterval);
+        ipw.println("mSignalStrengthCriteriaRequests=" + mSignalStrengthCriteriaRequests);
+        ipw.println("Indications:");
+        ipw.increaseIndent();
+        synchronized (mIndicationCounts) {
+            for (int type = 0; type < INDICATION_TYPE_COUNT; type++) {
+                ipw.println(indicationTypeToString(type) + ": total=" + mIndicationCounts[type]
+                        + " lastWindow=" + mLastWindowIndicationCounts[type]
+                        + " currentWindow=" + mWindowIndicationCounts[type]
+                        + " widened=" + mIsReportingWidened[type]
+                        + " widenCount=" + mWidenCounts[type]);
+            }
+        }
+        ipw.decreaseIndent();
         ipw.println("Local logs:");
         ipw.increaseIndent();
         mLocalLog.dump(fd, ipw, args);
@@ -3610,6 +3610,12 @@ public class GsmCdmaPhone extends Phone {
                 thresholds, ran, null);
     }
 
+    @Override
+    public void setSignalStrengthReportingCriteria(int hysteresisMs, int hysteresisDb,
+            int[] thresholds, int ran) {
+        mCi.setSignalStrengthReportingCriteria(hysteresisMs, hysteresisDb, thresholds, ran, null);
+    }
+
     @Override
     public void setLinkCapacityReportingCriteria(int[] dlThresholds, int[] ulThresholds, int ran) {
         mCi.setLinkCapacityReportingCriteria(REPORTING_HYSTERESIS_MILLIS, REPORTING_HYSTERESIS_KBPS,
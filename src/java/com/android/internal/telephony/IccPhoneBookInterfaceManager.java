@@ -300,6 +300,7 @@ public class IccPhoneBookInterfaceManager {
             Message response = mBaseHandler.obtainMessage(EVENT_LOAD_DONE, loadRequest);
             if (mAdnCache != null) {
                 mAdnCache.requestLoadAllAdnLike(efid, mAdnCache.extensionEfForEf(efid), response);
+                // For EF_PBR this waits until the whole USIM phonebook is loaded.
                 waitForResult(loadRequest);
             } else {
                 loge("Failure while trying to load from SIM due to uninitialised adncache");
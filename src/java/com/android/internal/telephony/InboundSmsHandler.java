@@ -193,6 +193,12 @@ public abstract class InboundSmsHandler extends StateMachine {
     @UnsupportedAppUsage
     private final ContentResolver mResolver;
 
+    /** In-memory mirror of the multi-part message segments in the raw table, shared. */
+    private final InboundSmsSegmentIndex mSegmentIndex;
+
+    /** Bindings to the carrier services filtering the received messages. */
+    private final CarrierSmsFilterBindings mSmsFilterBindings;
+
     /** Special handler for WAP push messages. */
     @UnsupportedAppUsage
     private final WapPushOverSms mWapPush;
@@ -270,6 +276,8 @@ public abstract class InboundSmsHandler extends StateMachine {
         mPhone = phone;
         mCellBroadcastHandler = cellBroadcastHandler;
         mResolver = context.getContentResolver();
+        mSegmentIndex = InboundSmsSegmentIndex.getInstance(mResolver);
+        mSmsFilterBindings = new CarrierSmsFilterBindings(context, getHandler().getLooper());
         mWapPush = new WapPushOverSms(context);
 
         boolean smsCapable = mContext.getResources().getBoolean(
@@ -307,6 +315,7 @@ public abstract class InboundSmsHandler extends StateMachine {
     @Override
     protected void onQuitting() {
         mWapPush.dispose();
+        mSmsFilterBindings.releaseAll();
 
         while (mWakeLock.isHeld()) {
             mWakeLock.release();
@@ -835,6 +844,15 @@ public abstract class InboundSmsHandler extends StateMachine {
             // multi-part message
             Cursor cursor = null;
             try {
+                // Check the in-memory index first so that the segments are only read from the
+                // raw table once they are all there.
+                if (InboundSmsSegmentIndex.isIndexed(tracker)
+                        && mSegmentIndex.getLiveSegmentCount(tracker) < messageCount) {
+                    // Get the filter services ready for when the message is complete.
+                    mSmsFilterBindings.warmUp();
+                    return false;
+                }
+
                 // used by several query selection arguments
                 String refNumber = Integer.toString(tracker.getReferenceNumber());
                 String count = Integer.toString(tracker.getMessageCount());
@@ -1088,7 +1106,7 @@ public abstract class InboundSmsHandler extends StateMachine {
                         tracker.isClass0());
         CarrierServicesSmsFilter carrierServicesFilter = new CarrierServicesSmsFilter(
                 mContext, mPhone, pdus, destPort, tracker.getFormat(),
-                filterCallback, getName(), mLocalLog);
+                filterCallback, getName(), mLocalLog, mSmsFilterBindings);
         if (carrierServicesFilter.filter()) {
             return true;
         }
@@ -1174,6 +1192,8 @@ public abstract class InboundSmsHandler extends StateMachine {
                                     int deleteType) {
         Uri uri = deleteType == DELETE_PERMANENTLY ? sRawUriPermanentDelete : sRawUri;
         int rows = mResolver.delete(uri, deleteWhere, deleteWhereArgs);
+        mSegmentIndex.onSegmentsDeleted(deleteWhere, deleteWhereArgs,
+                deleteType == DELETE_PERMANENTLY);
         if (rows == 0) {
             loge("No rows were deleted from raw table!");
         } else if (DBG) {
@@ -1281,6 +1301,10 @@ public abstract class InboundSmsHandler extends StateMachine {
      * false otherwise
      */
     private boolean checkAndHandleDuplicate(InboundSmsTracker tracker) throws SQLException {
+        if (InboundSmsSegmentIndex.isIndexed(tracker)) {
+            return checkAndHandleDuplicateSegment(tracker);
+        }
+
         Pair<String, String[]> exactMatchQuery = tracker.getExactMatchDupDetectQuery();
 
         Cursor cursor = null;
@@ -1353,9 +1377,49 @@ public abstract class InboundSmsHandler extends StateMachine {
         return false;
     }
 
+    /**
+     * Same as {@link #checkAndHandleDuplicate} for a segment of a multi-part message, using the
+     * in-memory segment index instead of querying the raw table.
+     */
+    private boolean checkAndHandleDuplicateSegment(InboundSmsTracker tracker)
+            throws SQLException {
+        InboundSmsSegmentIndex.Segment exactMatch = mSegmentIndex.findExactMatch(tracker);
+
+        // if the exact matching row is marked deleted, that means this message has already
+        // been received and processed, and can be discarded as dup. An exact match that is not
+        // marked deleted is replaced below.
+        if (exactMatch != null && exactMatch.mDeleted) {
+            loge("Discarding duplicate message segment: " + tracker);
+            logDupPduMismatch(exactMatch.mPdu, tracker);
+            return true;   // reject message
+        }
+
+        // if there is a message segment that conflicts this new one (may not be an exact match),
+        // replace the old message segment with this one.
+        List<InboundSmsSegmentIndex.Segment> conflicts = mSegmentIndex.findLiveSegments(tracker);
+        if (!conflicts.isEmpty()) {
+            if (conflicts.size() != 1) {
+                loge("Inexact match query returned " + conflicts.size() + " rows");
+            }
+            // delete the old message segment permanently
+            Pair<String, String[]> inexactMatchQuery = tracker.getInexactMatchDupDetectQuery();
+            deleteFromRawTable(inexactMatchQuery.first, inexactMatchQuery.second,
+                    DELETE_PERMANENTLY);
+            mSegmentIndex.onLiveSegmentsDeleted(tracker);
+            loge("Replacing duplicate message segment: " + tracker);
+            logDupPduMismatch(conflicts.get(0).mPdu, tracker);
+        }
+
+        return false;
+    }
+
     private void logDupPduMismatch(Cursor cursor, InboundSmsTracker tracker) {
-        String oldPduString = cursor.getString(
-                PDU_DELETED_FLAG_PROJECTION_INDEX_MAPPING.get(PDU_COLUMN));
+        logDupPduMismatch(cursor.getString(
+                PDU_DELETED_FLAG_PROJECTION_INDEX_MAPPING.get(PDU_COLUMN)), tracker);
+    }
+
+    private void logDupPduMismatch(String oldPduString, InboundSmsTracker tracker) {
+        if (oldPduString == null) return;
         byte[] pdu = tracker.getPdu();
         byte[] oldPdu = HexDump.hexStringToByteArray(oldPduString);
         if (!Arrays.equals(oldPdu, tracker.getPdu())) {
@@ -1406,6 +1470,7 @@ public abstract class InboundSmsHandler extends StateMachine {
                 // set the delete selection args for multi-part message
                 String[] deleteWhereArgs = {address, refNumber, count};
                 tracker.setDeleteWhere(tracker.getQueryForSegments(), deleteWhereArgs);
+                mSegmentIndex.onSegmentAdded(tracker, rowId);
             }
             return Intents.RESULT_SMS_HANDLED;
         } catch (Exception e) {
@@ -1692,6 +1757,9 @@ public abstract class InboundSmsHandler extends StateMachine {
             mCellBroadcastHandler.dump(fd, pw, args);
         }
         mLocalLog.dump(fd, pw, args);
+        mSegmentIndex.dump(pw);
+        mSmsFilterBindings.dump(pw);
+        SmsBroadcastUndelivered.dump(pw);
     }
 
     // Some providers send formfeeds in their messages. Convert those formfeeds to newlines.
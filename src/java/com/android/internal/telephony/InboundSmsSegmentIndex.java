@@ -0,0 +1,321 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony;
+
+import android.content.ContentResolver;
+import android.database.Cursor;
+import android.database.SQLException;
+import android.text.TextUtils;
+
+import com.android.internal.annotations.VisibleForTesting;
+import com.android.internal.util.HexDump;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * In-memory mirror of the multi-part message segments stored in the SMS raw table, used by
+ * {@link InboundSmsHandler} to check for duplicates and for complete messages without querying
+ * the raw table for every received segment.
+ *
+ * The raw table is shared by the 3GPP and 3GPP2 handlers of every phone, so there is a single
+ * index for the process, see {@link #getInstance}, which every code writing to or deleting from
+ * the raw table updates. {@link SmsBroadcastUndelivered} rebuilds it from the raw table once it
+ * has scanned it at startup.
+ *
+ * Segments are grouped by (address, reference number, count, segment query), the same columns
+ * {@link InboundSmsTracker#getQueryForSegments()} selects on; the segment query tells 3GPP2 WAP
+ * datagrams apart from other concatenated messages. A group that is not in the index is read
+ * from the raw table the first time one of its segments is seen. The raw table stays the durable
+ * store: only the most recently used groups are kept, and an evicted group is simply read again
+ * when needed.
+ *
+ * Only multi-part messages are indexed; single-part messages are de-duplicated against the raw
+ * table directly.
+ */
+public class InboundSmsSegmentIndex {
+    /** Maximum number of segment groups kept in memory. */
+    @VisibleForTesting
+    static final int MAX_GROUPS = 64;
+
+    private static final String[] SEGMENT_PROJECTION = {
+            "_id",
+            "sequence",
+            "date",
+            "message_body",
+            "pdu",
+            "deleted"
+    };
+    private static final int ID_INDEX = 0;
+    private static final int SEQUENCE_INDEX = 1;
+    private static final int DATE_INDEX = 2;
+    private static final int MESSAGE_BODY_INDEX = 3;
+    private static final int PDU_INDEX = 4;
+    private static final int DELETED_INDEX = 5;
+
+    /** A row of the raw table. */
+    static final class Segment {
+        final long mRowId;
+        final int mSequence;
+        final long mTimestamp;
+        final String mMessageBody;
+        /** PDU as stored in the raw table, in hex. */
+        final String mPdu;
+        boolean mDeleted;
+
+        Segment(long rowId, int sequence, long timestamp, String messageBody, String pdu,
+                boolean deleted) {
+            mRowId = rowId;
+            mSequence = sequence;
+            mTimestamp = timestamp;
+            mMessageBody = messageBody;
+            mPdu = pdu;
+            mDeleted = deleted;
+        }
+    }
+
+    private static InboundSmsSegmentIndex sInstance;
+
+    private final ContentResolver mResolver;
+
+    // Segments of each message, least recently used first.
+    private final LinkedHashMap<GroupKey, ArrayList<Segment>> mGroups =
+            new LinkedHashMap<GroupKey, ArrayList<Segment>>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<GroupKey, ArrayList<Segment>> e) {
+                    return size() > MAX_GROUPS;
+                }
+            };
+
+    private int mLookups;
+    private int mGroupLoads;
+    private int mRebuilds;
+
+    @VisibleForTesting
+    public InboundSmsSegmentIndex(ContentResolver resolver) {
+        mResolver = resolver;
+    }
+
+    /**
+     * Returns the index of the raw table, shared by all users of the raw table in the process.
+     */
+    public static synchronized InboundSmsSegmentIndex getInstance(ContentResolver resolver) {
+        if (sInstance == null) {
+            sInstance = new InboundSmsSegmentIndex(resolver);
+        }
+        return sInstance;
+    }
+
+    /** Returns true if the segments of the message {@code tracker} belongs to are indexed. */
+    public static boolean isIndexed(InboundSmsTracker tracker) {
+        return tracker.getMessageCount() > 1 && tracker.getAddress() != null;
+    }
+
+    /** Returns the number of segments of the tracker's message not marked deleted. */
+    public synchronized int getLiveSegmentCount(InboundSmsTracker tracker) throws SQLException {
+        int count = 0;
+        for (Segment segment : getGroup(tracker)) {
+            if (!segment.mDeleted) count++;
+        }
+        return count;
+    }
+
+    /**
+     * Returns the segment matching the tracker's sequence number, timestamp and message body,
+     * whether or not it is marked deleted, or null if there is none.
+     */
+    public synchronized Segment findExactMatch(InboundSmsTracker tracker) throws SQLException {
+        for (Segment segment : getGroup(tracker)) {
+            if (segment.mSequence == tracker.getSequenceNumber()
+                    && segment.mTimestamp == tracker.getTimestamp()
+                    && TextUtils.equals(segment.mMessageBody, tracker.getMessageBody())) {
+                return segment;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the segments with the tracker's sequence number that are not marked deleted.
+     */
+    public synchronized ArrayList<Segment> findLiveSegments(InboundSmsTracker tracker)
+            throws SQLException {
+        ArrayList<Segment> segments = new ArrayList<>();
+        for (Segment segment : getGroup(tracker)) {
+            if (!segment.mDeleted && segment.mSequence == tracker.getSequenceNumber()) {
+                segments.add(segment);
+            }
+        }
+        return segments;
+    }
+
+    /** Called after the segments returned by {@link #findLiveSegments} were deleted. */
+    public synchronized void onLiveSegmentsDeleted(InboundSmsTracker tracker) {
+        ArrayList<Segment> group = mGroups.get(new GroupKey(tracker));
+        if (group == null) return;
+        for (Iterator<Segment> it = group.iterator(); it.hasNext(); ) {
+            Segment segment = it.next();
+            if (!segment.mDeleted && segment.mSequence == tracker.getSequenceNumber()) {
+                it.remove();
+            }
+        }
+    }
+
+    /** Called after the tracker's segment was inserted in the raw table as row {@code rowId}. */
+    public synchronized void onSegmentAdded(InboundSmsTracker tracker, long rowId) {
+        // Groups that are not loaded will read the new row from the raw table.
+        ArrayList<Segment> group = mGroups.get(new GroupKey(tracker));
+        if (group == null) return;
+        for (Segment segment : group) {
+            // The group was read from the raw table after the row was inserted.
+            if (segment.mRowId == rowId) return;
+        }
+        group.add(new Segment(rowId, tracker.getSequenceNumber(), tracker.getTimestamp(),
+                tracker.getMessageBody(), HexDump.toHexString(tracker.getPdu()), false));
+    }
+
+    /**
+     * Called after segments were deleted from the raw table with {@code where} and
+     * {@code whereArgs}. Deletions selecting all segments of a message with
+     * {@link InboundSmsTracker#getQueryForSegments()} are applied to the index.
+     *
+     * @param permanently true if the rows were removed, false if they were marked deleted
+     */
+    public synchronized void onSegmentsDeleted(String where, String[] whereArgs,
+            boolean permanently) {
+        if (!InboundSmsTracker.SELECT_BY_REFERENCE.equals(where)
+                && !InboundSmsTracker.SELECT_BY_REFERENCE_3GPP2WAP.equals(where)) {
+            return;
+        }
+        ArrayList<Segment> group;
+        try {
+            group = mGroups.get(new GroupKey(whereArgs[0], Integer.parseInt(whereArgs[1]),
+                    Integer.parseInt(whereArgs[2]), where));
+        } catch (NumberFormatException e) {
+            return;
+        }
+        if (group == null) return;
+        // The segment queries only select the rows not marked deleted.
+        for (Iterator<Segment> it = group.iterator(); it.hasNext(); ) {
+            Segment segment = it.next();
+            if (segment.mDeleted) continue;
+            if (permanently) {
+                it.remove();
+            } else {
+                segment.mDeleted = true;
+            }
+        }
+    }
+
+    /** Drops all groups; they are read again from the raw table when needed. */
+    public synchronized void invalidate() {
+        mGroups.clear();
+    }
+
+    /**
+     * Rebuilds the index from the raw table: drops all groups, then reads the groups of the
+     * given messages, up to {@link #MAX_GROUPS} of them, the last ones being kept.
+     *
+     * @param trackers a segment of each multi-part message found in the raw table
+     */
+    public synchronized void rebuild(Collection<InboundSmsTracker> trackers) throws SQLException {
+        mRebuilds++;
+        mGroups.clear();
+        int skipped = trackers.size() - MAX_GROUPS;
+        for (InboundSmsTracker tracker : trackers) {
+            if (skipped-- > 0 || !isIndexed(tracker)) continue;
+            mGroups.put(new GroupKey(tracker), loadGroup(tracker));
+        }
+    }
+
+    private ArrayList<Segment> getGroup(InboundSmsTracker tracker) throws SQLException {
+        mLookups++;
+        GroupKey key = new GroupKey(tracker);
+        ArrayList<Segment> group = mGroups.get(key);
+        if (group == null) {
+            group = loadGroup(tracker);
+            mGroups.put(key, group);
+        }
+        return group;
+    }
+
+    private ArrayList<Segment> loadGroup(InboundSmsTracker tracker) throws SQLException {
+        mGroupLoads++;
+        String[] whereArgs = {tracker.getAddress(), Integer.toString(tracker.getReferenceNumber()),
+                Integer.toString(tracker.getMessageCount())};
+        ArrayList<Segment> group = new ArrayList<>();
+        Cursor cursor = mResolver.query(InboundSmsHandler.sRawUri, SEGMENT_PROJECTION,
+                tracker.getQueryForAllSegments(), whereArgs, null);
+        if (cursor == null) {
+            throw new SQLException("null cursor loading message segments");
+        }
+        try {
+            while (cursor.moveToNext()) {
+                group.add(new Segment(cursor.getLong(ID_INDEX), cursor.getInt(SEQUENCE_INDEX),
+                        cursor.getLong(DATE_INDEX), cursor.getString(MESSAGE_BODY_INDEX),
+                        cursor.getString(PDU_INDEX), cursor.getInt(DELETED_INDEX) == 1));
+            }
+        } finally {
+            cursor.close();
+        }
+        return group;
+    }
+
+    public synchronized void dump(PrintWriter pw) {
+        pw.println("InboundSmsSegmentIndex: groups=" + mGroups.size() + " lookups=" + mLookups
+                + " groupLoads=" + mGroupLoads + " rebuilds=" + mRebuilds);
+    }
+
+    private static final class GroupKey {
+        final String mAddress;
+        final int mReferenceNumber;
+        final int mMessageCount;
+        final String mQuery;
+
+        GroupKey(InboundSmsTracker tracker) {
+            this(tracker.getAddress(), tracker.getReferenceNumber(), tracker.getMessageCount(),
+                    tracker.getQueryForSegments());
+        }
+
+        GroupKey(String address, int referenceNumber, int messageCount, String query) {
+            mAddress = address;
+            mReferenceNumber = referenceNumber;
+            mMessageCount = messageCount;
+            mQuery = query;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(mAddress, mReferenceNumber, mMessageCount, mQuery);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof GroupKey)) return false;
+            GroupKey other = (GroupKey) o;
+            return Objects.equals(mAddress, other.mAddress)
+                    && mReferenceNumber == other.mReferenceNumber
+                    && mMessageCount == other.mMessageCount
+                    && mQuery.equals(other.mQuery);
+        }
+    }
+}
@@ -327,6 +327,14 @@ public class InboundSmsTracker {
         return mIs3gpp2WapPdu ? SELECT_BY_REFERENCE_3GPP2WAP : SELECT_BY_REFERENCE;
     }
 
+    /**
+     * Get the query for all segments of this message, including the ones marked deleted.
+     * Selection args are the same as for {@link #getQueryForSegments()}.
+     */
+    public String getQueryForAllSegments() {
+        return addDestPortQuery("address=? AND reference_number=? AND count=?");
+    }
+
     /**
      * Get the query to find the exact same message/message segment in the db.
      * @return Pair with where as Pair.first and whereArgs as Pair.second
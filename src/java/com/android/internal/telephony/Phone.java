@@ -3825,6 +3825,12 @@ public abstract class Phone extends Handler implements PhoneInternalInterface {
         // no-op default implementation
     }
 
+    /** Sets the SignalStrength reporting criteria with the given hysteresis. */
+    public void setSignalStrengthReportingCriteria(int hysteresisMs, int hysteresisDb,
+            int[] thresholds, int ran) {
+        // no-op default implementation
+    }
+
     /** Sets the SignalStrength reporting criteria. */
     public void setLinkCapacityReportingCriteria(int[] dlThresholds, int[] ulThresholds, int ran) {
         // no-op default implementation
@@ -4004,6 +4010,27 @@ public abstract class Phone extends Handler implements PhoneInternalInterface {
         }
     }
 
+    /**
+     * Record a request for the cell info, so that its reporting is not widened while it is used.
+     */
+    public void onCellInfoRequested() {
+        if (mDeviceStateMonitor != null) {
+            mDeviceStateMonitor.onCellInfoRequested();
+        }
+    }
+
+    /**
+     * Record an unsolicited indication from the modem.
+     *
+     * @param type {@link DeviceStateMonitor#INDICATION_SIGNAL_STRENGTH} or
+     *        {@link DeviceStateMonitor#INDICATION_CELL_INFO}
+     */
+    public void onRadioIndicationReceived(int type) {
+        if (mDeviceStateMonitor != null) {
+            mDeviceStateMonitor.onIndicationReceived(type);
+        }
+    }
+
     public void setCarrierTestOverride(String mccmnc, String imsi, String iccid, String gid1,
             String gid2, String pnn, String spn, String carrierPrivilegeRules, String apn) {
     }
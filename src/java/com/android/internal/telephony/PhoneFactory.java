@@ -94,6 +94,8 @@ public class PhoneFactory {
     static private ImsResolver sImsResolver;
     static private NotificationChannelController sNotificationChannelController;
     static private CellularNetworkValidator sCellularNetworkValidator;
+    // stages of makeDefaultPhone() and how long they took
+    static private StagedInitializer sInitializer;
 
     static private final HashMap<String, LocalLog>sLocalLogs = new HashMap<String, LocalLog>();
 
@@ -112,33 +114,36 @@ public class PhoneFactory {
         synchronized (sLockProxyPhones) {
             if (!sMadeDefaults) {
                 sContext = context;
+                sInitializer = new StagedInitializer();
                 // create the telephony device controller.
-                TelephonyDevController.create();
-
-                int retryCount = 0;
-                for(;;) {
-                    boolean hasException = false;
-                    retryCount ++;
-
-                    try {
-                        // use UNIX domain socket to
-                        // prevent subsequent initialization
-                        new LocalServerSocket("com.android.internal.telephony");
-                    } catch (java.io.IOException ex) {
-                        hasException = true;
-                    }
+                sInitializer.run("TelephonyDevController", () -> TelephonyDevController.create());
+
+                sInitializer.run("LocalServerSocket", () -> {
+                    int retryCount = 0;
+                    for(;;) {
+                        boolean hasException = false;
+                        retryCount ++;
 
-                    if ( !hasException ) {
-                        break;
-                    } else if (retryCount > SOCKET_OPEN_MAX_RETRY) {
-                        throw new RuntimeException("PhoneFactory probably already running");
-                    } else {
                         try {
-                            Thread.sleep(SOCKET_OPEN_RETRY_MILLIS);
-                        } catch (InterruptedException er) {
+                            // use UNIX domain socket to
+                            // prevent subsequent initialization
+                            new LocalServerSocket("com.android.internal.telephony");
+                        } catch (java.io.IOException ex) {
+                            hasException = true;
+                        }
+
+                        if ( !hasException ) {
+                            break;
+                        } else if (retryCount > SOCKET_OPEN_MAX_RETRY) {
+                            throw new RuntimeException("PhoneFactory probably already running");
+                        } else {
+                            try {
+                                Thread.sleep(SOCKET_OPEN_RETRY_MILLIS);
+                            } catch (InterruptedException er) {
+                            }
                         }
                     }
-                }
+                });
 
                 sPhoneNotifier = new DefaultPhoneNotifier();
 
@@ -152,52 +157,79 @@ public class PhoneFactory {
                         Context.TELEPHONY_SERVICE);
                 int numPhones = tm.getPhoneCount();
 
+                // Ensure that we have a default SMS app. Nothing else in the phone stack depends
+                // on it, so it is resolved in the background while the phones are made.
+                // Requesting the app with updateIfNeeded set to true is enough to configure a
+                // default SMS app.
+                sInitializer.runAsync("DefaultSmsApplication", BackgroundThread.getHandler(),
+                        () -> {
+                            ComponentName componentName = SmsApplication.getDefaultSmsApplication(
+                                    context, true /* updateIfNeeded */);
+                            String packageName = "NONE";
+                            if (componentName != null) {
+                                packageName = componentName.getPackageName();
+                            }
+                            Rlog.i(LOG_TAG, "defaultSmsApplication: " + packageName);
+
+                            // Set up monitor to watch for changes to SMS packages
+                            SmsApplication.initSmsPackageMonitor(context);
+                        });
+
                 int[] networkModes = new int[numPhones];
                 sPhones = new Phone[numPhones];
                 sCommandsInterfaces = new RIL[numPhones];
                 sTelephonyNetworkFactories = new TelephonyNetworkFactory[numPhones];
 
                 for (int i = 0; i < numPhones; i++) {
+                    final int phoneId = i;
                     // reads the system properties and makes commandsinterface
                     // Get preferred network type.
                     networkModes[i] = RILConstants.PREFERRED_NETWORK_MODE;
 
                     Rlog.i(LOG_TAG, "Network Mode set to " + Integer.toString(networkModes[i]));
-                    sCommandsInterfaces[i] = new RIL(context, networkModes[i],
-                            cdmaSubscription, i);
+                    sInitializer.run("RIL[" + i + "]", () ->
+                            sCommandsInterfaces[phoneId] = new RIL(context, networkModes[phoneId],
+                                    cdmaSubscription, phoneId));
                 }
 
                 // Instantiate UiccController so that all other classes can just
                 // call getInstance()
-                sUiccController = UiccController.make(context, sCommandsInterfaces);
+                sInitializer.run("UiccController", () ->
+                        sUiccController = UiccController.make(context, sCommandsInterfaces));
 
                 Rlog.i(LOG_TAG, "Creating SubscriptionController");
-                SubscriptionController.init(context, sCommandsInterfaces);
-                MultiSimSettingController.init(context, SubscriptionController.getInstance());
+                sInitializer.run("SubscriptionController", () -> {
+                    SubscriptionController.init(context, sCommandsInterfaces);
+                    MultiSimSettingController.init(context, SubscriptionController.getInstance());
+                });
 
                 if (context.getPackageManager().hasSystemFeature(
                         PackageManager.FEATURE_TELEPHONY_EUICC)) {
-                    sEuiccController = EuiccController.init(context);
-                    sEuiccCardController = EuiccCardController.init(context);
+                    sInitializer.run("EuiccController", () -> {
+                        sEuiccController = EuiccController.init(context);
+                        sEuiccCardController = EuiccCardController.init(context);
+                    });
                 }
 
                 for (int i = 0; i < numPhones; i++) {
-                    Phone phone = null;
+                    final int phoneId = i;
                     int phoneType = TelephonyManager.getPhoneType(networkModes[i]);
-                    if (phoneType == PhoneConstants.PHONE_TYPE_GSM) {
-                        phone = new GsmCdmaPhone(context,
-                                sCommandsInterfaces[i], sPhoneNotifier, i,
-                                PhoneConstants.PHONE_TYPE_GSM,
-                                TelephonyComponentFactory.getInstance());
-                    } else if (phoneType == PhoneConstants.PHONE_TYPE_CDMA) {
-                        phone = new GsmCdmaPhone(context,
-                                sCommandsInterfaces[i], sPhoneNotifier, i,
-                                PhoneConstants.PHONE_TYPE_CDMA_LTE,
-                                TelephonyComponentFactory.getInstance());
-                    }
+                    sInitializer.run("Phone[" + i + "]", () -> {
+                        Phone phone = null;
+                        if (phoneType == PhoneConstants.PHONE_TYPE_GSM) {
+                            phone = new GsmCdmaPhone(context,
+                                    sCommandsInterfaces[phoneId], sPhoneNotifier, phoneId,
+                                    PhoneConstants.PHONE_TYPE_GSM,
+                                    TelephonyComponentFactory.getInstance());
+                        } else if (phoneType == PhoneConstants.PHONE_TYPE_CDMA) {
+                            phone = new GsmCdmaPhone(context,
+                                    sCommandsInterfaces[phoneId], sPhoneNotifier, phoneId,
+                                    PhoneConstants.PHONE_TYPE_CDMA_LTE,
+                                    TelephonyComponentFactory.getInstance());
+                        }
+                        sPhones[phoneId] = phone;
+                    });
                     Rlog.i(LOG_TAG, "Creating Phone with type = " + phoneType + " sub = " + i);
-
-                    sPhones[i] = phone;
                 }
 
                 // Set the default phone in base class.
@@ -208,49 +240,41 @@ public class PhoneFactory {
                     sCommandsInterface = sCommandsInterfaces[0];
                 }
 
-                // Ensure that we have a default SMS app. Requesting the app with
-                // updateIfNeeded set to true is enough to configure a default SMS app.
-                ComponentName componentName =
-                        SmsApplication.getDefaultSmsApplication(context, true /* updateIfNeeded */);
-                String packageName = "NONE";
-                if (componentName != null) {
-                    packageName = componentName.getPackageName();
-                }
-                Rlog.i(LOG_TAG, "defaultSmsApplication: " + packageName);
-
-                // Set up monitor to watch for changes to SMS packages
-                SmsApplication.initSmsPackageMonitor(context);
-
                 sMadeDefaults = true;
 
                 Rlog.i(LOG_TAG, "Creating SubInfoRecordUpdater ");
-                sSubInfoRecordUpdater = new SubscriptionInfoUpdater(
-                        BackgroundThread.get().getLooper(), context, sPhones, sCommandsInterfaces);
-                SubscriptionController.getInstance().updatePhonesAvailability(sPhones);
+                sInitializer.run("SubscriptionInfoUpdater", () -> {
+                    sSubInfoRecordUpdater = new SubscriptionInfoUpdater(
+                            BackgroundThread.get().getLooper(), context, sPhones,
+                            sCommandsInterfaces);
+                    SubscriptionController.getInstance().updatePhonesAvailability(sPhones);
+                });
 
 
                 // Only bring up IMS if the device supports having an IMS stack.
                 if (context.getPackageManager().hasSystemFeature(
                         PackageManager.FEATURE_TELEPHONY_IMS)) {
-                    // Return whether or not the device should use dynamic binding or the static
-                    // implementation (deprecated)
-                    boolean isDynamicBinding = sContext.getResources().getBoolean(
-                            com.android.internal.R.bool.config_dynamic_bind_ims);
-                    // Get the package name of the default IMS implementation.
-                    String defaultImsPackage = sContext.getResources().getString(
-                            com.android.internal.R.string.config_ims_package);
-                    // Start ImsResolver and bind to ImsServices.
-                    Rlog.i(LOG_TAG, "ImsResolver: defaultImsPackage: " + defaultImsPackage);
-                    sImsResolver = new ImsResolver(sContext, defaultImsPackage, numPhones,
-                            isDynamicBinding);
-                    sImsResolver.initPopulateCacheAndStartBind();
-                    // Start monitoring after defaults have been made.
-                    // Default phone must be ready before ImsPhone is created because ImsService
-                    // might need it when it is being opened. This should initialize multiple
-                    // ImsPhones for ImsResolver implementations of ImsService.
-                    for (int i = 0; i < numPhones; i++) {
-                        sPhones[i].startMonitoringImsService();
-                    }
+                    sInitializer.run("ImsResolver", () -> {
+                        // Return whether or not the device should use dynamic binding or the
+                        // static implementation (deprecated)
+                        boolean isDynamicBinding = sContext.getResources().getBoolean(
+                                com.android.internal.R.bool.config_dynamic_bind_ims);
+                        // Get the package name of the default IMS implementation.
+                        String defaultImsPackage = sContext.getResources().getString(
+                                com.android.internal.R.string.config_ims_package);
+                        // Start ImsResolver and bind to ImsServices.
+                        Rlog.i(LOG_TAG, "ImsResolver: defaultImsPackage: " + defaultImsPackage);
+                        sImsResolver = new ImsResolver(sContext, defaultImsPackage, numPhones,
+                                isDynamicBinding);
+                        sImsResolver.initPopulateCacheAndStartBind();
+                        // Start monitoring after defaults have been made.
+                        // Default phone must be ready before ImsPhone is created because
+                        // ImsService might need it when it is being opened. This should initialize
+                        // multiple ImsPhones for ImsResolver implementations of ImsService.
+                        for (int i = 0; i < numPhones; i++) {
+                            sPhones[i].startMonitoringImsService();
+                        }
+                    });
                 } else {
                     Rlog.i(LOG_TAG, "IMS is not supported on this device, skipping ImsResolver.");
                 }
@@ -259,21 +283,24 @@ public class PhoneFactory {
                         ServiceManager.getService("telephony.registry"));
                 SubscriptionController sc = SubscriptionController.getInstance();
 
-                sSubscriptionMonitor = new SubscriptionMonitor(tr, sContext, sc, numPhones);
+                sInitializer.run("PhoneSwitcher", () -> {
+                    sSubscriptionMonitor = new SubscriptionMonitor(tr, sContext, sc, numPhones);
 
-                sPhoneConfigurationManager = PhoneConfigurationManager.init(sContext);
+                    sPhoneConfigurationManager = PhoneConfigurationManager.init(sContext);
 
-                sCellularNetworkValidator = CellularNetworkValidator.make(sContext);
+                    sCellularNetworkValidator = CellularNetworkValidator.make(sContext);
 
-                int maxActivePhones = sPhoneConfigurationManager
-                        .getNumberOfModemsWithSimultaneousDataConnections();
+                    int maxActivePhones = sPhoneConfigurationManager
+                            .getNumberOfModemsWithSimultaneousDataConnections();
 
-                sPhoneSwitcher = PhoneSwitcher.make(maxActivePhones, numPhones,
-                        sContext, sc, Looper.myLooper(), tr, sCommandsInterfaces,
-                        sPhones);
+                    sPhoneSwitcher = PhoneSwitcher.make(maxActivePhones, numPhones,
+                            sContext, sc, Looper.myLooper(), tr, sCommandsInterfaces,
+                            sPhones);
+                });
 
-                sProxyController = ProxyController.getInstance(context, sPhones,
-                        sUiccController, sCommandsInterfaces, sPhoneSwitcher);
+                sInitializer.run("ProxyController", () ->
+                        sProxyController = ProxyController.getInstance(context, sPhones,
+                                sUiccController, sCommandsInterfaces, sPhoneSwitcher));
 
                 sIntentBroadcaster = IntentBroadcaster.getInstance(context);
 
@@ -281,8 +308,10 @@ public class PhoneFactory {
 
                 sTelephonyNetworkFactories = new TelephonyNetworkFactory[numPhones];
                 for (int i = 0; i < numPhones; i++) {
-                    sTelephonyNetworkFactories[i] = new TelephonyNetworkFactory(
-                            sSubscriptionMonitor, Looper.myLooper(), sPhones[i]);
+                    final int phoneId = i;
+                    sInitializer.run("TelephonyNetworkFactory[" + i + "]", () ->
+                            sTelephonyNetworkFactories[phoneId] = new TelephonyNetworkFactory(
+                                    sSubscriptionMonitor, Looper.myLooper(), sPhones[phoneId]));
                 }
             }
         }
@@ -513,6 +542,11 @@ public class PhoneFactory {
         IndentingPrintWriter pw = new IndentingPrintWriter(printwriter, "  ");
         pw.println("PhoneFactory:");
         pw.println(" sMadeDefaults=" + sMadeDefaults);
+        if (sInitializer != null) {
+            pw.increaseIndent();
+            sInitializer.dump(pw);
+            pw.decreaseIndent();
+        }
 
         sPhoneSwitcher.dump(fd, pw, args);
         pw.println();
@@ -1095,6 +1095,9 @@ public class ServiceStateTracker extends Handler {
 
             case EVENT_GET_CELL_INFO_LIST: // fallthrough
             case EVENT_UNSOL_CELL_INFO_LIST: {
+                if (msg.what == EVENT_UNSOL_CELL_INFO_LIST) {
+                    mPhone.onRadioIndicationReceived(DeviceStateMonitor.INDICATION_CELL_INFO);
+                }
                 List<CellInfo> cellInfo = null;
                 Throwable ex = null;
                 if (msg.obj != null) {
@@ -1277,6 +1280,7 @@ public class ServiceStateTracker extends Handler {
                 // The radio is telling us about signal strength changes
                 // we don't have to ask it
                 mDontPollSignalStrength = true;
+                mPhone.onRadioIndicationReceived(DeviceStateMonitor.INDICATION_SIGNAL_STRENGTH);
 
                 onSignalStrengthResult(ar);
                 break;
@@ -4797,6 +4801,7 @@ public class ServiceStateTracker extends Handler {
     }
 
     public List<CellInfo> getAllCellInfo() {
+        mPhone.onCellInfoRequested();
         return mLastCellInfoList;
     }
 
@@ -4818,6 +4823,7 @@ public class ServiceStateTracker extends Handler {
      */
     public void requestAllCellInfo(WorkSource workSource, Message rspMsg) {
         if (VDBG) log("SST.requestAllCellInfo(): E");
+        mPhone.onCellInfoRequested();
         if (mCi.getRilVersion() < 8) {
             AsyncResult.forMessage(rspMsg);
             rspMsg.sendToTarget();
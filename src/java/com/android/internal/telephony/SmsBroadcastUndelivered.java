@@ -30,12 +30,17 @@ import android.telephony.CarrierConfigManager;
 import android.telephony.Rlog;
 import android.telephony.SubscriptionManager;
 
+import com.android.internal.annotations.VisibleForTesting;
 import com.android.internal.telephony.cdma.CdmaInboundSmsHandler;
 import com.android.internal.telephony.gsm.GsmInboundSmsHandler;
 import com.android.internal.telephony.metrics.TelephonyMetrics;
 
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
-import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 
 /**
  * Called when the credential-encrypted storage is unlocked, collecting all acknowledged messages
@@ -68,8 +73,19 @@ public class SmsBroadcastUndelivered {
             "display_originating_addr"
     };
 
+    /** Number of raw table rows read per query while scanning. */
+    @VisibleForTesting
+    static final int SCAN_PAGE_SIZE = 200;
+
+    /** Number of expired incomplete messages whose segments are deleted per delete. */
+    @VisibleForTesting
+    static final int DELETE_BATCH_SIZE = 50;
+
     private static SmsBroadcastUndelivered instance;
 
+    /** Statistics of the last raw table scan, or null if none completed. */
+    private static ScanStats sLastScanStats;
+
     /** Content resolver to use to access raw table from SmsProvider. */
     private final ContentResolver mResolver;
 
@@ -145,94 +161,226 @@ public class SmsBroadcastUndelivered {
 
     /**
      * Scan the raw table for complete SMS messages to broadcast, and old PDUs to delete.
+     *
+     * The table is read in windows of {@link #SCAN_PAGE_SIZE} row ids so that the cursor window
+     * stays small however many segments are stranded. Only the rows present when the scan starts
+     * are read: the rows inserted meanwhile by the inbound SMS handlers are theirs to deliver.
+     * Complete messages are handed to the inbound SMS
+     * handlers as soon as they are found; the segments of expired incomplete messages are deleted
+     * once the whole table has been scanned, {@link #DELETE_BATCH_SIZE} messages at a time.
      */
     static void scanRawTable(Context context, CdmaInboundSmsHandler cdmaInboundSmsHandler,
             GsmInboundSmsHandler gsmInboundSmsHandler, long oldMessageTimestamp) {
         if (DBG) Rlog.d(TAG, "scanning raw table for undelivered messages");
-        long startTime = System.nanoTime();
+        ScanStats stats = new ScanStats();
         ContentResolver contentResolver = context.getContentResolver();
         HashMap<SmsReferenceKey, Integer> multiPartReceivedCount =
                 new HashMap<SmsReferenceKey, Integer>(4);
-        HashSet<SmsReferenceKey> oldMultiPartMessages = new HashSet<SmsReferenceKey>(4);
-        Cursor cursor = null;
+        // Expired incomplete messages, with the number of segments seen
+        HashMap<SmsReferenceKey, Integer> oldMultiPartMessages =
+                new HashMap<SmsReferenceKey, Integer>(4);
+        // a segment of each multi-part message, in raw table order
+        LinkedHashMap<SmsReferenceKey, InboundSmsTracker> multiPartMessages =
+                new LinkedHashMap<>();
         try {
-            // query only non-deleted ones
-            cursor = contentResolver.query(InboundSmsHandler.sRawUri,
-                    PDU_PENDING_MESSAGE_PROJECTION, "deleted = 0", null, null);
-            if (cursor == null) {
-                Rlog.e(TAG, "error getting pending message cursor");
-                return;
-            }
-
             boolean isCurrentFormat3gpp2 = InboundSmsHandler.isCurrentFormat3gpp2();
-            while (cursor.moveToNext()) {
-                InboundSmsTracker tracker;
+            long maxRowId = queryRowIdBound(contentResolver, "MAX(_id)", "deleted = 0",
+                    null);
+            // the window of each page is (lastRowId, lastRowId + SCAN_PAGE_SIZE]
+            long lastRowId = queryRowIdBound(contentResolver, "MIN(_id)", "deleted = 0",
+                    null) - 1;
+            while (maxRowId >= 0 && lastRowId < maxRowId) {
+                long pageEndRowId = Math.min(lastRowId + SCAN_PAGE_SIZE, maxRowId);
+                int rowsInPage = 0;
+                Cursor cursor = null;
                 try {
-                    tracker = TelephonyComponentFactory.getInstance()
-                            .inject(InboundSmsTracker.class.getName()).makeInboundSmsTracker(cursor,
-                            isCurrentFormat3gpp2);
-                } catch (IllegalArgumentException e) {
-                    Rlog.e(TAG, "error loading SmsTracker: " + e);
-                    continue;
-                }
+                    // query only non-deleted ones, one page at a time
+                    cursor = contentResolver.query(InboundSmsHandler.sRawUri,
+                            PDU_PENDING_MESSAGE_PROJECTION, "deleted = 0 AND _id > ? AND _id <= ?",
+                            new String[]{Long.toString(lastRowId), Long.toString(pageEndRowId)},
+                            "_id ASC");
+                    if (cursor == null) {
+                        Rlog.e(TAG, "error getting pending message cursor");
+                        return;
+                    }
 
-                if (tracker.getMessageCount() == 1) {
-                    // deliver single-part message
-                    broadcastSms(tracker, cdmaInboundSmsHandler, gsmInboundSmsHandler);
-                } else {
-                    SmsReferenceKey reference = new SmsReferenceKey(tracker);
-                    Integer receivedCount = multiPartReceivedCount.get(reference);
-                    if (receivedCount == null) {
-                        multiPartReceivedCount.put(reference, 1);    // first segment seen
-                        if (tracker.getTimestamp() < oldMessageTimestamp) {
-                            // older than oldMessageTimestamp; delete if we don't find all the
-                            // segments
-                            oldMultiPartMessages.add(reference);
+                    while (cursor.moveToNext()) {
+                        rowsInPage++;
+
+                        InboundSmsTracker tracker;
+                        try {
+                            tracker = TelephonyComponentFactory.getInstance()
+                                    .inject(InboundSmsTracker.class.getName())
+                                    .makeInboundSmsTracker(cursor, isCurrentFormat3gpp2);
+                        } catch (IllegalArgumentException e) {
+                            Rlog.e(TAG, "error loading SmsTracker: " + e);
+                            continue;
                         }
-                    } else {
-                        int newCount = receivedCount + 1;
-                        if (newCount == tracker.getMessageCount()) {
-                            // looks like we've got all the pieces; send a single tracker
-                            // to state machine which will find the other pieces to broadcast
-                            if (DBG) Rlog.d(TAG, "found complete multi-part message");
+
+                        if (tracker.getMessageCount() == 1) {
+                            // deliver single-part message
                             broadcastSms(tracker, cdmaInboundSmsHandler, gsmInboundSmsHandler);
-                            // don't delete this old message until after we broadcast it
-                            oldMultiPartMessages.remove(reference);
+                            stats.mMessagesDispatched++;
                         } else {
+                            SmsReferenceKey reference = new SmsReferenceKey(tracker);
+                            multiPartMessages.putIfAbsent(reference, tracker);
+                            Integer receivedCount = multiPartReceivedCount.get(reference);
+                            int newCount = receivedCount == null ? 1 : receivedCount + 1;
                             multiPartReceivedCount.put(reference, newCount);
+                            if (receivedCount == null
+                                    && tracker.getTimestamp() < oldMessageTimestamp) {
+                                // older than oldMessageTimestamp; delete if we don't find all
+                                // the segments
+                                oldMultiPartMessages.put(reference, 0);
+                            }
+                            if (oldMultiPartMessages.containsKey(reference)) {
+                                oldMultiPartMessages.put(reference, newCount);
+                            }
+                            if (newCount == tracker.getMessageCount()) {
+                                // looks like we've got all the pieces; send a single tracker
+                                // to state machine which will find the other pieces to broadcast
+                                if (DBG) Rlog.d(TAG, "found complete multi-part message");
+                                broadcastSms(tracker, cdmaInboundSmsHandler,
+                                        gsmInboundSmsHandler);
+                                stats.mMessagesDispatched++;
+                                // don't delete this old message until after we broadcast it
+                                oldMultiPartMessages.remove(reference);
+                            }
                         }
                     }
+                } finally {
+                    if (cursor != null) {
+                        cursor.close();
+                    }
                 }
-            }
-            // Retrieve the phone id, required for metrics
-            int phoneId = getPhoneId(gsmInboundSmsHandler, cdmaInboundSmsHandler);
-
-            // Delete old incomplete message segments
-            for (SmsReferenceKey message : oldMultiPartMessages) {
-                // delete permanently
-                int rows = contentResolver.delete(InboundSmsHandler.sRawUriPermanentDelete,
-                        message.getDeleteWhere(), message.getDeleteWhereArgs());
-                if (rows == 0) {
-                    Rlog.e(TAG, "No rows were deleted from raw table!");
-                } else if (DBG) {
-                    Rlog.d(TAG, "Deleted " + rows + " rows from raw table for incomplete "
-                            + message.mMessageCount + " part message");
+                stats.mPages++;
+                stats.mRowsScanned += rowsInPage;
+                if (DBG && rowsInPage > 0) {
+                    Rlog.d(TAG, "scanned page " + stats.mPages + ": " + stats.mRowsScanned
+                            + " rows, " + stats.mMessagesDispatched + " messages dispatched");
                 }
-                // Update metrics with dropped SMS
-                if (rows > 0) {
-                    TelephonyMetrics metrics = TelephonyMetrics.getInstance();
-                    metrics.writeDroppedIncomingMultipartSms(phoneId, message.mFormat, rows,
-                            message.mMessageCount);
+                lastRowId = pageEndRowId;
+                if (rowsInPage == 0 && lastRowId < maxRowId) {
+                    // skip the gap left by deleted rows in one step
+                    long nextRowId = queryRowIdBound(contentResolver, "MIN(_id)",
+                            "deleted = 0 AND _id > ? AND _id <= ?",
+                            new String[]{Long.toString(lastRowId), Long.toString(maxRowId)});
+                    if (nextRowId < 0) {
+                        break;
+                    }
+                    lastRowId = nextRowId - 1;
                 }
             }
+
+            deleteOldMultiPartMessages(contentResolver, oldMultiPartMessages, stats,
+                    cdmaInboundSmsHandler, gsmInboundSmsHandler);
+
+            // rebuild the segment index shared by the handlers from the remaining messages
+            multiPartMessages.keySet().removeAll(oldMultiPartMessages.keySet());
+            InboundSmsSegmentIndex.getInstance(contentResolver).rebuild(
+                    multiPartMessages.values());
         } catch (SQLException e) {
             Rlog.e(TAG, "error reading pending SMS messages", e);
         } finally {
-            if (cursor != null) {
-                cursor.close();
+            stats.mDurationMillis = (System.nanoTime() - stats.mStartTimeNanos) / 1000000;
+            synchronized (SmsBroadcastUndelivered.class) {
+                sLastScanStats = stats;
+            }
+            if (DBG) Rlog.d(TAG, "finished scanning raw table: " + stats);
+        }
+    }
+
+    /**
+     * @return the aggregate of the row ids, e.g. "MAX(_id)", of the raw table rows matching the
+     * selection, or -1 if there is none
+     */
+    private static long queryRowIdBound(ContentResolver contentResolver, String aggregate,
+            String selection, String[] selectionArgs) {
+        Cursor cursor = contentResolver.query(InboundSmsHandler.sRawUri,
+                new String[]{aggregate}, selection, selectionArgs, null);
+        if (cursor == null) {
+            Rlog.e(TAG, "error getting " + aggregate + " of the raw table");
+            return -1;
+        }
+        try {
+            if (cursor.moveToFirst() && !cursor.isNull(0)) {
+                return cursor.getLong(0);
+            }
+            return -1;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Delete the segments of expired incomplete messages, several messages per delete.
+     */
+    private static void deleteOldMultiPartMessages(ContentResolver contentResolver,
+            HashMap<SmsReferenceKey, Integer> oldMultiPartMessages, ScanStats stats,
+            CdmaInboundSmsHandler cdmaInboundSmsHandler,
+            GsmInboundSmsHandler gsmInboundSmsHandler) {
+        // Retrieve the phone id, required for metrics
+        int phoneId = getPhoneId(gsmInboundSmsHandler, cdmaInboundSmsHandler);
+        TelephonyMetrics metrics = TelephonyMetrics.getInstance();
+        InboundSmsSegmentIndex segmentIndex = InboundSmsSegmentIndex.getInstance(contentResolver);
+
+        ArrayList<SmsReferenceKey> batch = new ArrayList<>(DELETE_BATCH_SIZE);
+        Iterator<SmsReferenceKey> it = oldMultiPartMessages.keySet().iterator();
+        while (it.hasNext()) {
+            batch.add(it.next());
+            if (batch.size() < DELETE_BATCH_SIZE && it.hasNext()) {
+                continue;
+            }
+
+            StringBuilder where = new StringBuilder();
+            ArrayList<String> whereArgs = new ArrayList<>(batch.size() * 3);
+            for (SmsReferenceKey message : batch) {
+                if (where.length() > 0) where.append(" OR ");
+                where.append('(').append(message.getDeleteWhere()).append(')');
+                whereArgs.addAll(Arrays.asList(message.getDeleteWhereArgs()));
             }
-            if (DBG) Rlog.d(TAG, "finished scanning raw table in "
-                    + ((System.nanoTime() - startTime) / 1000000) + " ms");
+            // delete permanently
+            int rows = contentResolver.delete(InboundSmsHandler.sRawUriPermanentDelete,
+                    where.toString(), whereArgs.toArray(new String[whereArgs.size()]));
+            if (rows == 0) {
+                Rlog.e(TAG, "No rows were deleted from raw table!");
+            } else if (DBG) {
+                Rlog.d(TAG, "Deleted " + rows + " rows from raw table for " + batch.size()
+                        + " incomplete multi-part messages");
+            }
+            stats.mRowsDeleted += rows;
+
+            for (SmsReferenceKey message : batch) {
+                // keep the segment index in sync with the raw table
+                segmentIndex.onSegmentsDeleted(message.getDeleteWhere(),
+                        message.getDeleteWhereArgs(), true /* permanently */);
+                // Update metrics with dropped SMS, using the segments seen during the scan
+                if (rows > 0) {
+                    metrics.writeDroppedIncomingMultipartSms(phoneId, message.mFormat,
+                            oldMultiPartMessages.get(message), message.mMessageCount);
+                }
+            }
+            stats.mMessagesExpired += batch.size();
+            batch.clear();
+        }
+    }
+
+    /**
+     * Dump the statistics of the last raw table scan.
+     */
+    public static void dump(PrintWriter pw) {
+        ScanStats stats;
+        synchronized (SmsBroadcastUndelivered.class) {
+            stats = sLastScanStats;
+        }
+        pw.println("SmsBroadcastUndelivered: last raw table scan: "
+                + (stats == null ? "none" : stats));
+    }
+
+    @VisibleForTesting
+    static ScanStats getLastScanStats() {
+        synchronized (SmsBroadcastUndelivered.class) {
+            return sLastScanStats;
         }
     }
 
@@ -283,6 +431,28 @@ public class SmsBroadcastUndelivered {
         }
     }
 
+    /**
+     * Progress and duration of a raw table scan.
+     */
+    @VisibleForTesting
+    static class ScanStats {
+        final long mStartTimeNanos = System.nanoTime();
+        int mPages;
+        int mRowsScanned;
+        int mMessagesDispatched;
+        int mMessagesExpired;
+        int mRowsDeleted;
+        long mDurationMillis;
+
+        @Override
+        public String toString() {
+            return "pages=" + mPages + " rowsScanned=" + mRowsScanned
+                    + " messagesDispatched=" + mMessagesDispatched
+                    + " messagesExpired=" + mMessagesExpired + " rowsDeleted=" + mRowsDeleted
+                    + " durationMs=" + mDurationMillis;
+        }
+    }
+
     /**
      * Used as the HashMap key for matching concatenated message segments.
      */
@@ -0,0 +1,151 @@
+/*
+ * Copyright 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.internal.telephony;
+
+import android.os.Handler;
+import android.os.SystemClock;
+import android.telephony.Rlog;
+
+import com.android.internal.annotations.VisibleForTesting;
+import com.android.internal.util.IndentingPrintWriter;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs the stages of the bring-up of the phone stack and records how long each of them took.
+ *
+ * Stages run on the calling thread in the order they are started, as they create handlers on its
+ * looper and depend on the components created by the stages before them. A stage which nothing
+ * else depends on may be started with {@link #runAsync} instead, to run on another thread
+ * concurrently with the stages which follow.
+ */
+class StagedInitializer {
+    private static final String LOG_TAG = "StagedInitializer";
+
+    private static final class Stage {
+        final String name;
+        final long startTimeMs;
+        final CountDownLatch done = new CountDownLatch(1);
+        volatile String threadName;
+        volatile long durationMs = -1;
+
+        Stage(String name, long startTimeMs) {
+            this.name = name;
+            this.startTimeMs = startTimeMs;
+        }
+    }
+
+    private final long mStartTimeMs = SystemClock.elapsedRealtime();
+    // in the order the stages were started
+    private final List<Stage> mStages = new ArrayList<>();
+
+    /**
+     * Runs a stage on the calling thread.
+     */
+    void run(String name, Runnable stage) {
+        runStage(addStage(name), stage);
+    }
+
+    /**
+     * Runs a stage on the handler, concurrently with the stages started after it. An exception
+     * thrown by the stage is logged and does not stop the other stages.
+     */
+    void runAsync(String name, Handler handler, Runnable stage) {
+        Stage s = addStage(name);
+        handler.post(() -> {
+            try {
+                runStage(s, stage);
+            } catch (RuntimeException e) {
+                Rlog.e(LOG_TAG, "Stage " + name + " failed: " + e);
+            }
+        });
+    }
+
+    /**
+     * Waits for a stage to complete.
+     *
+     * @return true if the stage completed, false if it was not started or did not complete in time
+     */
+    @VisibleForTesting
+    boolean await(String name, long timeoutMs) {
+        Stage stage = getStage(name);
+        if (stage == null) {
+            return false;
+        }
+        try {
+            return stage.done.await(timeoutMs, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * @return how long the stage took in milliseconds, or -1 if it did not complete
+     */
+    @VisibleForTesting
+    long getDurationMillis(String name) {
+        Stage stage = getStage(name);
+        return (stage == null) ? -1 : stage.durationMs;
+    }
+
+    private synchronized Stage addStage(String name) {
+        Stage stage = new Stage(name, SystemClock.elapsedRealtime());
+        mStages.add(stage);
+        return stage;
+    }
+
+    private synchronized Stage getStage(String name) {
+        for (Stage stage : mStages) {
+            if (stage.name.equals(name)) {
+                return stage;
+            }
+        }
+        return null;
+    }
+
+    private static void runStage(Stage stage, Runnable runnable) {
+        stage.threadName = Thread.currentThread().getName();
+        long start = SystemClock.elapsedRealtime();
+        try {
+            runnable.run();
+        } finally {
+            stage.durationMs = SystemClock.elapsedRealtime() - start;
+            stage.done.countDown();
+        }
+    }
+
+    synchronized void dump(IndentingPrintWriter ipw) {
+        long totalMs = 0;
+        ipw.println("Startup stages:");
+        ipw.increaseIndent();
+        for (Stage stage : mStages) {
+            long offsetMs = stage.startTimeMs - mStartTimeMs;
+            if (stage.durationMs < 0) {
+                ipw.println(stage.name + ": pending, started at +" + offsetMs + "ms");
+                continue;
+            }
+            totalMs = Math.max(totalMs, offsetMs + stage.durationMs);
+            ipw.println(stage.name + ": " + stage.durationMs + "ms, started at +" + offsetMs
+                    + "ms on " + stage.threadName);
+        }
+        ipw.decreaseIndent();
+        ipw.println("Startup total: " + totalMs + "ms");
+    }
+}
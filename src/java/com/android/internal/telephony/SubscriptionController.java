@@ -107,14 +107,14 @@ public class SubscriptionController extends ISub.Stub {
             ParcelUuid.fromString(CarrierConfigManager.REMOVE_GROUP_UUID_STRING);
     private final LocalLog mLocalLog = new LocalLog(200);
 
-    // Lock that both mCacheActiveSubInfoList and mCacheOpportunisticSubInfoList use.
+    // Lock that serializes the refreshes of mSubInfoSnapshot. Readers don't take it.
     private Object mSubInfoListLock = new Object();
 
-    /* The Cache of Active SubInfoRecord(s) list of currently in use SubInfoRecord(s) */
-    private final List<SubscriptionInfo> mCacheActiveSubInfoList = new ArrayList<>();
-
-    /* Similar to mCacheActiveSubInfoList but only caching opportunistic subscriptions. */
-    private List<SubscriptionInfo> mCacheOpportunisticSubInfoList = new ArrayList<>();
+    /*
+     * The Cache of Active SubInfoRecord(s) list of currently in use SubInfoRecord(s), and of
+     * opportunistic subscriptions. Replaced as a whole on every refresh.
+     */
+    private volatile SubscriptionInfoSnapshot mSubInfoSnapshot = SubscriptionInfoSnapshot.EMPTY;
     private AtomicBoolean mOpptSubInfoListChangedDirtyBit = new AtomicBoolean();
 
     private static final Comparator<SubscriptionInfo> SUBSCRIPTION_INFO_COMPARATOR =
@@ -313,10 +313,8 @@ public class SubscriptionController extends ISub.Stub {
 
         MultiSimSettingController.getInstance().notifySubscriptionInfoChanged();
         TelephonyMetrics metrics = TelephonyMetrics.getInstance();
-        List<SubscriptionInfo> subInfos;
-        synchronized (mSubInfoListLock) {
-            subInfos = new ArrayList<>(mCacheActiveSubInfoList);
-        }
+        List<SubscriptionInfo> subInfos = new ArrayList<>(
+                mSubInfoSnapshot.getActiveSubInfoList());
 
         if (mOpptSubInfoListChangedDirtyBit.getAndSet(false)) {
             notifyOpportunisticSubscriptionInfoChanged();
@@ -509,27 +507,17 @@ public class SubscriptionController extends ISub.Stub {
         }
 
         // Now that all security checks passes, perform the operation as ourselves.
-        final long identity = Binder.clearCallingIdentity();
-        try {
-            List<SubscriptionInfo> subList = getActiveSubscriptionInfoList(
-                    mContext.getOpPackageName());
-            if (subList != null) {
-                for (SubscriptionInfo si : subList) {
-                    if (si.getSubscriptionId() == subId) {
-                        if (DBG) {
-                            logd("[getActiveSubscriptionInfo]+ subId=" + subId + " subInfo=" + si);
-                        }
-
-                        return si;
-                    }
-                }
-            }
+        SubscriptionInfoSnapshot snapshot = mSubInfoSnapshot;
+        SubscriptionInfo si = snapshot.getActiveSubInfo(subId);
+        if (si != null) {
             if (DBG) {
-                logd("[getActiveSubscriptionInfo]- subId=" + subId
-                        + " subList=" + subList + " subInfo=null");
+                logd("[getActiveSubscriptionInfo]+ subId=" + subId + " subInfo=" + si);
             }
-        } finally {
-            Binder.restoreCallingIdentity(identity);
+            return si;
+        }
+        if (DBG) {
+            logd("[getActiveSubscriptionInfo]- subId=" + subId
+                    + " subList=" + snapshot.getActiveSubInfoList() + " subInfo=null");
         }
 
         return null;
@@ -543,6 +531,9 @@ public class SubscriptionController extends ISub.Stub {
      * @hide
      */
     public SubscriptionInfo getSubscriptionInfo(int subId) {
+        // Active subscriptions are cached, only query the others.
+        SubscriptionInfo activeSubInfo = mSubInfoSnapshot.getActiveSubInfo(subId);
+        if (activeSubInfo != null) return activeSubInfo;
         List<SubscriptionInfo> subInfoList = getSubInfo(
                 SubscriptionManager.UNIQUE_KEY_SUBSCRIPTION_ID + "=" + subId, null);
         if (subInfoList == null || subInfoList.isEmpty()) return null;
@@ -580,25 +571,15 @@ public class SubscriptionController extends ISub.Stub {
             return null;
         }
 
-        final long identity = Binder.clearCallingIdentity();
-        try {
-            List<SubscriptionInfo> subList = getActiveSubscriptionInfoList(
-                    mContext.getOpPackageName());
-            if (subList != null) {
-                for (SubscriptionInfo si : subList) {
-                    if (iccId.equals(si.getIccId())) {
-                        if (DBG)
-                            logd("[getActiveSubInfoUsingIccId]+ iccId=" + iccId + " subInfo=" + si);
-                        return si;
-                    }
-                }
-            }
-            if (DBG) {
-                logd("[getActiveSubInfoUsingIccId]+ iccId=" + iccId
-                        + " subList=" + subList + " subInfo=null");
-            }
-        } finally {
-            Binder.restoreCallingIdentity(identity);
+        SubscriptionInfoSnapshot snapshot = mSubInfoSnapshot;
+        SubscriptionInfo si = snapshot.getActiveSubInfoForIccId(iccId);
+        if (si != null) {
+            if (DBG) logd("[getActiveSubInfoUsingIccId]+ iccId=" + iccId + " subInfo=" + si);
+            return si;
+        }
+        if (DBG) {
+            logd("[getActiveSubInfoUsingIccId]+ iccId=" + iccId
+                    + " subList=" + snapshot.getActiveSubInfoList() + " subInfo=null");
         }
 
         return null;
@@ -628,31 +609,17 @@ public class SubscriptionController extends ISub.Stub {
         }
 
         // Now that all security checks passes, perform the operation as ourselves.
-        final long identity = Binder.clearCallingIdentity();
-        try {
-            List<SubscriptionInfo> subList = getActiveSubscriptionInfoList(
-                    mContext.getOpPackageName());
-            if (subList != null) {
-                for (SubscriptionInfo si : subList) {
-                    if (si.getSimSlotIndex() == slotIndex) {
-                        if (DBG) {
-                            logd("[getActiveSubscriptionInfoForSimSlotIndex]+ slotIndex="
-                                    + slotIndex + " subId=" + si);
-                        }
-                        return si;
-                    }
-                }
-                if (DBG) {
-                    logd("[getActiveSubscriptionInfoForSimSlotIndex]+ slotIndex=" + slotIndex
-                            + " subId=null");
-                }
-            } else {
-                if (DBG) {
-                    logd("[getActiveSubscriptionInfoForSimSlotIndex]+ subList=null");
-                }
+        SubscriptionInfo si = mSubInfoSnapshot.getActiveSubInfoForSlotIndex(slotIndex);
+        if (si != null) {
+            if (DBG) {
+                logd("[getActiveSubscriptionInfoForSimSlotIndex]+ slotIndex="
+                        + slotIndex + " subId=" + si);
             }
-        } finally {
-            Binder.restoreCallingIdentity(identity);
+            return si;
+        }
+        if (DBG) {
+            logd("[getActiveSubscriptionInfoForSimSlotIndex]+ slotIndex=" + slotIndex
+                    + " subId=null");
         }
 
         return null;
@@ -701,7 +668,8 @@ public class SubscriptionController extends ISub.Stub {
     @UnsupportedAppUsage
     @Override
     public List<SubscriptionInfo> getActiveSubscriptionInfoList(String callingPackage) {
-        return getSubscriptionInfoListFromCacheHelper(callingPackage, mCacheActiveSubInfoList);
+        return getSubscriptionInfoListFromCacheHelper(callingPackage,
+                mSubInfoSnapshot.getActiveSubInfoList());
     }
 
     /**
@@ -710,9 +678,9 @@ public class SubscriptionController extends ISub.Stub {
      */
     @VisibleForTesting  // For mockito to mock this method
     public void refreshCachedActiveSubscriptionInfoList() {
-        boolean opptSubListChanged;
-
         synchronized (mSubInfoListLock) {
+            List<SubscriptionInfo> cachedActiveSubInfoList =
+                    mSubInfoSnapshot.getActiveSubInfoList();
             List<SubscriptionInfo> activeSubscriptionInfoList = getSubInfo(
                     SubscriptionManager.SIM_SLOT_INDEX + ">=0 OR "
                     + SubscriptionManager.SUBSCRIPTION_TYPE + "="
@@ -721,25 +689,28 @@ public class SubscriptionController extends ISub.Stub {
 
             if (activeSubscriptionInfoList != null) {
                 // Log when active sub info changes.
-                if (mCacheActiveSubInfoList.size() != activeSubscriptionInfoList.size()
-                        || !mCacheActiveSubInfoList.containsAll(activeSubscriptionInfoList)) {
+                if (cachedActiveSubInfoList.size() != activeSubscriptionInfoList.size()
+                        || !cachedActiveSubInfoList.containsAll(activeSubscriptionInfoList)) {
                     logdl("Active subscription info list changed. " + activeSubscriptionInfoList);
                 }
 
-                mCacheActiveSubInfoList.clear();
                 activeSubscriptionInfoList.sort(SUBSCRIPTION_INFO_COMPARATOR);
-                mCacheActiveSubInfoList.addAll(activeSubscriptionInfoList);
             } else {
                 logd("activeSubscriptionInfoList is null.");
-                mCacheActiveSubInfoList.clear();
+                activeSubscriptionInfoList = new ArrayList<>();
             }
 
+            SubscriptionInfoSnapshot snapshot = new SubscriptionInfoSnapshot(
+                    activeSubscriptionInfoList, getOpportunisticSubscriptionInfoList());
             // Refresh cached opportunistic sub list and detect whether it's changed.
-            refreshCachedOpportunisticSubscriptionInfoList();
+            refreshCachedOpportunisticSubscriptionInfoList(snapshot);
+
+            // Publish both lists at once.
+            mSubInfoSnapshot = snapshot;
 
             if (DBG_CACHE) {
-                if (!mCacheActiveSubInfoList.isEmpty()) {
-                    for (SubscriptionInfo si : mCacheActiveSubInfoList) {
+                if (!activeSubscriptionInfoList.isEmpty()) {
+                    for (SubscriptionInfo si : activeSubscriptionInfoList) {
                         logd("[refreshCachedActiveSubscriptionInfoList] Setting Cached info="
                                 + si);
                     }
@@ -1280,7 +1251,7 @@ public class SubscriptionController extends ISub.Stub {
         // validate the given info - does it exist in the active subscription list
         int subId = SubscriptionManager.INVALID_SUBSCRIPTION_ID;
         int slotIndex = SubscriptionManager.INVALID_SIM_SLOT_INDEX;
-        for (SubscriptionInfo info : mCacheActiveSubInfoList) {
+        for (SubscriptionInfo info : mSubInfoSnapshot.getActiveSubInfoList()) {
             if ((info.getSubscriptionType() == subscriptionType)
                     && info.getIccId().equalsIgnoreCase(uniqueId)) {
                 subId = info.getSubscriptionId();
@@ -1393,6 +1364,24 @@ public class SubscriptionController extends ISub.Stub {
     Uri insertEmptySubInfoRecord(String uniqueId, String displayName, int slotIndex,
             int subscriptionType) {
         ContentResolver resolver = mContext.getContentResolver();
+        ContentValues value = getEmptySubInfoRecordValues(uniqueId, displayName, slotIndex,
+                subscriptionType);
+
+        Uri uri = resolver.insert(SubscriptionManager.CONTENT_URI, value);
+
+        // Refresh the Cache of Active Subscription Info List
+        refreshCachedActiveSubscriptionInfoList();
+
+        return uri;
+    }
+
+    /**
+     * Returns the values of the record {@link #insertEmptySubInfoRecord} inserts, for callers
+     * inserting it as part of a batch. The cache of active subscriptions is not refreshed.
+     */
+    @VisibleForTesting(visibility = VisibleForTesting.Visibility.PACKAGE)
+    public ContentValues getEmptySubInfoRecordValues(String uniqueId, String displayName,
+            int slotIndex, int subscriptionType) {
         ContentValues value = new ContentValues();
         value.put(SubscriptionManager.ICC_ID, uniqueId);
         int color = getUnusedColor(mContext.getOpPackageName());
@@ -1413,13 +1402,7 @@ public class SubscriptionController extends ISub.Stub {
                 }
             }
         }
-
-        Uri uri = resolver.insert(SubscriptionManager.CONTENT_URI, value);
-
-        // Refresh the Cache of Active Subscription Info List
-        refreshCachedActiveSubscriptionInfoList();
-
-        return uri;
+        return value;
     }
 
     /**
@@ -2481,12 +2464,11 @@ public class SubscriptionController extends ISub.Stub {
     }
 
     private boolean isSubscriptionVisible(int subId) {
-        for (SubscriptionInfo info : mCacheOpportunisticSubInfoList) {
-            if (info.getSubscriptionId() == subId) {
-                // If group UUID is null, it's stand alone opportunistic profile. So it's visible.
-                // otherwise, it's bundled opportunistic profile, and is not visible.
-                return info.getGroupUuid() == null;
-            }
+        SubscriptionInfo info = mSubInfoSnapshot.getOpportunisticSubInfo(subId);
+        if (info != null) {
+            // If group UUID is null, it's stand alone opportunistic profile. So it's visible.
+            // otherwise, it's bundled opportunistic profile, and is not visible.
+            return info.getGroupUuid() == null;
         }
 
         return true;
@@ -2937,7 +2919,7 @@ public class SubscriptionController extends ISub.Stub {
     @Override
     public List<SubscriptionInfo> getOpportunisticSubscriptions(String callingPackage) {
         return getSubscriptionInfoListFromCacheHelper(
-                callingPackage, mCacheOpportunisticSubInfoList);
+                callingPackage, mSubInfoSnapshot.getOpportunisticSubInfoList());
     }
 
     /**
@@ -3309,6 +3291,9 @@ public class SubscriptionController extends ISub.Stub {
     }
 
     public ParcelUuid getGroupUuid(int subId) {
+        // Active subscriptions are cached, only query the others.
+        SubscriptionInfo activeSubInfo = mSubInfoSnapshot.getActiveSubInfo(subId);
+        if (activeSubInfo != null) return activeSubInfo.getGroupUuid();
         ParcelUuid groupUuid;
         List<SubscriptionInfo> subInfo = getSubInfo(SubscriptionManager.UNIQUE_KEY_SUBSCRIPTION_ID
                         + "=" + subId, null);
@@ -3581,25 +3566,24 @@ public class SubscriptionController extends ISub.Stub {
             canReadAllPhoneState = false;
         }
 
-        synchronized (mSubInfoListLock) {
-            // If the caller can read all phone state, just return the full list.
-            if (canReadAllPhoneState) {
-                return new ArrayList<>(cacheSubList);
-            }
-
-            // Filter the list to only include subscriptions which the caller can manage.
-            return cacheSubList.stream()
-                    .filter(subscriptionInfo -> {
-                        try {
-                            return TelephonyPermissions.checkCallingOrSelfReadPhoneState(mContext,
-                                    subscriptionInfo.getSubscriptionId(), callingPackage,
-                                    "getSubscriptionInfoList");
-                        } catch (SecurityException e) {
-                            return false;
-                        }
-                    })
-                    .collect(Collectors.toList());
+        // The list is immutable, no lock is needed.
+        // If the caller can read all phone state, just return the full list.
+        if (canReadAllPhoneState) {
+            return new ArrayList<>(cacheSubList);
         }
+
+        // Filter the list to only include subscriptions which the caller can manage.
+        return cacheSubList.stream()
+                .filter(subscriptionInfo -> {
+                    try {
+                        return TelephonyPermissions.checkCallingOrSelfReadPhoneState(mContext,
+                                subscriptionInfo.getSubscriptionId(), callingPackage,
+                                "getSubscriptionInfoList");
+                    } catch (SecurityException e) {
+                        return false;
+                    }
+                })
+                .collect(Collectors.toList());
     }
 
     private synchronized boolean addToSubIdList(int slotIndex, int subId, int subscriptionType) {
@@ -3660,51 +3644,54 @@ public class SubscriptionController extends ISub.Stub {
         }
     }
 
-    private void refreshCachedOpportunisticSubscriptionInfoList() {
-        synchronized (mSubInfoListLock) {
-            List<SubscriptionInfo> oldOpptCachedList = mCacheOpportunisticSubInfoList;
-
-            List<SubscriptionInfo> subList = getSubInfo(
-                    SubscriptionManager.IS_OPPORTUNISTIC + "=1 AND ("
-                            + SubscriptionManager.SIM_SLOT_INDEX + ">=0 OR "
-                            + SubscriptionManager.IS_EMBEDDED + "=1)", null);
+    private List<SubscriptionInfo> getOpportunisticSubscriptionInfoList() {
+        List<SubscriptionInfo> subList = getSubInfo(
+                SubscriptionManager.IS_OPPORTUNISTIC + "=1 AND ("
+                        + SubscriptionManager.SIM_SLOT_INDEX + ">=0 OR "
+                        + SubscriptionManager.IS_EMBEDDED + "=1)", null);
 
-            if (subList != null) {
-                subList.sort(SUBSCRIPTION_INFO_COMPARATOR);
-            } else {
-                subList = new ArrayList<>();
-            }
+        if (subList != null) {
+            subList.sort(SUBSCRIPTION_INFO_COMPARATOR);
+        } else {
+            subList = new ArrayList<>();
+        }
+        return subList;
+    }
 
-            mCacheOpportunisticSubInfoList = subList;
+    // Called with a snapshot before it is published.
+    private void refreshCachedOpportunisticSubscriptionInfoList(
+            SubscriptionInfoSnapshot snapshot) {
+        List<SubscriptionInfo> oldOpptCachedList = mSubInfoSnapshot.getOpportunisticSubInfoList();
+        List<SubscriptionInfo> subList = snapshot.getOpportunisticSubInfoList();
 
-            for (SubscriptionInfo info : mCacheOpportunisticSubInfoList) {
-                if (shouldDisableSubGroup(info.getGroupUuid())) {
-                    info.setGroupDisabled(true);
-                }
+        for (SubscriptionInfo info : subList) {
+            if (shouldDisableSubGroup(info.getGroupUuid(), snapshot)) {
+                info.setGroupDisabled(true);
             }
+        }
 
-            if (DBG_CACHE) {
-                if (!mCacheOpportunisticSubInfoList.isEmpty()) {
-                    for (SubscriptionInfo si : mCacheOpportunisticSubInfoList) {
-                        logd("[refreshCachedOpptSubscriptionInfoList] Setting Cached info="
-                                + si);
-                    }
-                } else {
-                    logdl("[refreshCachedOpptSubscriptionInfoList]- no info return");
+        if (DBG_CACHE) {
+            if (!subList.isEmpty()) {
+                for (SubscriptionInfo si : subList) {
+                    logd("[refreshCachedOpptSubscriptionInfoList] Setting Cached info="
+                            + si);
                 }
+            } else {
+                logdl("[refreshCachedOpptSubscriptionInfoList]- no info return");
             }
+        }
 
-            if (!oldOpptCachedList.equals(mCacheOpportunisticSubInfoList)) {
-                mOpptSubInfoListChangedDirtyBit.set(true);
-            }
+        if (!oldOpptCachedList.equals(subList)) {
+            mOpptSubInfoListChangedDirtyBit.set(true);
         }
     }
 
-    private boolean shouldDisableSubGroup(ParcelUuid groupUuid) {
+    private boolean shouldDisableSubGroup(ParcelUuid groupUuid,
+            SubscriptionInfoSnapshot snapshot) {
         if (groupUuid == null) return false;
 
-        for (SubscriptionInfo activeInfo : mCacheActiveSubInfoList) {
-            if (!activeInfo.isOpportunistic() && groupUuid.equals(activeInfo.getGroupUuid())) {
+        for (SubscriptionInfo activeInfo : snapshot.getActiveSubInfosInGroup(groupUuid)) {
+            if (!activeInfo.isOpportunistic()) {
                 return false;
             }
         }
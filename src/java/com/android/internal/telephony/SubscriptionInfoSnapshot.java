@@ -0,0 +1,123 @@
+/*
+ * Copyright 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.internal.telephony;
+
+import android.os.ParcelUuid;
+import android.telephony.SubscriptionInfo;
+import android.util.SparseArray;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Immutable view of the active and opportunistic subscriptions cached by SubscriptionController.
+ *
+ * A new snapshot is built on every refresh of the cache and published at once, so binder calls
+ * read a consistent set of subscriptions without taking a lock. The active subscriptions are
+ * indexed by subscription id, slot index, ICCID and group UUID; lookups return the first matching
+ * subscription in list order, as a scan of the list would.
+ */
+final class SubscriptionInfoSnapshot {
+    static final SubscriptionInfoSnapshot EMPTY = new SubscriptionInfoSnapshot(
+            Collections.emptyList(), Collections.emptyList());
+
+    // sorted by slot index then subscription id
+    private final List<SubscriptionInfo> mActiveSubInfoList;
+    private final List<SubscriptionInfo> mOpportunisticSubInfoList;
+
+    private final SparseArray<SubscriptionInfo> mActiveBySubId = new SparseArray<>();
+    private final SparseArray<SubscriptionInfo> mActiveBySlotIndex = new SparseArray<>();
+    private final HashMap<String, SubscriptionInfo> mActiveByIccId = new HashMap<>();
+    private final HashMap<ParcelUuid, List<SubscriptionInfo>> mActiveByGroupUuid = new HashMap<>();
+    private final SparseArray<SubscriptionInfo> mOpportunisticBySubId = new SparseArray<>();
+
+    /**
+     * @param activeSubInfoList the active subscriptions, in the order they are returned
+     * @param opportunisticSubInfoList the opportunistic subscriptions, in the order they are
+     *        returned
+     */
+    SubscriptionInfoSnapshot(List<SubscriptionInfo> activeSubInfoList,
+            List<SubscriptionInfo> opportunisticSubInfoList) {
+        mActiveSubInfoList = Collections.unmodifiableList(new ArrayList<>(activeSubInfoList));
+        mOpportunisticSubInfoList = Collections.unmodifiableList(
+                new ArrayList<>(opportunisticSubInfoList));
+
+        for (SubscriptionInfo info : mActiveSubInfoList) {
+            if (mActiveBySubId.get(info.getSubscriptionId()) == null) {
+                mActiveBySubId.put(info.getSubscriptionId(), info);
+            }
+            if (mActiveBySlotIndex.get(info.getSimSlotIndex()) == null) {
+                mActiveBySlotIndex.put(info.getSimSlotIndex(), info);
+            }
+            if (info.getIccId() != null && !mActiveByIccId.containsKey(info.getIccId())) {
+                mActiveByIccId.put(info.getIccId(), info);
+            }
+            ParcelUuid groupUuid = info.getGroupUuid();
+            if (groupUuid != null) {
+                List<SubscriptionInfo> group = mActiveByGroupUuid.get(groupUuid);
+                if (group == null) {
+                    group = new ArrayList<>();
+                    mActiveByGroupUuid.put(groupUuid, group);
+                }
+                group.add(info);
+            }
+        }
+        for (SubscriptionInfo info : mOpportunisticSubInfoList) {
+            if (mOpportunisticBySubId.get(info.getSubscriptionId()) == null) {
+                mOpportunisticBySubId.put(info.getSubscriptionId(), info);
+            }
+        }
+    }
+
+    /** Returns the active subscriptions, sorted by slot index then subscription id. */
+    List<SubscriptionInfo> getActiveSubInfoList() {
+        return mActiveSubInfoList;
+    }
+
+    /** Returns the opportunistic subscriptions, sorted by slot index then subscription id. */
+    List<SubscriptionInfo> getOpportunisticSubInfoList() {
+        return mOpportunisticSubInfoList;
+    }
+
+    /** Returns the active subscription with the given id, or null. */
+    SubscriptionInfo getActiveSubInfo(int subId) {
+        return mActiveBySubId.get(subId);
+    }
+
+    /** Returns the first active subscription in the given slot, or null. */
+    SubscriptionInfo getActiveSubInfoForSlotIndex(int slotIndex) {
+        return mActiveBySlotIndex.get(slotIndex);
+    }
+
+    /** Returns the first active subscription with the given ICCID, or null. */
+    SubscriptionInfo getActiveSubInfoForIccId(String iccId) {
+        return (iccId == null) ? null : mActiveByIccId.get(iccId);
+    }
+
+    /** Returns the active subscriptions of the given group, which may be empty. */
+    List<SubscriptionInfo> getActiveSubInfosInGroup(ParcelUuid groupUuid) {
+        List<SubscriptionInfo> group = (groupUuid == null) ? null
+                : mActiveByGroupUuid.get(groupUuid);
+        return (group == null) ? Collections.emptyList() : Collections.unmodifiableList(group);
+    }
+
+    /** Returns the opportunistic subscription with the given id, or null. */
+    SubscriptionInfo getOpportunisticSubInfo(int subId) {
+        return mOpportunisticBySubId.get(subId);
+    }
+}
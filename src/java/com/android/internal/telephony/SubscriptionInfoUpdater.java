@@ -21,12 +21,14 @@ import android.annotation.Nullable;
 import android.annotation.UnsupportedAppUsage;
 import android.app.ActivityManager;
 import android.app.UserSwitchObserver;
-import android.content.ContentResolver;
+import android.content.ContentProviderOperation;
 import android.content.ContentValues;
 import android.content.Context;
 import android.content.Intent;
+import android.content.OperationApplicationException;
 import android.content.SharedPreferences;
 import android.content.pm.IPackageManager;
+import android.database.Cursor;
 import android.os.AsyncResult;
 import android.os.Handler;
 import android.os.IRemoteCallback;
@@ -66,7 +68,10 @@ import com.android.internal.telephony.uicc.UiccSlot;
 import java.io.FileDescriptor;
 import java.io.PrintWriter;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  *@hide
@@ -93,6 +98,22 @@ public class SubscriptionInfoUpdater extends Handler {
 
     private static final String ICCID_STRING_FOR_NO_SIM = "";
 
+    // Columns written for embedded subscriptions, read back to skip unchanged rows.
+    private static final String[] EMBEDDED_SUBSCRIPTION_COLUMNS = {
+            SubscriptionManager.ICC_ID,
+            SubscriptionManager.IS_EMBEDDED,
+            SubscriptionManager.ACCESS_RULES,
+            SubscriptionManager.IS_REMOVABLE,
+            SubscriptionManager.DISPLAY_NAME,
+            SubscriptionManager.NAME_SOURCE,
+            SubscriptionManager.PROFILE_CLASS,
+            SubscriptionManager.CARRIER_ID,
+            SubscriptionManager.MCC_STRING,
+            SubscriptionManager.MCC,
+            SubscriptionManager.MNC_STRING,
+            SubscriptionManager.MNC,
+    };
+
     private static final ParcelUuid REMOVE_GROUP_UUID =
             ParcelUuid.fromString(CarrierConfigManager.REMOVE_GROUP_UUID_STRING);
 
@@ -783,11 +804,11 @@ public class SubscriptionInfoUpdater extends Handler {
 
         if (DBG) logd("Get eUICC profile list of size " + embeddedProfiles.length);
 
-        // Note that this only tracks whether we make any writes to the DB. It's possible this will
-        // be set to true for an update even when the row contents remain exactly unchanged from
-        // before, since we don't compare against the previous value. Since this is only intended to
-        // avoid some spurious broadcasts (particularly for users who don't use eSIM at all), this
-        // is fine.
+        // Note that this only tracks whether we make any writes to the DB. Rows are only written
+        // if they differ from the values to write, but it's possible this will be set to true even
+        // when a row remains unchanged, e.g. if its current values could not be read. Since this
+        // is only intended to avoid some spurious broadcasts (particularly for users who don't use
+        // eSIM at all), this is fine.
         boolean hasChanges = false;
 
         // Update or insert records for all embedded subscriptions (except non-removable ones if the
@@ -795,16 +816,28 @@ public class SubscriptionInfoUpdater extends Handler {
         // returned by the eUICC controller).
         List<SubscriptionInfo> existingSubscriptions = SubscriptionController.getInstance()
                 .getSubscriptionInfoListForEmbeddedSubscriptionUpdate(embeddedIccids, isRemovable);
-        ContentResolver contentResolver = mContext.getContentResolver();
+        // Current values of the rows to update, to only write the rows which change.
+        Map<String, ContentValues> existingValues = getEmbeddedSubscriptionValues(embeddedIccids);
+        // All writes, including the insertion of new records, are applied in a single batch,
+        // followed by a single cache refresh.
+        ArrayList<ContentProviderOperation> operations = new ArrayList<>();
         for (EuiccProfileInfo embeddedProfile : embeddedProfiles) {
             int index =
                     findSubscriptionInfoForIccid(existingSubscriptions, embeddedProfile.getIccid());
             int prevCarrierId = TelephonyManager.UNKNOWN_CARRIER_ID;
             int nameSource = SubscriptionManager.NAME_SOURCE_DEFAULT_SOURCE;
             if (index < 0) {
-                // No existing entry for this ICCID; create an empty one.
-                SubscriptionController.getInstance().insertEmptySubInfoRecord(
-                        embeddedProfile.getIccid(), SubscriptionManager.SIM_NOT_INSERTED);
+                // No existing entry for this ICCID; create an empty one, which the update below
+                // fills in.
+                operations.add(ContentProviderOperation.newInsert(SubscriptionManager.CONTENT_URI)
+                        .withValues(SubscriptionController.getInstance()
+                                .getEmptySubInfoRecordValues(embeddedProfile.getIccid(),
+                                        null /* displayName */,
+                                        SubscriptionManager.SIM_NOT_INSERTED,
+                                        SubscriptionManager.SUBSCRIPTION_TYPE_LOCAL_SIM))
+                        .build());
+                existingValues.remove(embeddedProfile.getIccid());
+                hasChanges = true;
             } else {
                 nameSource = existingSubscriptions.get(index).getNameSource();
                 prevCarrierId = existingSubscriptions.get(index).getCarrierId();
@@ -852,12 +885,16 @@ public class SubscriptionInfoUpdater extends Handler {
                 values.put(SubscriptionManager.MNC_STRING, mnc);
                 values.put(SubscriptionManager.MNC, mnc);
             }
+            if (hasSameValues(existingValues.get(embeddedProfile.getIccid()), values)) {
+                if (DBG) logd("embeddedProfile " + embeddedProfile.getIccid() + " unchanged");
+                continue;
+            }
             hasChanges = true;
-            contentResolver.update(SubscriptionManager.CONTENT_URI, values,
-                    SubscriptionManager.ICC_ID + "=\"" + embeddedProfile.getIccid() + "\"", null);
-
-            // refresh Cached Active Subscription Info List
-            SubscriptionController.getInstance().refreshCachedActiveSubscriptionInfoList();
+            operations.add(ContentProviderOperation.newUpdate(SubscriptionManager.CONTENT_URI)
+                    .withValues(values)
+                    .withSelection(SubscriptionManager.ICC_ID + "=\"" + embeddedProfile.getIccid()
+                            + "\"", null)
+                    .build());
         }
 
         // Remove all remaining subscriptions which have embedded = true. We set embedded to false
@@ -877,13 +914,29 @@ public class SubscriptionInfoUpdater extends Handler {
                     iccidsToRemove.add("\"" + info.getIccId() + "\"");
                 }
             }
-            String whereClause = SubscriptionManager.ICC_ID + " IN ("
-                    + TextUtils.join(",", iccidsToRemove) + ")";
-            ContentValues values = new ContentValues();
-            values.put(SubscriptionManager.IS_EMBEDDED, 0);
-            hasChanges = true;
-            contentResolver.update(SubscriptionManager.CONTENT_URI, values, whereClause, null);
+            if (!iccidsToRemove.isEmpty()) {
+                String whereClause = SubscriptionManager.ICC_ID + " IN ("
+                        + TextUtils.join(",", iccidsToRemove) + ")";
+                ContentValues values = new ContentValues();
+                values.put(SubscriptionManager.IS_EMBEDDED, 0);
+                hasChanges = true;
+                operations.add(ContentProviderOperation.newUpdate(SubscriptionManager.CONTENT_URI)
+                        .withValues(values)
+                        .withSelection(whereClause, null)
+                        .build());
+            }
+        }
 
+        if (!operations.isEmpty()) {
+            if (DBG) logd("Applying " + operations.size() + " embedded subscription update(s)");
+            try {
+                mContext.getContentResolver().applyBatch(
+                        SubscriptionManager.CONTENT_URI.getAuthority(), operations);
+            } catch (RemoteException | OperationApplicationException e) {
+                loge("Failed to update embedded subscriptions: " + e);
+            }
+        }
+        if (hasChanges) {
             // refresh Cached Active Subscription Info List
             SubscriptionController.getInstance().refreshCachedActiveSubscriptionInfoList();
         }
@@ -999,6 +1052,83 @@ public class SubscriptionInfoUpdater extends Handler {
         }
     }
 
+    /**
+     * Reads the current values of the columns written for embedded subscriptions, for the rows of
+     * the given ICCIDs.
+     *
+     * @return the values by ICCID, without the rows which could not be read
+     */
+    private Map<String, ContentValues> getEmbeddedSubscriptionValues(String[] iccids) {
+        Map<String, ContentValues> valuesByIccid = new HashMap<>();
+        if (iccids.length == 0) {
+            return valuesByIccid;
+        }
+        StringBuilder selection = new StringBuilder(SubscriptionManager.ICC_ID).append(" IN (");
+        for (int i = 0; i < iccids.length; i++) {
+            if (i > 0) {
+                selection.append(",");
+            }
+            selection.append("\"").append(iccids[i]).append("\"");
+        }
+        selection.append(")");
+
+        try (Cursor cursor = mContext.getContentResolver().query(SubscriptionManager.CONTENT_URI,
+                EMBEDDED_SUBSCRIPTION_COLUMNS, selection.toString(), null, null)) {
+            while (cursor != null && cursor.moveToNext()) {
+                ContentValues values = new ContentValues();
+                for (int i = 0; i < cursor.getColumnCount(); i++) {
+                    String column = cursor.getColumnName(i);
+                    switch (cursor.getType(i)) {
+                        case Cursor.FIELD_TYPE_NULL:
+                            values.putNull(column);
+                            break;
+                        case Cursor.FIELD_TYPE_BLOB:
+                            values.put(column, cursor.getBlob(i));
+                            break;
+                        default:
+                            values.put(column, cursor.getString(i));
+                            break;
+                    }
+                }
+                valuesByIccid.put(values.getAsString(SubscriptionManager.ICC_ID), values);
+            }
+        } catch (RuntimeException e) {
+            // Write all rows.
+            loge("Failed to read embedded subscriptions: " + e);
+        }
+        return valuesByIccid;
+    }
+
+    /**
+     * Whether writing {@code values} would leave a row with the {@code current} values unchanged.
+     */
+    private static boolean hasSameValues(@Nullable ContentValues current, ContentValues values) {
+        if (current == null) {
+            return false;
+        }
+        for (String column : values.keySet()) {
+            if (!current.containsKey(column)) {
+                return false;
+            }
+            Object value = values.get(column);
+            Object currentValue = current.get(column);
+            if (value instanceof byte[] || currentValue instanceof byte[]) {
+                if (!(value instanceof byte[] && currentValue instanceof byte[]
+                        && Arrays.equals((byte[]) value, (byte[]) currentValue))) {
+                    return false;
+                }
+                continue;
+            }
+            // Booleans are stored as integers, everything else is compared as read back.
+            String valueString = (value instanceof Boolean) ? (((Boolean) value) ? "1" : "0")
+                    : (value == null ? null : value.toString());
+            if (!TextUtils.equals(valueString, (String) currentValue)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     private static int findSubscriptionInfoForIccid(List<SubscriptionInfo> list, String iccid) {
         for (int i = 0; i < list.size(); i++) {
             if (TextUtils.equals(iccid, list.get(i).getIccId())) {
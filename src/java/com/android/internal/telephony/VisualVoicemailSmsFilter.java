@@ -71,6 +71,12 @@ public class VisualVoicemailSmsFilter {
 
     private static Map<String, List<Pattern>> sPatterns;
 
+    /**
+     * Literal prefixes of {@link #sPatterns}, by MCC/MNC. A message can only match one of the
+     * patterns if it starts with the prefix of that pattern.
+     */
+    private static Map<String, List<String>> sPatternPrefixes;
+
     private static final PhoneAccountHandleConverter DEFAULT_PHONE_ACCOUNT_HANDLE_CONVERTER =
             new PhoneAccountHandleConverter() {
 
@@ -123,6 +129,10 @@ public class VisualVoicemailSmsFilter {
         VisualVoicemailSmsFilterSettings settings;
         settings = telephonyManager.getActiveVisualVoicemailSmsFilterSettings(subId);
 
+        if (!mayBeVvmSms(context, pdus, format, subId, settings)) {
+            return false;
+        }
+
         if (settings == null) {
             FullMessage fullMessage = getFullMessage(pdus, format);
             if (fullMessage != null) {
@@ -200,6 +210,90 @@ public class VisualVoicemailSmsFilter {
         return false;
     }
 
+    /**
+     * Checks whether the SMS could be a visual voicemail SMS from the start of the first PDU, so
+     * that other SMS are rejected without decoding the whole message.
+     *
+     * @return false if the SMS is certainly not a visual voicemail SMS
+     */
+    private static boolean mayBeVvmSms(Context context, byte[][] pdus, String format, int subId,
+            @Nullable VisualVoicemailSmsFilterSettings settings) {
+        if (pdus.length == 0) {
+            return true;
+        }
+        SmsMessage firstMessage = SmsMessage.createFromPdu(pdus[0], format);
+        if (firstMessage == null) {
+            // Unparsable SMS are checked for the alternative format.
+            return true;
+        }
+        String start;
+        try {
+            start = getMessageBody(firstMessage, StandardCharsets.UTF_8.newDecoder());
+        } catch (CharacterCodingException e) {
+            return true;
+        }
+        if (start == null) {
+            start = "";
+        }
+
+        if (settings != null && mayStartWith(start, settings.clientPrefix + ":")) {
+            return true;
+        }
+        buildPatternsMap(context);
+        String mccMnc = context.getSystemService(TelephonyManager.class).getSimOperator(subId);
+        List<String> prefixes = sPatternPrefixes.get(mccMnc);
+        if (prefixes != null) {
+            for (String prefix : prefixes) {
+                if (mayStartWith(start, prefix)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return whether a message starting with {@code start} may start with {@code prefix}
+     */
+    private static boolean mayStartWith(String start, String prefix) {
+        return start.length() < prefix.length() ? prefix.startsWith(start)
+                : start.startsWith(prefix);
+    }
+
+    /**
+     * Returns a literal string all the strings matching {@code regex} start with, which may be
+     * empty.
+     */
+    @VisibleForTesting
+    public static String getLiteralPrefix(String regex) {
+        if (regex.indexOf('|') >= 0) {
+            // Alternatives may start differently
+            return "";
+        }
+        StringBuilder prefix = new StringBuilder();
+        int i = regex.startsWith("^") ? 1 : 0;
+        while (i < regex.length()) {
+            char c = regex.charAt(i);
+            if (c == '\\' && i + 1 < regex.length()
+                    && !Character.isLetterOrDigit(regex.charAt(i + 1))) {
+                // escaped character
+                prefix.append(regex.charAt(i + 1));
+                i += 2;
+            } else if (Character.isLetterOrDigit(c) || "/:;=,-_ @#%&'\"<>!~`".indexOf(c) >= 0) {
+                prefix.append(c);
+                i++;
+            } else {
+                break;
+            }
+        }
+        if (i < regex.length() && "?*+{".indexOf(regex.charAt(i)) >= 0
+                && prefix.length() > 0) {
+            // The last character is quantified
+            prefix.setLength(prefix.length() - 1);
+        }
+        return prefix.toString();
+    }
+
     private static boolean messageBodyMatchesVvmPattern(Context context, int subId,
             String messageBody) {
         buildPatternsMap(context);
@@ -232,24 +326,31 @@ public class VisualVoicemailSmsFilter {
         }
     }
 
-    private static void buildPatternsMap(Context context) {
+    private static synchronized void buildPatternsMap(Context context) {
         if (sPatterns != null) {
             return;
         }
-        sPatterns = new ArrayMap<>();
+        Map<String, List<Pattern>> patterns = new ArrayMap<>();
+        Map<String, List<String>> patternPrefixes = new ArrayMap<>();
         // TODO(twyen): build from CarrierConfig once public API can be updated.
         for (String entry : context.getResources()
                 .getStringArray(com.android.internal.R.array.config_vvmSmsFilterRegexes)) {
             String[] mccMncList = entry.split(";")[0].split(",");
-            Pattern pattern = Pattern.compile(entry.split(";")[1]);
+            String regex = entry.split(";")[1];
+            Pattern pattern = Pattern.compile(regex);
+            String prefix = getLiteralPrefix(regex);
 
             for (String mccMnc : mccMncList) {
-                if (!sPatterns.containsKey(mccMnc)) {
-                    sPatterns.put(mccMnc, new ArrayList<>());
+                if (!patterns.containsKey(mccMnc)) {
+                    patterns.put(mccMnc, new ArrayList<>());
+                    patternPrefixes.put(mccMnc, new ArrayList<>());
                 }
-                sPatterns.get(mccMnc).add(pattern);
+                patterns.get(mccMnc).add(pattern);
+                patternPrefixes.get(mccMnc).add(prefix);
             }
         }
+        sPatternPrefixes = patternPrefixes;
+        sPatterns = patterns;
     }
 
     private static void sendVvmSmsBroadcast(Context context,
@@ -289,19 +390,12 @@ public class VisualVoicemailSmsFilter {
             if (result.firstMessage == null) {
                 result.firstMessage = message;
             }
-            String body = message.getMessageBody();
-            if (body == null && message.getUserData() != null) {
-                // Attempt to interpret the user data as UTF-8. UTF-8 string over data SMS using
-                // 8BIT data coding scheme is our recommended way to send VVM SMS and is used in CTS
-                // Tests. The OMTP visual voicemail specification does not specify the SMS type and
-                // encoding.
-                ByteBuffer byteBuffer = ByteBuffer.wrap(message.getUserData());
-                try {
-                    body = decoder.decode(byteBuffer).toString();
-                } catch (CharacterCodingException e) {
-                    // User data is not decode-able as UTF-8. Ignoring.
-                    return null;
-                }
+            String body;
+            try {
+                body = getMessageBody(message, decoder);
+            } catch (CharacterCodingException e) {
+                // User data is not decode-able as UTF-8. Ignoring.
+                return null;
             }
             if (body != null) {
                 builder.append(body);
@@ -311,6 +405,20 @@ public class VisualVoicemailSmsFilter {
         return result;
     }
 
+    @Nullable
+    private static String getMessageBody(SmsMessage message, CharsetDecoder decoder)
+            throws CharacterCodingException {
+        String body = message.getMessageBody();
+        if (body == null && message.getUserData() != null) {
+            // Attempt to interpret the user data as UTF-8. UTF-8 string over data SMS using
+            // 8BIT data coding scheme is our recommended way to send VVM SMS and is used in CTS
+            // Tests. The OMTP visual voicemail specification does not specify the SMS type and
+            // encoding.
+            body = decoder.decode(ByteBuffer.wrap(message.getUserData())).toString();
+        }
+        return body;
+    }
+
     private static String parseAsciiPduMessage(byte[][] pdus) {
         StringBuilder builder = new StringBuilder();
         for (byte pdu[] : pdus) {
@@ -45,6 +45,7 @@ import com.android.internal.telephony.CommandsInterface;
 import com.android.internal.telephony.PhoneConstants;
 import com.android.internal.telephony.SubscriptionController;
 import com.android.internal.telephony.uicc.IccCardStatus.CardState;
+import com.android.internal.telephony.uicc.IccConstants;
 import com.android.internal.telephony.uicc.IccFileHandler;
 import com.android.internal.telephony.uicc.IccRecords;
 import com.android.internal.telephony.uicc.IccRefreshResponse;
@@ -55,6 +56,8 @@ import com.android.internal.telephony.uicc.UiccController;
 import com.android.internal.telephony.uicc.UiccProfile;
 
 import java.io.ByteArrayOutputStream;
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
 import java.util.List;
 import java.util.Locale;
 
@@ -870,8 +873,15 @@ public class CatService extends Handler implements AppInterface {
             if (msg.obj != null) {
                 AsyncResult ar = (AsyncResult) msg.obj;
                 if (ar != null && ar.result != null) {
+                    IccRefreshResponse refreshResponse = (IccRefreshResponse) ar.result;
+                    if (refreshResponse.refreshResult
+                            != IccRefreshResponse.REFRESH_RESULT_FILE_UPDATE
+                            || refreshResponse.efId == IccConstants.EF_IMG) {
+                        // The icons on the card may have changed.
+                        IconLoader.clearCache();
+                    }
                     broadcastCardStateAndIccRefreshResp(CardState.CARDSTATE_PRESENT,
-                                  (IccRefreshResponse) ar.result);
+                                  refreshResponse);
                 } else {
                     CatLog.d(this,"Icc REFRESH with exception: " + ar.exception);
                 }
@@ -1175,6 +1185,11 @@ public class CatService extends Handler implements AppInterface {
         }
     }
 
+    public void dump(FileDescriptor fd, PrintWriter pw, String[] args) {
+        pw.println("CatService: slotId=" + mSlotId + " cardState=" + mCardState);
+        IconLoader.dumpCache(pw);
+    }
+
     private void changeLanguage(String language) throws RemoteException {
         IActivityManager am = ActivityManagerNative.getDefault();
         Configuration config = am.getConfiguration();
@@ -25,8 +25,6 @@ import android.text.TextUtils;
 import com.android.internal.telephony.GsmAlphabet;
 import com.android.internal.telephony.uicc.IccFileHandler;
 
-import java.util.Iterator;
-import java.util.List;
 import java.util.Locale;
 
 import static com.android.internal.telephony.cat.CatCmdMessage
@@ -103,7 +101,7 @@ class CommandParamsFactory extends Handler {
         mIconLoader = IconLoader.getInstance(this, fh);
     }
 
-    private CommandDetails processCommandDetails(List<ComprehensionTlv> ctlvs) {
+    private CommandDetails processCommandDetails(ComprehensionTlvIndex ctlvs) {
         CommandDetails cmdDet = null;
 
         if (ctlvs != null) {
@@ -135,7 +133,7 @@ class CommandParamsFactory extends Handler {
             return;
         }
         boolean cmdPending = false;
-        List<ComprehensionTlv> ctlvs = berTlv.getComprehensionTlvs();
+        ComprehensionTlvIndex ctlvs = berTlv.getComprehensionTlvs();
         // process command dtails from the tlv list.
         CommandDetails cmdDet = processCommandDetails(ctlvs);
         if (cmdDet == null) {
@@ -283,44 +281,34 @@ class CommandParamsFactory extends Handler {
     }
 
     /**
-     * Search for a COMPREHENSION-TLV object with the given tag from a list
+     * Search for a COMPREHENSION-TLV object with the given tag from an index
      *
      * @param tag A tag to search for
-     * @param ctlvs List of ComprehensionTlv objects used to search in
+     * @param ctlvs Index of ComprehensionTlv objects used to search in
      *
      * @return A ComprehensionTlv object that has the tag value of {@code tag}.
      *         If no object is found with the tag, null is returned.
      */
-    @UnsupportedAppUsage
     private ComprehensionTlv searchForTag(ComprehensionTlvTag tag,
-            List<ComprehensionTlv> ctlvs) {
-        Iterator<ComprehensionTlv> iter = ctlvs.iterator();
-        return searchForNextTag(tag, iter);
+            ComprehensionTlvIndex ctlvs) {
+        return ctlvs.find(tag);
     }
 
     /**
-     * Search for the next COMPREHENSION-TLV object with the given tag from a
-     * list iterated by {@code iter}. {@code iter} points to the object next to
-     * the found object when this method returns. Used for searching the same
-     * list for similar tags, usually item id.
+     * Search for the next COMPREHENSION-TLV object with the given tag from an
+     * index, after the object found by the previous call since
+     * {@link ComprehensionTlvIndex#rewind}. Used for searching the same list
+     * for similar tags, usually item id.
      *
      * @param tag A tag to search for
-     * @param iter Iterator for ComprehensionTlv objects used for search
+     * @param ctlvs Index of ComprehensionTlv objects used to search in
      *
      * @return A ComprehensionTlv object that has the tag value of {@code tag}.
      *         If no object is found with the tag, null is returned.
      */
-    @UnsupportedAppUsage
     private ComprehensionTlv searchForNextTag(ComprehensionTlvTag tag,
-            Iterator<ComprehensionTlv> iter) {
-        int tagValue = tag.value();
-        while (iter.hasNext()) {
-            ComprehensionTlv ctlv = iter.next();
-            if (ctlv.getTag() == tagValue) {
-                return ctlv;
-            }
-        }
-        return null;
+            ComprehensionTlvIndex ctlvs) {
+        return ctlvs.findNext(tag);
     }
 
     /**
@@ -334,7 +322,7 @@ class CommandParamsFactory extends Handler {
      * @throws ResultException
      */
     private boolean processDisplayText(CommandDetails cmdDet,
-            List<ComprehensionTlv> ctlvs)
+            ComprehensionTlvIndex ctlvs)
             throws ResultException {
 
         CatLog.d(this, "process DisplayText");
@@ -396,7 +384,7 @@ class CommandParamsFactory extends Handler {
      * @throws ResultException
      */
     private boolean processSetUpIdleModeText(CommandDetails cmdDet,
-            List<ComprehensionTlv> ctlvs) throws ResultException {
+            ComprehensionTlvIndex ctlvs) throws ResultException {
 
         CatLog.d(this, "process SetUpIdleModeText");
 
@@ -446,7 +434,7 @@ class CommandParamsFactory extends Handler {
      * @throws ResultException
      */
     private boolean processGetInkey(CommandDetails cmdDet,
-            List<ComprehensionTlv> ctlvs) throws ResultException {
+            ComprehensionTlvIndex ctlvs) throws ResultException {
 
         CatLog.d(this, "process GetInkey");
 
@@ -505,7 +493,7 @@ class CommandParamsFactory extends Handler {
      * @throws ResultException
      */
     private boolean processGetInput(CommandDetails cmdDet,
-            List<ComprehensionTlv> ctlvs) throws ResultException {
+            ComprehensionTlvIndex ctlvs) throws ResultException {
 
         CatLog.d(this, "process GetInput");
 
@@ -591,14 +579,14 @@ class CommandParamsFactory extends Handler {
      * @throws ResultException
      */
     private boolean processSelectItem(CommandDetails cmdDet,
-            List<ComprehensionTlv> ctlvs) throws ResultException {
+            ComprehensionTlvIndex ctlvs) throws ResultException {
 
         CatLog.d(this, "process SelectItem");
 
         Menu menu = new Menu();
         IconId titleIconId = null;
         ItemsIconId itemsIconId = null;
-        Iterator<ComprehensionTlv> iter = ctlvs.iterator();
+        ctlvs.rewind();
 
         AppInterface.CommandType cmdType = AppInterface.CommandType
                 .fromInt(cmdDet.typeOfCommand);
@@ -617,7 +605,7 @@ class CommandParamsFactory extends Handler {
         }
 
         while (true) {
-            ctlv = searchForNextTag(ComprehensionTlvTag.ITEM, iter);
+            ctlv = searchForNextTag(ComprehensionTlvTag.ITEM, ctlvs);
             if (ctlv != null) {
                 menu.items.add(ValueParser.retrieveItem(ctlv));
             } else {
@@ -700,7 +688,7 @@ class CommandParamsFactory extends Handler {
      *         asynchronous processing is required.
      */
     private boolean processEventNotify(CommandDetails cmdDet,
-            List<ComprehensionTlv> ctlvs) throws ResultException {
+            ComprehensionTlvIndex ctlvs) throws ResultException {
 
         CatLog.d(this, "process EventNotify");
 
@@ -741,7 +729,7 @@ class CommandParamsFactory extends Handler {
      *         is not required.
      */
     private boolean processSetUpEventList(CommandDetails cmdDet,
-            List<ComprehensionTlv> ctlvs) {
+            ComprehensionTlvIndex ctlvs) {
 
         CatLog.d(this, "process SetUpEventList");
         ComprehensionTlv ctlv = searchForTag(ComprehensionTlvTag.EVENT_LIST, ctlvs);
@@ -791,7 +779,7 @@ class CommandParamsFactory extends Handler {
      * @throws ResultException
      */
     private boolean processLaunchBrowser(CommandDetails cmdDet,
-            List<ComprehensionTlv> ctlvs) throws ResultException {
+            ComprehensionTlvIndex ctlvs) throws ResultException {
 
         CatLog.d(this, "process LaunchBrowser");
 
@@ -864,7 +852,7 @@ class CommandParamsFactory extends Handler {
      * @throws ResultException
      */
     private boolean processPlayTone(CommandDetails cmdDet,
-            List<ComprehensionTlv> ctlvs) throws ResultException {
+            ComprehensionTlvIndex ctlvs) throws ResultException {
 
         CatLog.d(this, "process PlayTone");
 
@@ -934,10 +922,10 @@ class CommandParamsFactory extends Handler {
      *         asynchronous processing is required.
      */
     private boolean processSetupCall(CommandDetails cmdDet,
-            List<ComprehensionTlv> ctlvs) throws ResultException {
+            ComprehensionTlvIndex ctlvs) throws ResultException {
         CatLog.d(this, "process SetupCall");
 
-        Iterator<ComprehensionTlv> iter = ctlvs.iterator();
+        ctlvs.rewind();
         ComprehensionTlv ctlv = null;
         // User confirmation phase message.
         TextMessage confirmMsg = new TextMessage();
@@ -947,7 +935,7 @@ class CommandParamsFactory extends Handler {
         IconId callIconId = null;
 
         // get confirmation message string.
-        ctlv = searchForNextTag(ComprehensionTlvTag.ALPHA_ID, iter);
+        ctlv = searchForNextTag(ComprehensionTlvTag.ALPHA_ID, ctlvs);
         confirmMsg.text = ValueParser.retrieveAlphaId(ctlv);
 
         ctlv = searchForTag(ComprehensionTlvTag.ICON_ID, ctlvs);
@@ -957,7 +945,7 @@ class CommandParamsFactory extends Handler {
         }
 
         // get call set up message string.
-        ctlv = searchForNextTag(ComprehensionTlvTag.ALPHA_ID, iter);
+        ctlv = searchForNextTag(ComprehensionTlvTag.ALPHA_ID, ctlvs);
         if (ctlv != null) {
             callMsg.text = ValueParser.retrieveAlphaId(ctlv);
         }
@@ -985,7 +973,7 @@ class CommandParamsFactory extends Handler {
         return false;
     }
 
-    private boolean processProvideLocalInfo(CommandDetails cmdDet, List<ComprehensionTlv> ctlvs)
+    private boolean processProvideLocalInfo(CommandDetails cmdDet, ComprehensionTlvIndex ctlvs)
             throws ResultException {
         CatLog.d(this, "process ProvideLocalInfo");
         switch (cmdDet.commandQualifier) {
@@ -1018,7 +1006,7 @@ class CommandParamsFactory extends Handler {
      *         processing is  not pending and additional asynchronous processing
      *         is not required.
      */
-    private boolean processLanguageNotification(CommandDetails cmdDet, List<ComprehensionTlv> ctlvs)
+    private boolean processLanguageNotification(CommandDetails cmdDet, ComprehensionTlvIndex ctlvs)
             throws ResultException {
         CatLog.d(this, "process Language Notification");
 
@@ -1067,7 +1055,7 @@ class CommandParamsFactory extends Handler {
     }
 
     private boolean processBIPClient(CommandDetails cmdDet,
-                                     List<ComprehensionTlv> ctlvs) throws ResultException {
+                                     ComprehensionTlvIndex ctlvs) throws ResultException {
         AppInterface.CommandType commandType =
                                     AppInterface.CommandType.fromInt(cmdDet.typeOfCommand);
         if (commandType != null) {
@@ -58,6 +58,17 @@ public class ComprehensionTlv {
         mRawValue = data;
     }
 
+    /**
+     * Points this object to another COMPREHENSION-TLV object.
+     */
+    void set(int tag, boolean cr, int length, byte[] data, int valueIndex) {
+        mTag = tag;
+        mCr = cr;
+        mLength = length;
+        mValueIndex = valueIndex;
+        mRawValue = data;
+    }
+
     @UnsupportedAppUsage
     public int getTag() {
         return mTag;
@@ -118,6 +129,20 @@ public class ComprehensionTlv {
      */
     public static ComprehensionTlv decode(byte[] data, int startIndex)
             throws ResultException {
+        ComprehensionTlv ctlv = new ComprehensionTlv(0, false, 0, data, startIndex);
+        return ctlv.decodeAt(data, startIndex) ? ctlv : null;
+    }
+
+    /**
+     * Parses an COMPREHENSION-TLV object from a byte array into this object, so that the same
+     * object can be reused to parse many.
+     *
+     * @param data A byte array containing data to be parsed
+     * @param startIndex Index in data at which to start parsing
+     * @return false if there is no COMPREHENSION-TLV object at startIndex
+     * @throws ResultException
+     */
+    boolean decodeAt(byte[] data, int startIndex) throws ResultException {
         int curIndex = startIndex;
         int endIndex = data.length;
 
@@ -133,9 +158,9 @@ public class ComprehensionTlv {
                 Rlog.d("CAT     ", "decode: unexpected first tag byte=" + Integer.toHexString(temp) +
                         ", startIndex=" + startIndex + " curIndex=" + curIndex +
                         " endIndex=" + endIndex);
-                // Return null which will stop decoding, this has occurred
+                // Return false which will stop decoding, this has occurred
                 // with Ghana MTN simcard and JDI simcard.
-                return null;
+                return false;
 
             case 0x7f: // tag is in three-byte format
                 tag = ((data[curIndex] & 0xff) << 8)
@@ -197,7 +222,8 @@ public class ComprehensionTlv {
 
             }
 
-            return new ComprehensionTlv(tag, cr, length, data, curIndex);
+            set(tag, cr, length, data, curIndex);
+            return true;
 
         } catch (IndexOutOfBoundsException e) {
             throw new ResultException(ResultCode.CMD_DATA_NOT_UNDERSTOOD,
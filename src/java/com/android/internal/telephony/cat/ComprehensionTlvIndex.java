@@ -0,0 +1,161 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony.cat;
+
+import java.util.Arrays;
+
+/**
+ * Index of the COMPREHENSION-TLV objects of a proactive command.
+ *
+ * The objects are parsed in one pass over the command bytes, keeping only their tags and
+ * positions, instead of creating a {@link ComprehensionTlv} for each of them. Only the objects
+ * looked up get a {@link ComprehensionTlv}, which references the command bytes.
+ *
+ * {@hide}
+ */
+class ComprehensionTlvIndex {
+    private static final String LOG_TAG = "ComprehensionTlvIndex";
+
+    private static final int INITIAL_CAPACITY = 16;
+    // Tags in single-byte format, which all ComprehensionTlvTags are, are indexed.
+    private static final int INDEXED_TAGS = 0x80;
+    private static final int CR_FLAG = 0x10000;
+    private static final int TAG_MASK = 0xffff;
+
+    private final byte[] mData;
+    private int mCount;
+    // tag and comprehension required flag of each object
+    private int[] mTags = new int[INITIAL_CAPACITY];
+    private int[] mLengths = new int[INITIAL_CAPACITY];
+    private int[] mValueIndexes = new int[INITIAL_CAPACITY];
+    // index of the first object with each single-byte tag, or -1
+    private final int[] mFirstIndexByTag = new int[INDEXED_TAGS];
+    // index of the object following the last one found by findNext()
+    private int mNextIndex;
+
+    private ComprehensionTlvIndex(byte[] data) {
+        mData = data;
+        Arrays.fill(mFirstIndexByTag, -1);
+    }
+
+    /**
+     * Parses the COMPREHENSION-TLV objects in a byte array, like
+     * {@link ComprehensionTlv#decodeMany}.
+     *
+     * @param data A byte array containing data to be parsed
+     * @param startIndex Index in data at which to start parsing
+     * @return An index of the COMPREHENSION-TLV objects parsed
+     * @throws ResultException
+     */
+    static ComprehensionTlvIndex decode(byte[] data, int startIndex) throws ResultException {
+        ComprehensionTlvIndex index = new ComprehensionTlvIndex(data);
+        // Reused to decode every object
+        ComprehensionTlv ctlv = new ComprehensionTlv(0, false, 0, data, startIndex);
+        int endIndex = data.length;
+        while (startIndex < endIndex) {
+            if (ctlv.decodeAt(data, startIndex)) {
+                index.add(ctlv);
+                startIndex = ctlv.getValueIndex() + ctlv.getLength();
+            } else {
+                CatLog.d(LOG_TAG, "decode: ctlv is null, stop decoding");
+                break;
+            }
+        }
+        return index;
+    }
+
+    private void add(ComprehensionTlv ctlv) {
+        if (mCount == mTags.length) {
+            int capacity = mCount * 2;
+            mTags = Arrays.copyOf(mTags, capacity);
+            mLengths = Arrays.copyOf(mLengths, capacity);
+            mValueIndexes = Arrays.copyOf(mValueIndexes, capacity);
+        }
+        int tag = ctlv.getTag();
+        mTags[mCount] = tag | (ctlv.isComprehensionRequired() ? CR_FLAG : 0);
+        mLengths[mCount] = ctlv.getLength();
+        mValueIndexes[mCount] = ctlv.getValueIndex();
+        if (tag < INDEXED_TAGS && mFirstIndexByTag[tag] < 0) {
+            mFirstIndexByTag[tag] = mCount;
+        }
+        mCount++;
+    }
+
+    /**
+     * @return The number of COMPREHENSION-TLV objects
+     */
+    int size() {
+        return mCount;
+    }
+
+    /**
+     * @return The length of the value of the object at {@code index}
+     */
+    int getLength(int index) {
+        return mLengths[index];
+    }
+
+    /**
+     * Finds the first COMPREHENSION-TLV object with the given tag.
+     *
+     * @return The object, or null if there is none.
+     */
+    ComprehensionTlv find(ComprehensionTlvTag tag) {
+        int tagValue = tag.value();
+        if (tagValue < INDEXED_TAGS) {
+            return get(mFirstIndexByTag[tagValue]);
+        }
+        return get(indexOf(tagValue, 0));
+    }
+
+    /**
+     * Finds the next COMPREHENSION-TLV object with the given tag, after the last object found by
+     * this method since {@link #rewind}. Used for searching the same list for similar tags,
+     * usually item id.
+     *
+     * @return The object, or null if there is none.
+     */
+    ComprehensionTlv findNext(ComprehensionTlvTag tag) {
+        int index = indexOf(tag.value(), mNextIndex);
+        mNextIndex = index < 0 ? mCount : index + 1;
+        return get(index);
+    }
+
+    /**
+     * Restarts {@link #findNext} from the first object.
+     */
+    void rewind() {
+        mNextIndex = 0;
+    }
+
+    private int indexOf(int tagValue, int fromIndex) {
+        for (int i = fromIndex; i < mCount; i++) {
+            if ((mTags[i] & TAG_MASK) == tagValue) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private ComprehensionTlv get(int index) {
+        if (index < 0) {
+            return null;
+        }
+        return new ComprehensionTlv(mTags[index] & TAG_MASK, (mTags[index] & CR_FLAG) != 0,
+                mLengths[index], mData, mValueIndexes[index]);
+    }
+}
@@ -26,34 +26,39 @@ import android.os.Handler;
 import android.os.HandlerThread;
 import android.os.Looper;
 import android.os.Message;
-import java.util.HashMap;
+import android.util.LruCache;
+import android.util.SparseArray;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
- * Class for loading icons from the SIM card. Has two states: single, for loading
- * one icon. Multi, for loading icons list.
+ * Class for loading icons from the SIM card, either one icon or a list of icons.
  *
+ * Decoded icons are kept in a cache shared by all loaders, keyed by card and EF-IMG record, so
+ * that they survive the recreation of the CatService. The records of a list of icons that are
+ * not cached are all read from the card at once.
  */
 class IconLoader extends Handler {
     // members
-    private int mState = STATE_SINGLE_ICON;
-    private ImageDescriptor mId = null;
-    private Bitmap mCurrentIcon = null;
-    private int mRecordNumber;
     private IccFileHandler mSimFH = null;
-    private Message mEndMsg = null;
-    private byte[] mIconData = null;
-    // multi icons state members
-    private int[] mRecordNumbers = null;
-    private int mCurrentRecordIndex = 0;
-    private Bitmap[] mIcons = null;
-    private HashMap<Integer, Bitmap> mIconsCache = null;
+    // Records being read from the card, by record number.
+    private final SparseArray<RecordLoad> mRecordLoads = new SparseArray<>();
 
     private static IconLoader sLoader = null;
     private static HandlerThread sThread = null;
 
-    // Loader state values.
-    private static final int STATE_SINGLE_ICON = 1;
-    private static final int STATE_MULTI_ICONS = 2;
+    // Maximum size of the icon cache, in bytes.
+    private static final int ICON_CACHE_MAX_BYTES = 512 * 1024;
+
+    private static final LruCache<String, Bitmap> sIconsCache =
+            new LruCache<String, Bitmap>(ICON_CACHE_MAX_BYTES) {
+                @Override
+                protected int sizeOf(String key, Bitmap icon) {
+                    return icon.getByteCount();
+                }
+            };
 
     // Finished loading single record from a linear-fixed EF-IMG.
     private static final int EVENT_READ_EF_IMG_RECOED_DONE  = 1;
@@ -61,18 +66,49 @@ class IconLoader extends Handler {
     private static final int EVENT_READ_ICON_DONE           = 2;
     // Finished loading single colour icon lookup table.
     private static final int EVENT_READ_CLUT_DONE           = 3;
+    // Start loading the icons of a request.
+    private static final int EVENT_LOAD_ICONS               = 4;
 
     // Color lookup table offset inside the EF.
     private static final int CLUT_LOCATION_OFFSET = 4;
     // CLUT entry size, {Red, Green, Black}
     private static final int CLUT_ENTRY_SIZE = 3;
 
+    /** Icons requested by one call to loadIcon() or loadIcons(). */
+    private static class IconRequest {
+        final int[] mRecordNumbers;
+        final Bitmap[] mIcons;
+        final boolean mSingle;
+        final Message mEndMsg;
+        // Number of icons still being read from the card.
+        int mPending;
+
+        IconRequest(int[] recordNumbers, boolean single, Message endMsg) {
+            mRecordNumbers = recordNumbers;
+            mIcons = new Bitmap[recordNumbers.length];
+            mSingle = single;
+            mEndMsg = endMsg;
+        }
+    }
+
+    /** Read of one EF-IMG record, shared by all the requests waiting for its icon. */
+    private static class RecordLoad {
+        final int mRecordNumber;
+        // Key of the icon in the cache, or null if the card is not known.
+        final String mCacheKey;
+        final List<IconRequest> mRequests = new ArrayList<>();
+        ImageDescriptor mId = null;
+        byte[] mIconData = null;
+
+        RecordLoad(int recordNumber, String cacheKey) {
+            mRecordNumber = recordNumber;
+            mCacheKey = cacheKey;
+        }
+    }
 
     private IconLoader(Looper looper , IccFileHandler fh) {
         super(looper);
         mSimFH = fh;
-
-        mIconsCache = new HashMap<Integer, Bitmap>(50);
     }
 
     static IconLoader getInstance(Handler caller, IccFileHandler fh) {
@@ -91,13 +127,8 @@ class IconLoader extends Handler {
         if (recordNumbers == null || recordNumbers.length == 0 || msg == null) {
             return;
         }
-        mEndMsg = msg;
-        // initialize multi icons load variables.
-        mIcons = new Bitmap[recordNumbers.length];
-        mRecordNumbers = recordNumbers;
-        mCurrentRecordIndex = 0;
-        mState = STATE_MULTI_ICONS;
-        startLoadingIcon(recordNumbers[0]);
+        obtainMessage(EVENT_LOAD_ICONS, new IconRequest(recordNumbers, false, msg))
+                .sendToTarget();
     }
 
     @UnsupportedAppUsage
@@ -105,72 +136,85 @@ class IconLoader extends Handler {
         if (msg == null) {
             return;
         }
-        mEndMsg = msg;
-        mState = STATE_SINGLE_ICON;
-        startLoadingIcon(recordNumber);
+        obtainMessage(EVENT_LOAD_ICONS, new IconRequest(new int[] {recordNumber}, true, msg))
+                .sendToTarget();
     }
 
-    private void startLoadingIcon(int recordNumber) {
-        // Reset the load variables.
-        mId = null;
-        mIconData = null;
-        mCurrentIcon = null;
-        mRecordNumber = recordNumber;
-
-        // make sure the icon was not already loaded and saved in the local cache.
-        if (mIconsCache.containsKey(recordNumber)) {
-            mCurrentIcon = mIconsCache.get(recordNumber);
-            postIcon();
-            return;
+    private void startLoadingIcons(IconRequest request) {
+        String iccId = (mSimFH != null) ? mSimFH.getCardIccId() : null;
+        for (int i = 0; i < request.mRecordNumbers.length; i++) {
+            int recordNumber = request.mRecordNumbers[i];
+            if (recordNumber < 0) {
+                continue;
+            }
+            RecordLoad load = mRecordLoads.get(recordNumber);
+            if (load == null) {
+                // make sure the icon was not already loaded and saved in the cache.
+                String cacheKey = (iccId != null) ? iccId + "/" + recordNumber : null;
+                Bitmap icon = (cacheKey != null) ? sIconsCache.get(cacheKey) : null;
+                if (icon != null) {
+                    request.mIcons[i] = icon;
+                    continue;
+                }
+                // start the first phase ==> loading Image Descriptor.
+                load = new RecordLoad(recordNumber, cacheKey);
+                mRecordLoads.put(recordNumber, load);
+                readId(load);
+            }
+            if (!load.mRequests.contains(request)) {
+                load.mRequests.add(request);
+            }
+            request.mPending++;
+        }
+        if (request.mPending == 0) {
+            postIcons(request);
         }
-
-        // start the first phase ==> loading Image Descriptor.
-        readId();
     }
 
     @Override
     public void handleMessage(Message msg) {
-        AsyncResult ar;
+        if (msg.what == EVENT_LOAD_ICONS) {
+            startLoadingIcons((IconRequest) msg.obj);
+            return;
+        }
 
+        AsyncResult ar = (AsyncResult) msg.obj;
+        RecordLoad load = (RecordLoad) ar.userObj;
         try {
+            if (ar.exception != null) {
+                throw ar.exception;
+            }
             switch (msg.what) {
             case EVENT_READ_EF_IMG_RECOED_DONE:
-                ar = (AsyncResult) msg.obj;
-                if (handleImageDescriptor((byte[]) ar.result)) {
-                    readIconData();
+                if (handleImageDescriptor(load, (byte[]) ar.result)) {
+                    readIconData(load);
                 } else {
                     throw new Exception("Unable to parse image descriptor");
                 }
                 break;
             case EVENT_READ_ICON_DONE:
                 CatLog.d(this, "load icon done");
-                ar = (AsyncResult) msg.obj;
                 byte[] rawData = ((byte[]) ar.result);
-                if (mId.mCodingScheme == ImageDescriptor.CODING_SCHEME_BASIC) {
-                    mCurrentIcon = parseToBnW(rawData, rawData.length);
-                    mIconsCache.put(mRecordNumber, mCurrentIcon);
-                    postIcon();
-                } else if (mId.mCodingScheme == ImageDescriptor.CODING_SCHEME_COLOUR) {
-                    mIconData = rawData;
-                    readClut();
+                if (load.mId.mCodingScheme == ImageDescriptor.CODING_SCHEME_BASIC) {
+                    onIconLoaded(load, parseToBnW(rawData, rawData.length));
+                } else if (load.mId.mCodingScheme == ImageDescriptor.CODING_SCHEME_COLOUR) {
+                    load.mIconData = rawData;
+                    readClut(load);
                 } else {
                     CatLog.d(this, "else  /postIcon ");
-                    postIcon();
+                    onIconLoaded(load, null);
                 }
                 break;
             case EVENT_READ_CLUT_DONE:
-                ar = (AsyncResult) msg.obj;
                 byte [] clut = ((byte[]) ar.result);
-                mCurrentIcon = parseToRGB(mIconData, mIconData.length,
-                        false, clut);
-                mIconsCache.put(mRecordNumber, mCurrentIcon);
-                postIcon();
+                onIconLoaded(load, parseToRGB(load.mIconData, load.mIconData.length,
+                        false, clut));
                 break;
             }
-        } catch (Exception e) {
+        } catch (Throwable e) {
             CatLog.d(this, "Icon load failed");
             // post null icon back to the caller.
-            postIcon();
+            onIconLoaded(load, null);
         }
     }
 
@@ -181,57 +225,78 @@ class IconLoader extends Handler {
      * @param rawData byte [] containing Image Instance descriptor as defined in
      * TS 51.011.
      */
-    private boolean handleImageDescriptor(byte[] rawData) {
-        mId = ImageDescriptor.parse(rawData, 1);
-        if (mId == null) {
+    private boolean handleImageDescriptor(RecordLoad load, byte[] rawData) {
+        load.mId = ImageDescriptor.parse(rawData, 1);
+        if (load.mId == null) {
             return false;
         }
         return true;
     }
 
     // Start reading color lookup table from SIM card.
-    private void readClut() {
-        int length = mIconData[3] * CLUT_ENTRY_SIZE;
-        Message msg = obtainMessage(EVENT_READ_CLUT_DONE);
-        mSimFH.loadEFImgTransparent(mId.mImageId,
-                mIconData[CLUT_LOCATION_OFFSET],
-                mIconData[CLUT_LOCATION_OFFSET + 1], length, msg);
+    private void readClut(RecordLoad load) {
+        int length = load.mIconData[3] * CLUT_ENTRY_SIZE;
+        Message msg = obtainMessage(EVENT_READ_CLUT_DONE, load);
+        mSimFH.loadEFImgTransparent(load.mId.mImageId,
+                load.mIconData[CLUT_LOCATION_OFFSET],
+                load.mIconData[CLUT_LOCATION_OFFSET + 1], length, msg);
     }
 
     // Start reading Image Descriptor from SIM card.
-    private void readId() {
-        if (mRecordNumber < 0) {
-            mCurrentIcon = null;
-            postIcon();
-            return;
-        }
-        Message msg = obtainMessage(EVENT_READ_EF_IMG_RECOED_DONE);
-        mSimFH.loadEFImgLinearFixed(mRecordNumber, msg);
+    private void readId(RecordLoad load) {
+        Message msg = obtainMessage(EVENT_READ_EF_IMG_RECOED_DONE, load);
+        mSimFH.loadEFImgLinearFixed(load.mRecordNumber, msg);
     }
 
     // Start reading icon bytes array from SIM card.
-    private void readIconData() {
-        Message msg = obtainMessage(EVENT_READ_ICON_DONE);
-        mSimFH.loadEFImgTransparent(mId.mImageId, 0, 0, mId.mLength ,msg);
+    private void readIconData(RecordLoad load) {
+        Message msg = obtainMessage(EVENT_READ_ICON_DONE, load);
+        mSimFH.loadEFImgTransparent(load.mId.mImageId, 0, 0, load.mId.mLength, msg);
     }
 
-    // When all is done pass icon back to caller.
-    private void postIcon() {
-        if (mState == STATE_SINGLE_ICON) {
-            mEndMsg.obj = mCurrentIcon;
-            mEndMsg.sendToTarget();
-        } else if (mState == STATE_MULTI_ICONS) {
-            mIcons[mCurrentRecordIndex++] = mCurrentIcon;
-            // If not all icons were loaded, start loading the next one.
-            if (mCurrentRecordIndex < mRecordNumbers.length) {
-                startLoadingIcon(mRecordNumbers[mCurrentRecordIndex]);
-            } else {
-                mEndMsg.obj = mIcons;
-                mEndMsg.sendToTarget();
+    // Pass the icon to all the requests waiting for it.
+    private void onIconLoaded(RecordLoad load, Bitmap icon) {
+        mRecordLoads.remove(load.mRecordNumber);
+        if (icon != null && load.mCacheKey != null) {
+            sIconsCache.put(load.mCacheKey, icon);
+        }
+        for (IconRequest request : load.mRequests) {
+            for (int i = 0; i < request.mRecordNumbers.length; i++) {
+                if (request.mRecordNumbers[i] == load.mRecordNumber) {
+                    request.mIcons[i] = icon;
+                    request.mPending--;
+                }
+            }
+            if (request.mPending == 0) {
+                postIcons(request);
             }
         }
     }
 
+    // When all is done pass icons back to caller.
+    private void postIcons(IconRequest request) {
+        if (request.mSingle) {
+            request.mEndMsg.obj = request.mIcons[0];
+        } else {
+            request.mEndMsg.obj = request.mIcons;
+        }
+        request.mEndMsg.sendToTarget();
+    }
+
+    /** Drops all the cached icons, e.g. when the icons on the card may have changed. */
+    static void clearCache() {
+        sIconsCache.evictAll();
+    }
+
+    static void dumpCache(PrintWriter pw) {
+        int hits = sIconsCache.hitCount();
+        int misses = sIconsCache.missCount();
+        pw.println(" IconLoader cache: size=" + sIconsCache.size() + "/"
+                + sIconsCache.maxSize() + " bytes hits=" + hits + " misses=" + misses
+                + " hitRate=" + (hits + misses > 0 ? hits * 100 / (hits + misses) : 0) + "%"
+                + " evictions=" + sIconsCache.evictionCount());
+    }
+
     /**
      * Convert a TS 131.102 image instance of code scheme '11' into Bitmap
      * @param data The raw data
@@ -370,7 +435,6 @@ class IconLoader extends Handler {
             sThread.quit();
             sThread = null;
         }
-        mIconsCache = null;
         sLoader = null;
     }
 }
@@ -0,0 +1,138 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony.emergency;
+
+import android.content.Context;
+import android.telephony.Rlog;
+
+import com.android.internal.annotations.VisibleForTesting;
+import com.android.phone.ecc.nano.ProtobufEccData;
+
+import libcore.io.IoUtils;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Index of the emergency number database, shared by the EmergencyNumberTracker of all phones.
+ *
+ * The database asset holds the emergency numbers of all countries in one compressed message. It
+ * is decompressed and parsed once per process, and the entry of each country is kept serialized
+ * in a block of its own, found by a binary search on the country ISO code. A country change then
+ * only parses the block of the new country.
+ */
+public class EmergencyNumberDatabase {
+    private static final String TAG = EmergencyNumberDatabase.class.getSimpleName();
+
+    private static final String EMERGENCY_NUMBER_DB_ASSETS_FILE = "eccdata";
+
+    private static EmergencyNumberDatabase sInstance;
+
+    // Upper case country ISO codes, sorted.
+    private final String[] mCountryIsos;
+    // Serialized CountryInfo of each country of mCountryIsos.
+    private final byte[][] mCountryBlocks;
+
+    private EmergencyNumberDatabase(String[] countryIsos, byte[][] countryBlocks) {
+        mCountryIsos = countryIsos;
+        mCountryBlocks = countryBlocks;
+    }
+
+    /**
+     * Returns the index of the database in the assets of {@code context}, loading it on first use.
+     */
+    public static synchronized EmergencyNumberDatabase getInstance(Context context)
+            throws IOException {
+        if (sInstance == null) {
+            InputStream inputStream = null;
+            try {
+                inputStream = new BufferedInputStream(
+                        context.getAssets().open(EMERGENCY_NUMBER_DB_ASSETS_FILE));
+                sInstance = load(inputStream);
+            } finally {
+                IoUtils.closeQuietly(inputStream);
+            }
+        }
+        return sInstance;
+    }
+
+    /**
+     * Builds the index of a gzipped {@link ProtobufEccData.AllInfo} message.
+     */
+    @VisibleForTesting
+    public static EmergencyNumberDatabase load(InputStream inputStream) throws IOException {
+        ProtobufEccData.AllInfo allEccMessages = ProtobufEccData.AllInfo.parseFrom(
+                readInputStreamToByteArray(new GZIPInputStream(inputStream)));
+
+        // Entries of the same country are concatenated, which parses as their merge.
+        TreeMap<String, ByteArrayOutputStream> blocks = new TreeMap<>();
+        for (ProtobufEccData.CountryInfo countryEccInfo : allEccMessages.countries) {
+            String countryIso = countryEccInfo.isoCode.toUpperCase();
+            ByteArrayOutputStream block = blocks.get(countryIso);
+            if (block == null) {
+                block = new ByteArrayOutputStream();
+                blocks.put(countryIso, block);
+            }
+            block.write(ProtobufEccData.CountryInfo.toByteArray(countryEccInfo));
+        }
+
+        String[] countryIsos = new String[blocks.size()];
+        byte[][] countryBlocks = new byte[blocks.size()][];
+        int i = 0;
+        for (Map.Entry<String, ByteArrayOutputStream> entry : blocks.entrySet()) {
+            countryIsos[i] = entry.getKey();
+            countryBlocks[i] = entry.getValue().toByteArray();
+            i++;
+        }
+        Rlog.d(TAG, "Emergency database is loaded with " + countryIsos.length + " countries.");
+        return new EmergencyNumberDatabase(countryIsos, countryBlocks);
+    }
+
+    /**
+     * Returns the database entry of a country, or null if it has none.
+     *
+     * @param countryIso the ISO code of the country, in any case
+     */
+    public ProtobufEccData.CountryInfo getCountryInfo(String countryIso) throws IOException {
+        int index = Arrays.binarySearch(mCountryIsos, countryIso.toUpperCase());
+        if (index < 0) {
+            return null;
+        }
+        return ProtobufEccData.CountryInfo.parseFrom(mCountryBlocks[index]);
+    }
+
+    /**
+     * Util function to convert inputStream to byte array before parsing proto data.
+     */
+    private static byte[] readInputStreamToByteArray(InputStream inputStream) throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        int nRead;
+        int size = 16 * 1024; // Read 16k chunks
+        byte[] data = new byte[size];
+        while ((nRead = inputStream.read(data, 0, data.length)) != -1) {
+            buffer.write(data, 0, nRead);
+        }
+        buffer.flush();
+        return buffer.toByteArray();
+    }
+}
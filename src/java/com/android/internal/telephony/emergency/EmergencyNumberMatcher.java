@@ -0,0 +1,142 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony.emergency;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Matches dialed numbers against a set of emergency numbers, with a digit trie built once for the
+ * set so that a lookup walks the dialed number once and does not allocate.
+ *
+ * Each number of the set matches a dialed number that is equal to it. Numbers added with
+ * {@code prefixMatch} also match dialed numbers that start with them, when the lookup is not an
+ * exact match. Numbers are added on one thread before the matcher is shared, after which it is
+ * only read.
+ */
+public class EmergencyNumberMatcher {
+    // Dialable characters, in the order of the children of a node.
+    private static final String ALPHABET = "0123456789*#+";
+    private static final int ALPHABET_SIZE = ALPHABET.length();
+    private static final int ROOT = 0;
+    private static final int NO_NODE = 0;
+
+    // Flags of a node at the end of an emergency number.
+    private static final byte EXACT = 1;
+    private static final byte PREFIX = 2;
+
+    // Children of each node, ALPHABET_SIZE entries per node; NO_NODE if there is none, since the
+    // root is never a child.
+    private int[] mChildren = new int[ALPHABET_SIZE * 8];
+    private byte[] mFlags = new byte[8];
+    private int mNodeCount = 1;
+    // Numbers with characters outside of ALPHABET, compared as strings.
+    private final ArrayList<String> mOtherNumbers = new ArrayList<>();
+    private final ArrayList<Boolean> mOtherPrefixMatches = new ArrayList<>();
+
+    /**
+     * Adds an emergency number.
+     *
+     * @param number the emergency number
+     * @param prefixMatch whether dialed numbers starting with {@code number} also match it,
+     *        unless the lookup is an exact match
+     * @return this matcher
+     */
+    public EmergencyNumberMatcher add(String number, boolean prefixMatch) {
+        if (number == null || number.isEmpty()) {
+            return this;
+        }
+        int node = ROOT;
+        for (int i = 0; i < number.length(); i++) {
+            int c = ALPHABET.indexOf(number.charAt(i));
+            if (c < 0) {
+                mOtherNumbers.add(number);
+                mOtherPrefixMatches.add(prefixMatch);
+                return this;
+            }
+            int child = mChildren[node * ALPHABET_SIZE + c];
+            if (child == NO_NODE) {
+                child = newNode();
+                mChildren[node * ALPHABET_SIZE + c] = child;
+            }
+            node = child;
+        }
+        mFlags[node] |= prefixMatch ? EXACT | PREFIX : EXACT;
+        return this;
+    }
+
+    private int newNode() {
+        if (mNodeCount == mFlags.length) {
+            mFlags = Arrays.copyOf(mFlags, mNodeCount * 2);
+            mChildren = Arrays.copyOf(mChildren, mNodeCount * 2 * ALPHABET_SIZE);
+        }
+        return mNodeCount++;
+    }
+
+    /**
+     * Checks if a dialed number matches one of the emergency numbers.
+     *
+     * @param number the dialed number, without separators
+     * @param exactMatch whether the dialed number must be equal to an emergency number, rather
+     *        than starting with one added with {@code prefixMatch}
+     */
+    public boolean matches(String number, boolean exactMatch) {
+        if (number == null) {
+            return false;
+        }
+        if (!mOtherNumbers.isEmpty() && matchesOtherNumbers(number, exactMatch)) {
+            return true;
+        }
+        int node = ROOT;
+        for (int i = 0; i < number.length(); i++) {
+            int c = ALPHABET.indexOf(number.charAt(i));
+            if (c < 0) {
+                return false;
+            }
+            node = mChildren[node * ALPHABET_SIZE + c];
+            if (node == NO_NODE) {
+                return false;
+            }
+            if (!exactMatch && (mFlags[node] & PREFIX) != 0) {
+                return true;
+            }
+        }
+        return (mFlags[node] & EXACT) != 0;
+    }
+
+    private boolean matchesOtherNumbers(String number, boolean exactMatch) {
+        for (int i = 0; i < mOtherNumbers.size(); i++) {
+            String otherNumber = mOtherNumbers.get(i);
+            if (number.equals(otherNumber) || (!exactMatch && mOtherPrefixMatches.get(i)
+                    && number.startsWith(otherNumber))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Returns the number of nodes of the trie, for debugging. */
+    public int getNodeCount() {
+        return mNodeCount;
+    }
+
+    @Override
+    public String toString() {
+        return "EmergencyNumberMatcher{nodes=" + mNodeCount + " otherNumbers=" + mOtherNumbers
+                + "}";
+    }
+}
@@ -49,18 +49,12 @@ import com.android.internal.util.IndentingPrintWriter;
 import com.android.phone.ecc.nano.ProtobufEccData;
 import com.android.phone.ecc.nano.ProtobufEccData.EccInfo;
 
-import libcore.io.IoUtils;
-
-import java.io.BufferedInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.FileDescriptor;
 import java.io.IOException;
-import java.io.InputStream;
 import java.io.PrintWriter;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
-import java.util.zip.GZIPInputStream;
 
 /**
  * Emergency Number Tracker that handles update of emergency number list from RIL and emergency
@@ -86,15 +80,42 @@ public class EmergencyNumberTracker extends Handler {
      * @hide
      */
     public boolean mIsCountrySetByAnotherSub = false;
-    private String[] mEmergencyNumberPrefix = new String[0];
-
-    private static final String EMERGENCY_NUMBER_DB_ASSETS_FILE = "eccdata";
+    private volatile String[] mEmergencyNumberPrefix = new String[0];
 
     private List<EmergencyNumber> mEmergencyNumberListFromDatabase = new ArrayList<>();
     private List<EmergencyNumber> mEmergencyNumberListFromRadio = new ArrayList<>();
     private List<EmergencyNumber> mEmergencyNumberListWithPrefix = new ArrayList<>();
     private List<EmergencyNumber> mEmergencyNumberListFromTestMode = new ArrayList<>();
     private List<EmergencyNumber> mEmergencyNumberList = new ArrayList<>();
+    // Matches dialed numbers against mEmergencyNumberList, rebuilt with it.
+    private volatile EmergencyNumberMatcher mEmergencyNumberListMatcher =
+            new EmergencyNumberMatcher();
+    // Matcher of the last emergency number list read from the ril.ecclist properties, or of the
+    // embedded list if they are empty.
+    private volatile EccListMatcher mEccListMatcher;
+
+    // Emergency numbers used when the ril.ecclist properties are empty.
+    private static final String NO_SIM_EMERGENCY_NUMBERS = "112,911,000,08,110,118,119,999";
+    private static final String SIM_EMERGENCY_NUMBERS = "112,911";
+
+    /**
+     * Matcher of a comma-separated emergency number list, and the list and emergency number
+     * prefixes it was built of.
+     */
+    private static class EccListMatcher {
+        final String mEmergencyNumbers;
+        final String[] mEmergencyNumberPrefix;
+        final boolean mPrefixMatchWithPrefix;
+        final EmergencyNumberMatcher mMatcher;
+
+        EccListMatcher(String emergencyNumbers, String[] emergencyNumberPrefix,
+                boolean prefixMatchWithPrefix, EmergencyNumberMatcher matcher) {
+            mEmergencyNumbers = emergencyNumbers;
+            mEmergencyNumberPrefix = emergencyNumberPrefix;
+            mPrefixMatchWithPrefix = prefixMatchWithPrefix;
+            mMatcher = matcher;
+        }
+    }
 
     private final LocalLog mEmergencyNumberListDatabaseLocalLog = new LocalLog(20);
     private final LocalLog mEmergencyNumberListRadioLocalLog = new LocalLog(20);
@@ -348,45 +369,22 @@ public class EmergencyNumberTracker extends Handler {
     }
 
     private void cacheEmergencyDatabaseByCountry(String countryIso) {
-        BufferedInputStream inputStream = null;
-        ProtobufEccData.AllInfo allEccMessages = null;
         List<EmergencyNumber> updatedEmergencyNumberList = new ArrayList<>();
         try {
-            inputStream = new BufferedInputStream(
-                    mPhone.getContext().getAssets().open(EMERGENCY_NUMBER_DB_ASSETS_FILE));
-            allEccMessages = ProtobufEccData.AllInfo.parseFrom(readInputStreamToByteArray(
-                    new GZIPInputStream(inputStream)));
+            ProtobufEccData.CountryInfo countryEccInfo = EmergencyNumberDatabase
+                    .getInstance(mPhone.getContext()).getCountryInfo(countryIso);
             logd(countryIso + " emergency database is loaded. ");
-            for (ProtobufEccData.CountryInfo countryEccInfo : allEccMessages.countries) {
-                if (countryEccInfo.isoCode.equals(countryIso.toUpperCase())) {
-                    for (ProtobufEccData.EccInfo eccInfo : countryEccInfo.eccs) {
-                        updatedEmergencyNumberList.add(convertEmergencyNumberFromEccInfo(
-                                eccInfo, countryIso));
-                    }
+            if (countryEccInfo != null) {
+                for (ProtobufEccData.EccInfo eccInfo : countryEccInfo.eccs) {
+                    updatedEmergencyNumberList.add(convertEmergencyNumberFromEccInfo(
+                            eccInfo, countryIso));
                 }
             }
             EmergencyNumber.mergeSameNumbersInEmergencyNumberList(updatedEmergencyNumberList);
             mEmergencyNumberListFromDatabase = updatedEmergencyNumberList;
         } catch (IOException ex) {
             loge("Cache emergency database failure: " + ex);
-        } finally {
-            IoUtils.closeQuietly(inputStream);
-        }
-    }
-
-    /**
-     * Util function to convert inputStream to byte array before parsing proto data.
-     */
-    private static byte[] readInputStreamToByteArray(InputStream inputStream) throws IOException {
-        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
-        int nRead;
-        int size = 16 * 1024; // Read 16k chunks
-        byte[] data = new byte[size];
-        while ((nRead = inputStream.read(data, 0, data.length)) != -1) {
-            buffer.write(data, 0, nRead);
         }
-        buffer.flush();
-        return buffer.toByteArray();
     }
 
     private void updateRadioEmergencyNumberListAndNotify(
@@ -485,6 +483,12 @@ public class EmergencyNumberTracker extends Handler {
         mergedEmergencyNumberList.addAll(mEmergencyNumberListFromTestMode);
         EmergencyNumber.mergeSameNumbersInEmergencyNumberList(mergedEmergencyNumberList);
         mEmergencyNumberList = mergedEmergencyNumberList;
+
+        EmergencyNumberMatcher matcher = new EmergencyNumberMatcher();
+        for (EmergencyNumber num : mergedEmergencyNumberList) {
+            matcher.add(num.getNumber(), true /* prefixMatch */);
+        }
+        mEmergencyNumberListMatcher = matcher;
     }
 
     /**
@@ -512,27 +516,8 @@ public class EmergencyNumberTracker extends Handler {
         }
         number = PhoneNumberUtils.stripSeparators(number);
         if (!mEmergencyNumberListFromRadio.isEmpty()) {
-            for (EmergencyNumber num : mEmergencyNumberList) {
-                // According to com.android.i18n.phonenumbers.ShortNumberInfo, in
-                // these countries, if extra digits are added to an emergency number,
-                // it no longer connects to the emergency service.
-                if (mCountryIso.equals("br") || mCountryIso.equals("cl")
-                        || mCountryIso.equals("ni")) {
-                    exactMatch = true;
-                } else {
-                    exactMatch = false || exactMatch;
-                }
-                if (exactMatch) {
-                    if (num.getNumber().equals(number)) {
-                        return true;
-                    }
-                } else {
-                    if (number.startsWith(num.getNumber())) {
-                        return true;
-                    }
-                }
-            }
-            return false;
+            return mEmergencyNumberListMatcher.matches(number,
+                    exactMatch || isExactMatchCountry());
         } else {
             return isEmergencyNumberFromEccList(number, exactMatch)
                     || isEmergencyNumberForTest(number);
@@ -626,7 +611,7 @@ public class EmergencyNumberTracker extends Handler {
                 emergencyNumberList.add(getLabeledEmergencyNumberForEcclist(emergencyNum));
             }
         }
-        emergencyNumbers = ((slotId < 0) ? "112,911,000,08,110,118,119,999" : "112,911");
+        emergencyNumbers = ((slotId < 0) ? NO_SIM_EMERGENCY_NUMBERS : SIM_EMERGENCY_NUMBERS);
         for (String emergencyNum : emergencyNumbers.split(",")) {
             emergencyNumberList.add(getLabeledEmergencyNumberForEcclist(emergencyNum));
         }
@@ -724,35 +709,8 @@ public class EmergencyNumberTracker extends Handler {
         if (!TextUtils.isEmpty(emergencyNumbers)) {
             // searches through the comma-separated list for a match,
             // return true if one is found.
-            for (String emergencyNum : emergencyNumbers.split(",")) {
-                // According to com.android.i18n.phonenumbers.ShortNumberInfo, in
-                // these countries, if extra digits are added to an emergency number,
-                // it no longer connects to the emergency service.
-                if (useExactMatch || mCountryIso.equals("br") || mCountryIso.equals("cl")
-                        || mCountryIso.equals("ni")) {
-                    if (number.equals(emergencyNum)) {
-                        return true;
-                    } else {
-                        for (String prefix : mEmergencyNumberPrefix) {
-                            if (number.equals(prefix + emergencyNum)) {
-                                return true;
-                            }
-                        }
-                    }
-                } else {
-                    if (number.startsWith(emergencyNum)) {
-                        return true;
-                    } else {
-                        for (String prefix : mEmergencyNumberPrefix) {
-                            if (number.startsWith(prefix + emergencyNum)) {
-                                return true;
-                            }
-                        }
-                    }
-                }
-            }
-            // no matches found against the list!
-            return false;
+            return getEccListMatcher(emergencyNumbers, true /* prefixMatchWithPrefix */)
+                    .matches(number, useExactMatch || isExactMatchCountry());
         }
 
         logd("System property doesn't provide any emergency numbers."
@@ -761,30 +719,12 @@ public class EmergencyNumberTracker extends Handler {
         // If slot id is invalid, means that there is no sim card.
         // According spec 3GPP TS22.101, the following numbers should be
         // ECC numbers when SIM/USIM is not present.
-        emergencyNumbers = ((slotId < 0) ? "112,911,000,08,110,118,119,999" : "112,911");
+        emergencyNumbers = ((slotId < 0) ? NO_SIM_EMERGENCY_NUMBERS : SIM_EMERGENCY_NUMBERS);
 
-        for (String emergencyNum : emergencyNumbers.split(",")) {
-            if (useExactMatch) {
-                if (number.equals(emergencyNum)) {
-                    return true;
-                } else {
-                    for (String prefix : mEmergencyNumberPrefix) {
-                        if (number.equals(prefix + emergencyNum)) {
-                            return true;
-                        }
-                    }
-                }
-            } else {
-                if (number.startsWith(emergencyNum)) {
-                    return true;
-                } else {
-                    for (String prefix : mEmergencyNumberPrefix) {
-                        if (number.equals(prefix + emergencyNum)) {
-                            return true;
-                        }
-                    }
-                }
-            }
+        // Numbers with the emergency number prefix must be dialed exactly.
+        if (getEccListMatcher(emergencyNumbers, false /* prefixMatchWithPrefix */)
+                .matches(number, useExactMatch)) {
+            return true;
         }
 
         // No ecclist system property, so use our own list.
@@ -819,6 +759,43 @@ public class EmergencyNumberTracker extends Handler {
         return false;
     }
 
+    /**
+     * According to com.android.i18n.phonenumbers.ShortNumberInfo, in these countries, if extra
+     * digits are added to an emergency number, it no longer connects to the emergency service.
+     */
+    private boolean isExactMatchCountry() {
+        return "br".equals(mCountryIso) || "cl".equals(mCountryIso) || "ni".equals(mCountryIso);
+    }
+
+    /**
+     * Returns the matcher of a comma-separated emergency number list, building it unless it was
+     * already built for the same list and emergency number prefixes.
+     *
+     * @param prefixMatchWithPrefix whether the numbers with the emergency number prefix also
+     *        match dialed numbers starting with them
+     */
+    private EmergencyNumberMatcher getEccListMatcher(String emergencyNumbers,
+            boolean prefixMatchWithPrefix) {
+        // The prefixes are replaced, never modified, so the array identifies them.
+        String[] emergencyNumberPrefix = mEmergencyNumberPrefix;
+        EccListMatcher eccListMatcher = mEccListMatcher;
+        if (eccListMatcher != null && eccListMatcher.mEmergencyNumbers.equals(emergencyNumbers)
+                && eccListMatcher.mEmergencyNumberPrefix == emergencyNumberPrefix
+                && eccListMatcher.mPrefixMatchWithPrefix == prefixMatchWithPrefix) {
+            return eccListMatcher.mMatcher;
+        }
+        EmergencyNumberMatcher matcher = new EmergencyNumberMatcher();
+        for (String emergencyNum : emergencyNumbers.split(",")) {
+            matcher.add(emergencyNum, true /* prefixMatch */);
+            for (String prefix : emergencyNumberPrefix) {
+                matcher.add(prefix + emergencyNum, prefixMatchWithPrefix);
+            }
+        }
+        mEccListMatcher = new EccListMatcher(emergencyNumbers, emergencyNumberPrefix,
+                prefixMatchWithPrefix, matcher);
+        return matcher;
+    }
+
     /**
      * Execute command for updating emergency number for test mode.
      */
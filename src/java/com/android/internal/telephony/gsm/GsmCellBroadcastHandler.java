@@ -19,6 +19,7 @@ package com.android.internal.telephony.gsm;
 import android.content.Context;
 import android.os.AsyncResult;
 import android.os.Message;
+import android.os.SystemClock;
 import android.telephony.CellLocation;
 import android.telephony.SmsCbLocation;
 import android.telephony.SmsCbMessage;
@@ -28,8 +29,8 @@ import android.telephony.gsm.GsmCellLocation;
 import com.android.internal.telephony.CellBroadcastHandler;
 import com.android.internal.telephony.Phone;
 
-import java.util.HashMap;
-import java.util.Iterator;
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
 
 /**
  * Handler for 3GPP format Cell Broadcasts. Parent class can also handle CDMA Cell Broadcasts.
@@ -37,9 +38,8 @@ import java.util.Iterator;
 public class GsmCellBroadcastHandler extends CellBroadcastHandler {
     private static final boolean VDBG = false;  // log CB PDU data
 
-    /** This map holds incomplete concatenated messages waiting for assembly. */
-    private final HashMap<SmsCbConcatInfo, byte[][]> mSmsCbPageMap =
-            new HashMap<SmsCbConcatInfo, byte[][]>(4);
+    /** Holds incomplete concatenated messages waiting for assembly. */
+    private final SmsCbPageAssembler mPageAssembler = new SmsCbPageAssembler();
 
     protected GsmCellBroadcastHandler(Context context, Phone phone) {
         super("GsmCellBroadcastHandler", context, phone);
@@ -139,56 +139,28 @@ public class GsmCellBroadcastHandler extends CellBroadcastHandler {
                     break;
             }
 
+            // Remove messages that are out of scope to prevent the assembler from keeping
+            // incomplete messages that will never be assembled
+            mPageAssembler.updateLocation(plmn, lac, cid);
+
             byte[][] pdus;
             int pageCount = header.getNumberOfPages();
             if (pageCount > 1) {
                 // Multi-page message
-                SmsCbConcatInfo concatInfo = new SmsCbConcatInfo(header, location);
-
-                // Try to find other pages of the same message
-                pdus = mSmsCbPageMap.get(concatInfo);
-
+                pdus = mPageAssembler.addPage(header.getSerialNumber(), location,
+                        header.getPageIndex(), pageCount, receivedPdu,
+                        SystemClock.elapsedRealtime());
                 if (pdus == null) {
-                    // This is the first page of this message, make room for all
-                    // pages and keep until complete
-                    pdus = new byte[pageCount][];
-
-                    mSmsCbPageMap.put(concatInfo, pdus);
-                }
-
-                if (VDBG) log("pdus size=" + pdus.length);
-                // Page parameter is one-based
-                pdus[header.getPageIndex() - 1] = receivedPdu;
-
-                for (byte[] pdu : pdus) {
-                    if (pdu == null) {
-                        // Still missing pages, exit
-                        log("still missing pdu");
-                        return null;
-                    }
+                    // Still missing pages, exit
+                    log("still missing pdu");
+                    return null;
                 }
-
-                // Message complete, remove and dispatch
-                mSmsCbPageMap.remove(concatInfo);
             } else {
                 // Single page message
                 pdus = new byte[1][];
                 pdus[0] = receivedPdu;
             }
 
-            // Remove messages that are out of scope to prevent the map from
-            // growing indefinitely, containing incomplete messages that were
-            // never assembled
-            Iterator<SmsCbConcatInfo> iter = mSmsCbPageMap.keySet().iterator();
-
-            while (iter.hasNext()) {
-                SmsCbConcatInfo info = iter.next();
-
-                if (!info.matchesLocation(plmn, lac, cid)) {
-                    iter.remove();
-                }
-            }
-
             return GsmSmsCbMessage.createSmsCbMessage(mContext, header, location, pdus);
 
         } catch (RuntimeException e) {
@@ -197,51 +169,10 @@ public class GsmCellBroadcastHandler extends CellBroadcastHandler {
         }
     }
 
-    /**
-     * Holds all info about a message page needed to assemble a complete concatenated message.
-     */
-    private static final class SmsCbConcatInfo {
-
-        private final SmsCbHeader mHeader;
-        private final SmsCbLocation mLocation;
-
-        SmsCbConcatInfo(SmsCbHeader header, SmsCbLocation location) {
-            mHeader = header;
-            mLocation = location;
-        }
-
-        @Override
-        public int hashCode() {
-            return (mHeader.getSerialNumber() * 31) + mLocation.hashCode();
-        }
-
-        @Override
-        public boolean equals(Object obj) {
-            if (obj instanceof SmsCbConcatInfo) {
-                SmsCbConcatInfo other = (SmsCbConcatInfo)obj;
-
-                // Two pages match if they have the same serial number (which includes the
-                // geographical scope and update number), and both pages belong to the same
-                // location (PLMN, plus LAC and CID if these are part of the geographical scope).
-                return mHeader.getSerialNumber() == other.mHeader.getSerialNumber()
-                        && mLocation.equals(other.mLocation);
-            }
-
-            return false;
-        }
-
-        /**
-         * Compare the location code for this message to the current location code. The match is
-         * relative to the geographical scope of the message, which determines whether the LAC
-         * and Cell ID are saved in mLocation or set to -1 to match all values.
-         *
-         * @param plmn the current PLMN
-         * @param lac the current Location Area (GSM) or Service Area (UMTS)
-         * @param cid the current Cell ID
-         * @return true if this message is valid for the current location; false otherwise
-         */
-        public boolean matchesLocation(String plmn, int lac, int cid) {
-            return mLocation.isInLocationArea(plmn, lac, cid);
-        }
+    @Override
+    public void dump(FileDescriptor fd, PrintWriter pw, String[] args) {
+        super.dump(fd, pw, args);
+        mPageAssembler.dump(pw);
+        pw.flush();
     }
 }
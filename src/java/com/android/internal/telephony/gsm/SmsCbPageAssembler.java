@@ -0,0 +1,255 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony.gsm;
+
+import android.telephony.SmsCbLocation;
+import android.text.TextUtils;
+
+import com.android.internal.annotations.VisibleForTesting;
+
+import java.io.PrintWriter;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Reassembles multi-page 3GPP cell broadcast messages.
+ *
+ * Incomplete messages are kept for at most {@link #PAGE_EXPIRY_MILLIS} and at most
+ * {@link #MAX_PENDING_MESSAGES} of them are kept at a time, the oldest being dropped first.
+ * Messages are also indexed by location so that the ones out of scope can be dropped as soon as
+ * the serving cell changes, without visiting every pending message. Repeated pages of a pending
+ * message are ignored.
+ */
+class SmsCbPageAssembler {
+    /** Maximum number of incomplete messages waiting for their missing pages. */
+    @VisibleForTesting
+    static final int MAX_PENDING_MESSAGES = 32;
+
+    /** Time after the first page of a message after which its other pages are not awaited. */
+    @VisibleForTesting
+    static final long PAGE_EXPIRY_MILLIS = 5 * 60 * 1000;
+
+    /** Pages received so far of one message. */
+    private static final class PendingMessage {
+        final SmsCbConcatInfo mConcatInfo;
+        final byte[][] mPdus;
+        final long mFirstPageTime;
+        int mReceivedPages;
+
+        PendingMessage(SmsCbConcatInfo concatInfo, int pageCount, long firstPageTime) {
+            mConcatInfo = concatInfo;
+            mPdus = new byte[pageCount][];
+            mFirstPageTime = firstPageTime;
+        }
+    }
+
+    // Incomplete messages in the order their first page was received.
+    private final LinkedHashMap<SmsCbConcatInfo, PendingMessage> mPendingMessages =
+            new LinkedHashMap<>();
+    // Incomplete messages by the location they were received in.
+    private final HashMap<SmsCbLocation, HashSet<SmsCbConcatInfo>> mPendingByLocation =
+            new HashMap<>();
+
+    // Last location passed to updateLocation().
+    private String mPlmn;
+    private int mLac = -1;
+    private int mCid = -1;
+
+    private int mPagesReceived;
+    private int mDuplicatePages;
+    private int mExpiredPages;
+    private int mDroppedPages;
+    private int mMessagesAssembled;
+
+    /**
+     * Adds a page of a multi-page message.
+     *
+     * @param serialNumber serial number of the message, which includes the geographical scope
+     *        and update number
+     * @param location location of the message, relative to its geographical scope
+     * @param pageIndex one-based index of the page
+     * @param pageCount number of pages of the message
+     * @param pdu the page
+     * @param now current time, in milliseconds since boot
+     * @return the pages of the message if it is now complete, or null
+     */
+    byte[][] addPage(int serialNumber, SmsCbLocation location, int pageIndex, int pageCount,
+            byte[] pdu, long now) {
+        mPagesReceived++;
+        expirePendingMessages(now);
+
+        if (pageIndex < 1 || pageIndex > pageCount) {
+            mDroppedPages++;
+            return null;
+        }
+
+        SmsCbConcatInfo concatInfo = new SmsCbConcatInfo(serialNumber, location);
+        PendingMessage message = mPendingMessages.get(concatInfo);
+        if (message != null && message.mPdus.length != pageCount) {
+            // The page count changed, start over with this page.
+            removePendingMessage(message);
+            mDroppedPages += message.mReceivedPages;
+            message = null;
+        }
+
+        if (message == null) {
+            // This is the first page of this message, make room for all pages and keep until
+            // complete
+            if (mPendingMessages.size() >= MAX_PENDING_MESSAGES) {
+                PendingMessage oldest = mPendingMessages.values().iterator().next();
+                removePendingMessage(oldest);
+                mDroppedPages += oldest.mReceivedPages;
+            }
+            message = new PendingMessage(concatInfo, pageCount, now);
+            mPendingMessages.put(concatInfo, message);
+            HashSet<SmsCbConcatInfo> atLocation = mPendingByLocation.get(location);
+            if (atLocation == null) {
+                atLocation = new HashSet<>();
+                mPendingByLocation.put(location, atLocation);
+            }
+            atLocation.add(concatInfo);
+        }
+
+        if (message.mPdus[pageIndex - 1] != null) {
+            // Pages are broadcast repeatedly; the serial number includes the update number, so
+            // the repeated page carries the same content.
+            mDuplicatePages++;
+            return null;
+        }
+
+        message.mPdus[pageIndex - 1] = pdu;
+        message.mReceivedPages++;
+        if (message.mReceivedPages < message.mPdus.length) {
+            // Still missing pages
+            return null;
+        }
+
+        // Message complete, remove and dispatch
+        removePendingMessage(message);
+        mMessagesAssembled++;
+        return message.mPdus;
+    }
+
+    /**
+     * Drops the incomplete messages that are out of scope for the current location, to prevent
+     * keeping messages that will never be assembled.
+     *
+     * @param plmn the current PLMN
+     * @param lac the current Location Area (GSM) or Service Area (UMTS)
+     * @param cid the current Cell ID
+     */
+    void updateLocation(String plmn, int lac, int cid) {
+        if (TextUtils.equals(plmn, mPlmn) && lac == mLac && cid == mCid) {
+            return;
+        }
+        mPlmn = plmn;
+        mLac = lac;
+        mCid = cid;
+
+        Iterator<Map.Entry<SmsCbLocation, HashSet<SmsCbConcatInfo>>> it =
+                mPendingByLocation.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<SmsCbLocation, HashSet<SmsCbConcatInfo>> entry = it.next();
+            if (entry.getKey().isInLocationArea(plmn, lac, cid)) {
+                continue;
+            }
+            for (SmsCbConcatInfo concatInfo : entry.getValue()) {
+                mDroppedPages += mPendingMessages.remove(concatInfo).mReceivedPages;
+            }
+            it.remove();
+        }
+    }
+
+    /** Returns the number of incomplete messages. */
+    @VisibleForTesting
+    int getPendingMessageCount() {
+        return mPendingMessages.size();
+    }
+
+    private void expirePendingMessages(long now) {
+        Iterator<PendingMessage> it = mPendingMessages.values().iterator();
+        while (it.hasNext()) {
+            PendingMessage message = it.next();
+            if (now - message.mFirstPageTime < PAGE_EXPIRY_MILLIS) {
+                // Messages are in arrival order, the others are more recent.
+                break;
+            }
+            it.remove();
+            removeFromLocationIndex(message.mConcatInfo);
+            mExpiredPages += message.mReceivedPages;
+        }
+    }
+
+    private void removePendingMessage(PendingMessage message) {
+        mPendingMessages.remove(message.mConcatInfo);
+        removeFromLocationIndex(message.mConcatInfo);
+    }
+
+    private void removeFromLocationIndex(SmsCbConcatInfo concatInfo) {
+        HashSet<SmsCbConcatInfo> atLocation = mPendingByLocation.get(concatInfo.mLocation);
+        if (atLocation != null) {
+            atLocation.remove(concatInfo);
+            if (atLocation.isEmpty()) {
+                mPendingByLocation.remove(concatInfo.mLocation);
+            }
+        }
+    }
+
+    void dump(PrintWriter pw) {
+        pw.println("SmsCbPageAssembler: pendingMessages=" + mPendingMessages.size()
+                + " pagesReceived=" + mPagesReceived + " duplicatePages=" + mDuplicatePages
+                + " expiredPages=" + mExpiredPages + " droppedPages=" + mDroppedPages
+                + " messagesAssembled=" + mMessagesAssembled);
+    }
+
+    /**
+     * Holds all info about a message page needed to assemble a complete concatenated message.
+     */
+    private static final class SmsCbConcatInfo {
+
+        private final int mSerialNumber;
+        private final SmsCbLocation mLocation;
+
+        SmsCbConcatInfo(int serialNumber, SmsCbLocation location) {
+            mSerialNumber = serialNumber;
+            mLocation = location;
+        }
+
+        @Override
+        public int hashCode() {
+            return (mSerialNumber * 31) + mLocation.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (obj instanceof SmsCbConcatInfo) {
+                SmsCbConcatInfo other = (SmsCbConcatInfo)obj;
+
+                // Two pages match if they have the same serial number (which includes the
+                // geographical scope and update number), and both pages belong to the same
+                // location (PLMN, plus LAC and CID if these are part of the geographical scope).
+                return mSerialNumber == other.mSerialNumber
+                        && mLocation.equals(other.mLocation);
+            }
+
+            return false;
+        }
+    }
+}
@@ -18,9 +18,11 @@ package com.android.internal.telephony.gsm;
 
 import android.os.AsyncResult;
 import android.os.Handler;
+import android.os.Looper;
 import android.os.Message;
 import android.telephony.Rlog;
 import android.util.SparseArray;
+import android.util.SparseBooleanArray;
 import android.util.SparseIntArray;
 
 import com.android.internal.telephony.uicc.AdnRecord;
@@ -28,12 +30,19 @@ import com.android.internal.telephony.uicc.AdnRecordCache;
 import com.android.internal.telephony.uicc.IccConstants;
 import com.android.internal.telephony.uicc.IccFileHandler;
 import com.android.internal.telephony.uicc.IccUtils;
+
 import java.util.ArrayList;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 
 /**
  * This class implements reading and parsing USIM records.
  * Refer to Spec 3GPP TS 31.102 for more details.
  *
+ * The phonebook is loaded asynchronously on the handler thread: once EF_PBR is known, the
+ * EF_ADN (with its EF_EXT1), EF_IAP and EF_EMAIL files of all PBR records are requested at
+ * once instead of one after the other.
+ *
  * {@hide}
  */
 public class UsimPhoneBookManager extends Handler implements IccConstants {
@@ -45,8 +54,8 @@ public class UsimPhoneBookManager extends Handler implements IccConstants {
     private AdnRecordCache mAdnCache;
     private Object mLock = new Object();
     private ArrayList<AdnRecord> mPhoneBookRecords;
-    private ArrayList<byte[]> mIapFileRecord;
-    private ArrayList<byte[]> mEmailFileRecord;
+    // EF_ADN files making up mPhoneBookRecords, in order.
+    private int[] mAdnEfids = new int[0];
 
     // email list for each ADN record. The key would be
     // ADN's efid << 8 + record #
@@ -57,11 +66,23 @@ public class UsimPhoneBookManager extends Handler implements IccConstants {
 
     private boolean mRefreshCache = false;
 
+    // State of the load in progress, guarded by mLock.
+    private CompletableFuture<ArrayList<AdnRecord>> mLoadFuture;
+    // Incremented on every load and reset, so that responses of an abandoned load are dropped.
+    private int mLoadGeneration;
+
+    // State of the load in progress, only accessed on the handler thread.
+    private boolean mLoadingAdnOnly;
+    private int mPendingReads;
+    // EF_EMAIL contents by efid, and the EF_EMAIL reads still in progress.
+    private SparseArray<ArrayList<byte[]>> mEmailFiles = new SparseArray<>();
+    private SparseBooleanArray mPendingEmailReads = new SparseBooleanArray();
 
     private static final int EVENT_PBR_LOAD_DONE = 1;
     private static final int EVENT_USIM_ADN_LOAD_DONE = 2;
     private static final int EVENT_IAP_LOAD_DONE = 3;
     private static final int EVENT_EMAIL_LOAD_DONE = 4;
+    private static final int EVENT_LOAD_START = 5;
 
     private static final int USIM_TYPE1_TAG   = 0xA8;
     private static final int USIM_TYPE2_TAG   = 0xA9;
@@ -120,164 +141,323 @@ public class UsimPhoneBookManager extends Handler implements IccConstants {
     }
 
     public void reset() {
-        mPhoneBookRecords.clear();
-        mIapFileRecord = null;
-        mEmailFileRecord = null;
-        mPbrRecords = null;
-        mIsPbrPresent = true;
-        mRefreshCache = false;
-        mEmailsForAdnRec.clear();
-        mSfiEfidTable.clear();
+        CompletableFuture<ArrayList<AdnRecord>> pendingLoad;
+        synchronized (mLock) {
+            mPhoneBookRecords.clear();
+            mAdnEfids = new int[0];
+            mPbrRecords = null;
+            mIsPbrPresent = true;
+            mRefreshCache = false;
+            mEmailsForAdnRec.clear();
+            mSfiEfidTable.clear();
+            mEmailFiles.clear();
+            mPendingEmailReads.clear();
+            mLoadGeneration++;
+            pendingLoad = mLoadFuture;
+            mLoadFuture = null;
+        }
+        if (pendingLoad != null) {
+            pendingLoad.completeExceptionally(new RuntimeException("UsimPhoneBookManager reset"));
+        }
     }
 
-    // Load all phonebook related EFs from the SIM.
+    /**
+     * Load all phonebook related EFs from the SIM, blocking until they are loaded.
+     * Must not be called on the handler thread of this object.
+     */
     public ArrayList<AdnRecord> loadEfFilesFromUsim() {
-        synchronized (mLock) {
-            if (!mPhoneBookRecords.isEmpty()) {
-                if (mRefreshCache) {
-                    mRefreshCache = false;
-                    refreshCache();
-                }
-                return mPhoneBookRecords;
-            }
+        if (getLooper() == Looper.myLooper()) {
+            Rlog.e(LOG_TAG, "loadEfFilesFromUsim: cannot block the handler thread");
+            return null;
+        }
+        try {
+            return loadEfFilesFromUsimAsync().get();
+        } catch (InterruptedException e) {
+            Rlog.e(LOG_TAG, "Interrupted Exception in loadEfFilesFromUsim");
+        } catch (ExecutionException e) {
+            Rlog.e(LOG_TAG, "loadEfFilesFromUsim failed: " + e.getCause());
+        }
+        return null;
+    }
 
-            if (!mIsPbrPresent) return null;
+    /**
+     * Load all phonebook related EFs from the SIM without blocking.
+     *
+     * @param response ((AsyncResult) response.obj).result is the ArrayList of AdnRecord, or
+     *        ((AsyncResult) response.obj).exception is set if there is no phonebook.
+     */
+    public void loadEfFilesFromUsim(Message response) {
+        loadEfFilesFromUsimAsync().whenComplete((records, throwable) -> {
+            if (response == null) return;
+            if (throwable == null && records == null) {
+                throwable = new RuntimeException("EF_PBR is not present");
+            }
+            AsyncResult.forMessage(response, records, throwable);
+            response.sendToTarget();
+        });
+    }
 
-            // Check if the PBR file is present in the cache, if not read it
-            // from the USIM.
-            if (mPbrRecords == null) {
-                readPbrFileAndWait();
+    /**
+     * Load all phonebook related EFs from the SIM without blocking. Concurrent calls share the
+     * same load. There are no partial results: the future is only completed once the files of
+     * every PBR record are read.
+     *
+     * @return future completed with all ADN records, or with null if there is no phonebook.
+     */
+    public CompletableFuture<ArrayList<AdnRecord>> loadEfFilesFromUsimAsync() {
+        synchronized (mLock) {
+            if (!mPhoneBookRecords.isEmpty() && !mRefreshCache && mLoadFuture == null) {
+                return CompletableFuture.completedFuture(mPhoneBookRecords);
+            }
+            if (!mIsPbrPresent) {
+                return CompletableFuture.completedFuture(null);
             }
+            if (mLoadFuture == null) {
+                mLoadFuture = new CompletableFuture<>();
+                sendMessage(obtainMessage(EVENT_LOAD_START, mLoadGeneration, 0));
+            }
+            return mLoadFuture;
+        }
+    }
 
-            if (mPbrRecords == null)
-                return null;
+    /**
+     * Returns the EF_ADN files holding the records returned by {@link #loadEfFilesFromUsim},
+     * in the same order.
+     */
+    public int[] getAdnEfids() {
+        synchronized (mLock) {
+            return mAdnEfids.clone();
+        }
+    }
 
-            int numRecs = mPbrRecords.size();
+    // Invalidate the phonebook cache.
+    public void invalidateCache() {
+        synchronized (mLock) {
+            mRefreshCache = true;
+        }
+    }
 
-            log("loadEfFilesFromUsim: Loading adn and emails");
-            for (int i = 0; i < numRecs; i++) {
-                readAdnFileAndWait(i);
-                readEmailFileAndWait(i);
-            }
+    // Runs on the handler thread.
+    private void startLoad() {
+        boolean refresh;
+        synchronized (mLock) {
+            refresh = !mPhoneBookRecords.isEmpty();
+            mRefreshCache = false;
+        }
+        if (refresh) {
+            // Only the ADN records may have been updated; emails are kept.
+            readFiles(true);
+            return;
+        }
 
-            updatePhoneAdnRecord();
-            // All EF files are loaded, return all the records
+        // Check if the PBR file is present in the cache, if not read it
+        // from the USIM.
+        if (mPbrRecords == null) {
+            mFh.loadEFLinearFixedAll(EF_PBR, obtainMessage(EVENT_PBR_LOAD_DONE, mLoadGeneration,
+                    0));
+            return;
         }
-        return mPhoneBookRecords;
+        readFiles(false);
     }
 
-    // Refresh the phonebook cache.
-    private void refreshCache() {
-        if (mPbrRecords == null) return;
-        mPhoneBookRecords.clear();
+    // Request the files of all PBR records at once.
+    private void readFiles(boolean adnOnly) {
+        if (mPbrRecords == null) {
+            finishLoad();
+            return;
+        }
+
+        log("readFiles: Loading adn" + (adnOnly ? "" : " and emails"));
+        mLoadingAdnOnly = adnOnly;
+        mPendingReads = 0;
+        if (!adnOnly) {
+            mEmailsForAdnRec.clear();
+            mEmailFiles.clear();
+            mPendingEmailReads.clear();
+        }
 
         int numRecs = mPbrRecords.size();
         for (int i = 0; i < numRecs; i++) {
-            readAdnFileAndWait(i);
+            PbrRecord record = mPbrRecords.get(i);
+            record.resetLoadState();
+            if (readAdnFile(i) && !adnOnly) {
+                readEmailFile(i);
+            }
         }
-    }
 
-    // Invalidate the phonebook cache.
-    public void invalidateCache() {
-        mRefreshCache = true;
+        if (mPendingReads == 0) {
+            finishLoad();
+        }
     }
 
-    // Read the phonebook reference file EF_PBR.
-    private void readPbrFileAndWait() {
-        mFh.loadEFLinearFixedAll(EF_PBR, obtainMessage(EVENT_PBR_LOAD_DONE));
-        try {
-            mLock.wait();
-        } catch (InterruptedException e) {
-            Rlog.e(LOG_TAG, "Interrupted Exception in readAdnFileAndWait");
+    // Read EF_ADN file. Returns false if the PBR record has no EF_ADN.
+    private boolean readAdnFile(int recId) {
+        PbrRecord record = mPbrRecords.get(recId);
+        SparseArray<File> files = record.mFileIds;
+        if (files == null || files.size() == 0 || files.get(USIM_EFADN_TAG) == null) {
+            record.mLoaded = true;
+            return false;
+        }
+
+        int extEf = 0;
+        // Only call fileIds.get while EF_EXT1_TAG is available
+        if (files.get(USIM_EFEXT1_TAG) != null) {
+            extEf = files.get(USIM_EFEXT1_TAG).getEfid();
         }
+
+        mPendingReads++;
+        mAdnCache.requestLoadAllAdnLike(files.get(USIM_EFADN_TAG).getEfid(),
+            extEf, obtainMessage(EVENT_USIM_ADN_LOAD_DONE, mLoadGeneration, recId));
+        return true;
     }
 
-    // Read EF_EMAIL which contains the email records.
-    private void readEmailFileAndWait(int recId) {
-        SparseArray<File> files;
-        files = mPbrRecords.get(recId).mFileIds;
-        if (files == null) return;
+    // Read EF_EMAIL which contains the email records, and EF_IAP if it is needed to link them.
+    private void readEmailFile(int recId) {
+        PbrRecord record = mPbrRecords.get(recId);
+        SparseArray<File> files = record.mFileIds;
 
         File email = files.get(USIM_EFEMAIL_TAG);
-        if (email != null) {
+        if (email == null) return;
 
-            /**
-             * Check if the EF_EMAIL is a Type 1 file or a type 2 file.
-             * If mEmailPresentInIap is true, its a type 2 file.
-             * So we read the IAP file and then read the email records.
-             * instead of reading directly.
-             */
-            if (email.getParentTag() == USIM_TYPE2_TAG) {
-                if (files.get(USIM_EFIAP_TAG) == null) {
-                    Rlog.e(LOG_TAG, "Can't locate EF_IAP in EF_PBR.");
-                    return;
-                }
+        /**
+         * Check if the EF_EMAIL is a Type 1 file or a type 2 file.
+         * If mEmailPresentInIap is true, its a type 2 file.
+         * So we read the IAP file and then read the email records.
+         * instead of reading directly.
+         */
+        if (email.getParentTag() == USIM_TYPE2_TAG) {
+            if (files.get(USIM_EFIAP_TAG) == null) {
+                Rlog.e(LOG_TAG, "Can't locate EF_IAP in EF_PBR.");
+                return;
+            }
 
-                log("EF_IAP exists. Loading EF_IAP to retrieve the index.");
-                readIapFileAndWait(files.get(USIM_EFIAP_TAG).getEfid());
-                if (mIapFileRecord == null) {
-                    Rlog.e(LOG_TAG, "Error: IAP file is empty");
-                    return;
-                }
+            log("EF_IAP exists. Loading EF_IAP to retrieve the index.");
+            record.mIapPending = true;
+            mPendingReads++;
+            mFh.loadEFLinearFixedAll(files.get(USIM_EFIAP_TAG).getEfid(),
+                    obtainMessage(EVENT_IAP_LOAD_DONE, mLoadGeneration, recId));
 
-                log("EF_EMAIL order in PBR record: " + email.getIndex());
-            }
+            log("EF_EMAIL order in PBR record: " + email.getIndex());
+        }
+
+        int emailEfid = email.getEfid();
+        log("EF_EMAIL exists in PBR. efid = 0x" +
+                Integer.toHexString(emailEfid).toUpperCase());
+
+        /**
+         * Make sure this EF_EMAIL was never read earlier. Sometimes two PBR record points
+         */
+        // to the same EF_EMAIL
+        if (mPendingEmailReads.get(emailEfid) || mEmailFiles.indexOfKey(emailEfid) >= 0) {
+            log("Skipped this EF_EMAIL which was loaded earlier");
+            return;
+        }
+        record.mEmailEfid = emailEfid;
+
+        // Read the EFEmail file.
+        mPendingEmailReads.put(emailEfid, true);
+        mPendingReads++;
+        mFh.loadEFLinearFixedAll(emailEfid,
+                obtainMessage(EVENT_EMAIL_LOAD_DONE, mLoadGeneration, emailEfid));
+    }
 
-            int emailEfid = email.getEfid();
-            log("EF_EMAIL exists in PBR. efid = 0x" +
-                    Integer.toHexString(emailEfid).toUpperCase());
+    // Called whenever a read completes: attach the emails of the PBR records now complete.
+    private void onFileRead() {
+        mPendingReads--;
+
+        int numRecs = mPbrRecords.size();
+        for (int i = 0; i < numRecs; i++) {
+            PbrRecord record = mPbrRecords.get(i);
+            if (record.mLoaded || record.mAdnRecords == null || record.mIapPending
+                    || mPendingEmailReads.get(record.mEmailEfid)) {
+                continue;
+            }
+            record.mLoaded = true;
 
             /**
-             * Make sure this EF_EMAIL was never read earlier. Sometimes two PBR record points
+             * The ADN record # would be the reference record size
+             * for the rest of EFs associated within this PBR.
              */
-            // to the same EF_EMAIL
-            for (int i = 0; i < recId; i++) {
-                if (mPbrRecords.get(i) != null) {
-                    SparseArray<File> previousFileIds = mPbrRecords.get(i).mFileIds;
-                    if (previousFileIds != null) {
-                        File id = previousFileIds.get(USIM_EFEMAIL_TAG);
-                        if (id != null && id.getEfid() == emailEfid) {
-                            log("Skipped this EF_EMAIL which was loaded earlier");
-                            return;
-                        }
-                    }
-                }
+            record.mMasterFileRecordNum = record.mAdnRecords.size();
+            if (!mLoadingAdnOnly) {
+                buildEmailList(i);
+                updatePhoneAdnRecord(record.mAdnRecords);
             }
+        }
 
-            // Read the EFEmail file.
-            mFh.loadEFLinearFixedAll(emailEfid,
-                    obtainMessage(EVENT_EMAIL_LOAD_DONE));
-            try {
-                mLock.wait();
-            } catch (InterruptedException e) {
-                Rlog.e(LOG_TAG, "Interrupted Exception in readEmailFileAndWait");
-            }
+        if (mPendingReads == 0) {
+            finishLoad();
+        }
+    }
 
-            if (mEmailFileRecord == null) {
-                Rlog.e(LOG_TAG, "Error: Email file is empty");
-                return;
-            }
+    private void buildEmailList(int recId) {
+        PbrRecord record = mPbrRecords.get(recId);
+        if (record.mEmailEfid == 0) return;
 
-            // Build email list
-            if (email.getParentTag() == USIM_TYPE2_TAG && mIapFileRecord != null) {
-                // If the tag is type 2 and EF_IAP exists, we need to build tpe 2 email list
-                buildType2EmailList(recId);
-            }
-            else {
-                // If one the followings is true, we build type 1 email list
-                // 1. EF_IAP does not exist or it is failed to load
-                // 2. ICC cards can be made such that they have an IAP file but all
-                //    records are empty. In that case buildType2EmailList will fail and
-                //    we need to build type 1 email list.
-
-                // Build type 1 email list
-                buildType1EmailList(recId);
+        ArrayList<byte[]> emailFileRecord = mEmailFiles.get(record.mEmailEfid);
+        if (emailFileRecord == null) {
+            Rlog.e(LOG_TAG, "Error: Email file is empty");
+            return;
+        }
+
+        File email = record.mFileIds.get(USIM_EFEMAIL_TAG);
+        if (email.getParentTag() == USIM_TYPE2_TAG && record.mIapRecords == null) {
+            Rlog.e(LOG_TAG, "Error: IAP file is empty");
+            return;
+        }
+
+        // Build email list
+        if (email.getParentTag() == USIM_TYPE2_TAG) {
+            // If the tag is type 2 and EF_IAP exists, we need to build tpe 2 email list
+            buildType2EmailList(recId, record.mIapRecords, emailFileRecord);
+        }
+        else {
+            // If one the followings is true, we build type 1 email list
+            // 1. EF_IAP does not exist or it is failed to load
+            // 2. ICC cards can be made such that they have an IAP file but all
+            //    records are empty. In that case buildType2EmailList will fail and
+            //    we need to build type 1 email list.
+
+            // Build type 1 email list
+            buildType1EmailList(recId, emailFileRecord);
+        }
+    }
+
+    private void finishLoad() {
+        CompletableFuture<ArrayList<AdnRecord>> future;
+        ArrayList<AdnRecord> result;
+        synchronized (mLock) {
+            if (mPbrRecords == null) {
+                result = null;
+            } else {
+                mPhoneBookRecords.clear();
+                ArrayList<Integer> adnEfids = new ArrayList<>();
+                for (PbrRecord record : mPbrRecords) {
+                    if (record.mAdnRecords != null) {
+                        mPhoneBookRecords.addAll(record.mAdnRecords);
+                        adnEfids.add(record.mFileIds.get(USIM_EFADN_TAG).getEfid());
+                    }
+                }
+                mAdnEfids = adnEfids.stream().mapToInt(Integer::intValue).toArray();
+                // Emails may point to ADN records of another PBR record.
+                updatePhoneAdnRecord(mPhoneBookRecords);
+                // The emails were set on the records cached by mAdnCache.
+                for (int adnEfid : mAdnEfids) {
+                    mAdnCache.onRecordsChanged(adnEfid);
+                }
+                result = mPhoneBookRecords;
             }
+            future = mLoadFuture;
+            mLoadFuture = null;
+        }
+        // All EF files are loaded, return all the records
+        if (future != null) {
+            future.complete(result);
         }
     }
 
     // Build type 1 email list
-    private void buildType1EmailList(int recId) {
+    private void buildType1EmailList(int recId, ArrayList<byte[]> emailFileRecord) {
         /**
          * If this is type 1, the number of records in EF_EMAIL would be same as the record number
          * in the master/reference file.
@@ -292,7 +472,7 @@ public class UsimPhoneBookManager extends Handler implements IccConstants {
         byte[] emailRec;
         for (int i = 0; i < numRecs; i++) {
             try {
-                emailRec = mEmailFileRecord.get(i);
+                emailRec = emailFileRecord.get(i);
             } catch (IndexOutOfBoundsException e) {
                 Rlog.e(LOG_TAG, "Error: Improper ICC card: No email record for ADN, continuing");
                 break;
@@ -310,7 +490,7 @@ public class UsimPhoneBookManager extends Handler implements IccConstants {
             int sfi = emailRec[emailRec.length - 2];
             int adnRecId = emailRec[emailRec.length - 1];
 
-            String email = readEmailRecord(i);
+            String email = readEmailRecord(i, emailFileRecord);
 
             if (email == null || email.equals("")) {
                 continue;
@@ -347,7 +527,8 @@ public class UsimPhoneBookManager extends Handler implements IccConstants {
     }
 
     // Build type 2 email list
-    private boolean buildType2EmailList(int recId) {
+    private boolean buildType2EmailList(int recId, ArrayList<byte[]> iapFileRecord,
+            ArrayList<byte[]> emailFileRecord) {
 
         if (mPbrRecords.get(recId) == null)
             return false;
@@ -376,7 +557,7 @@ public class UsimPhoneBookManager extends Handler implements IccConstants {
             byte[] record;
             int emailRecId;
             try {
-                record = mIapFileRecord.get(i);
+                record = iapFileRecord.get(i);
                 emailRecId =
                         record[mPbrRecords.get(recId).mFileIds.get(USIM_EFEMAIL_TAG).getIndex()];
             } catch (IndexOutOfBoundsException e) {
@@ -384,7 +565,7 @@ public class UsimPhoneBookManager extends Handler implements IccConstants {
                 continue;
             }
 
-            String email = readEmailRecord(emailRecId - 1);
+            String email = readEmailRecord(emailRecId - 1, emailFileRecord);
             if (email != null && !email.equals("")) {
                 // The key is constructed by efid and record index.
                 int index = (((adnEfid & 0xFFFF) << 8) | (i & 0xFF));
@@ -401,23 +582,13 @@ public class UsimPhoneBookManager extends Handler implements IccConstants {
         return true;
     }
 
-    // Read Phonebook Index Admistration EF_IAP file
-    private void readIapFileAndWait(int efid) {
-        mFh.loadEFLinearFixedAll(efid, obtainMessage(EVENT_IAP_LOAD_DONE));
-        try {
-            mLock.wait();
-        } catch (InterruptedException e) {
-            Rlog.e(LOG_TAG, "Interrupted Exception in readIapFileAndWait");
-        }
-    }
+    private void updatePhoneAdnRecord(ArrayList<AdnRecord> records) {
 
-    private void updatePhoneAdnRecord() {
-
-        int numAdnRecs = mPhoneBookRecords.size();
+        int numAdnRecs = records.size();
 
         for (int i = 0; i < numAdnRecs; i++) {
 
-            AdnRecord rec = mPhoneBookRecords.get(i);
+            AdnRecord rec = records.get(i);
 
             int adnEfid = rec.getEfid();
             int adnRecId = rec.getRecId();
@@ -438,17 +609,17 @@ public class UsimPhoneBookManager extends Handler implements IccConstants {
             System.arraycopy(emailList.toArray(), 0, emails, 0, emailList.size());
             rec.setEmails(emails);
             log("Adding email list to ADN (0x" +
-                    Integer.toHexString(mPhoneBookRecords.get(i).getEfid()).toUpperCase() +
-                    ") record #" + mPhoneBookRecords.get(i).getRecId());
-            mPhoneBookRecords.set(i, rec);
+                    Integer.toHexString(records.get(i).getEfid()).toUpperCase() +
+                    ") record #" + records.get(i).getRecId());
+            records.set(i, rec);
         }
     }
 
     // Read email from the record of EF_EMAIL
-    private String readEmailRecord(int recId) {
+    private String readEmailRecord(int recId, ArrayList<byte[]> emailFileRecord) {
         byte[] emailRec;
         try {
-            emailRec = mEmailFileRecord.get(recId);
+            emailRec = emailFileRecord.get(recId);
         } catch (IndexOutOfBoundsException e) {
             return null;
         }
@@ -457,42 +628,13 @@ public class UsimPhoneBookManager extends Handler implements IccConstants {
         return IccUtils.adnStringFieldToString(emailRec, 0, emailRec.length - 2);
     }
 
-    // Read EF_ADN file
-    private void readAdnFileAndWait(int recId) {
-        SparseArray<File> files;
-        files = mPbrRecords.get(recId).mFileIds;
-        if (files == null || files.size() == 0) return;
-
-        int extEf = 0;
-        // Only call fileIds.get while EF_EXT1_TAG is available
-        if (files.get(USIM_EFEXT1_TAG) != null) {
-            extEf = files.get(USIM_EFEXT1_TAG).getEfid();
-        }
-
-        if (files.get(USIM_EFADN_TAG) == null)
-            return;
-
-        int previousSize = mPhoneBookRecords.size();
-        mAdnCache.requestLoadAllAdnLike(files.get(USIM_EFADN_TAG).getEfid(),
-            extEf, obtainMessage(EVENT_USIM_ADN_LOAD_DONE));
-        try {
-            mLock.wait();
-        } catch (InterruptedException e) {
-            Rlog.e(LOG_TAG, "Interrupted Exception in readAdnFileAndWait");
-        }
-
-        /**
-         * The recent added ADN record # would be the reference record size
-         * for the rest of EFs associated within this PBR.
-         */
-        mPbrRecords.get(recId).mMasterFileRecordNum = mPhoneBookRecords.size() - previousSize;
-    }
-
     // Create the phonebook reference file based on EF_PBR
     private void createPbrFile(ArrayList<byte[]> records) {
         if (records == null) {
             mPbrRecords = null;
-            mIsPbrPresent = false;
+            synchronized (mLock) {
+                mIsPbrPresent = false;
+            }
             return;
         }
 
@@ -521,47 +663,51 @@ public class UsimPhoneBookManager extends Handler implements IccConstants {
     public void handleMessage(Message msg) {
         AsyncResult ar;
 
+        synchronized (mLock) {
+            if (msg.arg1 != mLoadGeneration) {
+                log("Dropping event " + msg.what + " of an abandoned load");
+                return;
+            }
+        }
+
         switch(msg.what) {
+        case EVENT_LOAD_START:
+            startLoad();
+            break;
         case EVENT_PBR_LOAD_DONE:
             log("Loading PBR records done");
             ar = (AsyncResult) msg.obj;
             if (ar.exception == null) {
                 createPbrFile((ArrayList<byte[]>)ar.result);
             }
-            synchronized (mLock) {
-                mLock.notify();
-            }
+            readFiles(false);
             break;
         case EVENT_USIM_ADN_LOAD_DONE:
             log("Loading USIM ADN records done");
             ar = (AsyncResult) msg.obj;
-            if (ar.exception == null) {
-                mPhoneBookRecords.addAll((ArrayList<AdnRecord>)ar.result);
-            }
-            synchronized (mLock) {
-                mLock.notify();
-            }
+            mPbrRecords.get(msg.arg2).mAdnRecords = (ar.exception == null)
+                    ? new ArrayList<>((ArrayList<AdnRecord>) ar.result)
+                    : new ArrayList<>();
+            onFileRead();
             break;
         case EVENT_IAP_LOAD_DONE:
             log("Loading USIM IAP records done");
             ar = (AsyncResult) msg.obj;
+            PbrRecord record = mPbrRecords.get(msg.arg2);
+            record.mIapPending = false;
             if (ar.exception == null) {
-                mIapFileRecord = ((ArrayList<byte[]>)ar.result);
-            }
-            synchronized (mLock) {
-                mLock.notify();
+                record.mIapRecords = ((ArrayList<byte[]>)ar.result);
             }
+            onFileRead();
             break;
         case EVENT_EMAIL_LOAD_DONE:
             log("Loading USIM Email records done");
             ar = (AsyncResult) msg.obj;
+            mPendingEmailReads.delete(msg.arg2);
             if (ar.exception == null) {
-                mEmailFileRecord = ((ArrayList<byte[]>)ar.result);
-            }
-
-            synchronized (mLock) {
-                mLock.notify();
+                mEmailFiles.put(msg.arg2, (ArrayList<byte[]>) ar.result);
             }
+            onFileRead();
             break;
         }
     }
@@ -579,6 +725,14 @@ public class UsimPhoneBookManager extends Handler implements IccConstants {
          */
         private int mMasterFileRecordNum;
 
+        // Load state, only accessed on the handler thread.
+        private ArrayList<AdnRecord> mAdnRecords;
+        private ArrayList<byte[]> mIapRecords;
+        private boolean mIapPending;
+        // EF_EMAIL holding the emails of this record, or 0 if none.
+        private int mEmailEfid;
+        private boolean mLoaded;
+
         PbrRecord(byte[] record) {
             mFileIds = new SparseArray<File>();
             SimTlv recTlv;
@@ -587,6 +741,14 @@ public class UsimPhoneBookManager extends Handler implements IccConstants {
             parseTag(recTlv);
         }
 
+        void resetLoadState() {
+            mAdnRecords = null;
+            mIapRecords = null;
+            mIapPending = false;
+            mEmailEfid = 0;
+            mLoaded = false;
+        }
+
         void parseTag(SimTlv tlv) {
             SimTlv tlvEfSfi;
             int tag;
@@ -0,0 +1,118 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+package com.android.internal.telephony.imsphone;
+
+/**
+ * Fixed-size ring buffer of Unicode codepoints, filled by one thread and drained by another
+ * without locking. The buffer's monitor is only used to wake a producer waiting for room.
+ *
+ * {@link #offer} and {@link #awaitSpace} must only be called by the producer thread,
+ * {@link #poll} only by the consumer thread.
+ */
+class CodepointRingBuffer {
+    private final int[] mCodepoints;
+    private final int mMask;
+    // Index of the next codepoint to read, only written by the consumer.
+    private volatile long mHead;
+    // Index of the next codepoint to write, only written by the producer.
+    private volatile long mTail;
+    // Set while the producer waits on the monitor for room.
+    private volatile boolean mProducerWaiting;
+
+    /**
+     * @param capacity maximum number of buffered codepoints, must be a power of two
+     */
+    CodepointRingBuffer(int capacity) {
+        if (capacity <= 0 || Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("capacity must be a power of two: " + capacity);
+        }
+        mCodepoints = new int[capacity];
+        mMask = capacity - 1;
+    }
+
+    /**
+     * Adds as many codepoints of {@code s} as fit, starting at char index {@code start}.
+     *
+     * @return the char index of the first codepoint not added, {@code s.length()} if all fit
+     */
+    int offer(String s, int start) {
+        long head = mHead;
+        long tail = mTail;
+        int index = start;
+        while (index < s.length() && tail - head < mCodepoints.length) {
+            int codepoint = s.codePointAt(index);
+            mCodepoints[(int) tail & mMask] = codepoint;
+            tail++;
+            index += Character.charCount(codepoint);
+        }
+        // Publish the codepoints written above to the consumer.
+        mTail = tail;
+        return index;
+    }
+
+    /**
+     * Removes up to {@code count} codepoints and appends them to {@code out}.
+     *
+     * @return the number of codepoints removed
+     */
+    int poll(StringBuilder out, int count) {
+        long head = mHead;
+        int polled = (int) Math.min(count, mTail - head);
+        for (int i = 0; i < polled; i++) {
+            out.appendCodePoint(mCodepoints[(int) (head + i) & mMask]);
+        }
+        // Hand the slots read above back to the producer.
+        mHead = head + polled;
+        if (polled > 0 && mProducerWaiting) {
+            synchronized (this) {
+                notifyAll();
+            }
+        }
+        return polled;
+    }
+
+    /** Blocks until the buffer is not full. */
+    void awaitSpace() throws InterruptedException {
+        synchronized (this) {
+            // Set before checking for room, so that a poll() freeing room after the check
+            // wakes this thread.
+            mProducerWaiting = true;
+            try {
+                while (mTail - mHead >= mCodepoints.length) {
+                    wait();
+                }
+            } finally {
+                mProducerWaiting = false;
+            }
+        }
+    }
+
+    /** Returns the number of buffered codepoints. */
+    int size() {
+        return (int) (mTail - mHead);
+    }
+
+    /** Returns the buffered text without removing it. Only consistent on the consumer thread. */
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (long i = mHead, tail = mTail; i < tail; i++) {
+            sb.appendCodePoint(mCodepoints[(int) i & mMask]);
+        }
+        return sb.toString();
+    }
+}
@@ -19,6 +19,7 @@ package com.android.internal.telephony.imsphone;
 import android.os.Handler;
 import android.os.Looper;
 import android.os.Message;
+import android.os.SystemClock;
 import android.telecom.Connection;
 import android.telephony.Rlog;
 
@@ -27,6 +28,9 @@ import com.android.internal.annotations.VisibleForTesting;
 import java.io.IOException;
 import java.nio.channels.ClosedByInterruptException;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 public class ImsRttTextHandler extends Handler {
     public interface NetworkWriter {
@@ -46,31 +50,36 @@ public class ImsRttTextHandler extends Handler {
     // the buffer to grow to before sending as many as we can.
     public static final int MAX_BUFFERED_CHARACTER_COUNT = 5;
     private static final int MILLIS_PER_SECOND = 1000;
+    // Number of codepoints read from in-call that can wait to be sent to the network. The
+    // reader waits for room when the network side is throttled and the buffer is full.
+    private static final int NETWORK_BUFFER_CAPACITY = 1024;
 
     // Messages for the handler.
     // Initializes the text handler. Should have an RttTextStream set in msg.obj
     private static final int INITIALIZE = 1;
-    // Appends a string to the buffer to send to the network. Should have the string in msg.obj
+    // Indicates that text was added to the buffer to send to the network. No extra data.
     private static final int APPEND_TO_NETWORK_BUFFER = 2;
     // Send a string received from the network to the in-call app. Should have the string in
     // msg.obj.
     private static final int SEND_TO_INCALL = 3;
     // Send as many characters as possible, as constrained by the rate limit. No extra data.
     private static final int ATTEMPT_SEND_TO_NETWORK = 4;
-    // Indicates that N characters were sent a second ago and should be ignored by the rate
-    // limiter. msg.arg1 should be set to N.
-    private static final int EXPIRE_SENT_CODEPOINT_COUNT = 5;
     // Indicates that the call is over and we should teardown everything we have set up.
     private static final int TEARDOWN = 9999;
 
+    // Reads from the in-call apps for all the RTT calls. Reads block until text is received, so
+    // each open stream occupies a thread, but threads are reused across streams and calls.
+    private static final ExecutorService sInCallReaderExecutor =
+            Executors.newCachedThreadPool(r -> new Thread(r, "ImsRttInCallReader"));
+
     private Connection.RttTextStream mRttTextStream;
     // For synchronization during testing
     private CountDownLatch mReadNotifier;
 
-    private class InCallReaderThread extends Thread {
+    private class InCallReader implements Runnable {
         private final Connection.RttTextStream mReaderThreadRttTextStream;
 
-        public InCallReaderThread(Connection.RttTextStream textStream) {
+        public InCallReader(Connection.RttTextStream textStream) {
             mReaderThreadRttTextStream = textStream;
         }
 
@@ -98,34 +107,64 @@ public class ImsRttTextHandler extends Handler {
                 if (charsReceived.length() == 0) {
                     continue;
                 }
-                obtainMessage(APPEND_TO_NETWORK_BUFFER, charsReceived)
-                        .sendToTarget();
+                if (!appendToNetworkBuffer(charsReceived)) {
+                    Rlog.i(LOG_TAG, "RttReaderThread - Thread interrupted. Finishing.");
+                    break;
+                }
                 if (mReadNotifier != null) {
                     mReadNotifier.countDown();
                 }
             }
         }
+
+        /** Returns false if interrupted while waiting for room in the buffer. */
+        private boolean appendToNetworkBuffer(String text) {
+            int offset = mBufferedTextToNetwork.offer(text, 0);
+            sendEmptyMessage(APPEND_TO_NETWORK_BUFFER);
+            while (offset < text.length()) {
+                try {
+                    // The handler makes room as the rate limit allows.
+                    mBufferedTextToNetwork.awaitSpace();
+                } catch (InterruptedException e) {
+                    return false;
+                }
+                offset = mBufferedTextToNetwork.offer(text, offset);
+                sendEmptyMessage(APPEND_TO_NETWORK_BUFFER);
+            }
+            return true;
+        }
     }
 
-    private int mCodepointsAvailableForTransmission = MAX_CODEPOINTS_PER_SECOND;
-    private StringBuffer mBufferedTextToNetwork = new StringBuffer();
-    private InCallReaderThread mReaderThread;
+    // Written by the in-call reader, read by the handler.
+    private final CodepointRingBuffer mBufferedTextToNetwork =
+            new CodepointRingBuffer(NETWORK_BUFFER_CAPACITY);
+    private final StringBuilder mTextToSend = new StringBuilder(MAX_CODEPOINTS_PER_SECOND);
+    private Future<?> mReaderTask;
     // This is only ever used when the pipes fail and we have to re-setup. Messages received
     // from the network are buffered here until Telecom gets back to us with the new pipes.
-    private StringBuffer mBufferedTextToIncall = new StringBuffer();
+    private StringBuilder mBufferedTextToIncall = new StringBuilder();
     private final NetworkWriter mNetworkWriter;
 
+    // Rate limiting: codepoints sent to the network in the last second, as a ring of
+    // (time, count) pairs. Each send spends at least one codepoint, so there are never more
+    // than MAX_CODEPOINTS_PER_SECOND of them. Codepoints become available for transmission
+    // again one second after they were sent.
+    private int mCodepointsAvailableForTransmission = MAX_CODEPOINTS_PER_SECOND;
+    private final long[] mSendTimes = new long[MAX_CODEPOINTS_PER_SECOND];
+    private final int[] mSendCounts = new int[MAX_CODEPOINTS_PER_SECOND];
+    private int mOldestSend;
+    private int mSendsInLastSecond;
+
     @Override
     public void handleMessage(Message msg) {
         switch (msg.what) {
             case INITIALIZE:
-                if (mRttTextStream != null || mReaderThread != null) {
+                if (mRttTextStream != null || mReaderTask != null) {
                     Rlog.e(LOG_TAG, "RTT text stream already initialized. Ignoring.");
                     return;
                 }
                 mRttTextStream = (Connection.RttTextStream) msg.obj;
-                mReaderThread = new InCallReaderThread(mRttTextStream);
-                mReaderThread.start();
+                mReaderTask = sInCallReaderExecutor.submit(new InCallReader(mRttTextStream));
                 break;
             case SEND_TO_INCALL:
                 String messageToIncall = (String) msg.obj;
@@ -138,61 +177,59 @@ public class ImsRttTextHandler extends Handler {
                 }
                 break;
             case APPEND_TO_NETWORK_BUFFER:
-                // First, append the text-to-send to the string buffer
-                mBufferedTextToNetwork.append((String) msg.obj);
                 // Check to see how many codepoints we have buffered. If we have more than 5,
                 // send immediately, otherwise, wait until a timeout happens.
-                int numCodepointsBuffered = mBufferedTextToNetwork
-                        .codePointCount(0, mBufferedTextToNetwork.length());
-                if (numCodepointsBuffered >= MAX_BUFFERED_CHARACTER_COUNT) {
-                    sendMessage(obtainMessage(ATTEMPT_SEND_TO_NETWORK));
-                } else {
+                if (mBufferedTextToNetwork.size() >= MAX_BUFFERED_CHARACTER_COUNT) {
+                    attemptSendToNetwork();
+                } else if (!hasMessages(ATTEMPT_SEND_TO_NETWORK)) {
                     sendEmptyMessageDelayed(
                             ATTEMPT_SEND_TO_NETWORK, MAX_BUFFERING_DELAY_MILLIS);
                 }
                 break;
             case ATTEMPT_SEND_TO_NETWORK:
-                // Check to see how many codepoints we can send, and send that many.
-                int numCodePointsAvailableInBuffer = mBufferedTextToNetwork.codePointCount(0,
-                        mBufferedTextToNetwork.length());
-                int numCodePointsSent = Math.min(numCodePointsAvailableInBuffer,
-                        mCodepointsAvailableForTransmission);
-                if (numCodePointsSent == 0) {
-                    break;
-                }
-                int endSendIndex = mBufferedTextToNetwork.offsetByCodePoints(0,
-                        numCodePointsSent);
-
-                String stringToSend = mBufferedTextToNetwork.substring(0, endSendIndex);
-
-                mBufferedTextToNetwork.delete(0, endSendIndex);
-                mNetworkWriter.write(stringToSend);
-                mCodepointsAvailableForTransmission -= numCodePointsSent;
-                sendMessageDelayed(
-                        obtainMessage(EXPIRE_SENT_CODEPOINT_COUNT, numCodePointsSent, 0),
-                        MILLIS_PER_SECOND);
-                break;
-            case EXPIRE_SENT_CODEPOINT_COUNT:
-                mCodepointsAvailableForTransmission += msg.arg1;
-                if (mCodepointsAvailableForTransmission > 0) {
-                    sendMessage(obtainMessage(ATTEMPT_SEND_TO_NETWORK));
-                }
+                attemptSendToNetwork();
                 break;
             case TEARDOWN:
-                try {
-                    if (mReaderThread != null) {
-                        mReaderThread.interrupt();
-                        mReaderThread.join(1000);
-                    }
-                } catch (InterruptedException e) {
-                    // Ignore and assume it'll finish on its own.
+                if (mReaderTask != null) {
+                    mReaderTask.cancel(true /* mayInterruptIfRunning */);
                 }
-                mReaderThread = null;
+                mReaderTask = null;
                 mRttTextStream = null;
                 break;
         }
     }
 
+    private void attemptSendToNetwork() {
+        removeMessages(ATTEMPT_SEND_TO_NETWORK);
+        long now = SystemClock.uptimeMillis();
+        // Take back the codepoints sent more than a second ago.
+        while (mSendsInLastSecond > 0
+                && now - mSendTimes[mOldestSend] >= MILLIS_PER_SECOND) {
+            mCodepointsAvailableForTransmission += mSendCounts[mOldestSend];
+            mOldestSend = (mOldestSend + 1) % MAX_CODEPOINTS_PER_SECOND;
+            mSendsInLastSecond--;
+        }
+
+        // Check to see how many codepoints we can send, and send that many.
+        mTextToSend.setLength(0);
+        int numCodePointsSent = mBufferedTextToNetwork.poll(mTextToSend,
+                mCodepointsAvailableForTransmission);
+        if (numCodePointsSent > 0) {
+            mNetworkWriter.write(mTextToSend.toString());
+            mCodepointsAvailableForTransmission -= numCodePointsSent;
+            int send = (mOldestSend + mSendsInLastSecond) % MAX_CODEPOINTS_PER_SECOND;
+            mSendTimes[send] = now;
+            mSendCounts[send] = numCodePointsSent;
+            mSendsInLastSecond++;
+        }
+
+        if (mBufferedTextToNetwork.size() > 0) {
+            // Rate limited, try again when the oldest codepoints sent become available.
+            sendEmptyMessageAtTime(ATTEMPT_SEND_TO_NETWORK,
+                    mSendTimes[mOldestSend] + MILLIS_PER_SECOND);
+        }
+    }
+
     public ImsRttTextHandler(Looper looper, NetworkWriter networkWriter) {
         super(looper);
         mNetworkWriter = networkWriter;
@@ -24,18 +24,18 @@ import android.telephony.CellInfo;
 import android.telephony.CellSignalStrengthLte;
 import android.telephony.Rlog;
 import android.telephony.SignalStrength;
-import android.util.Pair;
 
 import com.android.internal.telephony.Phone;
 import com.android.internal.telephony.ServiceStateTracker;
 import com.android.internal.telephony.nano.TelephonyProto.TelephonyCallSession;
 
-import java.util.ArrayList;
-
 /**
  * CallQualityMetrics is a utility for tracking the CallQuality during an ongoing call session. It
  * processes snapshots throughout the call to keep track of info like the best and worst
  * ServiceStates, durations of good and bad quality, and other summary statistics.
+ * <p>
+ * Each CallQuality report is folded into running totals and extremes as it arrives, so the memory
+ * used does not grow with the length of the call.
  */
 public class CallQualityMetrics {
 
@@ -53,15 +53,58 @@ public class CallQualityMetrics {
     // value of mCallQualityState which means the CallQuality is BAD/POOR
     private static final int BAD_QUALITY = 1;
 
+    /** A CallQuality and the SignalStrength (LTE-SNR for IMS calls) when it was reported. */
+    private static class Snapshot {
+        CallQuality mCallQuality;
+        int mSs;
+
+        Snapshot() {}
+
+        Snapshot(CallQuality cq, int ss) {
+            set(cq, ss);
+        }
+
+        void set(CallQuality cq, int ss) {
+            mCallQuality = cq;
+            mSs = ss;
+        }
+
+        boolean isSet() {
+            return mCallQuality != null;
+        }
+
+        @Override
+        public String toString() {
+            return "{cq=" + mCallQuality + " ss=" + mSs + "}";
+        }
+    }
+
+    /** Snapshots taken at the best and worst SignalStrengths for one link and quality. */
+    private static class SsExtremes {
+        final Snapshot mWorst = new Snapshot();
+        final Snapshot mBest = new Snapshot();
+
+        void update(CallQuality cq, int ss) {
+            if (!mWorst.isSet() || ss < mWorst.mSs) {
+                mWorst.set(cq, ss);
+            }
+            if (!mBest.isSet() || ss > mBest.mSs) {
+                mBest.set(cq, ss);
+            }
+        }
+    }
+
     private Phone mPhone;
 
     /** Snapshots of the call quality and SignalStrength (LTE-SNR for IMS calls) */
     // mUlSnapshots holds snapshots from uplink call quality changes. We log take snapshots of the
     // first MAX_SNAPSHOTS transitions between good and bad quality
-    private ArrayList<Pair<CallQuality, Integer>> mUlSnapshots = new ArrayList<>();
+    private final Snapshot[] mUlSnapshots = new Snapshot[MAX_SNAPSHOTS];
+    private int mUlSnapshotCount = 0;
     // mDlSnapshots holds snapshots from downlink call quality changes. We log take snapshots of
     // the first MAX_SNAPSHOTS transitions between good and bad quality
-    private ArrayList<Pair<CallQuality, Integer>> mDlSnapshots = new ArrayList<>();
+    private final Snapshot[] mDlSnapshots = new Snapshot[MAX_SNAPSHOTS];
+    private int mDlSnapshotCount = 0;
 
     // Current downlink call quality
     private int mDlCallQualityState = GOOD_QUALITY;
@@ -73,14 +116,10 @@ public class CallQualityMetrics {
     private CallQuality mLastCallQuality;
 
     /** Snapshots taken at best and worst SignalStrengths*/
-    private Pair<CallQuality, Integer> mWorstSsWithGoodDlQuality;
-    private Pair<CallQuality, Integer> mBestSsWithGoodDlQuality;
-    private Pair<CallQuality, Integer> mWorstSsWithBadDlQuality;
-    private Pair<CallQuality, Integer> mBestSsWithBadDlQuality;
-    private Pair<CallQuality, Integer> mWorstSsWithGoodUlQuality;
-    private Pair<CallQuality, Integer> mBestSsWithGoodUlQuality;
-    private Pair<CallQuality, Integer> mWorstSsWithBadUlQuality;
-    private Pair<CallQuality, Integer> mBestSsWithBadUlQuality;
+    private final SsExtremes mSsWithGoodDlQuality = new SsExtremes();
+    private final SsExtremes mSsWithBadDlQuality = new SsExtremes();
+    private final SsExtremes mSsWithGoodUlQuality = new SsExtremes();
+    private final SsExtremes mSsWithBadUlQuality = new SsExtremes();
 
     /** Total durations of good and bad quality time for uplink and downlink */
     private int mTotalDlGoodQualityTimeMs = 0;
@@ -116,18 +155,24 @@ public class CallQualityMetrics {
             newDlCallQualityState = GOOD_QUALITY;
         }
 
+        // read the signal strength once per report
+        int ss = getLteSnr();
+
         if (USERDEBUG_MODE) {
-            if (newUlCallQualityState != mUlCallQualityState) {
-                mUlSnapshots = addSnapshot(cq, mUlSnapshots);
+            if (newUlCallQualityState != mUlCallQualityState
+                    && mUlSnapshotCount < MAX_SNAPSHOTS) {
+                mUlSnapshots[mUlSnapshotCount++] = new Snapshot(cq, ss);
             }
-            if (newDlCallQualityState != mDlCallQualityState) {
-                mDlSnapshots = addSnapshot(cq, mDlSnapshots);
+            if (newDlCallQualityState != mDlCallQualityState
+                    && mDlSnapshotCount < MAX_SNAPSHOTS) {
+                mDlSnapshots[mDlSnapshotCount++] = new Snapshot(cq, ss);
             }
         }
 
         updateTotalDurations(newDlCallQualityState, newUlCallQualityState, cq);
 
-        updateMinAndMaxSignalStrengthSnapshots(newDlCallQualityState, newUlCallQualityState, cq);
+        updateMinAndMaxSignalStrengthSnapshots(newDlCallQualityState, newUlCallQualityState, cq,
+                ss);
 
         mUlCallQualityState = newUlCallQualityState;
         mDlCallQualityState = newDlCallQualityState;
@@ -138,19 +183,6 @@ public class CallQualityMetrics {
         return callQualityLevel < CallQuality.CALL_QUALITY_BAD;
     }
 
-    /**
-     * Save a snapshot of the call quality and signal strength. This can be called with uplink or
-     * downlink call quality level.
-     */
-    private ArrayList<Pair<CallQuality, Integer>> addSnapshot(CallQuality cq,
-            ArrayList<Pair<CallQuality, Integer>> snapshots) {
-        if (snapshots.size() < MAX_SNAPSHOTS) {
-            Integer ss = getLteSnr();
-            snapshots.add(Pair.create(cq, ss));
-        }
-        return snapshots;
-    }
-
     /**
      * Updates the running total duration of good and bad call quality for uplink and downlink.
      */
@@ -182,49 +214,28 @@ public class CallQualityMetrics {
      *     - snapshot of the worst signal strength with good call quality
      */
     private void updateMinAndMaxSignalStrengthSnapshots(int newDlCallQualityState,
-            int newUlCallQualityState, CallQuality cq) {
-        Integer ss = getLteSnr();
-        if (ss.equals(CellInfo.UNAVAILABLE)) {
+            int newUlCallQualityState, CallQuality cq, int ss) {
+        if (ss == CellInfo.UNAVAILABLE) {
             return;
         }
 
         // downlink
         if (newDlCallQualityState == GOOD_QUALITY) {
-            if (mWorstSsWithGoodDlQuality == null || ss < mWorstSsWithGoodDlQuality.second) {
-                mWorstSsWithGoodDlQuality = Pair.create(cq, ss);
-            }
-            if (mBestSsWithGoodDlQuality == null || ss > mBestSsWithGoodDlQuality.second) {
-                mBestSsWithGoodDlQuality = Pair.create(cq, ss);
-            }
+            mSsWithGoodDlQuality.update(cq, ss);
         } else {
-            if (mWorstSsWithBadDlQuality == null || ss < mWorstSsWithBadDlQuality.second) {
-                mWorstSsWithBadDlQuality = Pair.create(cq, ss);
-            }
-            if (mBestSsWithBadDlQuality == null || ss > mBestSsWithBadDlQuality.second) {
-                mBestSsWithBadDlQuality = Pair.create(cq, ss);
-            }
+            mSsWithBadDlQuality.update(cq, ss);
         }
 
         // uplink
         if (newUlCallQualityState == GOOD_QUALITY) {
-            if (mWorstSsWithGoodUlQuality == null || ss < mWorstSsWithGoodUlQuality.second) {
-                mWorstSsWithGoodUlQuality = Pair.create(cq, ss);
-            }
-            if (mBestSsWithGoodUlQuality == null || ss > mBestSsWithGoodUlQuality.second) {
-                mBestSsWithGoodUlQuality = Pair.create(cq, ss);
-            }
+            mSsWithGoodUlQuality.update(cq, ss);
         } else {
-            if (mWorstSsWithBadUlQuality == null || ss < mWorstSsWithBadUlQuality.second) {
-                mWorstSsWithBadUlQuality = Pair.create(cq, ss);
-            }
-            if (mBestSsWithBadUlQuality == null || ss > mBestSsWithBadUlQuality.second) {
-                mBestSsWithBadUlQuality = Pair.create(cq, ss);
-            }
+            mSsWithBadUlQuality.update(cq, ss);
         }
     }
 
     // Returns the LTE signal to noise ratio, or 0 if unavailable
-    private Integer getLteSnr() {
+    private int getLteSnr() {
         ServiceStateTracker sst = mPhone.getDefaultPhone().getServiceStateTracker();
         if (sst == null) {
             Rlog.e(TAG, "getLteSnr: unable to get SST for phone " + mPhone.getPhoneId());
@@ -259,73 +270,50 @@ public class CallQualityMetrics {
      * Return the full downlink CallQualitySummary using the saved CallQuality records.
      */
     public TelephonyCallSession.Event.CallQualitySummary getCallQualitySummaryDl() {
-        TelephonyCallSession.Event.CallQualitySummary summary =
-                new TelephonyCallSession.Event.CallQualitySummary();
-        summary.totalGoodQualityDurationInSeconds = mTotalDlGoodQualityTimeMs / 1000;
-        summary.totalBadQualityDurationInSeconds = mTotalDlBadQualityTimeMs / 1000;
-        // This value could be different from mLastCallQuality.getCallDuration if we support
-        // handover from IMS->CS->IMS, but this is currently not possible
-        // TODO(b/130302396) this also may be possible when we put a call on hold and continue with
-        // another call
-        summary.totalDurationWithQualityInformationInSeconds =
-                mLastCallQuality.getCallDuration() / 1000;
-        if (mWorstSsWithGoodDlQuality != null) {
-            summary.snapshotOfWorstSsWithGoodQuality =
-                    toCallQualityProto(mWorstSsWithGoodDlQuality.first);
-            summary.worstSsWithGoodQuality = toProto(mWorstSsWithGoodDlQuality.second);
-        }
-        if (mBestSsWithGoodDlQuality != null) {
-            summary.snapshotOfBestSsWithGoodQuality =
-                    toCallQualityProto(mBestSsWithGoodDlQuality.first);
-            summary.bestSsWithGoodQuality = toProto(mBestSsWithGoodDlQuality.second);
-        }
-        if (mWorstSsWithBadDlQuality != null) {
-            summary.snapshotOfWorstSsWithBadQuality =
-                    toCallQualityProto(mWorstSsWithBadDlQuality.first);
-            summary.worstSsWithBadQuality = toProto(mWorstSsWithBadDlQuality.second);
-        }
-        if (mBestSsWithBadDlQuality != null) {
-            summary.snapshotOfBestSsWithBadQuality =
-                    toCallQualityProto(mBestSsWithBadDlQuality.first);
-            summary.bestSsWithBadQuality = toProto(mBestSsWithBadDlQuality.second);
-        }
-        summary.snapshotOfEnd = toCallQualityProto(mLastCallQuality);
-        return summary;
+        return getCallQualitySummary(mTotalDlGoodQualityTimeMs, mTotalDlBadQualityTimeMs,
+                mSsWithGoodDlQuality, mSsWithBadDlQuality);
     }
 
     /**
      * Return the full uplink CallQualitySummary using the saved CallQuality records.
      */
     public TelephonyCallSession.Event.CallQualitySummary getCallQualitySummaryUl() {
+        return getCallQualitySummary(mTotalUlGoodQualityTimeMs, mTotalUlBadQualityTimeMs,
+                mSsWithGoodUlQuality, mSsWithBadUlQuality);
+    }
+
+    private TelephonyCallSession.Event.CallQualitySummary getCallQualitySummary(
+            int totalGoodQualityTimeMs, int totalBadQualityTimeMs, SsExtremes ssWithGoodQuality,
+            SsExtremes ssWithBadQuality) {
         TelephonyCallSession.Event.CallQualitySummary summary =
                 new TelephonyCallSession.Event.CallQualitySummary();
-        summary.totalGoodQualityDurationInSeconds = mTotalUlGoodQualityTimeMs / 1000;
-        summary.totalBadQualityDurationInSeconds = mTotalUlBadQualityTimeMs / 1000;
+        summary.totalGoodQualityDurationInSeconds = totalGoodQualityTimeMs / 1000;
+        summary.totalBadQualityDurationInSeconds = totalBadQualityTimeMs / 1000;
         // This value could be different from mLastCallQuality.getCallDuration if we support
         // handover from IMS->CS->IMS, but this is currently not possible
         // TODO(b/130302396) this also may be possible when we put a call on hold and continue with
         // another call
         summary.totalDurationWithQualityInformationInSeconds =
                 mLastCallQuality.getCallDuration() / 1000;
-        if (mWorstSsWithGoodUlQuality != null) {
+        if (ssWithGoodQuality.mWorst.isSet()) {
             summary.snapshotOfWorstSsWithGoodQuality =
-                    toCallQualityProto(mWorstSsWithGoodUlQuality.first);
-            summary.worstSsWithGoodQuality = toProto(mWorstSsWithGoodUlQuality.second);
+                    toCallQualityProto(ssWithGoodQuality.mWorst.mCallQuality);
+            summary.worstSsWithGoodQuality = toProto(ssWithGoodQuality.mWorst.mSs);
         }
-        if (mBestSsWithGoodUlQuality != null) {
+        if (ssWithGoodQuality.mBest.isSet()) {
             summary.snapshotOfBestSsWithGoodQuality =
-                    toCallQualityProto(mBestSsWithGoodUlQuality.first);
-            summary.bestSsWithGoodQuality = toProto(mBestSsWithGoodUlQuality.second);
+                    toCallQualityProto(ssWithGoodQuality.mBest.mCallQuality);
+            summary.bestSsWithGoodQuality = toProto(ssWithGoodQuality.mBest.mSs);
         }
-        if (mWorstSsWithBadUlQuality != null) {
+        if (ssWithBadQuality.mWorst.isSet()) {
             summary.snapshotOfWorstSsWithBadQuality =
-                    toCallQualityProto(mWorstSsWithBadUlQuality.first);
-            summary.worstSsWithBadQuality = toProto(mWorstSsWithBadUlQuality.second);
+                    toCallQualityProto(ssWithBadQuality.mWorst.mCallQuality);
+            summary.worstSsWithBadQuality = toProto(ssWithBadQuality.mWorst.mSs);
         }
-        if (mBestSsWithBadUlQuality != null) {
+        if (ssWithBadQuality.mBest.isSet()) {
             summary.snapshotOfBestSsWithBadQuality =
-                    toCallQualityProto(mBestSsWithBadUlQuality.first);
-            summary.bestSsWithBadQuality = toProto(mBestSsWithBadUlQuality.second);
+                    toCallQualityProto(ssWithBadQuality.mBest.mCallQuality);
+            summary.bestSsWithBadQuality = toProto(ssWithBadQuality.mBest.mSs);
         }
         summary.snapshotOfEnd = toCallQualityProto(mLastCallQuality);
         return summary;
@@ -337,21 +325,15 @@ public class CallQualityMetrics {
         sb.append("[CallQualityMetrics phone ");
         sb.append(mPhone.getPhoneId());
         sb.append(" mUlSnapshots: {");
-        for (Pair<CallQuality, Integer> snapshot : mUlSnapshots) {
-            sb.append(" {cq=");
-            sb.append(snapshot.first);
-            sb.append(" ss=");
-            sb.append(snapshot.second);
-            sb.append("}");
+        for (int i = 0; i < mUlSnapshotCount; i++) {
+            sb.append(" ");
+            sb.append(mUlSnapshots[i]);
         }
         sb.append("}");
         sb.append(" mDlSnapshots:{");
-        for (Pair<CallQuality, Integer> snapshot : mDlSnapshots) {
-            sb.append(" {cq=");
-            sb.append(snapshot.first);
-            sb.append(" ss=");
-            sb.append(snapshot.second);
-            sb.append("}");
+        for (int i = 0; i < mDlSnapshotCount; i++) {
+            sb.append(" ");
+            sb.append(mDlSnapshots[i]);
         }
         sb.append("}");
         sb.append(" ");
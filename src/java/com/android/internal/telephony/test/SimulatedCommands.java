@@ -45,6 +45,7 @@ import android.telephony.NetworkScanRequest;
 import android.telephony.Rlog;
 import android.telephony.ServiceState;
 import android.telephony.SignalStrength;
+import android.telephony.SmsMessage;
 import android.telephony.TelephonyManager;
 import android.telephony.data.DataCallResponse;
 import android.telephony.data.DataProfile;
@@ -157,6 +158,38 @@ public class SimulatedCommands extends BaseCommands
     private SetupDataCallResult mSetupDataCallResult;
     private boolean mIsRadioPowerFailResponse = false;
 
+    //***** Load generation
+
+    /** Signal strength indications, see {@link #startLoad}. */
+    public static final int LOAD_SIGNAL_STRENGTH = 0;
+    /** Cell info list indications, see {@link #startLoad}. */
+    public static final int LOAD_CELL_INFO = 1;
+    /** Data call list changed indications, see {@link #startLoad}. */
+    public static final int LOAD_DATA_CALL_LIST = 2;
+    /** New SMS indications, see {@link #startLoad}. */
+    public static final int LOAD_SMS = 3;
+    public static final int LOAD_TYPE_COUNT = 4;
+
+    /**
+     * Listener of the load generated by {@link #startLoad}, called on the thread of
+     * SimulatedCommands.
+     */
+    public interface LoadListener {
+        /**
+         * Called after an indication was sent to the registrants.
+         *
+         * @param type the type of the indication, e.g. {@link #LOAD_SIGNAL_STRENGTH}
+         * @param sentTimeNanos {@link SystemClock#elapsedRealtimeNanos} when it was sent
+         */
+        void onIndicationSent(int type, long sentTimeNanos);
+
+        /** Called after the last indication of the profile was sent. */
+        void onLoadFinished();
+    }
+
+    private volatile int mResponseLatencyMs;
+    private SimulatedLoadGenerator mLoadGenerator;
+
     //***** Constructor
     public
     SimulatedCommands() {
@@ -1659,33 +1692,32 @@ public class SimulatedCommands extends BaseCommands
             AsyncResult.forMessage(result).exception
                 = new RuntimeException("Unimplemented");
 
-            if (mPausedResponseCount > 0) {
-                mPausedResponses.add(result);
-            } else {
-                result.sendToTarget();
-            }
+            sendResponse(result);
         }
     }
 
     private void resultSuccess(Message result, Object ret) {
         if (result != null) {
             AsyncResult.forMessage(result).result = ret;
-            if (mPausedResponseCount > 0) {
-                mPausedResponses.add(result);
-            } else {
-                result.sendToTarget();
-            }
+            sendResponse(result);
         }
     }
 
     private void resultFail(Message result, Object ret, Throwable tr) {
         if (result != null) {
             AsyncResult.forMessage(result, ret, tr);
-            if (mPausedResponseCount > 0) {
-                mPausedResponses.add(result);
-            } else {
-                result.sendToTarget();
-            }
+            sendResponse(result);
+        }
+    }
+
+    private void sendResponse(Message result) {
+        int latencyMs = mResponseLatencyMs;
+        if (mPausedResponseCount > 0) {
+            mPausedResponses.add(result);
+        } else if (latencyMs > 0) {
+            result.getTarget().sendMessageDelayed(result, latencyMs);
+        } else {
+            result.sendToTarget();
         }
     }
 
@@ -2300,4 +2332,83 @@ public class SimulatedCommands extends BaseCommands
     public Handler getHandler() {
         return mHandlerThread.getThreadHandler();
     }
+
+    /**
+     * Delays the solicited responses which are not paused by the given latency, 0 to send them
+     * right away.
+     */
+    public void setResponseLatency(int latencyMs) {
+        mResponseLatencyMs = latencyMs;
+    }
+
+    /**
+     * Starts generating the unsolicited indications of a profile on the thread of
+     * SimulatedCommands, replacing the load in progress if any. The latency of the solicited
+     * responses follows the profile until the load is finished or stopped.
+     *
+     * The indications are sent to the registrants as the RIL would: signal strength to the signal
+     * strength registrant, the cell info list set with {@link #setCellInfoList} to the cell info
+     * list registrants, the data call set with {@link #setDataCallResult} to the data call list
+     * changed registrants and the SMS PDU of the profile to the new GSM SMS registrant.
+     */
+    public void startLoad(SimulatedLoadProfile profile, LoadListener listener) {
+        stopLoad();
+        mLoadGenerator = new SimulatedLoadGenerator(this, profile, listener, getHandler());
+        mLoadGenerator.start();
+    }
+
+    /** Stops the load started by {@link #startLoad}. */
+    public void stopLoad() {
+        if (mLoadGenerator != null) {
+            mLoadGenerator.stop();
+            mLoadGenerator = null;
+        }
+    }
+
+    /**
+     * Sends an unsolicited indication generated by {@link SimulatedLoadGenerator}.
+     *
+     * @param sequence number of the indication in the load, used to vary the signal strength
+     */
+    void notifyLoadIndication(int type, int sequence, byte[] smsPdu) {
+        switch (type) {
+            case LOAD_SIGNAL_STRENGTH:
+                // cycle through the valid GSM rssi, so that every indication is a change
+                mSignalStrength = new SignalStrength(
+                        new CellSignalStrengthCdma(),
+                        new CellSignalStrengthGsm(-113 + (sequence % 32) * 2, 0,
+                                CellInfo.UNAVAILABLE),
+                        new CellSignalStrengthWcdma(),
+                        new CellSignalStrengthTdscdma(),
+                        new CellSignalStrengthLte(),
+                        new CellSignalStrengthNr());
+                notifySignalStrength();
+                break;
+            case LOAD_CELL_INFO:
+                List<CellInfo> cellInfoList = mCellInfoList;
+                if (cellInfoList == null) {
+                    cellInfoList = new ArrayList<>();
+                    cellInfoList.add(getCellInfoGsm());
+                }
+                mRilCellInfoListRegistrants.notifyRegistrants(
+                        new AsyncResult(null, cellInfoList, null));
+                break;
+            case LOAD_DATA_CALL_LIST:
+                ArrayList<SetupDataCallResult> dcList = new ArrayList<>(1);
+                if (mSetupDataCallResult != null) {
+                    dcList.add(mSetupDataCallResult);
+                }
+                mDataCallListChangedRegistrants.notifyRegistrants(
+                        new AsyncResult(null, RIL.convertDataCallResultList(dcList), null));
+                break;
+            case LOAD_SMS:
+                if (mGsmSmsRegistrant != null) {
+                    mGsmSmsRegistrant.notifyRegistrant(
+                            new AsyncResult(null, SmsMessage.newFromCMT(smsPdu), null));
+                }
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown load indication type " + type);
+        }
+    }
 }
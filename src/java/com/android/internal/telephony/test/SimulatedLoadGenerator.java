@@ -0,0 +1,131 @@
+/*
+ * Copyright 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony.test;
+
+import android.os.Handler;
+import android.os.SystemClock;
+
+import java.util.List;
+
+/**
+ * Replays a {@link SimulatedLoadProfile} on the handler of {@link SimulatedCommands}.
+ *
+ * The k-th indication of a type at {@code rate} per second is sent {@code k * 1000 / rate} ms
+ * after the start of its phase, and phases start exactly when the previous one ends, so the
+ * number and order of the indications do not depend on how late the handler runs.
+ */
+class SimulatedLoadGenerator implements Runnable {
+    private final SimulatedCommands mCommands;
+    private final SimulatedLoadProfile mProfile;
+    private final SimulatedCommands.LoadListener mListener;
+    private final Handler mHandler;
+
+    private int mPhaseIndex;
+    private long mPhaseStartMs;
+    // indications sent in the current phase, by type
+    private final int[] mSent = new int[SimulatedCommands.LOAD_TYPE_COUNT];
+    // indications sent in all phases
+    private int mSequence;
+    private boolean mStopped;
+
+    SimulatedLoadGenerator(SimulatedCommands commands, SimulatedLoadProfile profile,
+            SimulatedCommands.LoadListener listener, Handler handler) {
+        mCommands = commands;
+        mProfile = profile;
+        mListener = listener;
+        mHandler = handler;
+    }
+
+    void start() {
+        mHandler.post(() -> {
+            startPhase(0, SystemClock.uptimeMillis());
+            run();
+        });
+    }
+
+    void stop() {
+        mHandler.post(() -> {
+            mStopped = true;
+            mHandler.removeCallbacks(this);
+            mCommands.setResponseLatency(0);
+        });
+    }
+
+    private void startPhase(int index, long startMs) {
+        mPhaseIndex = index;
+        mPhaseStartMs = startMs;
+        for (int type = 0; type < mSent.length; type++) {
+            mSent[type] = 0;
+        }
+        List<SimulatedLoadProfile.Phase> phases = mProfile.getPhases();
+        if (index < phases.size()) {
+            mCommands.setResponseLatency(phases.get(index).responseLatencyMs);
+        }
+    }
+
+    @Override
+    public void run() {
+        if (mStopped) {
+            return;
+        }
+        List<SimulatedLoadProfile.Phase> phases = mProfile.getPhases();
+        long now = SystemClock.uptimeMillis();
+        while (mPhaseIndex < phases.size()) {
+            SimulatedLoadProfile.Phase phase = phases.get(mPhaseIndex);
+            long elapsedMs = now - mPhaseStartMs;
+            long nextMs = Long.MAX_VALUE;
+            for (int type = 0; type < mSent.length; type++) {
+                int count = getIndicationCount(phase, type);
+                if (count == 0) {
+                    continue;
+                }
+                int rate = phase.getRate(type);
+                // indications due at or before elapsedMs
+                int due = (int) Math.min(count, elapsedMs * rate / 1000 + 1);
+                while (mSent[type] < due) {
+                    mCommands.notifyLoadIndication(type, mSequence++, mProfile.getSmsPdu());
+                    mSent[type]++;
+                    mListener.onIndicationSent(type, SystemClock.elapsedRealtimeNanos());
+                }
+                if (mSent[type] < count) {
+                    // ceil(sent * 1000 / rate)
+                    long dueMs = (mSent[type] * 1000L + rate - 1) / rate;
+                    nextMs = Math.min(nextMs, mPhaseStartMs + dueMs);
+                }
+            }
+            if (nextMs != Long.MAX_VALUE) {
+                mHandler.postAtTime(this, nextMs);
+                return;
+            }
+            long phaseEndMs = mPhaseStartMs + phase.durationMs;
+            if (now < phaseEndMs) {
+                mHandler.postAtTime(this, phaseEndMs);
+                return;
+            }
+            startPhase(mPhaseIndex + 1, phaseEndMs);
+        }
+        mCommands.setResponseLatency(0);
+        mListener.onLoadFinished();
+    }
+
+    private int getIndicationCount(SimulatedLoadProfile.Phase phase, int type) {
+        if (type == SimulatedCommands.LOAD_SMS && mProfile.getSmsPdu() == null) {
+            return 0;
+        }
+        return phase.getIndicationCount(type);
+    }
+}
@@ -0,0 +1,176 @@
+/*
+ * Copyright 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony.test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Script of the load generated by {@link SimulatedCommands#startLoad}: a sequence of phases, each
+ * with a duration, a rate per second of every kind of unsolicited indication and a latency of the
+ * solicited responses.
+ *
+ * The indications of a phase are evenly spaced, so a phase of {@code durationMs} at {@code rate}
+ * indications per second always generates {@code durationMs * rate / 1000} of them.
+ *
+ * A profile can also be parsed from a script such as
+ * {@code "duration=1000,latency=20,signal=50,cellinfo=10;duration=500,datacall=5,sms=2"},
+ * where phases are separated by ';' and omitted values are 0.
+ */
+public class SimulatedLoadProfile {
+    /** A phase of the load. */
+    public static final class Phase {
+        public final long durationMs;
+        public final int responseLatencyMs;
+        private final int[] mRates;
+
+        private Phase(long durationMs, int responseLatencyMs, int[] rates) {
+            this.durationMs = durationMs;
+            this.responseLatencyMs = responseLatencyMs;
+            mRates = rates;
+        }
+
+        /** @return the indications of the given type per second */
+        public int getRate(int type) {
+            return mRates[type];
+        }
+
+        /** @return the number of indications of the given type generated by this phase */
+        public int getIndicationCount(int type) {
+            return (int) (durationMs * mRates[type] / 1000);
+        }
+    }
+
+    private final List<Phase> mPhases = new ArrayList<>();
+    private byte[] mSmsPdu;
+
+    /**
+     * Adds a phase to the end of the profile.
+     *
+     * @param durationMs duration of the phase
+     * @param responseLatencyMs delay of the solicited responses during the phase
+     * @param signalStrengthRate signal strength indications per second
+     * @param cellInfoRate cell info list indications per second
+     * @param dataCallListRate data call list indications per second
+     * @param smsRate new SMS indications per second, only generated if an SMS PDU is set
+     */
+    public SimulatedLoadProfile addPhase(long durationMs, int responseLatencyMs,
+            int signalStrengthRate, int cellInfoRate, int dataCallListRate, int smsRate) {
+        int[] rates = new int[SimulatedCommands.LOAD_TYPE_COUNT];
+        rates[SimulatedCommands.LOAD_SIGNAL_STRENGTH] = signalStrengthRate;
+        rates[SimulatedCommands.LOAD_CELL_INFO] = cellInfoRate;
+        rates[SimulatedCommands.LOAD_DATA_CALL_LIST] = dataCallListRate;
+        rates[SimulatedCommands.LOAD_SMS] = smsRate;
+        for (int rate : rates) {
+            if (rate < 0) {
+                throw new IllegalArgumentException("Negative rate " + rate);
+            }
+        }
+        if (durationMs < 0 || responseLatencyMs < 0) {
+            throw new IllegalArgumentException("Negative duration or latency");
+        }
+        mPhases.add(new Phase(durationMs, responseLatencyMs, rates));
+        return this;
+    }
+
+    /**
+     * Sets the PDU of the generated SMS, in the format of an unsolicited new SMS from the modem,
+     * i.e. with the SMSC address.
+     */
+    public SimulatedLoadProfile setSmsPdu(byte[] pdu) {
+        mSmsPdu = pdu;
+        return this;
+    }
+
+    public byte[] getSmsPdu() {
+        return mSmsPdu;
+    }
+
+    public List<Phase> getPhases() {
+        return Collections.unmodifiableList(mPhases);
+    }
+
+    /** @return the number of indications of the given type generated by the whole profile */
+    public int getIndicationCount(int type) {
+        if (type == SimulatedCommands.LOAD_SMS && mSmsPdu == null) {
+            return 0;
+        }
+        int count = 0;
+        for (Phase phase : mPhases) {
+            count += phase.getIndicationCount(type);
+        }
+        return count;
+    }
+
+    /**
+     * Parses a profile from a script, see {@link SimulatedLoadProfile}.
+     *
+     * @throws IllegalArgumentException if the script is malformed
+     */
+    public static SimulatedLoadProfile parse(String script) {
+        SimulatedLoadProfile profile = new SimulatedLoadProfile();
+        for (String phase : script.split(";")) {
+            if (phase.trim().isEmpty()) {
+                continue;
+            }
+            long durationMs = 0;
+            int latencyMs = 0;
+            int[] rates = new int[SimulatedCommands.LOAD_TYPE_COUNT];
+            for (String entry : phase.split(",")) {
+                String[] keyValue = entry.split("=");
+                if (keyValue.length != 2) {
+                    throw new IllegalArgumentException("Malformed entry: " + entry);
+                }
+                String key = keyValue[0].trim();
+                long value;
+                try {
+                    value = Long.parseLong(keyValue[1].trim());
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException("Malformed value: " + entry);
+                }
+                switch (key) {
+                    case "duration":
+                        durationMs = value;
+                        break;
+                    case "latency":
+                        latencyMs = (int) value;
+                        break;
+                    case "signal":
+                        rates[SimulatedCommands.LOAD_SIGNAL_STRENGTH] = (int) value;
+                        break;
+                    case "cellinfo":
+                        rates[SimulatedCommands.LOAD_CELL_INFO] = (int) value;
+                        break;
+                    case "datacall":
+                        rates[SimulatedCommands.LOAD_DATA_CALL_LIST] = (int) value;
+                        break;
+                    case "sms":
+                        rates[SimulatedCommands.LOAD_SMS] = (int) value;
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Unknown key: " + key);
+                }
+            }
+            profile.addPhase(durationMs, latencyMs, rates[SimulatedCommands.LOAD_SIGNAL_STRENGTH],
+                    rates[SimulatedCommands.LOAD_CELL_INFO],
+                    rates[SimulatedCommands.LOAD_DATA_CALL_LIST],
+                    rates[SimulatedCommands.LOAD_SMS]);
+        }
+        return profile;
+    }
+}
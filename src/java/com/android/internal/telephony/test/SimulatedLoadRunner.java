@@ -0,0 +1,211 @@
+/*
+ * Copyright 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony.test;
+
+import android.os.Debug;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.telephony.Rlog;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs a {@link SimulatedLoadProfile} through {@link SimulatedCommands} and measures how the
+ * components registered for the indications keep up with it.
+ *
+ * The latency of an indication is the time from when it is sent to the registrants until the
+ * looper of its target, set with {@link #setTarget}, has handled it: after sending an indication,
+ * a marker is posted to the target looper, which runs once the messages queued before it,
+ * including the indication, have been handled. Indications of a type without a target are
+ * counted but not timed.
+ */
+public class SimulatedLoadRunner {
+    private static final String LOG_TAG = "SimulatedLoadRunner";
+
+    private final SimulatedCommands mCommands;
+    private final Handler[] mTargets = new Handler[SimulatedCommands.LOAD_TYPE_COUNT];
+
+    /** Result of a run. */
+    public static final class Result {
+        /** Time from the start of the load until the last indication was handled. */
+        public final long elapsedMs;
+        /** Bytes and objects allocated by the process during the run. */
+        public final long allocatedBytes;
+        public final long allocationCount;
+        private final int[] mCounts;
+        // sorted latencies by type
+        private final long[][] mLatenciesNanos;
+
+        private Result(long elapsedMs, long allocatedBytes, long allocationCount, int[] counts,
+                long[][] latenciesNanos) {
+            this.elapsedMs = elapsedMs;
+            this.allocatedBytes = allocatedBytes;
+            this.allocationCount = allocationCount;
+            mCounts = counts;
+            mLatenciesNanos = latenciesNanos;
+            for (int type = 0; type < latenciesNanos.length; type++) {
+                Arrays.sort(mLatenciesNanos[type], 0, mCounts[type]);
+            }
+        }
+
+        /** @return the number of indications of the type which were handled */
+        public int getCount(int type) {
+            return mCounts[type];
+        }
+
+        /** @return the total number of indications which were handled */
+        public int getTotalCount() {
+            int total = 0;
+            for (int count : mCounts) {
+                total += count;
+            }
+            return total;
+        }
+
+        /** @return the indications handled per second */
+        public double getThroughputPerSecond() {
+            return elapsedMs == 0 ? 0 : getTotalCount() * 1000.0 / elapsedMs;
+        }
+
+        /**
+         * @return the given percentile of the latency of the indications of the type, or -1 if
+         * they were not timed
+         */
+        public long getLatencyPercentileNanos(int type, int percentile) {
+            int count = mCounts[type];
+            if (mLatenciesNanos[type].length == 0 || count == 0) {
+                return -1;
+            }
+            int index = (int) Math.ceil(count * percentile / 100.0) - 1;
+            return mLatenciesNanos[type][Math.max(0, Math.min(count - 1, index))];
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            sb.append("elapsed=").append(elapsedMs).append("ms")
+                    .append(" throughput=").append(String.format("%.1f", getThroughputPerSecond()))
+                    .append("/s")
+                    .append(" allocated=").append(allocatedBytes).append("B/")
+                    .append(allocationCount).append(" objects");
+            for (int type = 0; type < mCounts.length; type++) {
+                if (mCounts[type] == 0) {
+                    continue;
+                }
+                sb.append(" [type=").append(type).append(" count=").append(mCounts[type]);
+                if (getLatencyPercentileNanos(type, 50) >= 0) {
+                    sb.append(" p50=").append(getLatencyPercentileNanos(type, 50) / 1000)
+                            .append("us p99=").append(getLatencyPercentileNanos(type, 99) / 1000)
+                            .append("us max=").append(getLatencyPercentileNanos(type, 100) / 1000)
+                            .append("us");
+                }
+                sb.append("]");
+            }
+            return sb.toString();
+        }
+    }
+
+    public SimulatedLoadRunner(SimulatedCommands commands) {
+        mCommands = commands;
+    }
+
+    /**
+     * Sets the looper of the component which handles the indications of the type, e.g. the looper
+     * of ServiceStateTracker for {@link SimulatedCommands#LOAD_SIGNAL_STRENGTH}.
+     */
+    public SimulatedLoadRunner setTarget(int type, Looper looper) {
+        mTargets[type] = (looper == null) ? null : new Handler(looper);
+        return this;
+    }
+
+    /**
+     * Runs the profile and waits until all its indications were handled. Must not be called on
+     * the thread of SimulatedCommands or of a target.
+     *
+     * @return the result, or null if the indications were not all handled within the timeout
+     */
+    @SuppressWarnings("deprecation")
+    public Result run(SimulatedLoadProfile profile, long timeoutMs) throws InterruptedException {
+        final int[] expected = new int[SimulatedCommands.LOAD_TYPE_COUNT];
+        int total = 0;
+        for (int type = 0; type < expected.length; type++) {
+            expected[type] = profile.getIndicationCount(type);
+            total += expected[type];
+        }
+        // allocated up front so that recording a latency does not allocate
+        final long[][] latencies = new long[expected.length][];
+        for (int type = 0; type < expected.length; type++) {
+            latencies[type] = new long[mTargets[type] == null ? 0 : expected[type]];
+        }
+        final int[] counts = new int[expected.length];
+        final CountDownLatch handled = new CountDownLatch(total);
+        final long[] lastHandledNanos = new long[1];
+
+        long startNanos = SystemClock.elapsedRealtimeNanos();
+        Debug.resetGlobalAllocSize();
+        Debug.resetGlobalAllocCount();
+        Debug.startAllocCounting();
+        mCommands.startLoad(profile, new SimulatedCommands.LoadListener() {
+            @Override
+            public void onIndicationSent(int type, long sentTimeNanos) {
+                Handler target = mTargets[type];
+                if (target == null) {
+                    synchronized (counts) {
+                        counts[type]++;
+                        lastHandledNanos[0] = Math.max(lastHandledNanos[0], sentTimeNanos);
+                    }
+                    handled.countDown();
+                    return;
+                }
+                target.post(() -> {
+                    long now = SystemClock.elapsedRealtimeNanos();
+                    synchronized (counts) {
+                        latencies[type][counts[type]++] = now - sentTimeNanos;
+                        lastHandledNanos[0] = Math.max(lastHandledNanos[0], now);
+                    }
+                    handled.countDown();
+                });
+            }
+
+            @Override
+            public void onLoadFinished() {
+                Rlog.d(LOG_TAG, "All indications sent");
+            }
+        });
+
+        boolean done = handled.await(timeoutMs, TimeUnit.MILLISECONDS);
+        Debug.stopAllocCounting();
+        long allocatedBytes = Debug.getGlobalAllocSize();
+        long allocationCount = Debug.getGlobalAllocCount();
+        mCommands.stopLoad();
+        if (!done) {
+            Rlog.e(LOG_TAG, "Timed out, " + handled.getCount() + " indication(s) not handled");
+            return null;
+        }
+        Result result;
+        synchronized (counts) {
+            result = new Result(
+                    TimeUnit.NANOSECONDS.toMillis(lastHandledNanos[0] - startNanos),
+                    allocatedBytes, allocationCount, counts, latencies);
+        }
+        Rlog.d(LOG_TAG, "Result: " + result);
+        return result;
+    }
+}
@@ -25,7 +25,6 @@ import android.util.SparseArray;
 import com.android.internal.telephony.gsm.UsimPhoneBookManager;
 
 import java.util.ArrayList;
-import java.util.Iterator;
 
 /**
  * {@hide}
@@ -42,6 +41,9 @@ public class AdnRecordCache extends Handler implements IccConstants {
     SparseArray<ArrayList<AdnRecord>> mAdnLikeFiles
         = new SparseArray<ArrayList<AdnRecord>>();
 
+    // Indexes over the records of mAdnLikeFiles, by EF ID
+    private final SparseArray<AdnRecordIndex> mAdnLikeIndexes = new SparseArray<>();
+
     // People waiting for ADN-like files to be loaded
     @UnsupportedAppUsage
     SparseArray<ArrayList<Message>> mAdnLikeWaiters
@@ -73,6 +75,7 @@ public class AdnRecordCache extends Handler implements IccConstants {
     @UnsupportedAppUsage
     public void reset() {
         mAdnLikeFiles.clear();
+        mAdnLikeIndexes.clear();
         mUsimPhoneBookManager.reset();
 
         clearWaiters();
@@ -108,6 +111,16 @@ public class AdnRecordCache extends Handler implements IccConstants {
         return mAdnLikeFiles.get(efid);
     }
 
+    /**
+     * Indexes the cached records of an ADN-like EF again after they were changed in place.
+     */
+    public void onRecordsChanged(int efid) {
+        AdnRecordIndex adnIndex = mAdnLikeIndexes.get(efid);
+        if (adnIndex != null) {
+            adnIndex.reindex();
+        }
+    }
+
     /**
      * Returns extension ef associated with ADN-like EF or -1 if
      * we don't know.
@@ -197,37 +210,21 @@ public class AdnRecordCache extends Handler implements IccConstants {
             return;
         }
 
-        ArrayList<AdnRecord>  oldAdnList;
+        int index;
 
         if (efid == EF_PBR) {
-            oldAdnList = mUsimPhoneBookManager.loadEfFilesFromUsim();
-        } else {
-            oldAdnList = getRecordsIfLoaded(efid);
-        }
-
-        if (oldAdnList == null) {
-            sendErrorResponse(response, "Adn list not exist for EF:0x" +
-                    Integer.toHexString(efid).toUpperCase());
-            return;
-        }
-
-        int index = -1;
-        int count = 1;
-        for (Iterator<AdnRecord> it = oldAdnList.iterator(); it.hasNext(); ) {
-            if (oldAdn.isEqual(it.next())) {
-                index = count;
-                break;
+            if (mUsimPhoneBookManager.loadEfFilesFromUsim() == null) {
+                sendErrorResponse(response, "Adn list not exist for EF:0x" +
+                        Integer.toHexString(efid).toUpperCase());
+                return;
             }
-            count++;
-        }
 
-        if (index == -1) {
-            sendErrorResponse(response, "Adn record don't exist for " + oldAdn);
-            return;
-        }
+            AdnRecord foundAdn = findUsimAdnRecord(oldAdn);
+            if (foundAdn == null) {
+                sendErrorResponse(response, "Adn record don't exist for " + oldAdn);
+                return;
+            }
 
-        if (efid == EF_PBR) {
-            AdnRecord foundAdn = oldAdnList.get(index-1);
             efid = foundAdn.mEfid;
             extensionEF = foundAdn.mExtRecord;
             index = foundAdn.mRecordNumber;
@@ -235,6 +232,19 @@ public class AdnRecordCache extends Handler implements IccConstants {
             newAdn.mEfid = efid;
             newAdn.mExtRecord = extensionEF;
             newAdn.mRecordNumber = index;
+        } else {
+            AdnRecordIndex adnIndex = mAdnLikeIndexes.get(efid);
+            if (adnIndex == null) {
+                sendErrorResponse(response, "Adn list not exist for EF:0x" +
+                        Integer.toHexString(efid).toUpperCase());
+                return;
+            }
+
+            index = adnIndex.indexOf(oldAdn) + 1;
+            if (index == 0) {
+                sendErrorResponse(response, "Adn record don't exist for " + oldAdn);
+                return;
+            }
         }
 
         Message pendingResponse = mUserWriteResponse.get(efid);
@@ -253,6 +263,26 @@ public class AdnRecordCache extends Handler implements IccConstants {
     }
 
 
+    /**
+     * Finds the first record of the loaded USIM phonebook equal to adn.
+     *
+     * @return the matching record, or null if there is none
+     */
+    private AdnRecord findUsimAdnRecord(AdnRecord adn) {
+        // The phonebook is made of the EF_ADN files cached here, search their indexes in order.
+        for (int adnEfid : mUsimPhoneBookManager.getAdnEfids()) {
+            AdnRecordIndex adnIndex = mAdnLikeIndexes.get(adnEfid);
+            if (adnIndex == null) {
+                continue;
+            }
+            int position = adnIndex.indexOf(adn);
+            if (position >= 0) {
+                return mAdnLikeFiles.get(adnEfid).get(position);
+            }
+        }
+        return null;
+    }
+
     /**
      * Responds with exception (in response) if efid is not a known ADN-like
      * record
@@ -263,11 +293,13 @@ public class AdnRecordCache extends Handler implements IccConstants {
         ArrayList<AdnRecord> result;
 
         if (efid == EF_PBR) {
-            result = mUsimPhoneBookManager.loadEfFilesFromUsim();
-        } else {
-            result = getRecordsIfLoaded(efid);
+            // The USIM phonebook manager loads (or returns) all the phonebook files itself.
+            mUsimPhoneBookManager.loadEfFilesFromUsim(response);
+            return;
         }
 
+        result = getRecordsIfLoaded(efid);
+
         // Have we already loaded this efid?
         if (result != null) {
             if (response != null) {
@@ -351,7 +383,9 @@ public class AdnRecordCache extends Handler implements IccConstants {
                 mAdnLikeWaiters.delete(efid);
 
                 if (ar.exception == null) {
-                    mAdnLikeFiles.put(efid, (ArrayList<AdnRecord>) ar.result);
+                    ArrayList<AdnRecord> records = (ArrayList<AdnRecord>) ar.result;
+                    mAdnLikeFiles.put(efid, records);
+                    mAdnLikeIndexes.put(efid, new AdnRecordIndex(records));
                 }
                 notifyWaiters(waiters, ar);
                 break;
@@ -362,7 +396,7 @@ public class AdnRecordCache extends Handler implements IccConstants {
                 AdnRecord adn = (AdnRecord) (ar.userObj);
 
                 if (ar.exception == null) {
-                    mAdnLikeFiles.get(efid).set(index - 1, adn);
+                    mAdnLikeIndexes.get(efid).set(index - 1, adn);
                     mUsimPhoneBookManager.invalidateCache();
                 }
 
@@ -0,0 +1,190 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony.uicc;
+
+import android.telephony.PhoneNumberUtils;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Secondary indexes over the records of one ADN-like EF, as cached by {@link AdnRecordCache}.
+ *
+ * Records are indexed by normalized number and by alpha tag, and empty records are tracked in
+ * a bitmap, so that the record matching {@link AdnRecord#isEqual} can be found without walking
+ * the whole EF. Positions are 0-based indexes into the record list, i.e. record number - 1.
+ *
+ * Records changed in place, such as the emails attached by the USIM phonebook, are not seen by
+ * the indexes until {@link #reindex} is called; changes made through {@link #set} are.
+ *
+ * {@hide}
+ */
+class AdnRecordIndex {
+    private final List<AdnRecord> mRecords;
+    // Positions of the records by key, in ascending order.
+    private final HashMap<String, ArrayList<Integer>> mByNumber = new HashMap<>();
+    private final HashMap<String, ArrayList<Integer>> mByAlphaTag = new HashMap<>();
+    private final BitSet mFreeSlots = new BitSet();
+    // Keys each position is indexed under, null for free slots. Kept so that a record changed
+    // in place can still be removed from the buckets it was added to.
+    private final ArrayList<String> mNumberKeys = new ArrayList<>();
+    private final ArrayList<String> mAlphaTagKeys = new ArrayList<>();
+
+    AdnRecordIndex(List<AdnRecord> records) {
+        mRecords = records;
+        for (int i = 0; i < records.size(); i++) {
+            mNumberKeys.add(null);
+            mAlphaTagKeys.add(null);
+            add(i, records.get(i));
+        }
+    }
+
+    /**
+     * Returns the position of the first record equal to {@code adn}, or -1 if there is none.
+     * An empty {@code adn} matches the first free slot.
+     */
+    synchronized int indexOf(AdnRecord adn) {
+        if (adn.isEmpty()) {
+            // A free slot may have been filled in place since it was indexed.
+            for (int i = mFreeSlots.nextSetBit(0); i >= 0; i = mFreeSlots.nextSetBit(i + 1)) {
+                if (mRecords.get(i).isEmpty()) {
+                    return i;
+                }
+                reindex(i);
+            }
+            return -1;
+        }
+
+        ArrayList<Integer> byNumber = mByNumber.get(numberKey(adn.getNumber()));
+        ArrayList<Integer> byAlphaTag = mByAlphaTag.get(alphaTagKey(adn.getAlphaTag()));
+        if (byNumber == null || byAlphaTag == null) {
+            return -1;
+        }
+
+        // Both lists hold every candidate, walk the shorter one.
+        ArrayList<Integer> candidates = byNumber.size() <= byAlphaTag.size()
+                ? byNumber : byAlphaTag;
+        for (int position : candidates) {
+            if (adn.isEqual(mRecords.get(position))) {
+                return position;
+            }
+        }
+        return -1;
+    }
+
+    /** Returns the positions of the records with the given number, in ascending order. */
+    synchronized List<Integer> findByNumber(String number) {
+        ArrayList<Integer> positions = mByNumber.get(numberKey(number));
+        return positions == null ? Collections.emptyList() : new ArrayList<>(positions);
+    }
+
+    /** Returns the positions of the records with the given alpha tag, in ascending order. */
+    synchronized List<Integer> findByAlphaTag(String alphaTag) {
+        ArrayList<Integer> positions = mByAlphaTag.get(alphaTagKey(alphaTag));
+        return positions == null ? Collections.emptyList() : new ArrayList<>(positions);
+    }
+
+    /** Returns the number of empty records. */
+    synchronized int getFreeSlotCount() {
+        int count = 0;
+        for (int i = mFreeSlots.nextSetBit(0); i >= 0; i = mFreeSlots.nextSetBit(i + 1)) {
+            if (mRecords.get(i).isEmpty()) count++;
+        }
+        return count;
+    }
+
+    /** Replaces the record at {@code position} in the indexed list, keeping the indexes. */
+    synchronized void set(int position, AdnRecord adn) {
+        remove(position);
+        mRecords.set(position, adn);
+        add(position, adn);
+    }
+
+    /** Indexes all records again, after they were changed in place. */
+    synchronized void reindex() {
+        for (int i = 0; i < mRecords.size(); i++) {
+            reindex(i);
+        }
+    }
+
+    private void reindex(int position) {
+        remove(position);
+        add(position, mRecords.get(position));
+    }
+
+    private void add(int position, AdnRecord adn) {
+        if (adn.isEmpty()) {
+            mFreeSlots.set(position);
+            return;
+        }
+        String numberKey = numberKey(adn.getNumber());
+        String alphaTagKey = alphaTagKey(adn.getAlphaTag());
+        insert(mByNumber, numberKey, position);
+        insert(mByAlphaTag, alphaTagKey, position);
+        mNumberKeys.set(position, numberKey);
+        mAlphaTagKeys.set(position, alphaTagKey);
+    }
+
+    private void remove(int position) {
+        mFreeSlots.clear(position);
+        String numberKey = mNumberKeys.set(position, null);
+        String alphaTagKey = mAlphaTagKeys.set(position, null);
+        if (numberKey != null) {
+            delete(mByNumber, numberKey, position);
+            delete(mByAlphaTag, alphaTagKey, position);
+        }
+    }
+
+    private static void insert(HashMap<String, ArrayList<Integer>> index, String key,
+            int position) {
+        ArrayList<Integer> positions = index.get(key);
+        if (positions == null) {
+            positions = new ArrayList<>(1);
+            index.put(key, positions);
+        }
+        int i = Collections.binarySearch(positions, position);
+        if (i < 0) {
+            positions.add(-i - 1, position);
+        }
+    }
+
+    private static void delete(HashMap<String, ArrayList<Integer>> index, String key,
+            int position) {
+        ArrayList<Integer> positions = index.get(key);
+        if (positions == null) return;
+        int i = Collections.binarySearch(positions, position);
+        if (i >= 0) {
+            positions.remove(i);
+        }
+        if (positions.isEmpty()) {
+            index.remove(key);
+        }
+    }
+
+    // AdnRecord.isEqual() treats null and empty strings alike; the number is also stripped of
+    // separators so that the same number written differently shares a bucket.
+    private static String numberKey(String number) {
+        return number == null ? "" : PhoneNumberUtils.stripSeparators(number);
+    }
+
+    private static String alphaTagKey(String alphaTag) {
+        return alphaTag == null ? "" : alphaTag;
+    }
+}
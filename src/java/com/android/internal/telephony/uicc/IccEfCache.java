@@ -0,0 +1,319 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony.uicc;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.telephony.Rlog;
+import android.telephony.SubscriptionInfo;
+import android.text.TextUtils;
+
+import com.android.internal.annotations.VisibleForTesting;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * Persistent cache of elementary file contents, keyed by ICCID and EF path.
+ *
+ * Only files that are provisioned by the operator and never written by the device are cached
+ * (PLMN lists, service tables, SPDI, OPL/PNN, ...). Subscriber identities such as the IMPI and
+ * IMPU are never cached, since the cache is stored in plain text. {@link IccFileHandler} serves
+ * cached content immediately and revalidates it against the card in the background; entries are
+ * dropped when the card reports a REFRESH for the file or when revalidation finds different
+ * content.
+ *
+ * Entries are kept in memory and mirrored to a private {@link SharedPreferences} file so that
+ * they survive a reboot. Only the most recently used {@link #MAX_CACHED_ICCIDS} cards are kept.
+ *
+ * {@hide}
+ */
+public class IccEfCache implements IccConstants {
+    private static final String LOG_TAG = "IccEfCache";
+    private static final boolean DBG = false;
+
+    private static final String PREF_FILE = "icc_ef_cache";
+    private static final String PREF_KEY_ICCIDS = "iccids";
+    private static final String KEY_SEPARATOR = "/";
+    private static final String RECORD_SEPARATOR = ",";
+    // Content prefixes distinguishing a transparent EF from a list of linear fixed records.
+    private static final String PREFIX_BINARY = "b:";
+    private static final String PREFIX_RECORDS = "r:";
+
+    @VisibleForTesting
+    static final int MAX_CACHED_ICCIDS = 4;
+
+    /** Record number used in keys for transparent EFs and for "load all records" requests. */
+    static final int RECORD_ALL = 0;
+
+    private static final int[] CACHEABLE_EFS = {
+            EF_AD, EF_GID1, EF_GID2, EF_SPN, EF_SPDI, EF_SST, EF_PNN, EF_OPL,
+            EF_SPN_CPHS, EF_SPN_SHORT_CPHS, EF_INFO_CPHS,
+            EF_PLMN_W_ACT, EF_OPLMN_W_ACT, EF_HPLMN_W_ACT, EF_EHPLMN,
+            EF_CST, EF_CSIM_SPN, EF_CSIM_CDMAHOME,
+            EF_DOMAIN, EF_IST, EF_PCSCF,
+    };
+
+    private static IccEfCache sInstance;
+
+    private final Object mLock = new Object();
+    private final SharedPreferences mPrefs;
+    // In-memory mirror of the persisted entries, populated lazily.
+    private final HashMap<String, Object> mEntries = new HashMap<>();
+    // Most recently used ICCID first.
+    private final LinkedList<String> mIccIds = new LinkedList<>();
+
+    private int mHits;
+    private int mMisses;
+    private int mInvalidations;
+
+    /** Returns the process-wide cache, creating it on first use. */
+    public static IccEfCache getInstance(Context context) {
+        synchronized (IccEfCache.class) {
+            if (sInstance == null) {
+                sInstance = new IccEfCache(context.getSharedPreferences(PREF_FILE,
+                        Context.MODE_PRIVATE));
+            }
+            return sInstance;
+        }
+    }
+
+    @VisibleForTesting
+    public IccEfCache(SharedPreferences prefs) {
+        mPrefs = prefs;
+        String iccIds = mPrefs.getString(PREF_KEY_ICCIDS, null);
+        if (!TextUtils.isEmpty(iccIds)) {
+            mIccIds.addAll(Arrays.asList(iccIds.split(RECORD_SEPARATOR)));
+        }
+    }
+
+    /** Returns true if the content of {@code efid} may be served from the cache. */
+    public static boolean isCacheable(int efid) {
+        for (int ef : CACHEABLE_EFS) {
+            if (ef == efid) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Builds the cache key of an EF, or returns null if the EF must always be read from the card.
+     *
+     * @param iccId ICCID of the card the EF belongs to
+     * @param path path of the EF on the card
+     * @param efid EF id
+     * @param recordNum 1-based record number, or {@link #RECORD_ALL}
+     */
+    public static String makeKey(String iccId, String path, int efid, int recordNum) {
+        if (TextUtils.isEmpty(iccId) || !isCacheable(efid)) {
+            return null;
+        }
+        return iccId + KEY_SEPARATOR + (path == null ? "" : path) + KEY_SEPARATOR
+                + Integer.toHexString(efid) + KEY_SEPARATOR + recordNum;
+    }
+
+    /**
+     * Returns a copy of the cached content for {@code key}: a {@code byte[]} for a single
+     * record or transparent EF, an {@code ArrayList<byte[]>} for all records of a linear fixed
+     * EF, or null on a cache miss.
+     */
+    public Object get(String key) {
+        synchronized (mLock) {
+            Object value = mEntries.get(key);
+            if (value == null) {
+                value = decode(mPrefs.getString(key, null));
+                if (value != null) {
+                    mEntries.put(key, value);
+                }
+            }
+            if (value == null) {
+                mMisses++;
+                return null;
+            }
+            mHits++;
+            return copy(value);
+        }
+    }
+
+    /** Stores {@code value}, as delivered by {@link IccFileHandler}, under {@code key}. */
+    public void put(String key, Object value) {
+        String encoded = encode(value);
+        if (encoded == null) return;
+        synchronized (mLock) {
+            SharedPreferences.Editor editor = mPrefs.edit();
+            touchIccIdLocked(iccIdOf(key), editor);
+            mEntries.put(key, copy(value));
+            editor.putString(key, encoded).apply();
+        }
+    }
+
+    /** Drops the cached content for {@code key}. */
+    public void remove(String key) {
+        synchronized (mLock) {
+            mInvalidations++;
+            mEntries.remove(key);
+            mPrefs.edit().remove(key).apply();
+        }
+    }
+
+    /** Drops every cached record of {@code efid} on the card {@code iccId}. */
+    public void invalidate(String iccId, int efid) {
+        if (TextUtils.isEmpty(iccId)) return;
+        String efToken = KEY_SEPARATOR + Integer.toHexString(efid) + KEY_SEPARATOR;
+        synchronized (mLock) {
+            SharedPreferences.Editor editor = mPrefs.edit();
+            for (String key : keysOfLocked(iccId)) {
+                if (key.contains(efToken)) {
+                    mInvalidations++;
+                    mEntries.remove(key);
+                    editor.remove(key);
+                }
+            }
+            editor.apply();
+        }
+    }
+
+    /** Drops every cached EF of the card {@code iccId}. */
+    public void invalidate(String iccId) {
+        if (TextUtils.isEmpty(iccId)) return;
+        synchronized (mLock) {
+            SharedPreferences.Editor editor = mPrefs.edit();
+            removeIccIdLocked(iccId, editor);
+            editor.apply();
+        }
+    }
+
+    /** Returns true if two values returned by {@link #get} or delivered to {@link #put} match. */
+    public static boolean contentEquals(Object a, Object b) {
+        if (a instanceof byte[] && b instanceof byte[]) {
+            return Arrays.equals((byte[]) a, (byte[]) b);
+        }
+        if (a instanceof List && b instanceof List) {
+            List<?> la = (List<?>) a;
+            List<?> lb = (List<?>) b;
+            if (la.size() != lb.size()) return false;
+            for (int i = 0; i < la.size(); i++) {
+                if (!Arrays.equals((byte[]) la.get(i), (byte[]) lb.get(i))) return false;
+            }
+            return true;
+        }
+        return false;
+    }
+
+    private void touchIccIdLocked(String iccId, SharedPreferences.Editor editor) {
+        if (!iccId.equals(mIccIds.peekFirst())) {
+            mIccIds.remove(iccId);
+            mIccIds.addFirst(iccId);
+            while (mIccIds.size() > MAX_CACHED_ICCIDS) {
+                removeIccIdLocked(mIccIds.peekLast(), editor);
+            }
+            editor.putString(PREF_KEY_ICCIDS, TextUtils.join(RECORD_SEPARATOR, mIccIds));
+        }
+    }
+
+    private void removeIccIdLocked(String iccId, SharedPreferences.Editor editor) {
+        if (DBG) log("removing entries of " + SubscriptionInfo.givePrintableIccid(iccId));
+        for (String key : keysOfLocked(iccId)) {
+            mInvalidations++;
+            mEntries.remove(key);
+            editor.remove(key);
+        }
+        if (mIccIds.remove(iccId)) {
+            editor.putString(PREF_KEY_ICCIDS, TextUtils.join(RECORD_SEPARATOR, mIccIds));
+        }
+    }
+
+    private List<String> keysOfLocked(String iccId) {
+        String prefix = iccId + KEY_SEPARATOR;
+        List<String> keys = new ArrayList<>();
+        for (String key : mPrefs.getAll().keySet()) {
+            if (key.startsWith(prefix)) keys.add(key);
+        }
+        for (String key : mEntries.keySet()) {
+            if (key.startsWith(prefix) && !keys.contains(key)) keys.add(key);
+        }
+        return keys;
+    }
+
+    private static String iccIdOf(String key) {
+        return key.substring(0, key.indexOf(KEY_SEPARATOR));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Object copy(Object value) {
+        if (value instanceof byte[]) {
+            return ((byte[]) value).clone();
+        }
+        ArrayList<byte[]> records = new ArrayList<>();
+        for (byte[] record : (List<byte[]>) value) {
+            records.add(record.clone());
+        }
+        return records;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static String encode(Object value) {
+        if (value instanceof byte[]) {
+            return PREFIX_BINARY + IccUtils.bytesToHexString((byte[]) value);
+        }
+        if (value instanceof List) {
+            StringBuilder sb = new StringBuilder(PREFIX_RECORDS);
+            List<byte[]> records = (List<byte[]>) value;
+            for (int i = 0; i < records.size(); i++) {
+                if (i > 0) sb.append(RECORD_SEPARATOR);
+                sb.append(IccUtils.bytesToHexString(records.get(i)));
+            }
+            return sb.toString();
+        }
+        return null;
+    }
+
+    private static Object decode(String encoded) {
+        if (encoded == null) {
+            return null;
+        } else if (encoded.startsWith(PREFIX_BINARY)) {
+            byte[] data = IccUtils.hexStringToBytes(encoded.substring(PREFIX_BINARY.length()));
+            return data != null ? data : new byte[0];
+        } else if (encoded.startsWith(PREFIX_RECORDS)) {
+            ArrayList<byte[]> records = new ArrayList<>();
+            String body = encoded.substring(PREFIX_RECORDS.length());
+            if (!body.isEmpty()) {
+                for (String record : body.split(RECORD_SEPARATOR, -1)) {
+                    byte[] data = IccUtils.hexStringToBytes(record);
+                    records.add(data != null ? data : new byte[0]);
+                }
+            }
+            return records;
+        }
+        return null;
+    }
+
+    public void dump(PrintWriter pw) {
+        synchronized (mLock) {
+            pw.println(" IccEfCache: cards=" + mIccIds.size() + " entriesInMemory="
+                    + mEntries.size() + " hits=" + mHits + " misses=" + mMisses
+                    + " invalidations=" + mInvalidations);
+        }
+    }
+
+    private static void log(String msg) {
+        Rlog.d(LOG_TAG, msg);
+    }
+}
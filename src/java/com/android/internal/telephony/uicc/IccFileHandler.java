@@ -94,6 +94,8 @@ public abstract class IccFileHandler extends Handler implements IccConstants {
     static protected final int EVENT_READ_ICON_DONE = 10;
     /** Finished retrieving size of record for EFimg now. */
     static protected final int EVENT_GET_RECORD_SIZE_IMG_DONE = 11;
+    /** Finished reading an EF through the EF cache; fill or revalidate the cache. */
+    static protected final int EVENT_EF_CACHE_LOAD_DONE = 12;
 
      // member variables
     @UnsupportedAppUsage
@@ -103,6 +105,29 @@ public abstract class IccFileHandler extends Handler implements IccConstants {
     @UnsupportedAppUsage
     protected final String mAid;
 
+    private IccEfCache mEfCache;
+    private final RegistrantList mEfCacheStaleRegistrants = new RegistrantList();
+    // Revalidations of cached content in flight, and the EFs found stale since the last
+    // notification. Only accessed on the handler thread.
+    private int mPendingRevalidations;
+    private final ArrayList<Integer> mStaleEfids = new ArrayList<>();
+
+    static class EfCacheContext {
+        final String mKey;
+        final int mEfid;
+        // Content served from the cache, or null if the request missed the cache.
+        final Object mCached;
+        // Original callback, or null if it was already answered from the cache.
+        final Message mOnLoaded;
+
+        EfCacheContext(String key, int efid, Object cached, Message onLoaded) {
+            mKey = key;
+            mEfid = efid;
+            mCached = cached;
+            mOnLoaded = onLoaded;
+        }
+    }
+
     static class LoadLinearFixedContext {
 
         int mEfid;
@@ -162,6 +187,44 @@ public abstract class IccFileHandler extends Handler implements IccConstants {
     public void dispose() {
     }
 
+    /**
+     * Serve static EFs from {@code cache}. Cached content is delivered immediately and
+     * revalidated against the card in the background. Once all the revalidations in flight have
+     * completed, the registrants of {@link #registerForEfCacheStale} are notified once with the
+     * {@code ArrayList<Integer>} of the EF ids found stale, if any.
+     */
+    public void setEfCache(IccEfCache cache) {
+        mEfCache = cache;
+    }
+
+    public void registerForEfCacheStale(Handler h, int what, Object obj) {
+        mEfCacheStaleRegistrants.addUnique(h, what, obj);
+    }
+
+    public void unregisterForEfCacheStale(Handler h) {
+        mEfCacheStaleRegistrants.remove(h);
+    }
+
+    /** Drops the cached content of {@code efid} for the current card, e.g. on SIM REFRESH. */
+    public void invalidateEfCache(int efid) {
+        if (mEfCache != null) {
+            mEfCache.invalidate(getCardIccId(), efid);
+        }
+    }
+
+    /** Drops all cached content for the current card, e.g. on SIM REFRESH INIT or RESET. */
+    public void invalidateEfCache() {
+        if (mEfCache != null) {
+            mEfCache.invalidate(getCardIccId());
+        }
+    }
+
+    /** Returns the ICC ID of the card this handler reads from, or null if not known yet. */
+    public String getCardIccId() {
+        UiccProfile profile = (mParentApp != null) ? mParentApp.getUiccProfile() : null;
+        return (profile != null) ? profile.getCardIccId() : null;
+    }
+
     //***** Public Methods
 
     /**
@@ -178,6 +241,7 @@ public abstract class IccFileHandler extends Handler implements IccConstants {
     @UnsupportedAppUsage
     public void loadEFLinearFixed(int fileid, String path, int recordNum, Message onLoaded) {
         String efPath = (path == null) ? getEFPath(fileid) : path;
+        onLoaded = loadThroughEfCache(fileid, efPath, recordNum, onLoaded);
         Message response
                 = obtainMessage(EVENT_GET_RECORD_SIZE_DONE,
                         new LoadLinearFixedContext(fileid, recordNum, efPath, onLoaded));
@@ -268,6 +332,7 @@ public abstract class IccFileHandler extends Handler implements IccConstants {
     @UnsupportedAppUsage
     public void loadEFLinearFixedAll(int fileid, String path, Message onLoaded) {
         String efPath = (path == null) ? getEFPath(fileid) : path;
+        onLoaded = loadThroughEfCache(fileid, efPath, IccEfCache.RECORD_ALL, onLoaded);
         Message response = obtainMessage(EVENT_GET_RECORD_SIZE_DONE,
                         new LoadLinearFixedContext(fileid, efPath, onLoaded));
 
@@ -301,6 +366,7 @@ public abstract class IccFileHandler extends Handler implements IccConstants {
 
     @UnsupportedAppUsage
     public void loadEFTransparent(int fileid, Message onLoaded) {
+        onLoaded = loadThroughEfCache(fileid, getEFPath(fileid), IccEfCache.RECORD_ALL, onLoaded);
         Message response = obtainMessage(EVENT_GET_BINARY_SIZE_DONE,
                         fileid, 0, onLoaded);
 
@@ -409,6 +475,37 @@ public abstract class IccFileHandler extends Handler implements IccConstants {
 
     //***** Private Methods
 
+    /**
+     * Answers {@code onLoaded} from the EF cache if possible and returns the message the card
+     * read should complete to: a revalidation of the cached content on a hit, a cache fill on a
+     * miss, or {@code onLoaded} itself if the EF is not cacheable.
+     */
+    private Message loadThroughEfCache(int fileid, String path, int recordNum, Message onLoaded) {
+        if (mEfCache == null) {
+            return onLoaded;
+        }
+        String key = IccEfCache.makeKey(getCardIccId(), path, fileid, recordNum);
+        if (key == null) {
+            return onLoaded;
+        }
+        Object cached = mEfCache.get(key);
+        if (cached != null) {
+            if (VDBG) logd("EF cache hit for " + Integer.toHexString(fileid));
+            sendResult(onLoaded, cached, null);
+            mPendingRevalidations++;
+            return obtainMessage(EVENT_EF_CACHE_LOAD_DONE,
+                    new EfCacheContext(key, fileid, cached, null));
+        }
+        return obtainMessage(EVENT_EF_CACHE_LOAD_DONE,
+                new EfCacheContext(key, fileid, null, onLoaded));
+    }
+
+    private void addStaleEf(int efid) {
+        if (!mStaleEfids.contains(efid)) {
+            mStaleEfids.add(efid);
+        }
+    }
+
     private void sendResult(Message response, Object result, Throwable ex) {
         if (response == null) {
             return;
@@ -595,6 +692,37 @@ public abstract class IccFileHandler extends Handler implements IccConstants {
 
             break;
 
+            case EVENT_EF_CACHE_LOAD_DONE:
+                ar = (AsyncResult) msg.obj;
+                EfCacheContext cc = (EfCacheContext) ar.userObj;
+                response = cc.mOnLoaded;
+
+                sendResult(response, ar.result, ar.exception);
+                response = null;
+
+                if (ar.exception == null) {
+                    if (!IccEfCache.contentEquals(cc.mCached, ar.result)) {
+                        mEfCache.put(cc.mKey, ar.result);
+                        if (cc.mCached != null) {
+                            logd("EF cache stale for " + Integer.toHexString(cc.mEfid));
+                            addStaleEf(cc.mEfid);
+                        }
+                    }
+                } else if (cc.mCached != null && ar.exception instanceof IccException) {
+                    // The card no longer serves the file; transient radio errors keep the entry.
+                    mEfCache.remove(cc.mKey);
+                    addStaleEf(cc.mEfid);
+                }
+                if (cc.mCached != null && --mPendingRevalidations == 0
+                        && !mStaleEfids.isEmpty()) {
+                    // Coalesce the stale EFs of a revalidation pass into one notification, so
+                    // that the records are reloaded at most once.
+                    ArrayList<Integer> staleEfids = new ArrayList<>(mStaleEfids);
+                    mStaleEfids.clear();
+                    mEfCacheStaleRegistrants.notifyResult(staleEfids);
+                }
+            break;
+
             case EVENT_READ_BINARY_DONE:
             case EVENT_READ_ICON_DONE:
                 ar = (AsyncResult)msg.obj;
@@ -40,6 +40,7 @@ import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Objects;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -215,6 +216,7 @@ public abstract class IccRecords extends Handler implements IccConstants {
     public static final int EVENT_REFRESH = 31; // ICC refresh occurred
     protected static final int EVENT_APP_READY = 1;
     private static final int EVENT_AKA_AUTHENTICATE_DONE          = 90;
+    private static final int EVENT_EF_CACHE_STALE = 92;
 
     public static final int CALL_FORWARDING_STATUS_DISABLED = 0;
     public static final int CALL_FORWARDING_STATUS_ENABLED = 1;
@@ -282,6 +284,11 @@ public abstract class IccRecords extends Handler implements IccConstants {
 
         mCarrierTestOverride = new CarrierTestOverride();
         mCi.registerForIccRefresh(this, EVENT_REFRESH, null);
+
+        if (mFh != null) {
+            mFh.setEfCache(IccEfCache.getInstance(c));
+            mFh.registerForEfCacheStale(this, EVENT_EF_CACHE_STALE, null);
+        }
     }
 
     // Override IccRecords for testing
@@ -307,6 +314,9 @@ public abstract class IccRecords extends Handler implements IccConstants {
         }
 
         mCi.unregisterForIccRefresh(this);
+        if (mFh != null) {
+            mFh.unregisterForEfCacheStale(this);
+        }
         mParentApp = null;
         mFh = null;
         mCi = null;
@@ -804,6 +814,12 @@ public abstract class IccRecords extends Handler implements IccConstants {
                 }
                 break;
 
+            case EVENT_EF_CACHE_STALE:
+                ar = (AsyncResult) msg.obj;
+                if (DBG) log("EF cache stale for " + ar.result);
+                onEfCacheStale((List<Integer>) ar.result);
+                break;
+
             case EVENT_AKA_AUTHENTICATE_DONE:
                 ar = (AsyncResult)msg.obj;
                 auth_rsp = null;
@@ -874,6 +890,19 @@ public abstract class IccRecords extends Handler implements IccConstants {
 
     protected abstract void handleFileUpdate(int efid);
 
+    /**
+     * Called once a pass of revalidations of the EF cache has completed, with the EFs whose
+     * cached content turned out to be stale. Re-reads each of them by default; subclasses whose
+     * {@link #handleFileUpdate} reloads all the records override it to reload only these EFs.
+     *
+     * @param efids the stale EFs, each listed once
+     */
+    protected void onEfCacheStale(List<Integer> efids) {
+        for (int efid : efids) {
+            handleFileUpdate(efid);
+        }
+    }
+
     @UnsupportedAppUsage
     protected void handleRefresh(IccRefreshResponse refreshResponse){
         if (refreshResponse == null) {
@@ -890,8 +919,19 @@ public abstract class IccRecords extends Handler implements IccConstants {
         switch (refreshResponse.refreshResult) {
             case IccRefreshResponse.REFRESH_RESULT_FILE_UPDATE:
                 if (DBG) log("handleRefresh with SIM_FILE_UPDATED");
+                if (mFh != null) {
+                    mFh.invalidateEfCache(refreshResponse.efId);
+                }
                 handleFileUpdate(refreshResponse.efId);
                 break;
+            case IccRefreshResponse.REFRESH_RESULT_INIT:
+            case IccRefreshResponse.REFRESH_RESULT_RESET:
+                // The records are reloaded by UiccController; make sure they come from the card.
+                if (DBG) log("handleRefresh with INIT or RESET, dropping EF cache");
+                if (mFh != null) {
+                    mFh.invalidateEfCache();
+                }
+                break;
             default:
                 // unknown refresh operation
                 if (DBG) log("handleRefresh with unknown operation");
@@ -1168,6 +1208,9 @@ public abstract class IccRecords extends Handler implements IccConstants {
         pw.println(" mDestroyed=" + mDestroyed);
         pw.println(" mCi=" + mCi);
         pw.println(" mFh=" + mFh);
+        if (mContext != null) {
+            IccEfCache.getInstance(mContext).dump(pw);
+        }
         pw.println(" mParentApp=" + mParentApp);
         pw.println(" recordsLoadedRegistrants: size=" + mRecordsLoadedRegistrants.size());
         for (int i = 0; i < mRecordsLoadedRegistrants.size(); i++) {
@@ -42,6 +42,7 @@ import java.io.FileDescriptor;
 import java.io.PrintWriter;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 import java.util.Locale;
 
 /**
@@ -941,6 +942,28 @@ public class RuimRecords extends IccRecords {
         fetchRuimRecords();
     }
 
+    @Override
+    protected void onEfCacheStale(List<Integer> efids) {
+        // Reload only the stale EFs, the way fetchRuimRecords() loads them. No phone book EF is
+        // cached, keep the ADN cache.
+        for (int efid : efids) {
+            switch (efid) {
+                case EF_CSIM_SPN:
+                    mFh.loadEFTransparent(EF_CSIM_SPN,
+                            obtainMessage(EVENT_GET_ICC_RECORD_DONE, new EfCsimSpnLoaded()));
+                    break;
+                case EF_CSIM_CDMAHOME:
+                    mFh.loadEFLinearFixedAll(EF_CSIM_CDMAHOME,
+                            obtainMessage(EVENT_GET_ICC_RECORD_DONE, new EfCsimCdmaHomeLoaded()));
+                    break;
+                default:
+                    log("onEfCacheStale: EF " + Integer.toHexString(efid) + " is not loaded");
+                    continue;
+            }
+            mRecordsToLoad++;
+        }
+    }
+
     @UnsupportedAppUsage
     public String getMdn() {
         return mMdn;
@@ -1308,6 +1308,65 @@ public class SIMRecords extends IccRecords {
         }
     }
 
+    @Override
+    protected void onEfCacheStale(List<Integer> efids) {
+        // Reload only the stale EFs, the way fetchSimRecords() loads them. No phone book EF is
+        // cached, so the ADN cache is kept.
+        boolean spnStale = false;
+        for (int efid : efids) {
+            switch (efid) {
+                case EF_AD:
+                    mFh.loadEFTransparent(EF_AD, obtainMessage(EVENT_GET_AD_DONE));
+                    break;
+                case EF_SPN:
+                case EF_SPN_CPHS:
+                case EF_SPN_SHORT_CPHS:
+                    // The SPN is read from the first of these EFs that is present.
+                    spnStale = true;
+                    continue;
+                case EF_SPDI:
+                    mFh.loadEFTransparent(EF_SPDI, obtainMessage(EVENT_GET_SPDI_DONE));
+                    break;
+                case EF_PNN:
+                    mFh.loadEFLinearFixed(EF_PNN, 1, obtainMessage(EVENT_GET_PNN_DONE));
+                    break;
+                case EF_SST:
+                    mFh.loadEFTransparent(EF_SST, obtainMessage(EVENT_GET_SST_DONE));
+                    break;
+                case EF_INFO_CPHS:
+                    mFh.loadEFTransparent(EF_INFO_CPHS, obtainMessage(EVENT_GET_INFO_CPHS_DONE));
+                    break;
+                case EF_GID1:
+                    mFh.loadEFTransparent(EF_GID1, obtainMessage(EVENT_GET_GID1_DONE));
+                    break;
+                case EF_GID2:
+                    mFh.loadEFTransparent(EF_GID2, obtainMessage(EVENT_GET_GID2_DONE));
+                    break;
+                case EF_PLMN_W_ACT:
+                    mFh.loadEFTransparent(EF_PLMN_W_ACT, obtainMessage(EVENT_GET_PLMN_W_ACT_DONE));
+                    break;
+                case EF_OPLMN_W_ACT:
+                    mFh.loadEFTransparent(EF_OPLMN_W_ACT,
+                            obtainMessage(EVENT_GET_OPLMN_W_ACT_DONE));
+                    break;
+                case EF_HPLMN_W_ACT:
+                    mFh.loadEFTransparent(EF_HPLMN_W_ACT,
+                            obtainMessage(EVENT_GET_HPLMN_W_ACT_DONE));
+                    break;
+                case EF_EHPLMN:
+                    mFh.loadEFTransparent(EF_EHPLMN, obtainMessage(EVENT_GET_EHPLMN_DONE));
+                    break;
+                default:
+                    log("onEfCacheStale: EF " + Integer.toHexString(efid) + " is not loaded");
+                    continue;
+            }
+            mRecordsToLoad++;
+        }
+        if (spnStale) {
+            getSpnFsm(true, null);
+        }
+    }
+
     /**
      * Dispatch 3GPP format message to registrant ({@code GsmCdmaPhone}) to pass to the 3GPP SMS
      * dispatcher for delivery.
@@ -23,9 +23,11 @@ import android.content.pm.PackageInfo;
 import android.content.pm.PackageManager;
 import android.content.pm.ResolveInfo;
 import android.content.pm.Signature;
+import android.content.pm.SigningInfo;
 import android.os.AsyncResult;
 import android.os.Binder;
 import android.os.Handler;
+import android.os.Looper;
 import android.os.Message;
 import android.telephony.Rlog;
 import android.telephony.TelephonyManager;
@@ -33,14 +35,19 @@ import android.telephony.UiccAccessRule;
 import android.text.TextUtils;
 import android.util.LocalLog;
 
+import com.android.internal.annotations.VisibleForTesting;
 import com.android.internal.telephony.CommandException;
 
+import java.io.ByteArrayOutputStream;
 import java.io.FileDescriptor;
 import java.io.PrintWriter;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
-import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicInteger;
 
 /**
@@ -91,15 +98,16 @@ public class UiccCarrierPrivilegeRules extends Handler {
      *       DB
      */
     // Values from the data standard.
-    private static final String TAG_ALL_REF_AR_DO = "FF40";
-    private static final String TAG_REF_AR_DO = "E2";
-    private static final String TAG_REF_DO = "E1";
-    private static final String TAG_DEVICE_APP_ID_REF_DO = "C1";
-    private static final String TAG_PKG_REF_DO = "CA";
-    private static final String TAG_AR_DO = "E3";
-    private static final String TAG_PERM_AR_DO = "DB";
-    private static final String TAG_AID_REF_DO = "4F";
-    private static final String CARRIER_PRIVILEGE_AID = "FFFFFFFFFFFF";
+    private static final int TAG_ALL_REF_AR_DO = 0xFF40;
+    private static final int TAG_REF_AR_DO = 0xE2;
+    private static final int TAG_REF_DO = 0xE1;
+    private static final int TAG_DEVICE_APP_ID_REF_DO = 0xC1;
+    private static final int TAG_PKG_REF_DO = 0xCA;
+    private static final int TAG_AR_DO = 0xE3;
+    private static final int TAG_PERM_AR_DO = 0xDB;
+    private static final int TAG_AID_REF_DO = 0x4F;
+    private static final byte[] CARRIER_PRIVILEGE_AID = {
+            (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF};
 
     private static final int EVENT_OPEN_LOGICAL_CHANNEL_DONE = 1;
     private static final int EVENT_TRANSMIT_LOGICAL_CHANNEL_DONE = 2;
@@ -183,12 +191,172 @@ public class UiccCarrierPrivilegeRules extends Handler {
         }
     }
 
+    /**
+     * Reads consecutive BER-TLV data objects out of a byte array, without copying the data.
+     *
+     * After {@link #next} the tag, offset and length of the current object are available; the
+     * object value can be read in turn with {@link #valueReader}.
+     */
+    @VisibleForTesting
+    public static class BerTlvReader {
+        private final byte[] mData;
+        private final int mEnd;
+        private int mPos;
+
+        private int mTag;
+        private int mLengthSize;
+        private int mValueOffset;
+        private int mValueLength;
+
+        public BerTlvReader(byte[] data) {
+            this(data, 0, data.length);
+        }
+
+        public BerTlvReader(byte[] data, int offset, int length) {
+            mData = data;
+            mPos = offset;
+            mEnd = offset + length;
+        }
+
+        /** Returns true if there is at least one more byte to read. */
+        public boolean hasNext() {
+            return mPos < mEnd;
+        }
+
+        /** Returns the tag of the next data object without consuming it. */
+        public int peekTag() {
+            int pos = mPos;
+            if (pos >= mEnd) {
+                throw new IllegalArgumentException("No tag.");
+            }
+            int tag = mData[pos++] & 0xFF;
+            if ((tag & 0x1F) == 0x1F) {
+                // Multi-byte tag: subsequent bytes follow while bit 8 is set.
+                int b;
+                do {
+                    if (pos >= mEnd) {
+                        throw new IllegalArgumentException("Truncated tag.");
+                    }
+                    b = mData[pos++] & 0xFF;
+                    tag = (tag << 8) | b;
+                } while ((b & 0x80) != 0 && tag <= 0xFFFF);
+            }
+            return tag;
+        }
+
+        /** Consumes the next data object, which must be tagged {@code expectedTag}. */
+        public void next(int expectedTag) {
+            if (peekTag() != expectedTag) {
+                throw new IllegalArgumentException("Tags don't match.");
+            }
+            next();
+        }
+
+        /** Consumes the next data object. */
+        public void next() {
+            mTag = peekTag();
+            int pos = mPos + tagSize(mTag);
+            if (pos >= mEnd) {
+                throw new IllegalArgumentException("No length.");
+            }
+            // Length encoding is in GPC_Specification_2.2.1: 11.1.5 APDU Message and Data Length.
+            int firstByte = mData[pos] & 0xFF;
+            int length;
+            if (firstByte < 0x80) {
+                length = firstByte;
+                mLengthSize = 1;
+            } else {
+                int numBytes = firstByte - 0x80;
+                if (numBytes < 1 || numBytes > 3 || pos + numBytes >= mEnd) {
+                    throw new IllegalArgumentException("Invalid length.");
+                }
+                length = 0;
+                for (int i = 1; i <= numBytes; i++) {
+                    length = (length << 8) | (mData[pos + i] & 0xFF);
+                }
+                mLengthSize = 1 + numBytes;
+            }
+            mValueOffset = pos + mLengthSize;
+            mValueLength = length;
+            if (mValueOffset + length > mEnd) {
+                throw new IllegalArgumentException("Not enough data.");
+            }
+            mPos = mValueOffset + length;
+        }
+
+        /** Returns the number of bytes a data object with this header would span in total. */
+        public static int getEncodedLength(byte[] data, int length) {
+            BerTlvReader reader = new BerTlvReader(data, 0, length);
+            int tagSize = tagSize(reader.peekTag());
+            if (tagSize >= length) {
+                return -1;
+            }
+            int firstByte = data[tagSize] & 0xFF;
+            if (firstByte < 0x80) {
+                return tagSize + 1 + firstByte;
+            }
+            int numBytes = firstByte - 0x80;
+            if (numBytes < 1 || numBytes > 3) {
+                throw new IllegalArgumentException("Invalid length.");
+            }
+            if (tagSize + numBytes >= length) {
+                return -1;
+            }
+            int valueLength = 0;
+            for (int i = 1; i <= numBytes; i++) {
+                valueLength = (valueLength << 8) | (data[tagSize + i] & 0xFF);
+            }
+            return tagSize + 1 + numBytes + valueLength;
+        }
+
+        public int getTag() {
+            return mTag;
+        }
+
+        /** Returns the number of bytes of the length field of the current data object. */
+        public int getLengthSize() {
+            return mLengthSize;
+        }
+
+        public int getValueLength() {
+            return mValueLength;
+        }
+
+        /** Returns a copy of the value of the current data object. */
+        public byte[] getValue() {
+            return Arrays.copyOfRange(mData, mValueOffset, mValueOffset + mValueLength);
+        }
+
+        /** Returns true if the value of the current data object equals {@code expected}. */
+        public boolean valueEquals(byte[] expected) {
+            if (expected.length != mValueLength) return false;
+            for (int i = 0; i < mValueLength; i++) {
+                if (mData[mValueOffset + i] != expected[i]) return false;
+            }
+            return true;
+        }
+
+        /** Returns a reader over the value of the current data object. */
+        public BerTlvReader valueReader() {
+            return new BerTlvReader(mData, mValueOffset, mValueLength);
+        }
+
+        private static int tagSize(int tag) {
+            if (tag > 0xFFFF) return 3;
+            if (tag > 0xFF) return 2;
+            return 1;
+        }
+    }
+
     private UiccProfile mUiccProfile;  // Parent
     private UiccPkcs15 mUiccPkcs15; // ARF fallback
     @UnsupportedAppUsage
     private AtomicInteger mState;
     private List<UiccAccessRule> mAccessRules;
-    private String mRules;
+    // Raw rules received so far; a large rule set spans several GET DATA responses.
+    private ByteArrayOutputStream mRules;
+    // Total length of the rules announced by the first response, or -1 if not known yet.
+    private int mRulesExpectedLength = -1;
     @UnsupportedAppUsage
     private Message mLoadedCallback;
     // LocalLog buffer to hold important status messages for debugging.
@@ -197,6 +365,60 @@ public class UiccCarrierPrivilegeRules extends Handler {
     private int mRetryCount;  // Number of retries for open logical channel.
     private boolean mCheckedRules = false;  // Flag that used to mark whether get rules from ARA-D.
     private int mAIDInUse;  // Message component to identify which AID is currently in-use.
+    // Privilege decisions by package name, digest of the signing certificates and version of the
+    // rules. The cache only saves matching the rules: the certificates are always read.
+    private final ConcurrentHashMap<StatusKey, Integer> mStatusCache = new ConcurrentHashMap<>();
+    // Bound of mStatusCache, which keeps growing if packages are reinstalled with new certificates.
+    private static final int MAX_STATUS_CACHE_SIZE = 256;
+    // Incremented whenever the rules change, so that decisions computed before are discarded.
+    private final AtomicInteger mRulesVersion = new AtomicInteger();
+    private final AtomicInteger mStatusCacheHits = new AtomicInteger();
+    private final AtomicInteger mStatusCacheMisses = new AtomicInteger();
+    // Digest of the signing certificates of each package, by package name. Bounded by
+    // MAX_STATUS_CACHE_SIZE too.
+    private final ConcurrentHashMap<String, CertDigest> mCertDigestCache =
+            new ConcurrentHashMap<>();
+
+    /** Digest of the signing certificates of the install of a package with lastUpdateTime. */
+    private static class CertDigest {
+        final long mLastUpdateTime;
+        final byte[] mDigest;
+
+        CertDigest(long lastUpdateTime, byte[] digest) {
+            mLastUpdateTime = lastUpdateTime;
+            mDigest = digest;
+        }
+    }
+
+    private static class StatusKey {
+        final String mPackageName;
+        final byte[] mCertDigest;
+        final int mRulesVersion;
+
+        StatusKey(String packageName, byte[] certDigest, int rulesVersion) {
+            mPackageName = packageName;
+            mCertDigest = certDigest;
+            mRulesVersion = rulesVersion;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof StatusKey)) {
+                return false;
+            }
+            StatusKey other = (StatusKey) o;
+            return mRulesVersion == other.mRulesVersion
+                    && mPackageName.equals(other.mPackageName)
+                    && Arrays.equals(mCertDigest, other.mCertDigest);
+        }
+
+        @Override
+        public int hashCode() {
+            return (mPackageName.hashCode() * 31 + Arrays.hashCode(mCertDigest)) * 31
+                    + mRulesVersion;
+        }
+    }
+
     private final Runnable mRetryRunnable = new Runnable() {
         @Override
         public void run() {
@@ -218,7 +440,7 @@ public class UiccCarrierPrivilegeRules extends Handler {
         mState = new AtomicInteger(STATE_LOADING);
         mStatusMessage.log("Not loaded.");
         mLoadedCallback = loadedCallback;
-        mRules = "";
+        mRules = new ByteArrayOutputStream();
         mAccessRules = new ArrayList<>();
 
         // Open logical channel with ARA_D.
@@ -226,6 +448,18 @@ public class UiccCarrierPrivilegeRules extends Handler {
         openChannel(mAIDInUse);
     }
 
+    /**
+     * Creates rules which are already loaded, without reading them from a UICC.
+     */
+    @VisibleForTesting
+    public UiccCarrierPrivilegeRules(List<UiccAccessRule> rules) {
+        super(Looper.getMainLooper());
+        mState = new AtomicInteger(STATE_LOADED);
+        mStatusMessage.log("Loaded from test rules.");
+        mRules = new ByteArrayOutputStream();
+        mAccessRules = new ArrayList<>(rules);
+    }
+
     /**
      * Returns true if the carrier privilege rules have finished loading.
      */
@@ -316,7 +550,7 @@ public class UiccCarrierPrivilegeRules extends Handler {
             // is disabled by default, and some other component wants to enable it when it has
             // gained carrier privileges (as an indication that a matching SIM has been inserted).
             PackageInfo pInfo = packageManager.getPackageInfo(packageName,
-                    PackageManager.GET_SIGNATURES
+                    PackageManager.GET_SIGNATURES | PackageManager.GET_SIGNING_CERTIFICATES
                             | PackageManager.MATCH_DISABLED_UNTIL_USED_COMPONENTS
                             | PackageManager.MATCH_HIDDEN_UNTIL_INSTALLED_COMPONENTS);
             return getCarrierPrivilegeStatus(pInfo);
@@ -340,13 +574,131 @@ public class UiccCarrierPrivilegeRules extends Handler {
             return TelephonyManager.CARRIER_PRIVILEGE_STATUS_ERROR_LOADING_RULES;
         }
 
+        // Read the version before evaluating the rules, so that a decision racing with a rule
+        // reload is stored with the old version and never served.
+        int rulesVersion = mRulesVersion.get();
+        byte[] certDigest = getCertDigest(packageInfo);
+        StatusKey key = null;
+        if (certDigest != null) {
+            key = new StatusKey(packageInfo.packageName, certDigest, rulesVersion);
+            Integer cached = mStatusCache.get(key);
+            if (cached != null) {
+                mStatusCacheHits.incrementAndGet();
+                return cached;
+            }
+            mStatusCacheMisses.incrementAndGet();
+        }
+
+        int status = TelephonyManager.CARRIER_PRIVILEGE_STATUS_NO_ACCESS;
         for (UiccAccessRule ar : mAccessRules) {
             int accessStatus = ar.getCarrierPrivilegeStatus(packageInfo);
             if (accessStatus != TelephonyManager.CARRIER_PRIVILEGE_STATUS_NO_ACCESS) {
-                return accessStatus;
+                status = accessStatus;
+                break;
             }
         }
-        return TelephonyManager.CARRIER_PRIVILEGE_STATUS_NO_ACCESS;
+        if (key != null) {
+            if (mStatusCache.size() >= MAX_STATUS_CACHE_SIZE) {
+                mStatusCache.clear();
+            }
+            mStatusCache.put(key, status);
+        }
+        return status;
+    }
+
+    /**
+     * Drops the cached privilege decisions of a package when it is installed, updated or removed.
+     * Only frees memory: a decision is never reused for other certificates.
+     *
+     * @param packageName name of the package, or null to drop all cached decisions.
+     */
+    public void onPackageChanged(String packageName) {
+        if (packageName == null) {
+            mStatusCache.clear();
+            mCertDigestCache.clear();
+        } else {
+            mStatusCache.keySet().removeIf(key -> key.mPackageName.equals(packageName));
+            mCertDigestCache.remove(packageName);
+        }
+    }
+
+    /*
+     * Returns the digest of the signing certificates of the package, or null if the package info
+     * carries no signatures. Digests of package infos from PackageManager are cached until the
+     * package is updated.
+     */
+    private byte[] getCertDigest(PackageInfo packageInfo) {
+        if (packageInfo == null || packageInfo.packageName == null) {
+            return null;
+        }
+        // lastUpdateTime is only set in package infos from PackageManager.
+        long lastUpdateTime = packageInfo.lastUpdateTime;
+        if (lastUpdateTime != 0) {
+            CertDigest cached = mCertDigestCache.get(packageInfo.packageName);
+            if (cached != null && cached.mLastUpdateTime == lastUpdateTime) {
+                return cached.mDigest;
+            }
+        }
+        byte[] digest = computeCertDigest(packageInfo);
+        if (lastUpdateTime != 0 && digest != null) {
+            if (mCertDigestCache.size() >= MAX_STATUS_CACHE_SIZE) {
+                mCertDigestCache.clear();
+            }
+            mCertDigestCache.put(packageInfo.packageName,
+                    new CertDigest(lastUpdateTime, digest));
+        }
+        return digest;
+    }
+
+    /*
+     * Returns the SHA-256 digest of the legacy signatures, the APK contents signers and the
+     * signing certificate history of the package, the certificates UiccAccessRule may match
+     * rules against, or null if the package info carries none of them.
+     */
+    private static byte[] computeCertDigest(PackageInfo packageInfo) {
+        Signature[] apkContentsSigners = null;
+        Signature[] signingCertificateHistory = null;
+        SigningInfo signingInfo = packageInfo.signingInfo;
+        if (signingInfo != null) {
+            apkContentsSigners = signingInfo.getApkContentsSigners();
+            if (!signingInfo.hasMultipleSigners()) {
+                signingCertificateHistory = signingInfo.getSigningCertificateHistory();
+            }
+        }
+        if (isEmpty(packageInfo.signatures) && isEmpty(apkContentsSigners)
+                && isEmpty(signingCertificateHistory)) {
+            return null;
+        }
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-256");
+            updateCertDigest(md, packageInfo.signatures);
+            updateCertDigest(md, apkContentsSigners);
+            updateCertDigest(md, signingCertificateHistory);
+            return md.digest();
+        } catch (NoSuchAlgorithmException ex) {
+            Rlog.e(LOG_TAG, "NoSuchAlgorithmException: " + ex);
+        }
+        return null;
+    }
+
+    private static boolean isEmpty(Signature[] signatures) {
+        return signatures == null || signatures.length == 0;
+    }
+
+    private static void updateCertDigest(MessageDigest md, Signature[] signatures) {
+        // Count and length prefixes, so that different splits of the same bytes never collide.
+        int count = signatures == null ? 0 : signatures.length;
+        updateInt(md, count);
+        for (int i = 0; i < count; i++) {
+            byte[] cert = signatures[i].toByteArray();
+            updateInt(md, cert.length);
+            md.update(cert);
+        }
+    }
+
+    private static void updateInt(MessageDigest md, int value) {
+        md.update(new byte[] {(byte) (value >> 24), (byte) (value >> 16), (byte) (value >> 8),
+                (byte) value});
     }
 
     /**
@@ -453,7 +805,7 @@ public class UiccCarrierPrivilegeRules extends Handler {
                     } else {
                         if (mAIDInUse == ARAD) {
                             // Open logical channel with ARA_M.
-                            mRules = "";
+                            resetRules();
                             openChannel(ARAM);
                         }
                         if (mAIDInUse == ARAM) {
@@ -486,10 +838,9 @@ public class UiccCarrierPrivilegeRules extends Handler {
                     if (response.sw1 == 0x90 && response.sw2 == 0x00
                             && response.payload != null && response.payload.length > 0) {
                         try {
-                            mRules += IccUtils.bytesToHexString(response.payload)
-                                    .toUpperCase(Locale.US);
+                            mRules.write(response.payload, 0, response.payload.length);
                             if (isDataComplete()) {
-                                mAccessRules.addAll(parseRules(mRules));
+                                mAccessRules.addAll(parseRules(mRules.toByteArray()));
                                 if (mAIDInUse == ARAD) {
                                     mCheckedRules = true;
                                 } else {
@@ -540,7 +891,7 @@ public class UiccCarrierPrivilegeRules extends Handler {
                 log("EVENT_CLOSE_LOGICAL_CHANNEL_DONE");
                 if (mAIDInUse == ARAD) {
                     // Close logical channel with ARA_D and then open logical channel with ARA_M.
-                    mRules = "";
+                    resetRules();
                     openChannel(ARAM);
                 }
                 break;
@@ -569,43 +920,45 @@ public class UiccCarrierPrivilegeRules extends Handler {
      * For long payload, we need to fetch it repeatly before start parsing it.
      */
     private boolean isDataComplete() {
-        log("isDataComplete mRules:" + mRules);
-        if (mRules.startsWith(TAG_ALL_REF_AR_DO)) {
-            TLV allRules = new TLV(TAG_ALL_REF_AR_DO);
-            String lengthBytes = allRules.parseLength(mRules);
-            log("isDataComplete lengthBytes: " + lengthBytes);
-            if (mRules.length() == TAG_ALL_REF_AR_DO.length() + lengthBytes.length() +
-                    allRules.length) {
-                log("isDataComplete yes");
-                return true;
-            } else {
-                log("isDataComplete no");
-                return false;
+        if (mRulesExpectedLength < 0) {
+            byte[] rules = mRules.toByteArray();
+            if (new BerTlvReader(rules).peekTag() != TAG_ALL_REF_AR_DO) {
+                throw new IllegalArgumentException("Tags don't match.");
             }
-        } else {
-            throw new IllegalArgumentException("Tags don't match.");
+            mRulesExpectedLength = BerTlvReader.getEncodedLength(rules, rules.length);
         }
+        log("isDataComplete received=" + mRules.size() + " expected=" + mRulesExpectedLength);
+        return mRules.size() == mRulesExpectedLength;
+    }
+
+    private void resetRules() {
+        mRules.reset();
+        mRulesExpectedLength = -1;
     }
 
     /*
-     * Parses the rules from the input string.
+     * Parses the rules from the input data.
      */
-    private static List<UiccAccessRule> parseRules(String rules) {
-        log("Got rules: " + rules);
+    @VisibleForTesting
+    public static List<UiccAccessRule> parseRules(byte[] rules) {
+        if (DBG) log("Got rules: " + IccUtils.bytesToHexString(rules));
 
-        TLV allRefArDo = new TLV(TAG_ALL_REF_AR_DO); //FF40
-        allRefArDo.parse(rules, true);
+        BerTlvReader allRefArDo = new BerTlvReader(rules); //FF40
+        allRefArDo.next(TAG_ALL_REF_AR_DO);
+        if (allRefArDo.hasNext()) {
+            throw new IllegalArgumentException("Did not consume all.");
+        }
 
-        String arDos = allRefArDo.value;
+        BerTlvReader arDos = allRefArDo.valueReader();
         List<UiccAccessRule> accessRules = new ArrayList<>();
-        while (!arDos.isEmpty()) {
-            TLV refArDo = new TLV(TAG_REF_AR_DO); //E2
-            arDos = refArDo.parse(arDos, false);
-            UiccAccessRule accessRule = parseRefArdo(refArDo.value);
+        while (arDos.hasNext()) {
+            arDos.next(TAG_REF_AR_DO); //E2
+            UiccAccessRule accessRule = parseRefArdo(arDos.valueReader());
             if (accessRule != null) {
                 accessRules.add(accessRule);
             } else {
-                Rlog.e(LOG_TAG, "Skip unrecognized rule." + refArDo.value);
+                Rlog.e(LOG_TAG, "Skip unrecognized rule." + IccUtils.bytesToHexString(
+                        arDos.getValue()));
             }
         }
         return accessRules;
@@ -614,72 +967,71 @@ public class UiccCarrierPrivilegeRules extends Handler {
     /*
      * Parses a single rule.
      */
-    private static UiccAccessRule parseRefArdo(String rule) {
-        log("Got rule: " + rule);
-
-        String certificateHash = null;
+    private static UiccAccessRule parseRefArdo(BerTlvReader rule) {
+        byte[] certificateHash = null;
         String packageName = null;
-        String tmp = null;
         long accessType = 0;
 
-        while (!rule.isEmpty()) {
-            if (rule.startsWith(TAG_REF_DO)) {
-                TLV refDo = new TLV(TAG_REF_DO); //E1
-                rule = refDo.parse(rule, false);
+        while (rule.hasNext()) {
+            int tag = rule.peekTag();
+            if (tag == TAG_REF_DO) {
+                rule.next(); //E1
+                BerTlvReader refDo = rule.valueReader();
                 // Allow 4F tag with a default value "FF FF FF FF FF FF" to be compatible with
                 // devices having GP access control enforcer:
                 //  - If no 4F tag is present, it's a CP rule.
                 //  - If 4F tag has value "FF FF FF FF FF FF", it's a CP rule.
                 //  - If 4F tag has other values, it's not a CP rule and Android should ignore it.
-                TLV deviceDo = new TLV(TAG_DEVICE_APP_ID_REF_DO); //C1
-                if (refDo.value.startsWith(TAG_AID_REF_DO)) {
-                    TLV cpDo = new TLV(TAG_AID_REF_DO); //4F
-                    String remain = cpDo.parse(refDo.value, false);
-                    if (!cpDo.lengthBytes.equals("06") || !cpDo.value.equals(CARRIER_PRIVILEGE_AID)
-                            || remain.isEmpty() || !remain.startsWith(TAG_DEVICE_APP_ID_REF_DO)) {
+                if (!refDo.hasNext()) {
+                    return null;
+                }
+                int refTag = refDo.peekTag();
+                if (refTag == TAG_AID_REF_DO) {
+                    refDo.next(); //4F
+                    if (refDo.getLengthSize() != 1 || !refDo.valueEquals(CARRIER_PRIVILEGE_AID)
+                            || !refDo.hasNext()
+                            || refDo.peekTag() != TAG_DEVICE_APP_ID_REF_DO) {
                         return null;
                     }
-                    tmp = deviceDo.parse(remain, false);
-                    certificateHash = deviceDo.value;
-                } else if (refDo.value.startsWith(TAG_DEVICE_APP_ID_REF_DO)) {
-                    tmp = deviceDo.parse(refDo.value, false);
-                    certificateHash = deviceDo.value;
-                } else {
+                } else if (refTag != TAG_DEVICE_APP_ID_REF_DO) {
                     return null;
                 }
-                if (!tmp.isEmpty()) {
-                    if (!tmp.startsWith(TAG_PKG_REF_DO)) {
+                refDo.next(TAG_DEVICE_APP_ID_REF_DO); //C1
+                certificateHash = refDo.getValue();
+                if (refDo.hasNext()) {
+                    if (refDo.peekTag() != TAG_PKG_REF_DO) {
                         return null;
                     }
-                    TLV pkgDo = new TLV(TAG_PKG_REF_DO); //CA
-                    pkgDo.parse(tmp, true);
-                    packageName = new String(IccUtils.hexStringToBytes(pkgDo.value));
+                    refDo.next(); //CA
+                    if (refDo.hasNext()) {
+                        throw new IllegalArgumentException("Did not consume all.");
+                    }
+                    packageName = new String(refDo.getValue());
                 } else {
                     packageName = null;
                 }
-            } else if (rule.startsWith(TAG_AR_DO)) {
-                TLV arDo = new TLV(TAG_AR_DO); //E3
-                rule = arDo.parse(rule, false);
+            } else if (tag == TAG_AR_DO) {
+                rule.next(); //E3
                 // Skip all the irrelevant tags (All the optional tags here are two bytes
                 // according to the spec GlobalPlatform Secure Element Access Control).
-                String remain = arDo.value;
-                while (!remain.isEmpty() && !remain.startsWith(TAG_PERM_AR_DO)) {
-                    TLV tmpDo = new TLV(remain.substring(0, 2));
-                    remain = tmpDo.parse(remain, false);
+                BerTlvReader arDo = rule.valueReader();
+                while (arDo.hasNext() && arDo.peekTag() != TAG_PERM_AR_DO) {
+                    arDo.next();
                 }
-                if (remain.isEmpty()) {
+                if (!arDo.hasNext()) {
                     return null;
                 }
-                TLV permDo = new TLV(TAG_PERM_AR_DO); //DB
-                permDo.parse(remain, true);
+                arDo.next(); //DB
+                if (arDo.hasNext()) {
+                    throw new IllegalArgumentException("Did not consume all.");
+                }
             } else  {
                 // Spec requires it must be either TAG_REF_DO or TAG_AR_DO.
                 throw new RuntimeException("Invalid Rule type");
             }
         }
 
-        UiccAccessRule accessRule = new UiccAccessRule(
-                IccUtils.hexStringToBytes(certificateHash), packageName, accessType);
+        UiccAccessRule accessRule = new UiccAccessRule(certificateHash, packageName, accessType);
         return accessRule;
     }
 
@@ -687,6 +1039,8 @@ public class UiccCarrierPrivilegeRules extends Handler {
      * Updates the state and notifies the UiccCard that the rules have finished loading.
      */
     private void updateState(int newState, String statusMessage) {
+        mRulesVersion.incrementAndGet();
+        mStatusCache.clear();
         mState.set(newState);
         if (mLoadedCallback != null) {
             mLoadedCallback.sendToTarget();
@@ -719,6 +1073,11 @@ public class UiccCarrierPrivilegeRules extends Handler {
         } else {
             pw.println(" mAccessRules: null");
         }
+        pw.println(" mStatusCache: size=" + mStatusCache.size()
+                + " rulesVersion=" + mRulesVersion.get()
+                + " hits=" + mStatusCacheHits.get()
+                + " misses=" + mStatusCacheMisses.get());
+        pw.println(" mCertDigestCache: size=" + mCertDigestCache.size());
         if (mUiccPkcs15 != null) {
             pw.println(" mUiccPkcs15: " + mUiccPkcs15);
             mUiccPkcs15.dump(fd, pw, args);
@@ -162,6 +162,17 @@ public class UiccProfile extends IccCard {
         }
     };
 
+    // Drops cached carrier privilege decisions of packages whose signatures may have changed.
+    private final BroadcastReceiver mPackageReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            UiccCarrierPrivilegeRules carrierPrivilegeRules = getCarrierPrivilegeRules();
+            if (carrierPrivilegeRules != null && intent.getData() != null) {
+                carrierPrivilegeRules.onPackageChanged(intent.getData().getSchemeSpecificPart());
+            }
+        }
+    };
+
     @VisibleForTesting
     public final Handler mHandler = new Handler() {
         @Override
@@ -259,6 +270,13 @@ public class UiccProfile extends IccCard {
         IntentFilter intentfilter = new IntentFilter();
         intentfilter.addAction(CarrierConfigManager.ACTION_CARRIER_CONFIG_CHANGED);
         c.registerReceiver(mReceiver, intentfilter);
+
+        IntentFilter packageFilter = new IntentFilter();
+        packageFilter.addAction(Intent.ACTION_PACKAGE_ADDED);
+        packageFilter.addAction(Intent.ACTION_PACKAGE_REPLACED);
+        packageFilter.addAction(Intent.ACTION_PACKAGE_REMOVED);
+        packageFilter.addDataScheme("package");
+        c.registerReceiver(mPackageReceiver, packageFilter);
     }
 
     /**
@@ -281,6 +299,7 @@ public class UiccProfile extends IccCard {
 
             mCi.unregisterForOffOrNotAvailable(mHandler);
             mContext.unregisterReceiver(mReceiver);
+            mContext.unregisterReceiver(mPackageReceiver);
 
             if (mCatService != null) mCatService.dispose();
             for (UiccCardApplication app : mUiccApplications) {
@@ -1610,6 +1629,14 @@ public class UiccProfile extends IccCard {
         return sp.getString(OPERATOR_BRAND_OVERRIDE_PREFIX + iccId, null);
     }
 
+    /**
+     * Returns the iccid reported by the card status, which is known before any EF is read, or
+     * the iccid read from the card if the radio HAL does not report it.
+     */
+    String getCardIccId() {
+        return mUiccCard.getIccId();
+    }
+
     /**
      * Returns the iccid of the profile.
      */
@@ -1654,6 +1681,9 @@ public class UiccProfile extends IccCard {
         pw.println("UiccProfile:");
         pw.println(" mCi=" + mCi);
         pw.println(" mCatService=" + mCatService);
+        if (mCatService != null) {
+            mCatService.dump(fd, pw, args);
+        }
         for (int i = 0; i < mCarrierPrivilegeRegistrants.size(); i++) {
             pw.println("  mCarrierPrivilegeRegistrants[" + i + "]="
                     + ((Registrant) mCarrierPrivilegeRegistrants.get(i)).getHandler());
@@ -0,0 +1,74 @@
+/*
+ * Copyright 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony;
+
+import android.perftests.utils.BenchmarkState;
+import android.perftests.utils.PerfStatusReporter;
+
+import androidx.test.filters.LargeTest;
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+@RunWith(AndroidJUnit4.class)
+@LargeTest
+public class IntRangeManagerPerfTest {
+    // overlapping ranges of several clients, as in IntRangeManagerTest
+    private static final int[][] RANGES = {
+            {100, 200}, {150, 250}, {1, 2}, {5, 7}, {3, 6}, {67, 9999}, {4352, 4354},
+            {4356, 4356}, {4370, 4370}, {4383, 4395},
+    };
+
+    @Rule
+    public PerfStatusReporter mPerfStatusReporter = new PerfStatusReporter();
+
+    /** IntRangeManager which does not configure anything. */
+    private static class TestIntRangeManager extends IntRangeManager {
+        @Override
+        protected void startUpdate() {
+        }
+
+        @Override
+        protected void addRange(int startId, int endId, boolean selected) {
+        }
+
+        @Override
+        protected boolean finishUpdate() {
+            return true;
+        }
+    }
+
+    @Test
+    public void timeEnableDisableRanges() {
+        TestIntRangeManager manager = new TestIntRangeManager();
+        String[] clients = new String[RANGES.length];
+        for (int i = 0; i < RANGES.length; i++) {
+            clients[i] = "client" + i;
+        }
+        final BenchmarkState state = mPerfStatusReporter.getBenchmarkState();
+        while (state.keepRunning()) {
+            for (int i = 0; i < RANGES.length; i++) {
+                manager.enableRange(RANGES[i][0], RANGES[i][1], clients[i]);
+            }
+            for (int i = 0; i < RANGES.length; i++) {
+                manager.disableRange(RANGES[i][0], RANGES[i][1], clients[i]);
+            }
+        }
+    }
+}
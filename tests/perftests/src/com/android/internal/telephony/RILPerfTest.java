@@ -0,0 +1,81 @@
+/*
+ * Copyright 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony;
+
+import android.hardware.radio.V1_4.DataCallFailCause;
+import android.hardware.radio.V1_4.DataConnActiveStatus;
+import android.hardware.radio.V1_4.PdpProtocolType;
+import android.hardware.radio.V1_4.SetupDataCallResult;
+import android.perftests.utils.BenchmarkState;
+import android.perftests.utils.PerfStatusReporter;
+
+import androidx.test.filters.LargeTest;
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+@RunWith(AndroidJUnit4.class)
+@LargeTest
+public class RILPerfTest {
+    // data calls of a device with default, ims and mms connections
+    private static final int DATA_CALL_COUNT = 3;
+
+    @Rule
+    public PerfStatusReporter mPerfStatusReporter = new PerfStatusReporter();
+
+    private final ArrayList<SetupDataCallResult> mDataCallList = new ArrayList<>();
+
+    // the data call of RILTest#testConvertDataCallResult
+    private static SetupDataCallResult makeDataCallResult(int cid) {
+        SetupDataCallResult result = new SetupDataCallResult();
+        result.cause = DataCallFailCause.NONE;
+        result.suggestedRetryTime = -1;
+        result.cid = cid;
+        result.active = DataConnActiveStatus.ACTIVE;
+        result.type = PdpProtocolType.IPV4V6;
+        result.ifname = "ifname" + cid;
+        result.addresses = new ArrayList<>(
+                Arrays.asList("10.0.2.15", "2607:fb90:a620:651d:eabe:f8da:c107:44be/64"));
+        result.dnses = new ArrayList<>(Arrays.asList("10.0.2.3", "fd00:976a::9"));
+        result.gateways = new ArrayList<>(Arrays.asList("10.0.2.15", "fe80::2"));
+        result.pcscf = new ArrayList<>(Arrays.asList(
+                "fd00:976a:c206:20::6", "fd00:976a:c206:20::9", "fd00:976a:c202:1d::9"));
+        result.mtu = 1500;
+        return result;
+    }
+
+    @Before
+    public void setUp() {
+        for (int cid = 0; cid < DATA_CALL_COUNT; cid++) {
+            mDataCallList.add(makeDataCallResult(cid));
+        }
+    }
+
+    @Test
+    public void timeConvertDataCallResultList() {
+        final BenchmarkState state = mPerfStatusReporter.getBenchmarkState();
+        while (state.keepRunning()) {
+            RIL.convertDataCallResultList(mDataCallList);
+        }
+    }
+}
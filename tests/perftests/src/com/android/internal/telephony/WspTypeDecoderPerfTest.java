@@ -0,0 +1,57 @@
+/*
+ * Copyright 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony;
+
+import android.perftests.utils.BenchmarkState;
+import android.perftests.utils.PerfStatusReporter;
+
+import androidx.test.filters.LargeTest;
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+@RunWith(AndroidJUnit4.class)
+@LargeTest
+public class WspTypeDecoderPerfTest {
+    // content types in the encodings of Wap230WspContentTypeTest
+    private static final byte[][] CONTENT_TYPES = {
+            // well known short integer: application/vnd.wap.mms-message
+            {(byte) (0x3E | 0x80)},
+            // well known long integer, general form
+            {0x03, 0x02, 0x00, 0x3E},
+            // constrained media, extension media
+            {'a', 'p', 'p', 'l', 'i', 'c', 'a', 't', 'i', 'o', 'n', '/', 'w', 'i', 'b', 'b', 'l',
+                    'e', 0x00},
+            // general form, short length, extension media
+            {0x0D, 't', 'e', 'x', 't', '/', 'x', '-', 'v', 'C', 'a', 'r', 'd', 0x00},
+    };
+
+    @Rule
+    public PerfStatusReporter mPerfStatusReporter = new PerfStatusReporter();
+
+    @Test
+    public void timeDecodeContentType() {
+        final BenchmarkState state = mPerfStatusReporter.getBenchmarkState();
+        while (state.keepRunning()) {
+            for (byte[] contentType : CONTENT_TYPES) {
+                new WspTypeDecoder(contentType).decodeContentType(0);
+            }
+        }
+    }
+}
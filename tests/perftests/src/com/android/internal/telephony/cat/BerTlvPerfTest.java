@@ -0,0 +1,56 @@
+/*
+ * Copyright 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony.cat;
+
+import android.perftests.utils.BenchmarkState;
+import android.perftests.utils.PerfStatusReporter;
+
+import androidx.test.filters.LargeTest;
+import androidx.test.runner.AndroidJUnit4;
+
+import com.android.internal.telephony.uicc.IccUtils;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+@RunWith(AndroidJUnit4.class)
+@LargeTest
+public class BerTlvPerfTest {
+    // proactive commands of 3GPP TS 31.124
+    private static final byte[][] PROACTIVE_COMMANDS = {
+            // DISPLAY TEXT "Toolkit Test 1"
+            IccUtils.hexStringToBytes(
+                    "D01A8103012180820281028D0F04546F6F6C6B697420546573742031"),
+            // SET UP MENU "Toolkit Menu" with 4 items
+            IccUtils.hexStringToBytes("D03B810301250082028182850C546F6F6C6B6974204D656E758F0701"
+                    + "4974656D20318F07024974656D20328F07034974656D20338F07044974656D2034"),
+    };
+
+    @Rule
+    public PerfStatusReporter mPerfStatusReporter = new PerfStatusReporter();
+
+    @Test
+    public void timeDecode() throws ResultException {
+        final BenchmarkState state = mPerfStatusReporter.getBenchmarkState();
+        while (state.keepRunning()) {
+            for (byte[] command : PROACTIVE_COMMANDS) {
+                BerTlv.decode(command);
+            }
+        }
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony.emergency;
+
+import android.perftests.utils.BenchmarkState;
+import android.perftests.utils.PerfStatusReporter;
+
+import androidx.test.filters.LargeTest;
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+@RunWith(AndroidJUnit4.class)
+@LargeTest
+public class EmergencyNumberMatcherPerfTest {
+    private static final int LOOKUP_COUNT = 10000;
+    // as in EmergencyNumberMatcherTest
+    private static final String[] PREFIXES = {"123", "456"};
+    private static final String[] EMERGENCY_NUMBERS =
+            {"112", "911", "000", "08", "110", "118", "119", "999"};
+
+    @Rule
+    public PerfStatusReporter mPerfStatusReporter = new PerfStatusReporter();
+
+    private EmergencyNumberMatcher mMatcher;
+    // one in ten is an emergency number
+    private String[] mDialedNumbers;
+
+    @Before
+    public void setUp() {
+        mMatcher = new EmergencyNumberMatcher();
+        for (String emergencyNumber : EMERGENCY_NUMBERS) {
+            mMatcher.add(emergencyNumber, true /* prefixMatch */);
+            for (String prefix : PREFIXES) {
+                mMatcher.add(prefix + emergencyNumber, true /* prefixMatch */);
+            }
+        }
+        mDialedNumbers = new String[LOOKUP_COUNT];
+        for (int i = 0; i < LOOKUP_COUNT; i++) {
+            if (i % 10 == 0) {
+                mDialedNumbers[i] = PREFIXES[(i / 10) % 2]
+                        + EMERGENCY_NUMBERS[i % EMERGENCY_NUMBERS.length];
+            } else {
+                mDialedNumbers[i] = String.valueOf(6500000000L + i);
+            }
+        }
+    }
+
+    @Test
+    public void timeExactMatch() {
+        final BenchmarkState state = mPerfStatusReporter.getBenchmarkState();
+        while (state.keepRunning()) {
+            for (String dialedNumber : mDialedNumbers) {
+                mMatcher.matches(dialedNumber, true /* exactMatch */);
+            }
+        }
+    }
+
+    @Test
+    public void timePrefixMatch() {
+        final BenchmarkState state = mPerfStatusReporter.getBenchmarkState();
+        while (state.keepRunning()) {
+            for (String dialedNumber : mDialedNumbers) {
+                mMatcher.matches(dialedNumber, false /* exactMatch */);
+            }
+        }
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony.gsm;
+
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.PersistableBundle;
+import android.perftests.utils.BenchmarkState;
+import android.perftests.utils.PerfStatusReporter;
+import android.telephony.CarrierConfigManager;
+import android.telephony.ServiceState;
+
+import androidx.test.filters.LargeTest;
+import androidx.test.runner.AndroidJUnit4;
+
+import com.android.internal.telephony.GsmCdmaPhone;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+@RunWith(AndroidJUnit4.class)
+@LargeTest
+public class GsmMmiCodePerfTest {
+    // supplementary service codes, USSD and a dialing number after a code
+    private static final String[] DIAL_STRINGS = {
+            "*#21#",
+            "**21*+18056377243#",
+            "#31#",
+            "*31#+18056377243",
+            "*43#",
+            "*#06#",
+            "**04*1234*5678*5678#",
+            "*100#",
+            "*123*1*2#",
+    };
+
+    @Rule
+    public PerfStatusReporter mPerfStatusReporter = new PerfStatusReporter();
+
+    private GsmCdmaPhone mPhone;
+
+    @Before
+    public void setUp() {
+        // The phone and the carrier config are mocked, so that only the parsing is measured.
+        Context context = mock(Context.class);
+        CarrierConfigManager configManager = mock(CarrierConfigManager.class);
+        doReturn(configManager).when(context).getSystemService(Context.CARRIER_CONFIG_SERVICE);
+        doReturn(new PersistableBundle()).when(configManager).getConfigForSubId(1);
+
+        mPhone = mock(GsmCdmaPhone.class);
+        doReturn(context).when(mPhone).getContext();
+        doReturn(new Handler(Looper.getMainLooper())).when(mPhone).getHandler();
+        doReturn(new ServiceState()).when(mPhone).getServiceState();
+        doReturn(1).when(mPhone).getSubId();
+    }
+
+    @Test
+    public void timeNewFromDialString() {
+        final BenchmarkState state = mPerfStatusReporter.getBenchmarkState();
+        while (state.keepRunning()) {
+            for (String dialString : DIAL_STRINGS) {
+                GsmMmiCode.newFromDialString(dialString, mPhone, null /* app */);
+            }
+        }
+    }
+}
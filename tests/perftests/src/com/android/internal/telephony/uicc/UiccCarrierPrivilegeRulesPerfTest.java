@@ -0,0 +1,85 @@
+/*
+ * Copyright 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony.uicc;
+
+import android.content.pm.PackageInfo;
+import android.content.pm.Signature;
+import android.perftests.utils.BenchmarkState;
+import android.perftests.utils.PerfStatusReporter;
+import android.telephony.UiccAccessRule;
+
+import androidx.test.filters.LargeTest;
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+
+@RunWith(AndroidJUnit4.class)
+@LargeTest
+public class UiccCarrierPrivilegeRulesPerfTest {
+    private static final int RULE_COUNT = 200;
+    private static final String PACKAGE_NAME = "com.example.carrier";
+
+    @Rule
+    public PerfStatusReporter mPerfStatusReporter = new PerfStatusReporter();
+
+    private UiccCarrierPrivilegeRules mRules;
+    // Signed with the certificate of the last rule.
+    private PackageInfo mPackageInfo;
+
+    @Before
+    public void setUp() throws Exception {
+        MessageDigest sha256 = MessageDigest.getInstance("SHA-256");
+        List<UiccAccessRule> accessRules = new ArrayList<>(RULE_COUNT);
+        byte[] cert = null;
+        for (int i = 0; i < RULE_COUNT; i++) {
+            cert = new byte[] {(byte) 0x30, (byte) (i >> 8), (byte) i};
+            accessRules.add(new UiccAccessRule(sha256.digest(cert), PACKAGE_NAME + i,
+                    0 /* accessType */));
+        }
+        mRules = new UiccCarrierPrivilegeRules(accessRules);
+
+        mPackageInfo = new PackageInfo();
+        mPackageInfo.packageName = PACKAGE_NAME + (RULE_COUNT - 1);
+        mPackageInfo.signatures = new Signature[] {new Signature(cert)};
+        mPackageInfo.lastUpdateTime = 1000;
+    }
+
+    @Test
+    public void timeGetCarrierPrivilegeStatus() {
+        final BenchmarkState state = mPerfStatusReporter.getBenchmarkState();
+        while (state.keepRunning()) {
+            mRules.getCarrierPrivilegeStatus(mPackageInfo);
+        }
+    }
+
+    @Test
+    public void timeGetCarrierPrivilegeStatusAfterPackageChange() {
+        final BenchmarkState state = mPerfStatusReporter.getBenchmarkState();
+        while (state.keepRunning()) {
+            // Every lookup digests the certificates and matches all the rules.
+            mRules.onPackageChanged(mPackageInfo.packageName);
+            mRules.getCarrierPrivilegeStatus(mPackageInfo);
+        }
+    }
+}
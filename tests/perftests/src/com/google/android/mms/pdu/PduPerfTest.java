@@ -0,0 +1,99 @@
+/*
+ * Copyright 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.mms.pdu;
+
+import static org.junit.Assert.assertNotNull;
+
+import android.content.Context;
+import android.perftests.utils.BenchmarkState;
+import android.perftests.utils.PerfStatusReporter;
+
+import androidx.test.InstrumentationRegistry;
+import androidx.test.filters.LargeTest;
+import androidx.test.runner.AndroidJUnit4;
+
+import com.google.android.mms.ContentType;
+import com.google.android.mms.InvalidHeaderValueException;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+@RunWith(AndroidJUnit4.class)
+@LargeTest
+public class PduPerfTest {
+    private static final String TEXT = "This is the message body of a single-part message";
+
+    @Rule
+    public PerfStatusReporter mPerfStatusReporter = new PerfStatusReporter();
+
+    private Context mContext;
+    private SendReq mSendReq;
+    private byte[] mPdu;
+
+    /**
+     * Makes an M-Send.req with a text part and a fixed transaction id, so that the composed PDU is
+     * the same on every run.
+     */
+    private static SendReq makeSendReq() throws InvalidHeaderValueException {
+        SendReq req = new SendReq();
+        req.setTransactionId("T16c2e0ad4a9".getBytes());
+        req.setTo(new EncodedStringValue[] {new EncodedStringValue("+18056377243")});
+        req.setSubject(new EncodedStringValue("Subject"));
+        req.setMessageClass(PduHeaders.MESSAGE_CLASS_PERSONAL_STR.getBytes());
+        req.setExpiry(7 * 24 * 60 * 60);
+        req.setPriority(PduHeaders.PRIORITY_NORMAL);
+        req.setDeliveryReport(PduHeaders.VALUE_NO);
+        req.setReadReport(PduHeaders.VALUE_NO);
+
+        PduBody body = new PduBody();
+        PduPart part = new PduPart();
+        part.setContentType(ContentType.TEXT_PLAIN.getBytes());
+        part.setCharset(CharacterSets.UTF_8);
+        part.setContentLocation("text_0.txt".getBytes());
+        part.setContentId("<text_0>".getBytes());
+        part.setData(TEXT.getBytes());
+        body.addPart(part);
+        req.setBody(body);
+        return req;
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        mContext = InstrumentationRegistry.getContext();
+        mSendReq = makeSendReq();
+        mPdu = new PduComposer(mContext, mSendReq).make();
+        assertNotNull(mPdu);
+    }
+
+    @Test
+    public void timeCompose() {
+        final BenchmarkState state = mPerfStatusReporter.getBenchmarkState();
+        while (state.keepRunning()) {
+            new PduComposer(mContext, mSendReq).make();
+        }
+    }
+
+    @Test
+    public void timeParse() {
+        final BenchmarkState state = mPerfStatusReporter.getBenchmarkState();
+        while (state.keepRunning()) {
+            new PduParser(mPdu, true /* parseContentDisposition */).parse();
+        }
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.internal.telephony;
+
+import static org.junit.Assert.assertEquals;
+
+import android.test.suitebuilder.annotation.SmallTest;
+
+import com.android.internal.telephony.CarrierResolver.CarrierMatchingRule;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class CarrierMatchingRuleIndexTest {
+    private static final String MCCMNC = "310260";
+
+    private List<CarrierMatchingRule> mRules;
+    private CarrierMatchingRuleIndex mIndex;
+
+    private static CarrierMatchingRule rule(String imsi, String iccid, String gid1, String gid2,
+            String spn, int cid) {
+        return new CarrierMatchingRule(MCCMNC, imsi, iccid, gid1, gid2, null, spn, null, null,
+                cid, null, -1);
+    }
+
+    private static CarrierMatchingRule subscription(String imsi, String iccid, String gid1,
+            String gid2, String spn) {
+        return new CarrierMatchingRule(MCCMNC, imsi, iccid, gid1, gid2, null, spn, null,
+                Arrays.asList("ABCD"), -1, null, -1);
+    }
+
+    @Before
+    public void setUp() {
+        mRules = new ArrayList<>();
+        mRules.add(rule(null, null, null, null, null, 1));
+        mRules.add(rule("310260xx1", null, null, null, null, 2));
+        mRules.add(rule("31026012", null, "BA", null, null, 3));
+        mRules.add(rule(null, "8901260", null, null, null, 4));
+        mRules.add(rule(null, null, "ba", null, null, 5));
+        mRules.add(rule(null, null, "BAE0", null, null, 6));
+        mRules.add(rule(null, null, null, "12", null, 7));
+        mRules.add(rule(null, null, null, null, "Carrier", 8));
+        mRules.add(rule(null, null, null, null, "", 9));
+        mRules.add(rule("", null, null, null, null, 10));
+        // more rules of other carriers which never match
+        for (int i = 0; i < 100; i++) {
+            mRules.add(rule("310260999" + i, null, "FF" + i, null, null, 100 + i));
+        }
+        mIndex = new CarrierMatchingRuleIndex(mRules);
+    }
+
+    private void assertCandidates(CarrierMatchingRule subscription, Integer... positions) {
+        List<CarrierMatchingRule> expected = new ArrayList<>();
+        for (int position : positions) {
+            expected.add(mRules.get(position));
+        }
+        assertEquals(expected, mIndex.getCandidates(subscription));
+    }
+
+    @Test
+    @SmallTest
+    public void testCandidates() {
+        assertCandidates(
+                subscription("310260121234567", "89012604", "BAE0FFFF", "1234", "carrier"),
+                0, 1, 2, 3, 4, 5, 6, 7, 9);
+        assertCandidates(subscription("310260331000000", "89012700", "bA", null, ""),
+                0, 1, 4, 8, 9);
+        assertCandidates(subscription(null, null, null, null, null), 0, 9);
+    }
+
+    @Test
+    @SmallTest
+    public void testCandidatesOfOtherCarrier() {
+        // only the imsi prefix of carrier 105 is a prefix of the imsi, the gid1 of the rules of
+        // the other carriers need not be looked up.
+        assertCandidates(subscription("3102609995", "8901", "FF5", "", "other"), 0, 9, 15);
+        assertEquals(mRules.size(), mIndex.size());
+    }
+}
@@ -107,6 +107,7 @@ public class CarrierResolverTest extends TelephonyTest {
         super.setUp(getClass().getSimpleName());
         ((MockContentResolver) mContext.getContentResolver()).addProvider(
                 CarrierId.AUTHORITY, new CarrierIdContentProvider());
+        CarrierMatchingRuleStore.getInstance().clear();
         // start handler thread
         mCarrierCarrierResolverHandler = new CarrierResolverHandler(getClass().getSimpleName());
         mCarrierCarrierResolverHandler.start();
@@ -261,6 +262,27 @@ public class CarrierResolverTest extends TelephonyTest {
         assertEquals(CID_FI, carrierid);
     }
 
+    @Test
+    @SmallTest
+    public void testCarrierMatchingRulesLoadedOncePerVersion() {
+        CarrierMatchingRuleStore store = CarrierMatchingRuleStore.getInstance();
+        CarrierIdentifier identifier = new CarrierIdentifier(MCCMNC.substring(0, 3),
+                MCCMNC.substring(3), null, null, null, null);
+        assertEquals(CID_VZW, CarrierResolver.getCarrierIdFromIdentifier(mContext, identifier));
+        assertEquals(CID_VZW, CarrierResolver.getCarrierIdFromIdentifier(mContext, identifier));
+        assertEquals(1, store.getLoadCount());
+
+        // rules loaded before the database version is known are reloaded on update
+        store.onDatabaseChanged(mContext);
+        assertEquals(CID_VZW, CarrierResolver.getCarrierIdFromIdentifier(mContext, identifier));
+        assertEquals(2, store.getLoadCount());
+
+        // update without version change
+        store.onDatabaseChanged(mContext);
+        assertEquals(CID_VZW, CarrierResolver.getCarrierIdFromIdentifier(mContext, identifier));
+        assertEquals(2, store.getLoadCount());
+    }
+
     @Test
     @SmallTest
     public void testCarrierMatchPreferApnChange() {
@@ -16,6 +16,7 @@
 
 package com.android.internal.telephony;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Matchers.any;
@@ -46,6 +47,7 @@ import com.android.internal.telephony.uicc.UiccCard;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.invocation.InvocationOnMock;
 import org.mockito.stubbing.Answer;
@@ -62,6 +64,7 @@ public class CarrierServicesSmsFilterTest extends TelephonyTest {
     private static final String SYSTEM_APP_PACKAGE_NAME = "com.android.system";
 
     private CarrierServicesSmsFilter mCarrierServicesSmsFilterUT;
+    private CarrierSmsFilterBindings mBindings;
     @Mock
     private CarrierServicesSmsFilter.CarrierServicesSmsFilterCallbackInterface mFilterCallback;
     @Mock
@@ -78,17 +81,24 @@ public class CarrierServicesSmsFilterTest extends TelephonyTest {
             Looper.prepare();
             Looper.loop();
         }
-        mCarrierServicesSmsFilterUT = new CarrierServicesSmsFilter(
-                mContext, mPhone, new byte[][]{SMS_PDU},
-                0, "3gpp", mFilterCallback, getClass().getSimpleName(), new LocalLog(64)
-        );
+        mBindings = new CarrierSmsFilterBindings(mContext, Looper.myLooper());
+        mCarrierServicesSmsFilterUT = createFilter();
     }
 
     @After
     public void tearDown() throws Exception {
+        mBindings.releaseAll();
         super.tearDown();
     }
 
+    private CarrierServicesSmsFilter createFilter() {
+        return new CarrierServicesSmsFilter(
+                mContext, mPhone, new byte[][]{SMS_PDU},
+                0, "3gpp", mFilterCallback, getClass().getSimpleName(), new LocalLog(64),
+                mBindings
+        );
+    }
+
     @Test
     @SmallTest
     public void testFilter_noCarrierServicesFilter_notHandled() throws Exception {
@@ -168,6 +178,76 @@ public class CarrierServicesSmsFilterTest extends TelephonyTest {
                 .onFilterComplete(anyInt());
     }
 
+    @Test
+    @SmallTest
+    public void testFilter_bindingKeptForNextMessage() throws Exception {
+        mockCarrierApp();
+        mockCarrierAppStubResults(
+                CarrierMessagingService.RECEIVE_OPTIONS_DROP, mICarrierAppMessagingService,
+                true);
+
+        assertTrue(mCarrierServicesSmsFilterUT.filter());
+        assertTrue(createFilter().filter());
+
+        verify(mFilterCallback, times(2))
+                .onFilterComplete(eq(CarrierMessagingService.RECEIVE_OPTIONS_DROP));
+        verify(mICarrierAppMessagingService, times(2)).filterSms(
+                any(MessagePdu.class), anyString(), anyInt(), anyInt(),
+                any(ICarrierMessagingCallback.class));
+        assertEquals(1, mBindings.getBindCount(CARRIER_APP_PACKAGE_NAME));
+        assertEquals(2, mBindings.getFilterCount(CARRIER_APP_PACKAGE_NAME));
+        assertTrue(mBindings.isBound(CARRIER_APP_PACKAGE_NAME));
+    }
+
+    @Test
+    @SmallTest
+    public void testFilter_bindAgainAfterRelease() throws Exception {
+        mockCarrierApp();
+        mockCarrierAppStubResults(
+                CarrierMessagingService.RECEIVE_OPTIONS_DEFAULT, mICarrierAppMessagingService,
+                true);
+
+        assertTrue(mCarrierServicesSmsFilterUT.filter());
+        mBindings.releaseAll();
+        assertFalse(mBindings.isBound(CARRIER_APP_PACKAGE_NAME));
+
+        // The packages of the last message are bound again before the next one.
+        mBindings.warmUp();
+        assertTrue(mBindings.isBound(CARRIER_APP_PACKAGE_NAME));
+        assertTrue(createFilter().filter());
+
+        verify(mFilterCallback, times(2))
+                .onFilterComplete(eq(CarrierMessagingService.RECEIVE_OPTIONS_DEFAULT));
+        assertEquals(2, mBindings.getBindCount(CARRIER_APP_PACKAGE_NAME));
+    }
+
+    @Test
+    @SmallTest
+    public void testFilter_bindingKeptWhileFilterOutlivesKeepAlive() throws Exception {
+        mockCarrierApp();
+        mockCarrierAppStubResults(
+                CarrierMessagingService.RECEIVE_OPTIONS_DROP, mICarrierAppMessagingService,
+                false);
+        ArgumentCaptor<ICarrierMessagingCallback> callbackCaptor =
+                ArgumentCaptor.forClass(ICarrierMessagingCallback.class);
+
+        assertTrue(mCarrierServicesSmsFilterUT.filter());
+        verify(mICarrierAppMessagingService).filterSms(any(MessagePdu.class), anyString(),
+                anyInt(), anyInt(), callbackCaptor.capture());
+
+        // The filter takes longer than the keep-alive: the binding must not be released.
+        mBindings.expireKeepAlive(CARRIER_APP_PACKAGE_NAME);
+        assertTrue(mBindings.isBound(CARRIER_APP_PACKAGE_NAME));
+
+        callbackCaptor.getValue().onFilterComplete(CarrierMessagingService.RECEIVE_OPTIONS_DROP);
+        verify(mFilterCallback).onFilterComplete(eq(CarrierMessagingService.RECEIVE_OPTIONS_DROP));
+        assertTrue(mBindings.isBound(CARRIER_APP_PACKAGE_NAME));
+
+        // Once idle, the binding is released when the keep-alive expires.
+        mBindings.expireKeepAlive(CARRIER_APP_PACKAGE_NAME);
+        assertFalse(mBindings.isBound(CARRIER_APP_PACKAGE_NAME));
+    }
+
     private void mockCarrierApp()
             throws RemoteException {
         mContextFixture.addService(
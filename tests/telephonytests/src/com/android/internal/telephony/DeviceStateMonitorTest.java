@@ -20,9 +20,14 @@ import static android.hardware.radio.V1_0.DeviceStateType.LOW_DATA_EXPECTED;
 
 import static com.android.internal.telephony.TelephonyTestUtils.waitForMs;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
 import static org.mockito.Matchers.eq;
 import static org.mockito.Matchers.nullable;
+import static org.mockito.Mockito.clearInvocations;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 
@@ -32,6 +37,7 @@ import android.os.BatteryManager;
 import android.os.HandlerThread;
 import android.os.Message;
 import android.test.suitebuilder.annotation.MediumTest;
+import android.test.suitebuilder.annotation.SmallTest;
 
 import androidx.test.filters.FlakyTest;
 
@@ -171,4 +177,84 @@ public class DeviceStateMonitorTest extends TelephonyTest {
         assertEquals(
                 DeviceStateMonitor.CELL_INFO_INTERVAL_SHORT_MS, mDSM.computeCellInfoMinInterval());
     }
+
+    private void waitForHandler() {
+        setReady(false);
+        mDSM.post(() -> setReady(true));
+        waitUntilReady();
+    }
+
+    private void sendIndications(int type, int count) {
+        for (int i = 0; i < count; i++) {
+            mDSM.onIndicationReceived(type);
+        }
+        mDSM.obtainMessage(DeviceStateMonitor.EVENT_RATE_WINDOW_ELAPSED).sendToTarget();
+        waitForHandler();
+    }
+
+    @Test
+    @MediumTest
+    public void testAdaptiveFiltering() throws Exception {
+        mDSM.setAdaptiveFilteringEnabled(true);
+        // screen off but charging: the signal strength is reported but nobody looks at it
+        sendStates(0, 1, 0);
+        clearInvocations(mPhone);
+        // below the threshold, the criteria are kept
+        sendIndications(DeviceStateMonitor.INDICATION_SIGNAL_STRENGTH,
+                DeviceStateMonitor.ADAPTIVE_RATE_THRESHOLD);
+        verify(mPhone, never()).setSignalStrengthReportingCriteria(anyInt(), anyInt(),
+                any(int[].class), anyInt());
+
+        // above the threshold without consumers, the criteria are widened on every RAN
+        sendIndications(DeviceStateMonitor.INDICATION_SIGNAL_STRENGTH,
+                DeviceStateMonitor.ADAPTIVE_RATE_THRESHOLD + 1);
+        verify(mPhone, times(4)).setSignalStrengthReportingCriteria(
+                eq(DeviceStateMonitor.WIDE_HYSTERESIS_MS),
+                eq(DeviceStateMonitor.WIDE_HYSTERESIS_DB), any(int[].class), anyInt());
+
+        // the criteria are restored as soon as the screen turns on
+        sendStates(1, 1, 0);
+        verify(mPhone, times(4)).setSignalStrengthReportingCriteria(any(int[].class), anyInt());
+
+        // screen on without wifi, the cell info is requested
+        sendStates(1, 0, 0);
+        mDSM.onCellInfoRequested();
+        sendIndications(DeviceStateMonitor.INDICATION_CELL_INFO,
+                DeviceStateMonitor.ADAPTIVE_RATE_THRESHOLD + 1);
+        assertEquals(
+                DeviceStateMonitor.CELL_INFO_INTERVAL_SHORT_MS, mDSM.computeCellInfoMinInterval());
+
+        // a whole window without any request, the cell info reporting is widened
+        sendIndications(DeviceStateMonitor.INDICATION_CELL_INFO,
+                DeviceStateMonitor.ADAPTIVE_RATE_THRESHOLD + 1);
+        assertEquals(
+                DeviceStateMonitor.CELL_INFO_INTERVAL_LONG_MS, mDSM.computeCellInfoMinInterval());
+
+        // and restored by the next request
+        mDSM.onCellInfoRequested();
+        waitForHandler();
+        assertEquals(
+                DeviceStateMonitor.CELL_INFO_INTERVAL_SHORT_MS, mDSM.computeCellInfoMinInterval());
+
+        // disabling the adaptive filtering restores the criteria too
+        sendIndications(DeviceStateMonitor.INDICATION_CELL_INFO,
+                DeviceStateMonitor.ADAPTIVE_RATE_THRESHOLD + 1);
+        sendIndications(DeviceStateMonitor.INDICATION_CELL_INFO,
+                DeviceStateMonitor.ADAPTIVE_RATE_THRESHOLD + 1);
+        assertEquals(
+                DeviceStateMonitor.CELL_INFO_INTERVAL_LONG_MS, mDSM.computeCellInfoMinInterval());
+        mDSM.setAdaptiveFilteringEnabled(false);
+        waitForHandler();
+        assertEquals(
+                DeviceStateMonitor.CELL_INFO_INTERVAL_SHORT_MS, mDSM.computeCellInfoMinInterval());
+    }
+
+    @Test
+    @SmallTest
+    public void testGetWideThresholds() {
+        assertArrayEquals(new int[] {-128, -108},
+                DeviceStateMonitor.getWideThresholds(new int[] {-128, -118, -108, -98}));
+        assertArrayEquals(new int[] {-5, -3},
+                DeviceStateMonitor.getWideThresholds(new int[] {-5, -4, -3}));
+    }
 }
@@ -0,0 +1,163 @@
+/*
+ * Copyright 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import android.content.ContentUris;
+import android.net.Uri;
+import android.provider.Telephony;
+import android.test.mock.MockContentResolver;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Collections;
+
+public class InboundSmsSegmentIndexTest {
+    private static final String ADDRESS = "1234567890";
+    private static final byte[] PDU = new byte[] {0x01, 0x02, 0x03};
+
+    private FakeSmsContentProvider mContentProvider;
+    private MockContentResolver mResolver;
+    private InboundSmsSegmentIndex mIndex;
+
+    @Before
+    public void setUp() {
+        mContentProvider = new FakeSmsContentProvider();
+        mResolver = new MockContentResolver();
+        mResolver.addProvider(Telephony.Sms.CONTENT_URI.getAuthority(), mContentProvider);
+        mIndex = new InboundSmsSegmentIndex(mResolver);
+    }
+
+    @After
+    public void tearDown() {
+        mContentProvider.shutdown();
+    }
+
+    private static InboundSmsTracker makeSegment(int sequenceNumber, long timestamp,
+            String body) {
+        return new InboundSmsTracker(PDU, timestamp, -1 /* destPort */, false /* is3gpp2 */,
+                ADDRESS, ADDRESS, 7 /* referenceNumber */, sequenceNumber,
+                3 /* messageCount */, false /* is3gpp2WapPdu */, body, false /* isClass0 */);
+    }
+
+    private long insert(InboundSmsTracker tracker) {
+        Uri uri = mResolver.insert(InboundSmsHandler.sRawUri, tracker.getContentValues());
+        return ContentUris.parseId(uri);
+    }
+
+    @Test
+    @SmallTest
+    public void testGroupLoadedFromRawTable() {
+        insert(makeSegment(1, 1000, "part1"));
+        insert(makeSegment(2, 1000, "part2"));
+
+        InboundSmsTracker part3 = makeSegment(3, 1000, "part3");
+        assertEquals(2, mIndex.getLiveSegmentCount(part3));
+        assertNotNull(mIndex.findExactMatch(makeSegment(2, 1000, "part2")));
+        assertNull(mIndex.findExactMatch(makeSegment(2, 2000, "part2")));
+    }
+
+    @Test
+    @SmallTest
+    public void testSegmentsTrackedWithoutRequery() {
+        InboundSmsTracker part1 = makeSegment(1, 1000, "part1");
+        assertEquals(0, mIndex.getLiveSegmentCount(part1));
+
+        // Rows inserted behind the index's back are not seen once the group is loaded.
+        insert(makeSegment(2, 1000, "part2"));
+        assertEquals(0, mIndex.getLiveSegmentCount(part1));
+
+        mIndex.onSegmentAdded(part1, insert(part1));
+        assertEquals(1, mIndex.getLiveSegmentCount(part1));
+        assertEquals(1, mIndex.findLiveSegments(makeSegment(1, 5000, "other")).size());
+
+        mIndex.invalidate();
+        assertEquals(2, mIndex.getLiveSegmentCount(part1));
+    }
+
+    @Test
+    @SmallTest
+    public void testRebuild() {
+        InboundSmsTracker part1 = makeSegment(1, 1000, "part1");
+        assertEquals(0, mIndex.getLiveSegmentCount(part1));
+
+        // Rows written by another handler before the rebuild are picked up by it.
+        long rowId = insert(part1);
+        mIndex.rebuild(Collections.singletonList(part1));
+        assertEquals(1, mIndex.getLiveSegmentCount(part1));
+
+        // A row is not counted twice when its insertion is reported after the rebuild.
+        mIndex.onSegmentAdded(part1, rowId);
+        assertEquals(1, mIndex.getLiveSegmentCount(part1));
+    }
+
+    @Test
+    @SmallTest
+    public void testMarkDeletedKeepsSegmentsForDedup() {
+        InboundSmsTracker part1 = makeSegment(1, 1000, "part1");
+        mIndex.getLiveSegmentCount(part1);
+        mIndex.onSegmentAdded(part1, insert(part1));
+
+        mIndex.onSegmentsDeleted(part1.getQueryForSegments(),
+                new String[] {ADDRESS, "7", "3"}, false /* permanently */);
+        assertEquals(0, mIndex.getLiveSegmentCount(part1));
+        InboundSmsSegmentIndex.Segment match = mIndex.findExactMatch(part1);
+        assertNotNull(match);
+        assertTrue(match.mDeleted);
+        assertTrue(mIndex.findLiveSegments(part1).isEmpty());
+    }
+
+    @Test
+    @SmallTest
+    public void testPermanentDeleteRemovesLiveSegments() {
+        InboundSmsTracker part1 = makeSegment(1, 1000, "part1");
+        insert(part1);
+        assertEquals(1, mIndex.getLiveSegmentCount(part1));
+
+        mIndex.onSegmentsDeleted(part1.getQueryForSegments(),
+                new String[] {ADDRESS, "7", "3"}, true /* permanently */);
+        assertEquals(0, mIndex.getLiveSegmentCount(part1));
+        assertNull(mIndex.findExactMatch(part1));
+    }
+
+    @Test
+    @SmallTest
+    public void testOtherDeletionsIgnored() {
+        InboundSmsTracker part1 = makeSegment(1, 1000, "part1");
+        insert(part1);
+        assertEquals(1, mIndex.getLiveSegmentCount(part1));
+
+        mIndex.onSegmentsDeleted(InboundSmsHandler.SELECT_BY_ID, new String[] {"1"}, true);
+        assertEquals(1, mIndex.getLiveSegmentCount(part1));
+    }
+
+    @Test
+    @SmallTest
+    public void testOnlyMultiPartMessagesIndexed() {
+        assertTrue(InboundSmsSegmentIndex.isIndexed(makeSegment(1, 1000, "part1")));
+        assertFalse(InboundSmsSegmentIndex.isIndexed(new InboundSmsTracker(PDU, 1000, -1,
+                false, false, ADDRESS, ADDRESS, "single", false)));
+    }
+}
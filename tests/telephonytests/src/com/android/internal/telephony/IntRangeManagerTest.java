@@ -17,6 +17,7 @@
 package com.android.internal.telephony;
 
 import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.MediumTest;
 import android.test.suitebuilder.annotation.SmallTest;
 
 import com.android.internal.telephony.gsm.SmsBroadcastConfigInfo;
@@ -1161,4 +1162,50 @@ public class IntRangeManagerTest extends AndroidTestCase {
                 testManager.flags);
         assertEquals("configlist size", 0, testManager.mConfigList.size());
     }
+
+    @Test @MediumTest
+    public void testManyChannels() {
+        final int numRanges = 10000;
+        TestIntRangeManager testManager = new TestIntRangeManager();
+        // [0, 1] [3, 4] [6, 7] ...
+        for (int i = 0; i < numRanges; i++) {
+            assertTrue("enabling range", testManager.enableRange(3 * i, 3 * i + 1, "client1"));
+        }
+        testManager.reset();
+        assertTrue("updating ranges", testManager.updateRanges());
+        assertEquals("configlist size", numRanges, testManager.mConfigList.size());
+        checkConfigInfo(testManager.mConfigList.get(numRanges - 1), 3 * numRanges - 3,
+                3 * numRanges - 2, SMS_CB_CODE_SCHEME_MIN, SMS_CB_CODE_SCHEME_MAX, true);
+
+        // enclosed ranges need no radio update
+        testManager.reset();
+        for (int i = 0; i < numRanges; i++) {
+            assertTrue("enabling range", testManager.enableRange(3 * i, 3 * i, "client2"));
+        }
+        assertEquals("flags after test", 0, testManager.flags);
+
+        // coalesce all ranges into one
+        testManager.reset();
+        assertTrue("enabling range", testManager.enableRange(0, 3 * numRanges, "client3"));
+        assertEquals("configlist size", 1, testManager.mConfigList.size());
+        checkConfigInfo(testManager.mConfigList.get(0), 2, 3 * numRanges,
+                SMS_CB_CODE_SCHEME_MIN, SMS_CB_CODE_SCHEME_MAX, true);
+        testManager.reset();
+        assertTrue("updating ranges", testManager.updateRanges());
+        assertEquals("configlist size", 1, testManager.mConfigList.size());
+        checkConfigInfo(testManager.mConfigList.get(0), 0, 3 * numRanges,
+                SMS_CB_CODE_SCHEME_MIN, SMS_CB_CODE_SCHEME_MAX, true);
+
+        // split it back into the original ranges
+        testManager.reset();
+        assertTrue("disabling range", testManager.disableRange(0, 3 * numRanges, "client3"));
+        assertEquals("configlist size", numRanges, testManager.mConfigList.size());
+
+        for (int i = 0; i < numRanges; i++) {
+            assertTrue("disabling range", testManager.disableRange(3 * i, 3 * i, "client2"));
+        }
+        testManager.reset();
+        assertTrue("updating ranges", testManager.updateRanges());
+        assertEquals("configlist size", numRanges, testManager.mConfigList.size());
+    }
 }
@@ -87,6 +87,7 @@ import android.telephony.SubscriptionManager;
 import android.telephony.TelephonyManager;
 import android.telephony.cdma.CdmaCellLocation;
 import android.telephony.gsm.GsmCellLocation;
+import android.test.suitebuilder.annotation.LargeTest;
 import android.test.suitebuilder.annotation.MediumTest;
 import android.test.suitebuilder.annotation.SmallTest;
 import android.util.Pair;
@@ -97,6 +98,8 @@ import androidx.test.filters.FlakyTest;
 import com.android.internal.R;
 import com.android.internal.telephony.cdma.CdmaSubscriptionSourceManager;
 import com.android.internal.telephony.test.SimulatedCommands;
+import com.android.internal.telephony.test.SimulatedLoadProfile;
+import com.android.internal.telephony.test.SimulatedLoadRunner;
 import com.android.internal.telephony.uicc.IccCardApplicationStatus;
 import com.android.internal.telephony.uicc.IccRecords;
 
@@ -530,6 +533,27 @@ public class ServiceStateTrackerTest extends TelephonyTest {
         assertTrue("Spurious CellInfo Response Received", cih.cellInfoResult == null);
     }
 
+    @Test
+    @LargeTest
+    public void testSimulatedLoad() throws InterruptedException {
+        SimulatedLoadProfile profile = SimulatedLoadProfile.parse(
+                "duration=500,signal=200,cellinfo=20;duration=500,latency=10,signal=50");
+        SimulatedLoadRunner runner = new SimulatedLoadRunner(mSimulatedCommands)
+                .setTarget(SimulatedCommands.LOAD_SIGNAL_STRENGTH, mSSTTestHandler.getLooper())
+                .setTarget(SimulatedCommands.LOAD_CELL_INFO, mSSTTestHandler.getLooper());
+
+        SimulatedLoadRunner.Result result = runner.run(profile, 10000 /* timeoutMs */);
+
+        assertTrue("Indications not handled in time", result != null);
+        logd("testSimulatedLoad: " + result);
+        // the number of indications only depends on the profile
+        assertEquals(125, result.getCount(SimulatedCommands.LOAD_SIGNAL_STRENGTH));
+        assertEquals(10, result.getCount(SimulatedCommands.LOAD_CELL_INFO));
+        assertTrue(result.getLatencyPercentileNanos(SimulatedCommands.LOAD_SIGNAL_STRENGTH, 99)
+                >= 0);
+        assertEquals(-1, result.getLatencyPercentileNanos(SimulatedCommands.LOAD_SMS, 50));
+    }
+
     @Test
     @MediumTest
     public void testImsRegState() {
@@ -0,0 +1,123 @@
+/*
+ * Copyright 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+
+import android.database.Cursor;
+import android.provider.Telephony;
+import android.test.mock.MockContentResolver;
+import android.test.suitebuilder.annotation.MediumTest;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class SmsBroadcastUndeliveredTest extends TelephonyTest {
+    private static final byte[] PDU = new byte[] {0x01, 0x02, 0x03};
+
+    private FakeSmsContentProvider mContentProvider;
+
+    @Before
+    public void setUp() throws Exception {
+        super.setUp(getClass().getSimpleName());
+        mContentProvider = new FakeSmsContentProvider();
+        ((MockContentResolver) mContext.getContentResolver()).addProvider(
+                Telephony.Sms.CONTENT_URI.getAuthority(), mContentProvider);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mContentProvider.shutdown();
+        super.tearDown();
+    }
+
+    private void insertSegment(int referenceNumber, long timestamp) {
+        InboundSmsTracker tracker = new InboundSmsTracker(PDU, timestamp, -1 /* destPort */,
+                false /* is3gpp2 */, "1234567890", "1234567890", referenceNumber,
+                1 /* sequenceNumber */, 2 /* messageCount */, false /* is3gpp2WapPdu */,
+                "part1", false /* isClass0 */);
+        mContentProvider.insert(InboundSmsHandler.sRawUri, tracker.getContentValues());
+    }
+
+    @Test
+    @MediumTest
+    public void testScanReadsRawTableInPages() {
+        for (int i = 0; i <= SmsBroadcastUndelivered.SCAN_PAGE_SIZE; i++) {
+            insertSegment(i, System.currentTimeMillis());
+        }
+        doThrow(new IllegalArgumentException()).when(mTelephonyComponentFactory)
+                .makeInboundSmsTracker(any(Cursor.class), anyBoolean());
+
+        SmsBroadcastUndelivered.scanRawTable(mContext, null, null, 0 /* oldMessageTimestamp */);
+
+        SmsBroadcastUndelivered.ScanStats stats = SmsBroadcastUndelivered.getLastScanStats();
+        assertEquals(2, stats.mPages);
+        assertEquals(SmsBroadcastUndelivered.SCAN_PAGE_SIZE + 1, stats.mRowsScanned);
+        assertEquals(0, stats.mMessagesDispatched);
+    }
+
+    @Test
+    @MediumTest
+    public void testExpiredSegmentsDeletedInBatches() {
+        int expired = SmsBroadcastUndelivered.DELETE_BATCH_SIZE + 1;
+        for (int i = 0; i < expired; i++) {
+            insertSegment(i, 1000 /* timestamp */);
+        }
+        // a recent incomplete message must be kept
+        insertSegment(expired, System.currentTimeMillis());
+        doAnswer(invocation -> new InboundSmsTracker((Cursor) invocation.getArguments()[0],
+                false)).when(mTelephonyComponentFactory)
+                .makeInboundSmsTracker(any(Cursor.class), anyBoolean());
+
+        SmsBroadcastUndelivered.scanRawTable(mContext, null, null,
+                System.currentTimeMillis() - SmsBroadcastUndelivered
+                        .DEFAULT_PARTIAL_SEGMENT_EXPIRE_AGE);
+
+        SmsBroadcastUndelivered.ScanStats stats = SmsBroadcastUndelivered.getLastScanStats();
+        assertEquals(expired, stats.mMessagesExpired);
+        assertEquals(expired, stats.mRowsDeleted);
+        assertEquals(1, mContentProvider.getNumRows());
+    }
+
+    @Test
+    @MediumTest
+    public void testRowsInsertedDuringScanNotRead() {
+        for (int i = 0; i < SmsBroadcastUndelivered.SCAN_PAGE_SIZE; i++) {
+            insertSegment(i, System.currentTimeMillis());
+        }
+        // an inbound SMS handler inserts a new segment while the first page is read
+        final int[] trackers = new int[1];
+        doAnswer(invocation -> {
+            if (trackers[0]++ == 0) {
+                insertSegment(SmsBroadcastUndelivered.SCAN_PAGE_SIZE, System.currentTimeMillis());
+            }
+            throw new IllegalArgumentException();
+        }).when(mTelephonyComponentFactory).makeInboundSmsTracker(any(Cursor.class), anyBoolean());
+
+        SmsBroadcastUndelivered.scanRawTable(mContext, null, null, 0 /* oldMessageTimestamp */);
+
+        SmsBroadcastUndelivered.ScanStats stats = SmsBroadcastUndelivered.getLastScanStats();
+        assertEquals(1, stats.mPages);
+        assertEquals(SmsBroadcastUndelivered.SCAN_PAGE_SIZE, stats.mRowsScanned);
+        assertEquals(SmsBroadcastUndelivered.SCAN_PAGE_SIZE + 1, mContentProvider.getNumRows());
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.internal.telephony;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import com.android.internal.util.IndentingPrintWriter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class StagedInitializerTest {
+    private static final long TIMEOUT_MS = 1000;
+
+    private HandlerThread mHandlerThread;
+    private Handler mHandler;
+    private StagedInitializer mInitializer;
+
+    @Before
+    public void setUp() {
+        mHandlerThread = new HandlerThread("StagedInitializerTest");
+        mHandlerThread.start();
+        mHandler = new Handler(mHandlerThread.getLooper());
+        mInitializer = new StagedInitializer();
+    }
+
+    @After
+    public void tearDown() {
+        mHandlerThread.quit();
+    }
+
+    @Test
+    @SmallTest
+    public void testStagesRunInOrder() {
+        List<String> stages = new ArrayList<>();
+        mInitializer.run("first", () -> stages.add("first"));
+        mInitializer.run("second", () -> stages.add("second"));
+
+        assertEquals(2, stages.size());
+        assertEquals("first", stages.get(0));
+        assertTrue(mInitializer.getDurationMillis("first") >= 0);
+        assertTrue(mInitializer.getDurationMillis("second") >= 0);
+        assertEquals(-1, mInitializer.getDurationMillis("unknown"));
+    }
+
+    @Test
+    @SmallTest
+    public void testFailedStageIsTimed() {
+        try {
+            mInitializer.run("failing", () -> {
+                throw new IllegalStateException();
+            });
+            fail("Expecting IllegalStateException");
+        } catch (IllegalStateException e) {
+        }
+        assertTrue(mInitializer.getDurationMillis("failing") >= 0);
+    }
+
+    @Test
+    @SmallTest
+    public void testAsyncStage() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        mInitializer.runAsync("async", mHandler, () -> {
+            try {
+                release.await(TIMEOUT_MS, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+            }
+        });
+        // the stages which follow are not blocked by the async stage
+        mInitializer.run("sync", () -> { });
+        assertEquals(-1, mInitializer.getDurationMillis("async"));
+        assertFalse(mInitializer.await("async", 0));
+
+        release.countDown();
+        assertTrue(mInitializer.await("async", TIMEOUT_MS));
+        assertTrue(mInitializer.getDurationMillis("async") >= 0);
+        assertFalse(mInitializer.await("unknown", 0));
+
+        StringWriter sw = new StringWriter();
+        mInitializer.dump(new IndentingPrintWriter(sw, "  "));
+        assertTrue(sw.toString().contains("async: "));
+        assertTrue(sw.toString().contains("on StagedInitializerTest"));
+    }
+}
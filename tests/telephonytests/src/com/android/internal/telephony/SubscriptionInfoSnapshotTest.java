@@ -0,0 +1,87 @@
+/*
+ * Copyright 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.internal.telephony;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+
+import android.os.ParcelUuid;
+import android.telephony.SubscriptionInfo;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+public class SubscriptionInfoSnapshotTest {
+    private static final ParcelUuid GROUP_UUID =
+            ParcelUuid.fromString("56e20b3e-4bb5-47a1-a0e3-c3a1c9bc0a01");
+
+    private SubscriptionInfo mSub1;
+    private SubscriptionInfo mSub2;
+    private SubscriptionInfo mOpptSub;
+    private SubscriptionInfoSnapshot mSnapshot;
+
+    private static SubscriptionInfo createSubInfo(int subId, int slotIndex, String iccId,
+            ParcelUuid groupUuid) {
+        SubscriptionInfo info = mock(SubscriptionInfo.class);
+        doReturn(subId).when(info).getSubscriptionId();
+        doReturn(slotIndex).when(info).getSimSlotIndex();
+        doReturn(iccId).when(info).getIccId();
+        doReturn(groupUuid).when(info).getGroupUuid();
+        return info;
+    }
+
+    @Before
+    public void setUp() {
+        mSub1 = createSubInfo(1, 0, "8901", GROUP_UUID);
+        mSub2 = createSubInfo(2, 1, "8902", null);
+        mOpptSub = createSubInfo(3, 1, "8903", GROUP_UUID);
+        mSnapshot = new SubscriptionInfoSnapshot(Arrays.asList(mSub1, mSub2, mOpptSub),
+                Collections.singletonList(mOpptSub));
+    }
+
+    @Test
+    @SmallTest
+    public void testLookups() {
+        assertSame(mSub2, mSnapshot.getActiveSubInfo(2));
+        assertNull(mSnapshot.getActiveSubInfo(4));
+        // first subscription of the slot in list order
+        assertSame(mSub2, mSnapshot.getActiveSubInfoForSlotIndex(1));
+        assertSame(mOpptSub, mSnapshot.getActiveSubInfoForIccId("8903"));
+        assertNull(mSnapshot.getActiveSubInfoForIccId(null));
+        assertEquals(Arrays.asList(mSub1, mOpptSub),
+                mSnapshot.getActiveSubInfosInGroup(GROUP_UUID));
+        assertTrue(mSnapshot.getActiveSubInfosInGroup(null).isEmpty());
+        assertSame(mOpptSub, mSnapshot.getOpportunisticSubInfo(3));
+        assertNull(mSnapshot.getOpportunisticSubInfo(1));
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    @SmallTest
+    public void testListsAreImmutable() {
+        List<SubscriptionInfo> list = mSnapshot.getActiveSubInfoList();
+        assertEquals(3, list.size());
+        list.clear();
+    }
+}
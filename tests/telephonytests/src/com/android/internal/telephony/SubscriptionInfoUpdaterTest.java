@@ -33,11 +33,16 @@ import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentValues;
 import android.content.Context;
 import android.content.Intent;
+import android.content.OperationApplicationException;
 import android.content.pm.IPackageManager;
 import android.content.pm.UserInfo;
+import android.database.Cursor;
+import android.database.MatrixCursor;
 import android.net.Uri;
 import android.os.HandlerThread;
 import android.os.ParcelUuid;
@@ -103,10 +108,32 @@ public class SubscriptionInfoUpdaterTest extends TelephonyTest {
 
     /*Custom ContentProvider */
     private class FakeSubscriptionContentProvider extends MockContentProvider {
+        @Override
+        public Uri insert(Uri uri, ContentValues values) {
+            return mContentProvider.insert(uri, values);
+        }
+
         @Override
         public int update(Uri uri, ContentValues values, String selection, String[] selectionArgs) {
             return mContentProvider.update(uri, values, selection, selectionArgs);
         }
+
+        @Override
+        public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs,
+                String sortOrder) {
+            return mContentProvider.query(uri, projection, selection, selectionArgs, sortOrder);
+        }
+
+        @Override
+        public ContentProviderResult[] applyBatch(
+                ArrayList<ContentProviderOperation> operations)
+                throws OperationApplicationException {
+            ContentProviderResult[] results = new ContentProviderResult[operations.size()];
+            for (int i = 0; i < operations.size(); i++) {
+                results[i] = operations.get(i).apply(this, results, i);
+            }
+            return results;
+        }
     }
 
     private class SubscriptionInfoUpdaterHandlerThread extends HandlerThread {
@@ -154,6 +181,20 @@ public class SubscriptionInfoUpdaterTest extends TelephonyTest {
                     }
                 });
 
+        when(mContentProvider.insert(any(), any())).thenReturn(
+                Uri.withAppendedPath(SubscriptionManager.CONTENT_URI, "1"));
+        when(mSubscriptionController.getEmptySubInfoRecordValues(anyString(), isNull(), anyInt(),
+                anyInt())).thenAnswer(new Answer<ContentValues>() {
+                    @Override
+                    public ContentValues answer(InvocationOnMock invocation) throws Throwable {
+                        ContentValues values = new ContentValues();
+                        values.put(SubscriptionManager.ICC_ID, (String) invocation.getArgument(0));
+                        values.put(SubscriptionManager.SIM_SLOT_INDEX,
+                                (Integer) invocation.getArgument(2));
+                        return values;
+                    }
+                });
+
         doReturn(mUserInfo).when(mIActivityManager).getCurrentUser();
         doReturn(new int[]{FAKE_SUB_ID_1}).when(mSubscriptionController).getSubId(0);
         doReturn(new int[]{FAKE_SUB_ID_1}).when(mSubscriptionManager).getActiveSubscriptionIdList();
@@ -514,12 +555,17 @@ public class SubscriptionInfoUpdaterTest extends TelephonyTest {
         // Wait for some time until the callback is triggered.
         waitForMs(100);
 
-        // 3 is new and so a new entry should have been created.
-        verify(mSubscriptionController).insertEmptySubInfoRecord(
-                "3", SubscriptionManager.SIM_NOT_INSERTED);
-        // 1 already existed, so no new entries should be created for it.
+        // 3 is new and so a new entry should have been created, in the same batch as the
+        // updates. 1 already existed, so no new entries should be created for it.
+        ArgumentCaptor<ContentValues> insertedValues =
+                ArgumentCaptor.forClass(ContentValues.class);
+        verify(mContentProvider).insert(eq(SubscriptionManager.CONTENT_URI),
+                insertedValues.capture());
+        assertEquals("3", insertedValues.getValue().getAsString(SubscriptionManager.ICC_ID));
+        assertEquals(SubscriptionManager.SIM_NOT_INSERTED, insertedValues.getValue()
+                .getAsInteger(SubscriptionManager.SIM_SLOT_INDEX).intValue());
         verify(mSubscriptionController, times(0)).clearSubInfo();
-        verify(mSubscriptionController, never()).insertEmptySubInfoRecord(eq("1"), anyInt());
+        verify(mSubscriptionController, never()).insertEmptySubInfoRecord(anyString(), anyInt());
 
         // Info for 1 and 3 should be updated as active embedded subscriptions.
         ArgumentCaptor<ContentValues> iccid1Values = ArgumentCaptor.forClass(ContentValues.class);
@@ -542,6 +588,58 @@ public class SubscriptionInfoUpdaterTest extends TelephonyTest {
                 iccid2Values.getValue().getAsInteger(SubscriptionManager.IS_EMBEDDED).intValue());
     }
 
+    @Test
+    @SmallTest
+    public void testUpdateEmbeddedSubscriptions_unchangedRowNotWritten() throws Exception {
+        when(mEuiccManager.isEnabled()).thenReturn(true);
+
+        EuiccProfileInfo[] euiccProfiles = new EuiccProfileInfo[] {
+                new EuiccProfileInfo("1", null /* accessRules */, null /* nickname */),
+                new EuiccProfileInfo("3", null /* accessRules */, null /* nickname */),
+        };
+        when(mEuiccController.blockingGetEuiccProfileInfoList(FAKE_CARD_ID)).thenReturn(
+                new GetEuiccProfileInfoListResult(
+                        EuiccService.RESULT_OK, euiccProfiles, false /* removable */));
+
+        List<SubscriptionInfo> subInfoList = new ArrayList<>();
+        // 1: embedded, with the same values as the profile from the eUICC.
+        subInfoList.add(new SubscriptionInfo(
+                0, "1", 0, "", "", 0, 0, "", 0, null, "0", "0", "", true /* isEmbedded */,
+                null /* accessRules */, null));
+        // 3: embedded, with a different profile class.
+        subInfoList.add(new SubscriptionInfo(
+                0, "3", 0, "", "", 0, 0, "", 0, null, "0", "0", "", true /* isEmbedded */,
+                null /* accessRules */, null));
+        when(mSubscriptionController.getSubscriptionInfoListForEmbeddedSubscriptionUpdate(
+                new String[] { "1", "3"}, false /* removable */)).thenReturn(subInfoList);
+
+        MatrixCursor cursor = new MatrixCursor(new String[] {
+                SubscriptionManager.ICC_ID, SubscriptionManager.IS_EMBEDDED,
+                SubscriptionManager.ACCESS_RULES, SubscriptionManager.IS_REMOVABLE,
+                SubscriptionManager.DISPLAY_NAME, SubscriptionManager.NAME_SOURCE,
+                SubscriptionManager.PROFILE_CLASS});
+        cursor.addRow(new Object[] {"1", 1, null, 0, null, SubscriptionManager.NAME_SOURCE_CARRIER,
+                euiccProfiles[0].getProfileClass()});
+        cursor.addRow(new Object[] {"3", 1, null, 0, null, SubscriptionManager.NAME_SOURCE_CARRIER,
+                euiccProfiles[1].getProfileClass() + 1});
+        when(mContentProvider.query(eq(SubscriptionManager.CONTENT_URI), any(), any(), any(),
+                any())).thenReturn(cursor);
+
+        List<Integer> cardIds = new ArrayList<>();
+        cardIds.add(FAKE_CARD_ID);
+        mUpdater.updateEmbeddedSubscriptions(cardIds, null /* callback */);
+
+        // Wait for some time until the callback is triggered.
+        waitForMs(100);
+
+        // Only 3 changed, so 1 should not be written again.
+        verify(mContentProvider, never()).update(eq(SubscriptionManager.CONTENT_URI), any(),
+                eq(SubscriptionManager.ICC_ID + "=\"1\""), any());
+        verify(mContentProvider).update(eq(SubscriptionManager.CONTENT_URI), any(),
+                eq(SubscriptionManager.ICC_ID + "=\"3\""), isNull());
+        verify(mSubscriptionController, times(1)).refreshCachedActiveSubscriptionInfoList();
+    }
+
     @Test
     @SmallTest
     public void testUpdateEmbeddedSubscriptions_listFailure() throws Exception {
@@ -569,7 +667,7 @@ public class SubscriptionInfoUpdaterTest extends TelephonyTest {
 
         // No new entries should be created.
         verify(mSubscriptionController, times(0)).clearSubInfo();
-        verify(mSubscriptionController, never()).insertEmptySubInfoRecord(anyString(), anyInt());
+        verify(mContentProvider, never()).insert(eq(SubscriptionManager.CONTENT_URI), any());
 
         // No existing entries should have been updated.
         verify(mContentProvider, never()).update(eq(SubscriptionManager.CONTENT_URI), any(),
@@ -598,7 +696,7 @@ public class SubscriptionInfoUpdaterTest extends TelephonyTest {
         mUpdater.updateEmbeddedSubscriptions(cardIds, null /* callback */);
 
         // No new entries should be created.
-        verify(mSubscriptionController, never()).insertEmptySubInfoRecord(anyString(), anyInt());
+        verify(mContentProvider, never()).insert(eq(SubscriptionManager.CONTENT_URI), any());
 
         // No existing entries should have been updated.
         verify(mContentProvider, never()).update(eq(SubscriptionManager.CONTENT_URI), any(),
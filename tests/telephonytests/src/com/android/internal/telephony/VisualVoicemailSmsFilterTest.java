@@ -141,6 +141,30 @@ public class VisualVoicemailSmsFilterTest extends TestCase {
                         0));
     }
 
+    public void testFilterNotSet_doesNotMatchVvmPattern_notFiltered() {
+        setSettings(null);
+        Resources resources = Mockito.mock(Resources.class);
+        when(mTelephonyManager.getSimOperator(anyInt()))
+                .thenReturn(SIM_MCC_MNC);
+        when(mContext.getResources())
+                .thenReturn(resources);
+        when(resources.getStringArray(com.android.internal.R.array.config_vvmSmsFilterRegexes))
+                .thenReturn(VVM_PATTERN_REGEXP);
+
+        assertFalse(
+                VisualVoicemailSmsFilter.filter(mContext, SYNC_PDU, SmsConstants.FORMAT_3GPP, 0,
+                        0));
+    }
+
+    public void testGetLiteralPrefix() {
+        assertEquals("//VZWVVM", VisualVoicemailSmsFilter.getLiteralPrefix("^//VZWVVM.*"));
+        assertEquals("a.b", VisualVoicemailSmsFilter.getLiteralPrefix("a\\.b.*"));
+        assertEquals("a", VisualVoicemailSmsFilter.getLiteralPrefix("ab?c"));
+        assertEquals("", VisualVoicemailSmsFilter.getLiteralPrefix("(?i)abc"));
+        assertEquals("", VisualVoicemailSmsFilter.getLiteralPrefix("abc|def"));
+        assertEquals("", VisualVoicemailSmsFilter.getLiteralPrefix("[0-9]+"));
+    }
+
     public void testOriginatingNumber_unspecified_filtered() {
         setSettings(new VisualVoicemailSmsFilterSettings.Builder().build());
         assertTrue(VisualVoicemailSmsFilter
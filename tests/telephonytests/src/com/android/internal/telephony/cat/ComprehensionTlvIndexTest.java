@@ -0,0 +1,196 @@
+/*
+ * Copyright 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony.cat;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import android.test.suitebuilder.annotation.SmallTest;
+
+import com.android.internal.telephony.uicc.IccUtils;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.util.List;
+
+public class ComprehensionTlvIndexTest {
+    // COMMAND DETAILS: SELECT ITEM, and DEVICE IDENTITIES: UICC to terminal.
+    private static final String SELECT_ITEM_HEADER = "8103012400" + "82028182";
+
+    private static ComprehensionTlvIndex decode(String hex) throws ResultException {
+        return ComprehensionTlvIndex.decode(IccUtils.hexStringToBytes(hex), 0);
+    }
+
+    private static void assertDecodeFails(String hex) {
+        try {
+            decode(hex);
+            fail("Decoded " + hex);
+        } catch (ResultException e) {
+            assertEquals(ResultCode.CMD_DATA_NOT_UNDERSTOOD, e.result());
+        }
+    }
+
+    // SELECT ITEM with an alpha id and itemCount items named "Item <id>", then an item id.
+    private static byte[] selectItem(int itemCount) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] header = IccUtils.hexStringToBytes(SELECT_ITEM_HEADER + "8505" + "4d656e7521");
+        out.write(header, 0, header.length);
+        for (int id = 1; id <= itemCount; id++) {
+            byte[] text = ("Item " + id).getBytes();
+            out.write(ComprehensionTlvTag.ITEM.value() | 0x80);
+            out.write(text.length + 1);
+            out.write(id);
+            out.write(text, 0, text.length);
+        }
+        out.write(ComprehensionTlvTag.ITEM_ID.value());
+        out.write(1);
+        out.write(itemCount);
+        return out.toByteArray();
+    }
+
+    @Test
+    @SmallTest
+    public void testSelectItemWithManyItems() throws Exception {
+        int itemCount = 100;
+        byte[] data = selectItem(itemCount);
+        ComprehensionTlvIndex index = ComprehensionTlvIndex.decode(data, 0);
+
+        assertEquals(itemCount + 4, index.size());
+        assertEquals("Menu!", ValueParser.retrieveAlphaId(
+                index.find(ComprehensionTlvTag.ALPHA_ID)));
+
+        index.rewind();
+        ComprehensionTlv first = index.findNext(ComprehensionTlvTag.ITEM);
+        for (int id = 2; id <= itemCount; id++) {
+            Item item = ValueParser.retrieveItem(index.findNext(ComprehensionTlvTag.ITEM));
+            assertEquals(id, item.id);
+            assertEquals("Item " + id, item.text);
+        }
+        assertNull(index.findNext(ComprehensionTlvTag.ITEM));
+        assertEquals(itemCount,
+                ValueParser.retrieveItemId(index.find(ComprehensionTlvTag.ITEM_ID)));
+
+        // Every lookup returns its own object.
+        Item item = ValueParser.retrieveItem(first);
+        assertEquals(1, item.id);
+        assertEquals("Item 1", item.text);
+
+        // Same objects as decodeMany.
+        List<ComprehensionTlv> ctlvs = ComprehensionTlv.decodeMany(data, 0);
+        assertEquals(ctlvs.size(), index.size());
+        for (int i = 0; i < ctlvs.size(); i++) {
+            assertEquals(ctlvs.get(i).getLength(), index.getLength(i));
+        }
+    }
+
+    @Test
+    @SmallTest
+    public void testFindNextAfterRewind() throws Exception {
+        // Two alpha ids, as in SET UP CALL, around an icon id.
+        ComprehensionTlvIndex index = decode(SELECT_ITEM_HEADER + "050141" + "9e020001"
+                + "050142");
+
+        index.rewind();
+        assertEquals("A", ValueParser.retrieveAlphaId(
+                index.findNext(ComprehensionTlvTag.ALPHA_ID)));
+        // find() does not move findNext().
+        assertNotNull(index.find(ComprehensionTlvTag.ICON_ID));
+        assertEquals("A", ValueParser.retrieveAlphaId(
+                index.find(ComprehensionTlvTag.ALPHA_ID)));
+        assertEquals("B", ValueParser.retrieveAlphaId(
+                index.findNext(ComprehensionTlvTag.ALPHA_ID)));
+        assertNull(index.findNext(ComprehensionTlvTag.ALPHA_ID));
+        assertNull(index.findNext(ComprehensionTlvTag.ALPHA_ID));
+
+        index.rewind();
+        assertEquals("A", ValueParser.retrieveAlphaId(
+                index.findNext(ComprehensionTlvTag.ALPHA_ID)));
+
+        // A search for another tag starts after the last object found.
+        assertNull(index.findNext(ComprehensionTlvTag.COMMAND_DETAILS));
+        index.rewind();
+        assertNotNull(index.findNext(ComprehensionTlvTag.COMMAND_DETAILS));
+    }
+
+    @Test
+    @SmallTest
+    public void testMalformedLengths() throws Exception {
+        // Length missing.
+        assertDecodeFails(SELECT_ITEM_HEADER + "05");
+        // Two-byte length missing its second byte.
+        assertDecodeFails(SELECT_ITEM_HEADER + "0581");
+        // Two-byte length below 0x80.
+        assertDecodeFails(SELECT_ITEM_HEADER + "05817f");
+        // Three-byte length below 0x100.
+        assertDecodeFails(SELECT_ITEM_HEADER + "058200ff");
+        // Invalid length modifier.
+        assertDecodeFails(SELECT_ITEM_HEADER + "0584");
+
+        // A two-byte length is accepted.
+        StringBuilder text = new StringBuilder(SELECT_ITEM_HEADER + "058180");
+        for (int i = 0; i < 0x80; i++) {
+            text.append("41");
+        }
+        ComprehensionTlvIndex index = decode(text.toString());
+        assertEquals(0x80, index.find(ComprehensionTlvTag.ALPHA_ID).getLength());
+
+        // A value running past the end of the command is kept like decodeMany does, and the
+        // parser of the object reports the error.
+        String truncated = SELECT_ITEM_HEADER + "0f0501" + "4142";
+        index = decode(truncated);
+        assertEquals(3, index.size());
+        assertEquals(5, index.getLength(2));
+        assertEquals(ComprehensionTlv.decodeMany(IccUtils.hexStringToBytes(truncated), 0)
+                .size(), index.size());
+
+        // Decoding stops at an invalid tag, keeping the objects before it.
+        index = decode(SELECT_ITEM_HEADER + "00" + "050141");
+        assertEquals(2, index.size());
+        assertNull(index.find(ComprehensionTlvTag.ALPHA_ID));
+    }
+
+    @Test
+    @SmallTest
+    public void testComprehensionRequired() throws Exception {
+        // Alpha id with the comprehension required bit, text string without, and an item id
+        // in three-byte tag format with the bit.
+        ComprehensionTlvIndex index = decode(SELECT_ITEM_HEADER + "850141" + "0d020441"
+                + "7f801001" + "01");
+
+        ComprehensionTlv alphaId = index.find(ComprehensionTlvTag.ALPHA_ID);
+        assertTrue(alphaId.isComprehensionRequired());
+        assertEquals(ComprehensionTlvTag.ALPHA_ID.value(), alphaId.getTag());
+
+        ComprehensionTlv textString = index.find(ComprehensionTlvTag.TEXT_STRING);
+        assertFalse(textString.isComprehensionRequired());
+        assertEquals(ComprehensionTlvTag.TEXT_STRING.value(), textString.getTag());
+
+        index.rewind();
+        ComprehensionTlv itemId = index.findNext(ComprehensionTlvTag.ITEM_ID);
+        assertTrue(itemId.isComprehensionRequired());
+        assertEquals(1, ValueParser.retrieveItemId(itemId));
+
+        // The flag of an earlier lookup is not changed by later ones.
+        assertTrue(alphaId.isComprehensionRequired());
+        assertEquals("A", ValueParser.retrieveAlphaId(alphaId));
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony.emergency;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import android.test.suitebuilder.annotation.SmallTest;
+
+import com.android.phone.ecc.nano.ProtobufEccData;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+public class EmergencyNumberDatabaseTest {
+    private EmergencyNumberDatabase mDatabase;
+
+    private static ProtobufEccData.CountryInfo createCountryInfo(String isoCode,
+            String... phoneNumbers) {
+        ProtobufEccData.CountryInfo countryInfo = new ProtobufEccData.CountryInfo();
+        countryInfo.isoCode = isoCode;
+        countryInfo.eccs = new ProtobufEccData.EccInfo[phoneNumbers.length];
+        for (int i = 0; i < phoneNumbers.length; i++) {
+            countryInfo.eccs[i] = new ProtobufEccData.EccInfo();
+            countryInfo.eccs[i].phoneNumber = phoneNumbers[i];
+        }
+        return countryInfo;
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        ProtobufEccData.AllInfo allInfo = new ProtobufEccData.AllInfo();
+        allInfo.countries = new ProtobufEccData.CountryInfo[] {
+                createCountryInfo("US", "911"),
+                createCountryInfo("JP", "110", "119"),
+                createCountryInfo("US", "112"),
+        };
+        ByteArrayOutputStream gzipped = new ByteArrayOutputStream();
+        try (GZIPOutputStream out = new GZIPOutputStream(gzipped)) {
+            out.write(ProtobufEccData.AllInfo.toByteArray(allInfo));
+        }
+        mDatabase = EmergencyNumberDatabase.load(
+                new ByteArrayInputStream(gzipped.toByteArray()));
+    }
+
+    @Test
+    @SmallTest
+    public void testGetCountryInfo() throws Exception {
+        ProtobufEccData.CountryInfo countryInfo = mDatabase.getCountryInfo("jp");
+        assertEquals("JP", countryInfo.isoCode);
+        assertEquals(2, countryInfo.eccs.length);
+        assertEquals("110", countryInfo.eccs[0].phoneNumber);
+        assertEquals("119", countryInfo.eccs[1].phoneNumber);
+    }
+
+    @Test
+    @SmallTest
+    public void testEntriesOfSameCountryMerged() throws Exception {
+        ProtobufEccData.CountryInfo countryInfo = mDatabase.getCountryInfo("us");
+        assertEquals(2, countryInfo.eccs.length);
+        assertEquals("911", countryInfo.eccs[0].phoneNumber);
+        assertEquals("112", countryInfo.eccs[1].phoneNumber);
+    }
+
+    @Test
+    @SmallTest
+    public void testUnknownCountry() throws Exception {
+        assertNull(mDatabase.getCountryInfo("ca"));
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony.emergency;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import android.test.suitebuilder.annotation.MediumTest;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import org.junit.Test;
+
+public class EmergencyNumberMatcherTest {
+    private static final int LOOKUP_COUNT = 10000;
+
+    @Test
+    @SmallTest
+    public void testExactAndPrefixMatch() {
+        EmergencyNumberMatcher matcher = new EmergencyNumberMatcher()
+                .add("911", true /* prefixMatch */)
+                .add("112", true /* prefixMatch */);
+
+        assertTrue(matcher.matches("911", true /* exactMatch */));
+        assertFalse(matcher.matches("9112", true /* exactMatch */));
+        assertTrue(matcher.matches("9112", false /* exactMatch */));
+        assertFalse(matcher.matches("91", false /* exactMatch */));
+        assertFalse(matcher.matches("", false /* exactMatch */));
+        assertFalse(matcher.matches(null, false /* exactMatch */));
+    }
+
+    @Test
+    @SmallTest
+    public void testNumberWithoutPrefixMatch() {
+        EmergencyNumberMatcher matcher = new EmergencyNumberMatcher()
+                .add("123911", false /* prefixMatch */);
+
+        assertTrue(matcher.matches("123911", false /* exactMatch */));
+        assertFalse(matcher.matches("1239112", false /* exactMatch */));
+    }
+
+    @Test
+    @SmallTest
+    public void testNumberWithOtherCharacters() {
+        EmergencyNumberMatcher matcher = new EmergencyNumberMatcher()
+                .add("911", true /* prefixMatch */)
+                .add("N911", true /* prefixMatch */);
+
+        assertTrue(matcher.matches("N911", true /* exactMatch */));
+        assertTrue(matcher.matches("N9112", false /* exactMatch */));
+        assertTrue(matcher.matches("911,1", false /* exactMatch */));
+        assertFalse(matcher.matches("911,1", true /* exactMatch */));
+    }
+
+    /**
+     * Checks the result of LOOKUP_COUNT lookups against an emergency number list with
+     * prefixes. Their duration is measured by EmergencyNumberMatcherPerfTest.
+     */
+    @Test
+    @MediumTest
+    public void testManyLookups() {
+        String[] prefixes = {"123", "456"};
+        String[] emergencyNumbers = {"112", "911", "000", "08", "110", "118", "119", "999"};
+        EmergencyNumberMatcher matcher = new EmergencyNumberMatcher();
+        for (String emergencyNumber : emergencyNumbers) {
+            matcher.add(emergencyNumber, true /* prefixMatch */);
+            for (String prefix : prefixes) {
+                matcher.add(prefix + emergencyNumber, true /* prefixMatch */);
+            }
+        }
+        String[] dialedNumbers = new String[LOOKUP_COUNT];
+        int expectedMatches = 0;
+        for (int i = 0; i < LOOKUP_COUNT; i++) {
+            if (i % 10 == 0) {
+                dialedNumbers[i] = prefixes[(i / 10) % 2]
+                        + emergencyNumbers[i % emergencyNumbers.length];
+                expectedMatches++;
+            } else {
+                dialedNumbers[i] = String.valueOf(6500000000L + i);
+            }
+        }
+
+        int matches = 0;
+        for (String dialedNumber : dialedNumbers) {
+            if (matcher.matches(dialedNumber, true /* exactMatch */)) {
+                matches++;
+            }
+        }
+        assertEquals(expectedMatches, matches);
+    }
+}
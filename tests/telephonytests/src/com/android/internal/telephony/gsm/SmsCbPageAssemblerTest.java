@@ -0,0 +1,113 @@
+/*
+ * Copyright 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony.gsm;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import android.telephony.SmsCbLocation;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class SmsCbPageAssemblerTest {
+    private static final String PLMN = "310260";
+    private static final SmsCbLocation PLMN_WIDE = new SmsCbLocation(PLMN);
+    private static final byte[] PAGE1 = new byte[] {0x01};
+    private static final byte[] PAGE2 = new byte[] {0x02};
+
+    private SmsCbPageAssembler mAssembler;
+
+    @Before
+    public void setUp() {
+        mAssembler = new SmsCbPageAssembler();
+    }
+
+    @Test
+    @SmallTest
+    public void testPagesAssembledInAnyOrder() {
+        assertNull(mAssembler.addPage(1, PLMN_WIDE, 2, 2, PAGE2, 0));
+        byte[][] pdus = mAssembler.addPage(1, PLMN_WIDE, 1, 2, PAGE1, 0);
+        assertNotNull(pdus);
+        assertArrayEquals(PAGE1, pdus[0]);
+        assertArrayEquals(PAGE2, pdus[1]);
+        assertEquals(0, mAssembler.getPendingMessageCount());
+    }
+
+    @Test
+    @SmallTest
+    public void testDuplicatePageIgnored() {
+        assertNull(mAssembler.addPage(1, PLMN_WIDE, 1, 3, PAGE1, 0));
+        assertNull(mAssembler.addPage(1, PLMN_WIDE, 1, 3, PAGE1, 0));
+        assertNull(mAssembler.addPage(1, PLMN_WIDE, 2, 3, PAGE2, 0));
+        assertEquals(1, mAssembler.getPendingMessageCount());
+    }
+
+    @Test
+    @SmallTest
+    public void testInvalidPageIndexDropped() {
+        assertNull(mAssembler.addPage(1, PLMN_WIDE, 3, 2, PAGE1, 0));
+        assertNull(mAssembler.addPage(1, PLMN_WIDE, 0, 2, PAGE1, 0));
+        assertEquals(0, mAssembler.getPendingMessageCount());
+    }
+
+    @Test
+    @SmallTest
+    public void testIncompleteMessageExpires() {
+        mAssembler.addPage(1, PLMN_WIDE, 1, 2, PAGE1, 0);
+        // The first page expired, so the message is still incomplete.
+        assertNull(mAssembler.addPage(1, PLMN_WIDE, 2, 2, PAGE2,
+                SmsCbPageAssembler.PAGE_EXPIRY_MILLIS));
+        assertEquals(1, mAssembler.getPendingMessageCount());
+    }
+
+    @Test
+    @SmallTest
+    public void testOldestMessageDroppedWhenFull() {
+        for (int serial = 0; serial <= SmsCbPageAssembler.MAX_PENDING_MESSAGES; serial++) {
+            mAssembler.addPage(serial, PLMN_WIDE, 1, 2, PAGE1, 0);
+        }
+        assertEquals(SmsCbPageAssembler.MAX_PENDING_MESSAGES,
+                mAssembler.getPendingMessageCount());
+        // The first message was dropped, its second page starts a new message.
+        assertNull(mAssembler.addPage(0, PLMN_WIDE, 2, 2, PAGE2, 0));
+        assertNotNull(mAssembler.addPage(SmsCbPageAssembler.MAX_PENDING_MESSAGES, PLMN_WIDE,
+                2, 2, PAGE2, 0));
+    }
+
+    @Test
+    @SmallTest
+    public void testMessagesOutOfLocationDropped() {
+        mAssembler.updateLocation(PLMN, 100, 1);
+        mAssembler.addPage(1, new SmsCbLocation(PLMN, 100, 1), 1, 2, PAGE1, 0);
+        mAssembler.addPage(2, new SmsCbLocation(PLMN, 100, -1), 1, 2, PAGE1, 0);
+        mAssembler.addPage(3, PLMN_WIDE, 1, 2, PAGE1, 0);
+        assertEquals(3, mAssembler.getPendingMessageCount());
+
+        // Same location area, different cell
+        mAssembler.updateLocation(PLMN, 100, 2);
+        assertEquals(2, mAssembler.getPendingMessageCount());
+
+        // Different location area
+        mAssembler.updateLocation(PLMN, 200, 2);
+        assertEquals(1, mAssembler.getPendingMessageCount());
+        assertNotNull(mAssembler.addPage(3, PLMN_WIDE, 2, 2, PAGE2, 0));
+    }
+}
@@ -0,0 +1,293 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony.gsm;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import android.os.AsyncResult;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Message;
+import android.test.suitebuilder.annotation.SmallTest;
+import android.util.SparseArray;
+
+import com.android.internal.telephony.TelephonyTest;
+import com.android.internal.telephony.uicc.AdnRecord;
+import com.android.internal.telephony.uicc.AdnRecordCache;
+import com.android.internal.telephony.uicc.IccConstants;
+import com.android.internal.telephony.uicc.IccFileHandler;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class UsimPhoneBookManagerTest extends TelephonyTest {
+    private static final int TIMEOUT_MS = 1000;
+
+    private static final int EF_ADN1 = 0x4F3A;
+    private static final int EF_ADN2 = 0x4F3B;
+    private static final int EF_IAP1 = 0x4F25;
+    private static final int EF_EMAIL1 = 0x4F50;
+
+    @Mock
+    private IccFileHandler mFh;
+    @Mock
+    private AdnRecordCache mAdnCache;
+
+    private UsimPhoneBookManager mUsimPhoneBookManager;
+    private UsimPhoneBookManagerTestHandler mTestHandlerThread;
+
+    // Contents of the linear fixed files, by efid. A missing file fails to load.
+    private final SparseArray<ArrayList<byte[]>> mFiles = new SparseArray<>();
+    // Number of records of the EF_ADN files, by efid.
+    private final SparseArray<Integer> mAdnSizes = new SparseArray<>();
+
+    private class UsimPhoneBookManagerTestHandler extends HandlerThread {
+        private UsimPhoneBookManagerTestHandler(String name) {
+            super(name);
+        }
+
+        @Override
+        public void onLooperPrepared() {
+            mUsimPhoneBookManager = new UsimPhoneBookManager(mFh, mAdnCache);
+            setReady(true);
+        }
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        super.setUp(getClass().getSimpleName());
+
+        doAnswer(invocation -> {
+            int efid = (int) invocation.getArguments()[0];
+            Message response = (Message) invocation.getArguments()[1];
+            ArrayList<byte[]> records = mFiles.get(efid);
+            AsyncResult.forMessage(response, records,
+                    records == null ? new RuntimeException("no file " + efid) : null);
+            response.sendToTarget();
+            return null;
+        }).when(mFh).loadEFLinearFixedAll(anyInt(), any(Message.class));
+
+        doAnswer(invocation -> {
+            int efid = (int) invocation.getArguments()[0];
+            Message response = (Message) invocation.getArguments()[2];
+            ArrayList<AdnRecord> records = new ArrayList<>();
+            for (int i = 1; i <= mAdnSizes.get(efid, 0); i++) {
+                records.add(new AdnRecord(efid, i, "Contact " + i, "555000" + i));
+            }
+            AsyncResult.forMessage(response, records, null);
+            response.sendToTarget();
+            return null;
+        }).when(mAdnCache).requestLoadAllAdnLike(anyInt(), anyInt(), any(Message.class));
+
+        mTestHandlerThread = new UsimPhoneBookManagerTestHandler(TAG);
+        mTestHandlerThread.start();
+        waitUntilReady();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mTestHandlerThread.quit();
+        super.tearDown();
+    }
+
+    private static byte[] bytes(int... values) {
+        byte[] result = new byte[values.length];
+        for (int i = 0; i < values.length; i++) {
+            result[i] = (byte) values[i];
+        }
+        return result;
+    }
+
+    // EF_EMAIL record: the address padded to 10 bytes, then the ADN SFI and record number.
+    private static byte[] emailRecord(String email, int sfi, int adnRecId) {
+        byte[] record = new byte[12];
+        Arrays.fill(record, (byte) 0xFF);
+        byte[] address = email.getBytes();
+        System.arraycopy(address, 0, record, 0, address.length);
+        record[10] = (byte) sfi;
+        record[11] = (byte) adnRecId;
+        return record;
+    }
+
+    private void putFile(int efid, byte[]... records) {
+        mFiles.put(efid, new ArrayList<>(Arrays.asList(records)));
+    }
+
+    private ArrayList<AdnRecord> load() throws Exception {
+        return mUsimPhoneBookManager.loadEfFilesFromUsimAsync().get(TIMEOUT_MS,
+                TimeUnit.MILLISECONDS);
+    }
+
+    private static String[] emailsOf(ArrayList<AdnRecord> records, int efid, int recId) {
+        for (AdnRecord record : records) {
+            if (record.getEfid() == efid && record.getRecId() == recId) {
+                return record.getEmails();
+            }
+        }
+        fail("No record " + recId + " in 0x" + Integer.toHexString(efid));
+        return null;
+    }
+
+    @Test
+    @SmallTest
+    public void testMultiplePbrRecords() throws Exception {
+        putFile(IccConstants.EF_PBR,
+                bytes(0xA8, 0x05, 0xC0, 0x03, 0x4F, 0x3A, 0x01),
+                bytes(0xA8, 0x05, 0xC0, 0x03, 0x4F, 0x3B, 0x02),
+                // Unused records are filled with 0xFF.
+                bytes(0xFF, 0xFF, 0xFF, 0xFF, 0xFF, 0xFF, 0xFF));
+        mAdnSizes.put(EF_ADN1, 2);
+        mAdnSizes.put(EF_ADN2, 3);
+
+        ArrayList<AdnRecord> records = load();
+
+        assertEquals(5, records.size());
+        assertEquals(EF_ADN1, records.get(0).getEfid());
+        assertEquals(EF_ADN1, records.get(1).getEfid());
+        assertEquals(EF_ADN2, records.get(2).getEfid());
+        assertEquals(3, records.get(4).getRecId());
+        assertArrayEquals(new int[] {EF_ADN1, EF_ADN2}, mUsimPhoneBookManager.getAdnEfids());
+        verify(mAdnCache).requestLoadAllAdnLike(eq(EF_ADN1), anyInt(), any(Message.class));
+        verify(mAdnCache).requestLoadAllAdnLike(eq(EF_ADN2), anyInt(), any(Message.class));
+    }
+
+    @Test
+    @SmallTest
+    public void testType2EmailLinkedThroughIap() throws Exception {
+        // Type 1: EF_ADN and EF_IAP, type 2: EF_EMAIL, first in the A9 TLV.
+        putFile(IccConstants.EF_PBR,
+                bytes(0xA8, 0x09, 0xC0, 0x03, 0x4F, 0x3A, 0x01, 0xC1, 0x02, 0x4F, 0x25,
+                        0xA9, 0x04, 0xCA, 0x02, 0x4F, 0x50));
+        mAdnSizes.put(EF_ADN1, 3);
+        putFile(EF_IAP1, bytes(0x02), bytes(0xFF), bytes(0x01));
+        putFile(EF_EMAIL1, emailRecord("carol", 0xFF, 0xFF), emailRecord("alice", 0xFF, 0xFF));
+
+        ArrayList<AdnRecord> records = load();
+
+        assertEquals(3, records.size());
+        assertArrayEquals(new String[] {"alice"}, emailsOf(records, EF_ADN1, 1));
+        assertNull(emailsOf(records, EF_ADN1, 2));
+        assertArrayEquals(new String[] {"carol"}, emailsOf(records, EF_ADN1, 3));
+        verify(mFh).loadEFLinearFixedAll(eq(EF_IAP1), any(Message.class));
+    }
+
+    @Test
+    @SmallTest
+    public void testEmailFileSharedBetweenPbrRecords() throws Exception {
+        // Both PBR records point to the same type 1 EF_EMAIL, whose records name their ADN
+        // file by SFI.
+        putFile(IccConstants.EF_PBR,
+                bytes(0xA8, 0x09, 0xC0, 0x03, 0x4F, 0x3A, 0x01, 0xCA, 0x02, 0x4F, 0x50),
+                bytes(0xA8, 0x09, 0xC0, 0x03, 0x4F, 0x3B, 0x02, 0xCA, 0x02, 0x4F, 0x50));
+        mAdnSizes.put(EF_ADN1, 2);
+        mAdnSizes.put(EF_ADN2, 2);
+        putFile(EF_EMAIL1, emailRecord("alice", 0x01, 0x01), emailRecord("bob", 0x02, 0x02));
+
+        ArrayList<AdnRecord> records = load();
+
+        assertEquals(4, records.size());
+        assertArrayEquals(new String[] {"alice"}, emailsOf(records, EF_ADN1, 1));
+        assertNull(emailsOf(records, EF_ADN1, 2));
+        assertNull(emailsOf(records, EF_ADN2, 1));
+        assertArrayEquals(new String[] {"bob"}, emailsOf(records, EF_ADN2, 2));
+        verify(mFh, times(1)).loadEFLinearFixedAll(eq(EF_EMAIL1), any(Message.class));
+    }
+
+    @Test
+    @SmallTest
+    public void testResetDuringLoad() throws Exception {
+        putFile(IccConstants.EF_PBR, bytes(0xA8, 0x05, 0xC0, 0x03, 0x4F, 0x3A, 0x01));
+        mAdnSizes.put(EF_ADN1, 1);
+        // Hold the EF_PBR responses until the test sends them.
+        LinkedBlockingQueue<Message> pbrResponses = new LinkedBlockingQueue<>();
+        doAnswer(invocation -> {
+            pbrResponses.add((Message) invocation.getArguments()[1]);
+            return null;
+        }).when(mFh).loadEFLinearFixedAll(eq(IccConstants.EF_PBR), any(Message.class));
+
+        CompletableFuture<ArrayList<AdnRecord>> pending =
+                mUsimPhoneBookManager.loadEfFilesFromUsimAsync();
+        Message abandoned = pbrResponses.poll(TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        assertNotNull(abandoned);
+        mUsimPhoneBookManager.reset();
+
+        try {
+            pending.get(TIMEOUT_MS, TimeUnit.MILLISECONDS);
+            fail("Load not failed by reset()");
+        } catch (ExecutionException expected) {
+        }
+
+        // The response of the abandoned load is dropped, and a new load reads EF_PBR again.
+        AsyncResult.forMessage(abandoned, mFiles.get(IccConstants.EF_PBR), null);
+        abandoned.sendToTarget();
+        CompletableFuture<ArrayList<AdnRecord>> next =
+                mUsimPhoneBookManager.loadEfFilesFromUsimAsync();
+        Message response = pbrResponses.poll(TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        assertNotNull(response);
+        verify(mAdnCache, times(0)).requestLoadAllAdnLike(anyInt(), anyInt(),
+                any(Message.class));
+
+        AsyncResult.forMessage(response, mFiles.get(IccConstants.EF_PBR), null);
+        response.sendToTarget();
+        assertEquals(1, next.get(TIMEOUT_MS, TimeUnit.MILLISECONDS).size());
+        verify(mAdnCache, times(1)).requestLoadAllAdnLike(eq(EF_ADN1), anyInt(),
+                any(Message.class));
+    }
+
+    @Test
+    @SmallTest
+    public void testPbrLoadErrorReportedToMessage() throws Exception {
+        // No EF_PBR file: the read fails.
+        CountDownLatch latch = new CountDownLatch(1);
+        AtomicReference<AsyncResult> result = new AtomicReference<>();
+        Handler handler = new Handler(mTestHandlerThread.getLooper()) {
+            @Override
+            public void handleMessage(Message msg) {
+                result.set((AsyncResult) msg.obj);
+                latch.countDown();
+            }
+        };
+
+        mUsimPhoneBookManager.loadEfFilesFromUsim(handler.obtainMessage());
+
+        assertTrue(latch.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+        assertNotNull(result.get().exception);
+        assertNull(result.get().result);
+    }
+}
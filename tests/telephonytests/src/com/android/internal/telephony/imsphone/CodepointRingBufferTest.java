@@ -0,0 +1,98 @@
+/*
+ * Copyright 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony.imsphone;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import android.test.suitebuilder.annotation.SmallTest;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class CodepointRingBufferTest {
+    // U+1F600, two chars
+    private static final String EMOJI = new String(Character.toChars(0x1F600));
+
+    @Test
+    @SmallTest
+    public void testPollCountsCodepoints() {
+        CodepointRingBuffer buffer = new CodepointRingBuffer(8);
+        String text = "a" + EMOJI + "b";
+        assertEquals(text.length(), buffer.offer(text, 0));
+        assertEquals(3, buffer.size());
+
+        StringBuilder out = new StringBuilder();
+        assertEquals(2, buffer.poll(out, 2));
+        assertEquals("a" + EMOJI, out.toString());
+        assertEquals("b", buffer.toString());
+    }
+
+    @Test
+    @SmallTest
+    public void testOfferStopsWhenFull() {
+        CodepointRingBuffer buffer = new CodepointRingBuffer(4);
+        assertEquals(4, buffer.offer("abcdef", 0));
+        assertEquals(4, buffer.size());
+
+        StringBuilder out = new StringBuilder();
+        buffer.poll(out, 2);
+        // The rest of the text wraps around the end of the buffer.
+        assertEquals(6, buffer.offer("abcdef", 4));
+        buffer.poll(out, 10);
+        assertEquals("abcdef", out.toString());
+        assertEquals(0, buffer.size());
+    }
+
+    @Test
+    @SmallTest
+    public void testAwaitSpace() throws Exception {
+        CodepointRingBuffer buffer = new CodepointRingBuffer(4);
+        // Returns at once while there is room.
+        buffer.offer("abc", 0);
+        buffer.awaitSpace();
+
+        buffer.offer("d", 0);
+        CountDownLatch waiting = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(1);
+        Thread producer = new Thread(() -> {
+            waiting.countDown();
+            try {
+                buffer.awaitSpace();
+                done.countDown();
+            } catch (InterruptedException e) {
+                // Leave done at 1.
+            }
+        });
+        producer.start();
+        waiting.await();
+        assertFalse(done.await(100, TimeUnit.MILLISECONDS));
+
+        buffer.poll(new StringBuilder(), 1);
+        assertTrue(done.await(1, TimeUnit.SECONDS));
+        producer.join();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    @SmallTest
+    public void testCapacityMustBePowerOfTwo() {
+        new CodepointRingBuffer(30);
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.internal.telephony.uicc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import android.test.suitebuilder.annotation.SmallTest;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+public class AdnRecordIndexTest {
+    private ArrayList<AdnRecord> mRecords;
+    private AdnRecordIndex mIndex;
+
+    @Before
+    public void setUp() {
+        mRecords = new ArrayList<>();
+        mRecords.add(new AdnRecord(IccConstants.EF_ADN, 1, "Alice", "+15551234"));
+        mRecords.add(new AdnRecord(IccConstants.EF_ADN, 2, "", ""));
+        mRecords.add(new AdnRecord(IccConstants.EF_ADN, 3, "Bob", "5550000"));
+        mRecords.add(new AdnRecord(IccConstants.EF_ADN, 4, "Alice", "5559999"));
+        mRecords.add(new AdnRecord(IccConstants.EF_ADN, 5, null, null));
+        mIndex = new AdnRecordIndex(mRecords);
+    }
+
+    @Test
+    @SmallTest
+    public void testIndexOfMatchesIsEqual() {
+        assertEquals(2, mIndex.indexOf(new AdnRecord("Bob", "5550000")));
+        assertEquals(3, mIndex.indexOf(new AdnRecord("Alice", "5559999")));
+        assertEquals(-1, mIndex.indexOf(new AdnRecord("Bob", "5559999")));
+        assertEquals(-1, mIndex.indexOf(new AdnRecord("Carol", "5550000")));
+    }
+
+    @Test
+    @SmallTest
+    public void testIndexOfComparesEmails() {
+        AdnRecord withEmail = new AdnRecord("Bob", "5550000");
+        withEmail.setEmails(new String[] {"bob@example.com"});
+        assertEquals(-1, mIndex.indexOf(withEmail));
+
+        mRecords.get(2).setEmails(new String[] {"bob@example.com"});
+        assertEquals(2, mIndex.indexOf(withEmail));
+    }
+
+    @Test
+    @SmallTest
+    public void testEmptyRecordMatchesFirstFreeSlot() {
+        assertEquals(2, mIndex.getFreeSlotCount());
+        assertEquals(1, mIndex.indexOf(new AdnRecord("", "")));
+
+        mIndex.set(1, new AdnRecord(IccConstants.EF_ADN, 2, "Carol", "5551111"));
+        assertEquals(1, mIndex.getFreeSlotCount());
+        assertEquals(4, mIndex.indexOf(new AdnRecord(null, null)));
+    }
+
+    @Test
+    @SmallTest
+    public void testEmailOnlyRecord() {
+        // The USIM phonebook attaches emails to the cached records after they are indexed.
+        String[] emails = new String[] {"carol@example.com"};
+        mRecords.get(1).setEmails(emails);
+        AdnRecord emailOnly = new AdnRecord("", "");
+        emailOnly.setEmails(emails);
+
+        // The filled slot is no longer returned as free, even before reindexing.
+        assertEquals(1, mIndex.getFreeSlotCount());
+        assertEquals(4, mIndex.indexOf(new AdnRecord("", "")));
+
+        mIndex.reindex();
+        assertEquals(1, mIndex.indexOf(emailOnly));
+        assertEquals(Arrays.asList(1), mIndex.findByNumber(""));
+
+        // Replacing the record changed in place frees the slot again.
+        mIndex.set(1, new AdnRecord(IccConstants.EF_ADN, 2, "", ""));
+        assertEquals(-1, mIndex.indexOf(emailOnly));
+        assertTrue(mIndex.findByNumber("").isEmpty());
+        assertEquals(1, mIndex.indexOf(new AdnRecord("", "")));
+
+        // A record changed in place is removed from the buckets it was indexed under.
+        mRecords.get(2).setNumber("5552222");
+        mIndex.set(2, new AdnRecord(IccConstants.EF_ADN, 3, "Dave", "5553333"));
+        assertTrue(mIndex.findByNumber("5550000").isEmpty());
+        assertTrue(mIndex.findByAlphaTag("Bob").isEmpty());
+    }
+
+    @Test
+    @SmallTest
+    public void testSetUpdatesListAndIndexes() {
+        AdnRecord carol = new AdnRecord(IccConstants.EF_ADN, 3, "Carol", "555-0000");
+        mIndex.set(2, carol);
+
+        assertSame(carol, mRecords.get(2));
+        assertEquals(-1, mIndex.indexOf(new AdnRecord("Bob", "5550000")));
+        assertEquals(2, mIndex.indexOf(new AdnRecord("Carol", "555-0000")));
+        assertTrue(mIndex.findByAlphaTag("Bob").isEmpty());
+
+        mIndex.set(2, new AdnRecord(IccConstants.EF_ADN, 3, "", ""));
+        assertEquals(3, mIndex.getFreeSlotCount());
+        assertTrue(mIndex.findByAlphaTag("Carol").isEmpty());
+    }
+
+    @Test
+    @SmallTest
+    public void testLookupsByNumberAndAlphaTag() {
+        assertEquals(Arrays.asList(0, 3), mIndex.findByAlphaTag("Alice"));
+        // Separators are ignored when looking up numbers.
+        assertEquals(Arrays.asList(2), mIndex.findByNumber("555-0000"));
+        assertTrue(mIndex.findByNumber("5551111").isEmpty());
+    }
+
+    @Test
+    @SmallTest
+    public void testFirstOfDuplicatesIsReturned() {
+        mIndex.set(4, new AdnRecord(IccConstants.EF_ADN, 5, "Bob", "5550000"));
+        assertEquals(2, mIndex.indexOf(new AdnRecord("Bob", "5550000")));
+
+        mIndex.set(2, new AdnRecord(IccConstants.EF_ADN, 3, "", ""));
+        assertEquals(4, mIndex.indexOf(new AdnRecord("Bob", "5550000")));
+    }
+}
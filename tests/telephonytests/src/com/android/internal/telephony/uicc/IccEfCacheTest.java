@@ -0,0 +1,156 @@
+/*
+ * Copyright 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.internal.telephony.uicc;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import com.android.internal.telephony.TestApplication;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+public class IccEfCacheTest {
+    private static final String ICCID = "89014103211118510720";
+    private static final String PATH = "3F007FFF";
+
+    private SharedPreferences mPrefs;
+    private IccEfCache mCache;
+
+    @Before
+    public void setUp() {
+        mPrefs = TestApplication.getAppContext().getSharedPreferences("IccEfCacheTest",
+                Context.MODE_PRIVATE);
+        mPrefs.edit().clear().commit();
+        mCache = new IccEfCache(mPrefs);
+    }
+
+    @After
+    public void tearDown() {
+        mPrefs.edit().clear().commit();
+    }
+
+    @Test
+    @SmallTest
+    public void testKeyOnlyForCacheableFiles() {
+        assertNotNull(IccEfCache.makeKey(ICCID, PATH, IccConstants.EF_SPDI, 0));
+        assertNull(IccEfCache.makeKey(ICCID, PATH, IccConstants.EF_FPLMN, 0));
+        assertNull(IccEfCache.makeKey(ICCID, PATH, IccConstants.EF_MWIS, 1));
+        // subscriber identities are never stored
+        assertNull(IccEfCache.makeKey(ICCID, PATH, IccConstants.EF_IMPI, 0));
+        assertNull(IccEfCache.makeKey(ICCID, PATH, IccConstants.EF_IMPU, 0));
+        assertNull(IccEfCache.makeKey(null, PATH, IccConstants.EF_SPDI, 0));
+    }
+
+    @Test
+    @SmallTest
+    public void testTransparentEfSurvivesReload() {
+        String key = IccEfCache.makeKey(ICCID, PATH, IccConstants.EF_SPDI, 0);
+        byte[] spdi = new byte[] {(byte) 0xA3, 0x05, (byte) 0x80, 0x03, 0x13, 0x00, 0x14};
+        assertNull(mCache.get(key));
+
+        mCache.put(key, spdi);
+        assertArrayEquals(spdi, (byte[]) new IccEfCache(mPrefs).get(key));
+    }
+
+    @Test
+    @SmallTest
+    public void testLinearFixedRecordsSurviveReload() {
+        String key = IccEfCache.makeKey(ICCID, PATH, IccConstants.EF_PNN, 0);
+        ArrayList<byte[]> records = new ArrayList<>(Arrays.asList(
+                new byte[] {0x43, 0x03, (byte) 0x85, 0x41, 0x42},
+                new byte[] {(byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF}));
+
+        mCache.put(key, records);
+        Object cached = new IccEfCache(mPrefs).get(key);
+        assertTrue(IccEfCache.contentEquals(records, cached));
+    }
+
+    @Test
+    @SmallTest
+    public void testReturnedContentIsACopy() {
+        String key = IccEfCache.makeKey(ICCID, PATH, IccConstants.EF_GID1, 0);
+        mCache.put(key, new byte[] {0x01, 0x02});
+
+        byte[] first = (byte[]) mCache.get(key);
+        first[0] = 0x7F;
+        assertArrayEquals(new byte[] {0x01, 0x02}, (byte[]) mCache.get(key));
+    }
+
+    @Test
+    @SmallTest
+    public void testInvalidateSingleEf() {
+        String spdi = IccEfCache.makeKey(ICCID, PATH, IccConstants.EF_SPDI, 0);
+        String gid1 = IccEfCache.makeKey(ICCID, PATH, IccConstants.EF_GID1, 0);
+        mCache.put(spdi, new byte[] {0x01});
+        mCache.put(gid1, new byte[] {0x02});
+
+        mCache.invalidate(ICCID, IccConstants.EF_SPDI);
+        assertNull(mCache.get(spdi));
+        assertNotNull(mCache.get(gid1));
+        assertNull(new IccEfCache(mPrefs).get(spdi));
+    }
+
+    @Test
+    @SmallTest
+    public void testInvalidateCard() {
+        String key = IccEfCache.makeKey(ICCID, PATH, IccConstants.EF_SPDI, 0);
+        mCache.put(key, new byte[] {0x01});
+
+        mCache.invalidate(ICCID);
+        assertNull(mCache.get(key));
+        assertNull(new IccEfCache(mPrefs).get(key));
+    }
+
+    @Test
+    @SmallTest
+    public void testOldestCardEvicted() {
+        String firstKey = null;
+        for (int i = 0; i <= IccEfCache.MAX_CACHED_ICCIDS; i++) {
+            String key = IccEfCache.makeKey(ICCID + i, PATH, IccConstants.EF_SPDI, 0);
+            if (firstKey == null) firstKey = key;
+            mCache.put(key, new byte[] {(byte) i});
+        }
+
+        assertNull(mCache.get(firstKey));
+        String lastKey = IccEfCache.makeKey(ICCID + IccEfCache.MAX_CACHED_ICCIDS, PATH,
+                IccConstants.EF_SPDI, 0);
+        assertArrayEquals(new byte[] {(byte) IccEfCache.MAX_CACHED_ICCIDS},
+                (byte[]) new IccEfCache(mPrefs).get(lastKey));
+    }
+
+    @Test
+    @SmallTest
+    public void testContentEquals() {
+        assertTrue(IccEfCache.contentEquals(new byte[] {0x01}, new byte[] {0x01}));
+        assertFalse(IccEfCache.contentEquals(new byte[] {0x01}, new byte[] {0x02}));
+        assertFalse(IccEfCache.contentEquals(null, new byte[] {0x01}));
+        assertEquals(false, IccEfCache.contentEquals(new byte[] {0x01},
+                new ArrayList<>(Arrays.asList(new byte[] {0x01}))));
+    }
+}
@@ -15,19 +15,27 @@
  */
 package com.android.internal.telephony.uicc;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.anyInt;
 import static org.mockito.Mockito.anyString;
 import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 
+import android.content.pm.PackageInfo;
 import android.content.pm.Signature;
 import android.os.AsyncResult;
 import android.os.Handler;
 import android.os.HandlerThread;
 import android.os.Message;
+import android.telephony.TelephonyManager;
+import android.telephony.UiccAccessRule;
 import android.test.suitebuilder.annotation.SmallTest;
 
 import com.android.internal.telephony.TelephonyTest;
@@ -39,6 +47,8 @@ import org.mockito.Mock;
 import org.mockito.invocation.InvocationOnMock;
 import org.mockito.stubbing.Answer;
 
+import java.util.List;
+
 public class UiccCarrierPrivilegeRulesTest extends TelephonyTest {
     private UiccCarrierPrivilegeRules mUiccCarrierPrivilegeRules;
     public UiccCarrierPrivilegeRulesTest() {
@@ -617,4 +627,146 @@ public class UiccCarrierPrivilegeRulesTest extends TelephonyTest {
         assertEquals(0, mUiccCarrierPrivilegeRules.getCarrierPrivilegeStatus(signature,
                 mUiccCarrierPrivilegeRules.getPackageNames().get(0)));
     }
+
+    @Test
+    @SmallTest
+    public void testCarrierPrivilegeStatusCachedPerPackage() throws Exception {
+        final String hexString =
+                "FF4045E243E135C11432825EB98DE842EE3E4DF005A07B7D65522A46A0CA1D636F6D2E676F6F676"
+                        + "C652E616E64726F69642E617070732E6D79617070E30ADB080000000000000001";
+        final String packageName = "com.google.android.apps.myapp";
+        testHelper(hexString);
+
+        PackageInfo packageInfo = new PackageInfo();
+        packageInfo.packageName = packageName;
+        packageInfo.signatures = new Signature[] {new Signature("abcd")};
+        packageInfo.lastUpdateTime = 1000;
+        doReturn(packageInfo).when(mPackageManager).getPackageInfo(eq(packageName), anyInt());
+
+        assertEquals(TelephonyManager.CARRIER_PRIVILEGE_STATUS_HAS_ACCESS,
+                mUiccCarrierPrivilegeRules.getCarrierPrivilegeStatus(mPackageManager,
+                        packageName));
+        assertEquals(TelephonyManager.CARRIER_PRIVILEGE_STATUS_HAS_ACCESS,
+                mUiccCarrierPrivilegeRules.getCarrierPrivilegeStatus(mPackageManager,
+                        packageName));
+        // The package info is read on every lookup.
+        verify(mPackageManager, times(2)).getPackageInfo(eq(packageName), anyInt());
+
+        // A package replaced with another certificate loses the privilege before the package
+        // broadcast is received: the update time of the new install does not match the cached
+        // digest.
+        PackageInfo replacedInfo = new PackageInfo();
+        replacedInfo.packageName = packageName;
+        replacedInfo.signatures = new Signature[] {new Signature("ef01")};
+        replacedInfo.lastUpdateTime = 2000;
+        doReturn(replacedInfo).when(mPackageManager).getPackageInfo(eq(packageName), anyInt());
+        assertEquals(TelephonyManager.CARRIER_PRIVILEGE_STATUS_NO_ACCESS,
+                mUiccCarrierPrivilegeRules.getCarrierPrivilegeStatus(mPackageManager,
+                        packageName));
+
+        mUiccCarrierPrivilegeRules.onPackageChanged(packageName);
+        assertEquals(TelephonyManager.CARRIER_PRIVILEGE_STATUS_NO_ACCESS,
+                mUiccCarrierPrivilegeRules.getCarrierPrivilegeStatus(mPackageManager,
+                        packageName));
+    }
+
+    @Test
+    @SmallTest
+    public void testCarrierPrivilegeStatusCacheChecksSignatures() {
+        /**
+         * FF40 45
+         *   E2 43
+         *      E1 35
+         *         C1 14 32825EB98DE842EE3E4DF005A07B7D65522A46A0 (SHA-1 of "abcd")
+         *         CA 1D 636F6D2E676F6F676C652E616E64726F69642E617070732E6D79617070
+         *      E3 0A
+         *         DB 08 0000000000000001
+         */
+        final String hexString =
+                "FF4045E243E135C11432825EB98DE842EE3E4DF005A07B7D65522A46A0CA1D636F6D2E676F6F676"
+                        + "C652E616E64726F69642E617070732E6D79617070E30ADB080000000000000001";
+        final String packageName = "com.google.android.apps.myapp";
+        testHelper(hexString);
+
+        PackageInfo packageInfo = new PackageInfo();
+        packageInfo.packageName = packageName;
+        packageInfo.signatures = new Signature[] {new Signature("abcd")};
+        assertEquals(TelephonyManager.CARRIER_PRIVILEGE_STATUS_HAS_ACCESS,
+                mUiccCarrierPrivilegeRules.getCarrierPrivilegeStatus(packageInfo));
+        assertEquals(TelephonyManager.CARRIER_PRIVILEGE_STATUS_HAS_ACCESS,
+                mUiccCarrierPrivilegeRules.getCarrierPrivilegeStatus(packageInfo));
+
+        // Same package name signed with another certificate must not reuse the decision.
+        PackageInfo otherInfo = new PackageInfo();
+        otherInfo.packageName = packageName;
+        otherInfo.signatures = new Signature[] {new Signature("ef01")};
+        assertEquals(TelephonyManager.CARRIER_PRIVILEGE_STATUS_NO_ACCESS,
+                mUiccCarrierPrivilegeRules.getCarrierPrivilegeStatus(otherInfo));
+    }
+
+    @Test
+    @SmallTest
+    public void testBerTlvReader_MultiByteTagAndLength() {
+        // FF40 81 03 | E2 01 00
+        byte[] data = IccUtils.hexStringToBytes("FF408103E20100");
+        UiccCarrierPrivilegeRules.BerTlvReader reader =
+                new UiccCarrierPrivilegeRules.BerTlvReader(data);
+        assertEquals(0xFF40, reader.peekTag());
+        reader.next(0xFF40);
+        assertEquals(2, reader.getLengthSize());
+        assertEquals(3, reader.getValueLength());
+        assertFalse(reader.hasNext());
+
+        UiccCarrierPrivilegeRules.BerTlvReader value = reader.valueReader();
+        value.next(0xE2);
+        assertArrayEquals(new byte[] {0x00}, value.getValue());
+        assertFalse(value.hasNext());
+
+        assertEquals(7, UiccCarrierPrivilegeRules.BerTlvReader.getEncodedLength(data, 3));
+        assertEquals(-1, UiccCarrierPrivilegeRules.BerTlvReader.getEncodedLength(data, 2));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    @SmallTest
+    public void testBerTlvReader_NotEnoughData() {
+        new UiccCarrierPrivilegeRules.BerTlvReader(IccUtils.hexStringToBytes("E20500")).next();
+    }
+
+    @Test
+    @SmallTest
+    public void testParseRules_LargeRuleSet() {
+        final int ruleCount = 200;
+        byte[] rules = IccUtils.hexStringToBytes(buildRules(ruleCount));
+
+        List<UiccAccessRule> accessRules = UiccCarrierPrivilegeRules.parseRules(rules);
+        assertEquals(ruleCount, accessRules.size());
+        assertEquals("com.example.carrier0", accessRules.get(0).getPackageName());
+        assertEquals("com.example.carrier199",
+                accessRules.get(ruleCount - 1).getPackageName());
+    }
+
+    /**
+     * Builds an ALL-REF-AR-DO with {@code count} rules of the form
+     *   E2 len
+     *      E1 len
+     *         C1 14 (20 byte certificate hash)
+     *         CA len com.example.carrierN
+     *      E3 0A
+     *         DB 08 0000000000000001
+     */
+    private static String buildRules(int count) {
+        StringBuilder refArDos = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            String hash = String.format("%040X", i);
+            String pkg = IccUtils.bytesToHexString(("com.example.carrier" + i).getBytes());
+            String refDo = "C114" + hash + "CA" + String.format("%02X", pkg.length() / 2) + pkg;
+            String arDo = "DB080000000000000001";
+            String refArDo = "E1" + String.format("%02X", refDo.length() / 2) + refDo
+                    + "E3" + String.format("%02X", arDo.length() / 2) + arDo;
+            refArDos.append("E2").append(String.format("%02X", refArDo.length() / 2))
+                    .append(refArDo);
+        }
+        int length = refArDos.length() / 2;
+        return "FF4083" + String.format("%06X", length) + refArDos;
+    }
 }